@@ -0,0 +1,125 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc.benchmark;
+
+import com.google.common.net.HostAndPort;
+import org.yb.cdc.ApplyQueue;
+import org.yb.cdc.CdcMetrics;
+import org.yb.cdc.CheckpointStore;
+import org.yb.cdc.InMemoryCheckpointStore;
+import org.yb.cdc.OutputClient;
+import org.yb.cdc.PollScheduler;
+import org.yb.cdc.Poller;
+import org.yb.client.AsyncYBClient;
+import org.yb.client.LocatedTablet;
+import org.yb.client.YBClient;
+import org.yb.client.YBTable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wires pollers and apply queues to the tablets of a {@link FakeCdcServer} the way the connector
+ * does, without its table discovery and checkpointing, so that the benchmarks measure the polling
+ * and applying path only.
+ */
+public class BenchmarkConnector implements AutoCloseable {
+  private static final int DEFAULT_TIMEOUT = 30000;
+  private static final int DEFAULT_NUM_THREADS = 8;
+  private static final long QUEUE_HIGH_WATERMARK = 10000;
+  private static final long QUEUE_LOW_WATERMARK = 5000;
+  private static final long MAX_POLL_DELAY_MS = 1000;
+
+  private final AsyncYBClient client;
+  private final YBClient syncClient;
+  private final ScheduledExecutorService executor;
+  private final ScheduledExecutorService applyExecutor;
+  private final PollScheduler scheduler;
+  private final CdcMetrics metrics = new CdcMetrics();
+  private final List<HostAndPort> hps;
+  private final YBTable table;
+  private final List<LocatedTablet> tablets;
+  private final int maxRecords;
+
+  /**
+   * Connects to the server and looks up its tablets.
+   * @param maxRecords the most records to ask for in each poll
+   */
+  public BenchmarkConnector(FakeCdcServer server, int maxRecords,
+                            int maxInflightPollsPerTserver) throws Exception {
+    this.client = new AsyncYBClient.AsyncYBClientBuilder(server.getHostAndPort().toString())
+        .defaultAdminOperationTimeoutMs(DEFAULT_TIMEOUT)
+        .defaultOperationTimeoutMs(DEFAULT_TIMEOUT)
+        .defaultSocketReadTimeoutMs(DEFAULT_TIMEOUT)
+        .build();
+    this.syncClient = new YBClient(client);
+    this.executor = Executors.newScheduledThreadPool(DEFAULT_NUM_THREADS);
+    this.applyExecutor = Executors.newScheduledThreadPool(DEFAULT_NUM_THREADS);
+    this.scheduler = new PollScheduler(maxInflightPollsPerTserver, executor);
+    this.hps = Collections.singletonList(server.getHostAndPort());
+    this.table = syncClient.openTableByUUID(FakeCdcServer.TABLE_ID);
+    this.tablets = table.getTabletsLocations(DEFAULT_TIMEOUT);
+    this.maxRecords = maxRecords;
+  }
+
+  public int getNumTablets() {
+    return tablets.size();
+  }
+
+  public CdcMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Starts polling every tablet from the start of its log.
+   * @return the pollers, to {@link #stop} them
+   */
+  public List<Poller> start(OutputClient outputClient) {
+    CheckpointStore checkpoints = new InMemoryCheckpointStore();
+    List<Poller> pollers = new ArrayList<>();
+    for (LocatedTablet tablet : tablets) {
+      String tabletId = new String(tablet.getTabletId());
+      ApplyQueue applyQueue = new ApplyQueue(outputClient, table, FakeCdcServer.STREAM_ID,
+                                             tabletId, checkpoints, metrics, applyExecutor,
+                                             QUEUE_HIGH_WATERMARK, QUEUE_LOW_WATERMARK);
+      pollers.add(new Poller(applyQueue, hps, table, FakeCdcServer.STREAM_ID, tablet, executor,
+                             client, maxRecords, MAX_POLL_DELAY_MS, metrics, checkpoints,
+                             scheduler));
+    }
+    for (Poller poller : pollers) {
+      poller.poll();
+    }
+    return pollers;
+  }
+
+  public void stop(List<Poller> pollers) {
+    for (Poller poller : pollers) {
+      poller.stop();
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    // The polls still in flight fail, and the stopped pollers don't send new ones.
+    syncClient.close();
+    executor.shutdownNow();
+    applyExecutor.shutdownNow();
+    executor.awaitTermination(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+    applyExecutor.awaitTermination(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+}
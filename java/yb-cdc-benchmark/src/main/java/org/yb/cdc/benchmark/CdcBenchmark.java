@@ -0,0 +1,179 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc.benchmark;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.log4j.Logger;
+import org.yb.cdc.OutputClient;
+import org.yb.cdc.Poller;
+import org.yb.cdc.SegmentedFileSink;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the pollers against a {@link FakeCdcServer} for a while, and reports the records per
+ * second they applied and how much memory they allocated doing so.
+ * <p>
+ * Unlike {@link PollerBenchmark}, this runs the consumer continuously, like the connector does,
+ * and it can write the changes to a {@link SegmentedFileSink} to include the output client in
+ * the measurement. Run it with:
+ * <pre>
+ * mvn package exec:java -Dexec.mainClass=org.yb.cdc.benchmark.CdcBenchmark \
+ *     -Dexec.args="--num_tablets 8 --duration_s 60"
+ * </pre>
+ */
+public class CdcBenchmark {
+  private static final Logger LOG = Logger.getLogger(CdcBenchmark.class);
+
+  private static final long MB = 1 << 20;
+
+  /** What all the threads allocated and how the collectors did at some point. */
+  private static class Snapshot {
+    final long nanos = System.nanoTime();
+    final long records;
+    final long allocatedBytes;
+    final long gcCount;
+    final long gcMillis;
+
+    Snapshot(CountingOutputClient outputClient) {
+      records = outputClient.getRecords();
+      allocatedBytes = allocatedBytes();
+      long count = 0;
+      long millis = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        count += Math.max(gc.getCollectionCount(), 0);
+        millis += Math.max(gc.getCollectionTime(), 0);
+      }
+      gcCount = count;
+      gcMillis = millis;
+    }
+
+    /**
+     * @return the bytes allocated by the live threads, or -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+      java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+        return -1;
+      }
+      com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+      long total = 0;
+      for (long bytes : hotspot.getThreadAllocatedBytes(hotspot.getAllThreadIds())) {
+        total += Math.max(bytes, 0);
+      }
+      return total;
+    }
+  }
+
+  private static int intOption(CommandLine commandLine, String name, int defaultValue)
+      throws Exception {
+    if (!commandLine.hasOption(name)) {
+      return defaultValue;
+    }
+    int value = Integer.parseInt(commandLine.getOptionValue(name));
+    if (value <= 0) {
+      throw new Exception(String.format("--%s must be positive", name));
+    }
+    return value;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new Options();
+    options.addOption("num_tablets", true, "Number of tablets to poll. Default is 8");
+    options.addOption("records_per_batch", true,
+            "Most records returned by a poll. Default is 1000");
+    options.addOption("key_columns", true, "Number of key columns of a record. Default is 1");
+    options.addOption("value_columns", true,
+            "Number of value columns changed by a record. Default is 4");
+    options.addOption("value_size", true, "Size of each value, in bytes. Default is 32");
+    options.addOption("max_inflight_polls_per_tserver", true,
+            "Maximum number of polls in flight to the server. Default is 8");
+    options.addOption("warmup_s", true,
+            "How long to run before measuring, in seconds. Default is 10");
+    options.addOption("duration_s", true, "How long to measure, in seconds. Default is 30");
+    options.addOption("sink_dir", true,
+            "Optional directory to write the changes to with a segmented file sink, instead of " +
+            "dropping them");
+    options.addOption("sink_compression", true,
+            "Compression of the segment files, none or deflate. Default is none");
+    options.addOption("decode_rows", false,
+            "Decode the changes into rows and read their columns before applying them");
+    options.addOption("help", false, "Print this help");
+
+    CommandLine commandLine = new BasicParser().parse(options, args);
+    if (commandLine.hasOption("help")) {
+      new HelpFormatter().printHelp("CdcBenchmark", options);
+      return;
+    }
+    int numTablets = intOption(commandLine, "num_tablets", 8);
+    int recordsPerBatch = intOption(commandLine, "records_per_batch", 1000);
+    int warmupSeconds = intOption(commandLine, "warmup_s", 10);
+    int durationSeconds = intOption(commandLine, "duration_s", 30);
+
+    OutputClient sink = null;
+    if (commandLine.hasOption("sink_dir")) {
+      SegmentedFileSink.Compression compression = SegmentedFileSink.Compression.valueOf(
+          commandLine.getOptionValue("sink_compression", "none").toUpperCase());
+      sink = new SegmentedFileSink(commandLine.getOptionValue("sink_dir"), 64 << 20,
+                                   compression, SegmentedFileSink.FsyncPolicy.NEVER, 1000);
+    }
+    if (commandLine.hasOption("decode_rows")) {
+      sink = new DecodingOutputClient(sink);
+    }
+    CountingOutputClient outputClient = new CountingOutputClient(sink, 0);
+
+    try (FakeCdcServer server = new FakeCdcServer.Builder()
+             .numTablets(numTablets)
+             .recordsPerBatch(recordsPerBatch)
+             .keyColumns(intOption(commandLine, "key_columns", 1))
+             .valueColumns(intOption(commandLine, "value_columns", 4))
+             .valueSize(intOption(commandLine, "value_size", 32))
+             .build()
+             .start();
+         BenchmarkConnector connector = new BenchmarkConnector(
+             server, recordsPerBatch,
+             intOption(commandLine, "max_inflight_polls_per_tserver", 8))) {
+      List<Poller> pollers = connector.start(outputClient);
+      TimeUnit.SECONDS.sleep(warmupSeconds);
+      connector.getMetrics().tick();
+      Snapshot start = new Snapshot(outputClient);
+      TimeUnit.SECONDS.sleep(durationSeconds);
+      Snapshot end = new Snapshot(outputClient);
+      connector.getMetrics().tick();
+      connector.getMetrics().report();
+      connector.stop(pollers);
+
+      double seconds = (end.nanos - start.nanos) / 1e9;
+      long records = end.records - start.records;
+      LOG.info(String.format("Applied %d records from %d tablets in %.1f s: %.0f records/s",
+                             records, connector.getNumTablets(), seconds, records / seconds));
+      if (start.allocatedBytes >= 0) {
+        long allocated = end.allocatedBytes - start.allocatedBytes;
+        LOG.info(String.format("Allocated %.1f MB/s, %d bytes per record",
+                               allocated / seconds / MB,
+                               records == 0 ? 0 : allocated / records));
+      }
+      LOG.info(String.format("%d garbage collections taking %d ms",
+                             end.gcCount - start.gcCount, end.gcMillis - start.gcMillis));
+    } finally {
+      outputClient.close();
+    }
+  }
+}
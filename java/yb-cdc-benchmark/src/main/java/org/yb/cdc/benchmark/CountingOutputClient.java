@@ -0,0 +1,79 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc.benchmark;
+
+import org.yb.cdc.CdcService;
+import org.yb.cdc.Checkpoint;
+import org.yb.cdc.OutputClient;
+import org.yb.client.YBTable;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the changes applied, and hands them to another output client if there is one, so that
+ * the benchmarks can tell when they consumed what they wanted to.
+ */
+public class CountingOutputClient implements OutputClient {
+  private final OutputClient delegate;
+  private final long target;
+  private final AtomicLong records = new AtomicLong();
+  private final CountDownLatch reached = new CountDownLatch(1);
+
+  /**
+   * @param delegate where to apply the changes, or null to drop them
+   * @param target the number of changes {@link #await} waits for, or 0 to never stop
+   */
+  public CountingOutputClient(OutputClient delegate, long target) {
+    this.delegate = delegate;
+    this.target = target;
+  }
+
+  @Override
+  public void applyChanges(YBTable table, String tabletId,
+                           List<CdcService.CDCRecordPB> changeRecords,
+                           Checkpoint checkpoint) throws Exception {
+    if (delegate != null) {
+      delegate.applyChanges(table, tabletId, changeRecords, checkpoint);
+    }
+    count(changeRecords.size());
+  }
+
+  private void count(int n) {
+    if (records.addAndGet(n) >= target && target > 0) {
+      reached.countDown();
+    }
+  }
+
+  public long getRecords() {
+    return records.get();
+  }
+
+  /**
+   * Waits until the target number of changes was applied.
+   * @return whether it was, false if the timeout expired first
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return reached.await(timeout, unit);
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (delegate != null) {
+      delegate.close();
+    }
+  }
+}
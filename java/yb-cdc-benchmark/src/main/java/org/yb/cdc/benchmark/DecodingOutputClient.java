@@ -0,0 +1,107 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc.benchmark;
+
+import org.yb.Schema;
+import org.yb.cdc.CdcRow;
+import org.yb.cdc.CdcService;
+import org.yb.cdc.Checkpoint;
+import org.yb.cdc.OutputClient;
+import org.yb.cdc.RowDecoder;
+import org.yb.client.YBTable;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decodes the changes into rows and reads each of their columns, the way an output client that
+ * converts them to another format would, before handing them to another output client, if there
+ * is one.
+ * <p>
+ * Each table gets one {@link RowDecoder}, and each batch one {@link CdcRow} reused for all its
+ * records, since batches of different tablets can be applied concurrently.
+ */
+public class DecodingOutputClient implements OutputClient {
+  private final OutputClient delegate;
+  private final ConcurrentMap<String, RowDecoder> decoders = new ConcurrentHashMap<>();
+  // Sums what was read, so that the reads can't be optimized away.
+  private volatile long checksum;
+
+  /**
+   * @param delegate where to apply the changes, or null to drop them
+   */
+  public DecodingOutputClient(OutputClient delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void applyChanges(YBTable table, String tabletId,
+                           List<CdcService.CDCRecordPB> changeRecords,
+                           Checkpoint checkpoint) throws Exception {
+    RowDecoder decoder = decoders.get(table.getTableId());
+    if (decoder == null) {
+      decoder = new RowDecoder(table.getSchema());
+      RowDecoder previous = decoders.putIfAbsent(table.getTableId(), decoder);
+      if (previous != null) {
+        decoder = previous;
+      }
+    }
+    long sum = 0;
+    CdcRow row = decoder.newRow();
+    for (int i = 0; i < changeRecords.size(); i++) {
+      decoder.decode(changeRecords.get(i), row);
+      for (int j = 0; j < row.getNumPresent(); j++) {
+        sum += read(row, row.getPresentColumn(j));
+      }
+    }
+    checksum += sum;
+    if (delegate != null) {
+      delegate.applyChanges(table, tabletId, changeRecords, checkpoint);
+    }
+  }
+
+  private static long read(CdcRow row, int columnIndex) {
+    if (row.isNull(columnIndex)) {
+      return 0;
+    }
+    Schema schema = row.getSchema();
+    switch (schema.getColumnByIndex(columnIndex).getType()) {
+      case INT8: return row.getByte(columnIndex);
+      case INT16: return row.getShort(columnIndex);
+      case INT32: return row.getInt(columnIndex);
+      case INT64: case TIMESTAMP: case TIME: return row.getLong(columnIndex);
+      case BOOL: return row.getBoolean(columnIndex) ? 1 : 0;
+      case FLOAT: return Float.floatToRawIntBits(row.getFloat(columnIndex));
+      case DOUBLE: return Double.doubleToRawLongBits(row.getDouble(columnIndex));
+      case DATE: return row.getDate(columnIndex);
+      case STRING: return row.getString(columnIndex).length();
+      case BINARY: case DECIMAL: case VARINT: case INET: case UUID: case TIMEUUID: case JSONB:
+        return row.getBinary(columnIndex).size();
+      default: return row.getValue(columnIndex).getSerializedSize();
+    }
+  }
+
+  public long getChecksum() {
+    return checksum;
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (delegate != null) {
+      delegate.close();
+    }
+  }
+}
@@ -0,0 +1,477 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc.benchmark;
+
+import com.google.common.net.HostAndPort;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import org.apache.log4j.Logger;
+import org.yb.Common;
+import org.yb.Opid;
+import org.yb.WireProtocol;
+import org.yb.cdc.CdcService;
+import org.yb.consensus.Metadata;
+import org.yb.master.Master;
+import org.yb.rpc.RpcHeader;
+import org.yb.util.HybridTimeUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process server that plays both the master and the tablet server of a universe with one
+ * table, and serves an endless stream of synthetic changes for each of its tablets.
+ * <p>
+ * It speaks the same RPC framing as the real servers: the client's connection header, then
+ * length prefixed frames holding a header and a message, each preceded by its varint length. It
+ * only answers what the connector's polling path needs: finding the master leader, opening the
+ * table and locating its tablets, then {@code GetChanges}, {@code GetLatestEntryOpId} and {@code
+ * UpdateCdcReplicatedIndex}. Every other method gets an error.
+ * <p>
+ * Each {@code GetChanges} returns {@code recordsPerBatch} records, or the number asked for if
+ * less, that follow the checkpoint it was sent from. The records are all the same: a write of
+ * {@code keyColumns} integer key columns and {@code valueColumns} string columns of {@code
+ * valueSize} bytes. They're serialized once per batch size, and only the checkpoint is encoded
+ * for each poll, so that the server costs as little as possible next to the consumer being
+ * measured in the same process.
+ */
+public class FakeCdcServer implements Closeable {
+  private static final Logger LOG = Logger.getLogger(FakeCdcServer.class);
+
+  public static final String TABLE_ID = "00004000000030008000000000004000";
+  public static final String TABLE_NAME = "cdc_benchmark";
+  public static final String NAMESPACE_NAME = "benchmark";
+  public static final String STREAM_ID = "fake_stream";
+
+  private static final byte[] CONNECTION_HEADER = new byte[] { 'Y', 'B', 1 };
+  private static final ByteString SERVER_UUID = ByteString.copyFromUtf8("fake-server");
+  // The size of the hash partition key space, which the tablets split evenly.
+  private static final int NUM_HASH_BUCKETS = 0x10000;
+
+  private final int numTablets;
+  private final int recordsPerBatch;
+  private final int keyColumns;
+  private final int valueColumns;
+  private final int valueSize;
+
+  private final EventLoopGroup group = new NioEventLoopGroup(1);
+  private Channel serverChannel;
+  private HostAndPort hostAndPort;
+
+  // The serialized records of a GetChangesResponsePB, by number of records.
+  private final ConcurrentMap<Integer, byte[]> batches = new ConcurrentHashMap<>();
+  // The highest index served for each tablet, which is what the log is reported to end at.
+  private final ConcurrentMap<ByteString, AtomicLong> latestIndexes = new ConcurrentHashMap<>();
+  private final AtomicLong polls = new AtomicLong();
+  private final AtomicLong recordsServed = new AtomicLong();
+
+  private FakeCdcServer(Builder b) {
+    this.numTablets = b.numTablets;
+    this.recordsPerBatch = b.recordsPerBatch;
+    this.keyColumns = b.keyColumns;
+    this.valueColumns = b.valueColumns;
+    this.valueSize = b.valueSize;
+  }
+
+  /**
+   * Starts listening on a free port of the loopback interface.
+   */
+  public FakeCdcServer start() throws InterruptedException {
+    ServerBootstrap bootstrap = new ServerBootstrap()
+        .group(group)
+        .channel(NioServerSocketChannel.class)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel chan) {
+            chan.pipeline().addLast(new RpcHandler());
+          }
+        });
+    serverChannel = bootstrap.bind("127.0.0.1", 0).sync().channel();
+    InetSocketAddress address = (InetSocketAddress) serverChannel.localAddress();
+    hostAndPort = HostAndPort.fromParts(address.getHostString(), address.getPort());
+    LOG.info(String.format("Fake CDC server listening on %s with %d tablets", hostAndPort,
+                           numTablets));
+    return this;
+  }
+
+  /**
+   * @return the address to use as both the master and the tablet server
+   */
+  public HostAndPort getHostAndPort() {
+    return hostAndPort;
+  }
+
+  public long getPolls() {
+    return polls.get();
+  }
+
+  public long getRecordsServed() {
+    return recordsServed.get();
+  }
+
+  @Override
+  public void close() {
+    if (serverChannel != null) {
+      serverChannel.close().syncUninterruptibly();
+    }
+    group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+  }
+
+  static String tabletId(int i) {
+    return String.format("%032x", i);
+  }
+
+  private static byte[] partitionKey(int bucket) {
+    if (bucket <= 0 || bucket >= NUM_HASH_BUCKETS) {
+      return new byte[0];
+    }
+    return new byte[] { (byte) (bucket >> 8), (byte) bucket };
+  }
+
+  private static int bucket(ByteString partitionKey) {
+    int bucket = 0;
+    for (int i = 0; i < 2; i++) {
+      bucket <<= 8;
+      if (i < partitionKey.size()) {
+        bucket |= partitionKey.byteAt(i) & 0xff;
+      }
+    }
+    return bucket;
+  }
+
+  private Common.HostPortPB hostPortPB() {
+    return Common.HostPortPB.newBuilder()
+        .setHost(hostAndPort.getHost())
+        .setPort(hostAndPort.getPort())
+        .build();
+  }
+
+  private Master.GetMasterRegistrationResponsePB getMasterRegistration() {
+    return Master.GetMasterRegistrationResponsePB.newBuilder()
+        .setInstanceId(WireProtocol.NodeInstancePB.newBuilder()
+            .setPermanentUuid(SERVER_UUID)
+            .setInstanceSeqno(1))
+        .setRegistration(WireProtocol.ServerRegistrationPB.newBuilder()
+            .addPrivateRpcAddresses(hostPortPB()))
+        .setRole(Metadata.RaftPeerPB.Role.LEADER)
+        .build();
+  }
+
+  private Master.GetTableSchemaResponsePB getTableSchema() {
+    Common.SchemaPB.Builder schema = Common.SchemaPB.newBuilder();
+    Common.PartitionSchemaPB.Builder partitionSchema = Common.PartitionSchemaPB.newBuilder()
+        .setHashSchema(Common.PartitionSchemaPB.HashSchema.MULTI_COLUMN_HASH_SCHEMA);
+    int id = 0;
+    for (int i = 0; i < keyColumns; i++, id++) {
+      schema.addColumns(Common.ColumnSchemaPB.newBuilder()
+          .setId(id)
+          .setName("k" + i)
+          .setType(Common.QLTypePB.newBuilder().setMain(Common.DataType.INT64))
+          .setIsKey(true)
+          .setIsHashKey(true));
+    }
+    for (int i = 0; i < valueColumns; i++, id++) {
+      schema.addColumns(Common.ColumnSchemaPB.newBuilder()
+          .setId(id)
+          .setName("v" + i)
+          .setType(Common.QLTypePB.newBuilder().setMain(Common.DataType.STRING))
+          .setIsNullable(true));
+    }
+    return Master.GetTableSchemaResponsePB.newBuilder()
+        .setSchema(schema)
+        .setPartitionSchema(partitionSchema)
+        .setCreateTableDone(true)
+        .setTableType(Common.TableType.YQL_TABLE_TYPE)
+        .setIdentifier(Master.TableIdentifierPB.newBuilder()
+            .setTableId(ByteString.copyFromUtf8(TABLE_ID))
+            .setTableName(TABLE_NAME)
+            .setNamespace(Master.NamespaceIdentifierPB.newBuilder().setName(NAMESPACE_NAME)))
+        .build();
+  }
+
+  private Master.GetTableLocationsResponsePB getTableLocations(
+      Master.GetTableLocationsRequestPB request) {
+    Master.GetTableLocationsResponsePB.Builder response =
+        Master.GetTableLocationsResponsePB.newBuilder()
+            .setTableType(Common.TableType.YQL_TABLE_TYPE);
+    int requestBucket = bucket(request.getPartitionKeyStart());
+    for (int i = 0; i < numTablets; i++) {
+      int startBucket = i * NUM_HASH_BUCKETS / numTablets;
+      int endBucket = (i + 1) * NUM_HASH_BUCKETS / numTablets;
+      // Skip the tablets that end before the start of the range asked for.
+      if (endBucket <= requestBucket) {
+        continue;
+      }
+      if (response.getTabletLocationsCount() >= request.getMaxReturnedLocations()) {
+        break;
+      }
+      response.addTabletLocationsBuilder()
+          .setTabletId(ByteString.copyFromUtf8(tabletId(i)))
+          .setPartition(Common.PartitionPB.newBuilder()
+              .setPartitionKeyStart(ByteString.copyFrom(partitionKey(startBucket)))
+              .setPartitionKeyEnd(ByteString.copyFrom(partitionKey(endBucket))))
+          .setStale(false)
+          .addReplicasBuilder()
+              .setRole(Metadata.RaftPeerPB.Role.LEADER)
+              .getTsInfoBuilder()
+                  .setPermanentUuid(SERVER_UUID)
+                  .addPrivateRpcAddresses(hostPortPB());
+    }
+    return response.build();
+  }
+
+  /**
+   * @return the records of a batch of the given size, serialized as a GetChangesResponsePB
+   */
+  private byte[] batch(int numRecords) {
+    byte[] batch = batches.get(numRecords);
+    if (batch != null) {
+      return batch;
+    }
+    long time = HybridTimeUtil.clockTimestampToHTTimestamp(System.currentTimeMillis(),
+                                                           TimeUnit.MILLISECONDS);
+    CdcService.CDCRecordPB.Builder record = CdcService.CDCRecordPB.newBuilder()
+        .setTime(time)
+        .setOperation(CdcService.CDCRecordPB.OperationType.WRITE);
+    for (int i = 0; i < keyColumns; i++) {
+      record.addKey(CdcService.KeyValuePairPB.newBuilder()
+          .setKey(ByteString.copyFromUtf8("k" + i))
+          .setValue(Common.QLValuePB.newBuilder().setInt64Value(i)));
+    }
+    StringBuilder value = new StringBuilder(valueSize);
+    for (int i = 0; i < valueSize; i++) {
+      value.append((char) ('a' + i % 26));
+    }
+    for (int i = 0; i < valueColumns; i++) {
+      record.addChanges(CdcService.KeyValuePairPB.newBuilder()
+          .setKey(ByteString.copyFromUtf8("v" + i))
+          .setValue(Common.QLValuePB.newBuilder().setStringValue(value.toString())));
+    }
+    CdcService.CDCRecordPB built = record.build();
+    CdcService.GetChangesResponsePB.Builder response = CdcService.GetChangesResponsePB.newBuilder();
+    for (int i = 0; i < numRecords; i++) {
+      response.addRecords(built);
+    }
+    batch = response.build().toByteArray();
+    batches.putIfAbsent(numRecords, batch);
+    return batch;
+  }
+
+  /**
+   * Writes the response to a GetChanges. Protobuf merges concatenated messages, so the records
+   * serialized beforehand are followed by a message holding only the new checkpoint.
+   */
+  private void writeGetChanges(ChannelHandlerContext ctx, int callId,
+                               CdcService.GetChangesRequestPB request) throws IOException {
+    int numRecords = recordsPerBatch;
+    if (request.getMaxRecords() > 0) {
+      numRecords = Math.min(numRecords, request.getMaxRecords());
+    }
+    long index = request.getFromCheckpoint().getOpId().getIndex() + numRecords;
+    byte[] records = batch(numRecords);
+    byte[] checkpoint = CdcService.GetChangesResponsePB.newBuilder()
+        .setCheckpoint(CdcService.CDCCheckpointPB.newBuilder()
+            .setOpId(Opid.OpIdPB.newBuilder().setTerm(1).setIndex(index)))
+        .build()
+        .toByteArray();
+
+    polls.incrementAndGet();
+    recordsServed.addAndGet(numRecords);
+    AtomicLong latest = latestIndexes.get(request.getTabletId());
+    if (latest == null) {
+      latestIndexes.putIfAbsent(request.getTabletId(), new AtomicLong());
+      latest = latestIndexes.get(request.getTabletId());
+    }
+    long previous;
+    while ((previous = latest.get()) < index && !latest.compareAndSet(previous, index)) {
+    }
+
+    CompositeByteBuf frame = ctx.alloc().compositeBuffer(3);
+    frame.addComponent(true, prefix(ctx, callId, false, records.length + checkpoint.length));
+    frame.addComponent(true, Unpooled.wrappedBuffer(records));
+    frame.addComponent(true, Unpooled.wrappedBuffer(checkpoint));
+    ctx.writeAndFlush(frame, ctx.voidPromise());
+  }
+
+  /**
+   * @return the start of a response frame: its length, and the response header followed by the
+   *         length of the message
+   */
+  private static ByteBuf prefix(ChannelHandlerContext ctx, int callId, boolean isError,
+                                int messageSize) throws IOException {
+    RpcHeader.ResponseHeader header = RpcHeader.ResponseHeader.newBuilder()
+        .setCallId(callId)
+        .setIsError(isError)
+        .build();
+    int headerSize = header.getSerializedSize();
+    int prefixSize = CodedOutputStream.computeUInt32SizeNoTag(headerSize) + headerSize +
+                     CodedOutputStream.computeUInt32SizeNoTag(messageSize);
+    byte[] bytes = new byte[prefixSize];
+    CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+    out.writeUInt32NoTag(headerSize);
+    header.writeTo(out);
+    out.writeUInt32NoTag(messageSize);
+    out.checkNoSpaceLeft();
+    ByteBuf prefix = ctx.alloc().buffer(4 + prefixSize);
+    prefix.writeInt(prefixSize + messageSize);
+    prefix.writeBytes(bytes);
+    return prefix;
+  }
+
+  private static void write(ChannelHandlerContext ctx, int callId, boolean isError,
+                            Message message) throws IOException {
+    byte[] bytes = message.toByteArray();
+    CompositeByteBuf frame = ctx.alloc().compositeBuffer(2);
+    frame.addComponent(true, prefix(ctx, callId, isError, bytes.length));
+    frame.addComponent(true, Unpooled.wrappedBuffer(bytes));
+    ctx.writeAndFlush(frame, ctx.voidPromise());
+  }
+
+  /**
+   * Decodes the requests of a connection, and answers them right away on its event loop.
+   */
+  private final class RpcHandler extends ByteToMessageDecoder {
+    private boolean connectionHeaderRead = false;
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+        throws Exception {
+      if (!connectionHeaderRead) {
+        if (in.readableBytes() < CONNECTION_HEADER.length) {
+          return;
+        }
+        in.skipBytes(CONNECTION_HEADER.length);
+        connectionHeaderRead = true;
+      }
+      while (in.readableBytes() >= 4 && in.readableBytes() >= 4 + in.getInt(in.readerIndex())) {
+        int size = in.readInt();
+        InputStream frame = new ByteBufInputStream(in.readSlice(size));
+        RpcHeader.RequestHeader header = RpcHeader.RequestHeader.parseDelimitedFrom(frame);
+        handle(ctx, header.getCallId(), header.getRemoteMethod().getMethodName(), frame);
+      }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      // The client resets its connections when it's closed.
+      LOG.debug("Closing a connection of the fake CDC server", cause);
+      ctx.close();
+    }
+
+    private void handle(ChannelHandlerContext ctx, int callId, String method, InputStream frame)
+        throws IOException {
+      switch (method) {
+        case "GetMasterRegistration":
+          write(ctx, callId, false, getMasterRegistration());
+          break;
+        case "GetTableSchema":
+          write(ctx, callId, false, getTableSchema());
+          break;
+        case "GetTableLocations":
+          write(ctx, callId, false,
+                getTableLocations(Master.GetTableLocationsRequestPB.parseDelimitedFrom(frame)));
+          break;
+        case "GetChanges":
+          writeGetChanges(ctx, callId, CdcService.GetChangesRequestPB.parseDelimitedFrom(frame));
+          break;
+        case "GetLatestEntryOpId": {
+          ByteString tabletId =
+              CdcService.GetLatestEntryOpIdRequestPB.parseDelimitedFrom(frame).getTabletId();
+          AtomicLong latest = latestIndexes.get(tabletId);
+          write(ctx, callId, false, CdcService.GetLatestEntryOpIdResponsePB.newBuilder()
+              .setOpId(Opid.OpIdPB.newBuilder()
+                  .setTerm(1)
+                  .setIndex(latest == null ? 0 : latest.get()))
+              .build());
+          break;
+        }
+        case "UpdateCdcReplicatedIndex":
+          write(ctx, callId, false,
+                CdcService.UpdateCdcReplicatedIndexResponsePB.getDefaultInstance());
+          break;
+        default:
+          LOG.warn(String.format("Fake CDC server got an unexpected call to %s", method));
+          write(ctx, callId, true, RpcHeader.ErrorStatusPB.newBuilder()
+              .setMessage("The fake CDC server doesn't implement " + method)
+              .setCode(RpcHeader.ErrorStatusPB.RpcErrorCodePB.ERROR_NO_SUCH_METHOD)
+              .build());
+      }
+    }
+  }
+
+  /**
+   * Builder for {@link FakeCdcServer}.
+   */
+  public static class Builder {
+    private int numTablets = 1;
+    private int recordsPerBatch = 1000;
+    private int keyColumns = 1;
+    private int valueColumns = 4;
+    private int valueSize = 32;
+
+    /** Number of tablets of the table. Default is 1. */
+    public Builder numTablets(int numTablets) {
+      this.numTablets = numTablets;
+      return this;
+    }
+
+    /** Most records returned by a poll. Default is 1000. */
+    public Builder recordsPerBatch(int recordsPerBatch) {
+      this.recordsPerBatch = recordsPerBatch;
+      return this;
+    }
+
+    /** Number of key columns of the records. Default is 1. */
+    public Builder keyColumns(int keyColumns) {
+      this.keyColumns = keyColumns;
+      return this;
+    }
+
+    /** Number of value columns changed by each record. Default is 4. */
+    public Builder valueColumns(int valueColumns) {
+      this.valueColumns = valueColumns;
+      return this;
+    }
+
+    /** Size of each value, in bytes. Default is 32. */
+    public Builder valueSize(int valueSize) {
+      this.valueSize = valueSize;
+      return this;
+    }
+
+    public FakeCdcServer build() {
+      return new FakeCdcServer(this);
+    }
+  }
+}
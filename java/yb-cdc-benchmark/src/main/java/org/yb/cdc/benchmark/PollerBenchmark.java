@@ -0,0 +1,116 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.yb.cdc.Poller;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many records per second the pollers read from a {@link FakeCdcServer} and hand
+ * to an output client that drops them, which covers the RPCs, the decoding of the responses, the
+ * apply queues and the metrics. Each operation is one record.
+ * <p>
+ * Run it with:
+ * <pre>
+ * mvn package exec:java -Dexec.mainClass=org.yb.cdc.benchmark.PollerBenchmark
+ * </pre>
+ * The records are read and applied on the connector's threads, so {@code gc.alloc.rate.norm},
+ * which only counts the benchmark's thread, stays near 0. The bytes allocated per record are
+ * {@code gc.churn.*.norm} instead. They include what the fake server allocates, which is little
+ * next to the consumer since it serializes each batch of records only once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PollerBenchmark {
+
+  /** Records consumed by each invocation. */
+  private static final int RECORDS_PER_INVOCATION = 100000;
+
+  @Param({"1", "8"})
+  int numTablets;
+
+  @Param({"100", "1000"})
+  int recordsPerBatch;
+
+  /** Size of each of the 4 changed values of a record. */
+  @Param({"32", "1024"})
+  int valueSize;
+
+  private FakeCdcServer server;
+  private BenchmarkConnector connector;
+
+  @Setup
+  public void setUp() throws Exception {
+    server = new FakeCdcServer.Builder()
+        .numTablets(numTablets)
+        .recordsPerBatch(recordsPerBatch)
+        .valueSize(valueSize)
+        .build()
+        .start();
+    connector = new BenchmarkConnector(server, recordsPerBatch, 8);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    connector.close();
+    server.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS_PER_INVOCATION)
+  public long pollAndApply() throws Exception {
+    CountingOutputClient outputClient = new CountingOutputClient(null, RECORDS_PER_INVOCATION);
+    List<Poller> pollers = connector.start(outputClient);
+    try {
+      if (!outputClient.await(1, TimeUnit.MINUTES)) {
+        throw new IllegalStateException(String.format(
+            "Only %d records were applied in a minute", outputClient.getRecords()));
+      }
+    } finally {
+      connector.stop(pollers);
+    }
+    return outputClient.getRecords();
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+        .include(PollerBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,301 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import org.apache.log4j.Logger;
+import org.yb.client.YBTable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues the changes a poller read from a tablet until the output client applied them.
+ * <p>
+ * The queued batches are handed to {@link OutputClient#applyChanges} on the apply executor, all
+ * the ones waiting at once, and one call at a time so that the tablet's changes are applied in
+ * order. Each tablet has its own queue, so that tablets are applied in parallel. A call that
+ * fails is retried after {@link #RETRY_DELAY_MS}, and the batches' checkpoint is only recorded
+ * once they're all applied.
+ * <p>
+ * Once the queue holds {@code highWatermark} records, the poller stops polling, and it's resumed
+ * when the queue is drained down to {@code lowWatermark} records, so that a slow output client
+ * doesn't make the connector buffer the whole log in memory.
+ * <p>
+ * Applied batches are reported to the {@link CdcMetricsSink} with the hybrid time of their last
+ * record, which is what the tablet's lag is measured from.
+ * <p>
+ * With a {@link TransactionBuffer}, the intents of transactions are held back until they commit,
+ * and each committed transaction is handed to {@link OutputClient#applyTransaction} as a whole.
+ * The checkpoint recorded then doesn't go past the intents of the transactions still open. Each
+ * call gets the checkpoint that what it applied completes: the one of the last batch whose
+ * records were all applied once it returns, which may be before the batch the records came from.
+ */
+public class ApplyQueue {
+  private static final Logger LOG = Logger.getLogger(ApplyQueue.class);
+
+  static final long RETRY_DELAY_MS = 1000;
+
+  private static class Batch {
+    final List<CdcService.CDCRecordPB> records;
+    final Checkpoint checkpoint;
+
+    Batch(List<CdcService.CDCRecordPB> records, Checkpoint checkpoint) {
+      this.records = records;
+      this.checkpoint = checkpoint;
+    }
+  }
+
+  /** What the taken batches turned into, with the checkpoint it's applied with. */
+  private static class Pending {
+    final TransactionBuffer.Output output;
+    final Checkpoint checkpoint;
+
+    Pending(TransactionBuffer.Output output, Checkpoint checkpoint) {
+      this.output = output;
+      this.checkpoint = checkpoint;
+    }
+  }
+
+  private final OutputClient outputClient;
+  private final YBTable table;
+  private final String streamId;
+  private final String tabletId;
+  private final CheckpointStore checkpoints;
+  private final CdcMetricsSink metrics;
+  private final ScheduledExecutorService executor;
+  private final long highWatermark;
+  private final long lowWatermark;
+  // Groups the changes by transaction, or null to apply them as they come.
+  private final TransactionBuffer transactions;
+
+  private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+  // How many records the queued batches hold.
+  private long queuedRecords = 0;
+  // Whether a task applying the queue is scheduled or running.
+  private boolean applying = false;
+  // What to run once the queue drained down to the low watermark, if the poller is paused.
+  private Runnable onDrained;
+
+  // The batches the apply task took, and what they turned into that wasn't applied yet. Only the
+  // apply task uses them.
+  private int takenBatches = 0;
+  private long takenRecords = 0;
+  private long takenLastTime = 0;
+  private Checkpoint takenCheckpoint;
+  private final ArrayDeque<Pending> outputs = new ArrayDeque<>();
+  // The checkpoint of the last batch taken, which the transactions of the next one start from.
+  private Checkpoint lastCheckpoint;
+  // The checkpoint recorded for the last batch taken, which may be held back before it.
+  private Checkpoint safeCheckpoint;
+
+  private final Runnable applyTask = new Runnable() {
+    @Override
+    public void run() {
+      apply();
+    }
+  };
+
+  public ApplyQueue(OutputClient outputClient, YBTable table, String streamId, String tabletId,
+                    CheckpointStore checkpoints, CdcMetricsSink metrics,
+                    ScheduledExecutorService executor, long highWatermark, long lowWatermark) {
+    this(outputClient, table, streamId, tabletId, checkpoints, metrics, executor, highWatermark,
+         lowWatermark, null);
+  }
+
+  public ApplyQueue(OutputClient outputClient, YBTable table, String streamId, String tabletId,
+                    CheckpointStore checkpoints, CdcMetricsSink metrics,
+                    ScheduledExecutorService executor, long highWatermark, long lowWatermark,
+                    TransactionBuffer transactions) {
+    this.outputClient = outputClient;
+    this.table = table;
+    this.streamId = streamId;
+    this.tabletId = tabletId;
+    this.checkpoints = checkpoints;
+    this.metrics = metrics;
+    this.executor = executor;
+    this.highWatermark = highWatermark;
+    this.lowWatermark = lowWatermark;
+    this.transactions = transactions;
+    Checkpoint checkpoint = checkpoints.get(streamId, tabletId);
+    this.lastCheckpoint = checkpoint != null ? checkpoint : new Checkpoint(0, 0);
+    this.safeCheckpoint = this.lastCheckpoint;
+  }
+
+  /**
+   * Queues the records read up to the checkpoint.
+   * @param onDrained what to run once the queue drained, if it's full
+   * @return whether the poller can go on, false if the queue is full, in which case it must wait
+   *         for {@code onDrained} to run
+   */
+  public boolean enqueue(List<CdcService.CDCRecordPB> records, Checkpoint checkpoint,
+                         Runnable onDrained) {
+    synchronized (this) {
+      batches.add(new Batch(records, checkpoint));
+      queuedRecords += records.size();
+      if (!applying) {
+        applying = true;
+        executor.submit(applyTask);
+      }
+      if (queuedRecords < highWatermark) {
+        return true;
+      }
+      this.onDrained = onDrained;
+    }
+    LOG.debug(String.format("Pausing tablet %s, %d records are waiting to be applied",
+                            tabletId, queuedRecords));
+    return false;
+  }
+
+  public synchronized long getQueuedRecords() {
+    return queuedRecords;
+  }
+
+  /**
+   * Drops the transactions still open, once the tablet isn't followed anymore.
+   */
+  public void close() {
+    if (transactions != null) {
+      transactions.close();
+    }
+  }
+
+  /**
+   * Takes the queued batches to apply them.
+   * @return false if there was none
+   */
+  private boolean take() {
+    List<Batch> taken;
+    synchronized (this) {
+      if (batches.isEmpty()) {
+        applying = false;
+        return false;
+      }
+      taken = new ArrayList<>(batches);
+    }
+
+    Batch last = taken.get(taken.size() - 1);
+    long records = 0;
+    long lastTime = 0;
+    for (Batch batch : taken) {
+      records += batch.records.size();
+      if (!batch.records.isEmpty()) {
+        lastTime = batch.records.get(batch.records.size() - 1).getTime();
+      }
+    }
+    if (transactions == null) {
+      List<CdcService.CDCRecordPB> merged;
+      if (taken.size() == 1) {
+        merged = last.records;
+      } else {
+        merged = new ArrayList<>();
+        for (Batch batch : taken) {
+          merged.addAll(batch.records);
+        }
+      }
+      outputs.add(new Pending(new TransactionBuffer.Output(merged), last.checkpoint));
+      lastCheckpoint = last.checkpoint;
+      safeCheckpoint = last.checkpoint;
+    } else {
+      // Batch by batch, so that each output gets the checkpoint it completes.
+      List<Pending> taking = new ArrayList<>();
+      Checkpoint previous = lastCheckpoint;
+      Checkpoint safe = safeCheckpoint;
+      try {
+        for (Batch batch : taken) {
+          List<TransactionBuffer.Output> batchOutputs = transactions.add(batch.records, previous);
+          Checkpoint batchSafe = transactions.getSafeCheckpoint(batch.checkpoint);
+          for (int i = 0; i < batchOutputs.size(); i++) {
+            // The outputs before the last of the batch leave some of its records unapplied.
+            taking.add(new Pending(batchOutputs.get(i),
+                                   i == batchOutputs.size() - 1 ? batchSafe : safe));
+          }
+          previous = batch.checkpoint;
+          safe = batchSafe;
+        }
+      } catch (IllegalStateException e) {
+        // The queue stays marked as applying, so the tablet stops here.
+        LOG.error(String.format("Buffering the transactions of tablet %s failed, not applying " +
+                                "its changes anymore", tabletId), e);
+        return false;
+      }
+      if (!taking.isEmpty()) {
+        // What the batches after the last output hold is buffered, which the safe checkpoint
+        // already accounts for.
+        Pending lastOutput = taking.remove(taking.size() - 1);
+        taking.add(new Pending(lastOutput.output, safe));
+      }
+      outputs.addAll(taking);
+      lastCheckpoint = previous;
+      safeCheckpoint = safe;
+    }
+    takenCheckpoint = safeCheckpoint;
+    takenBatches = taken.size();
+    takenRecords = records;
+    takenLastTime = lastTime;
+    return true;
+  }
+
+  private void apply() {
+    if (takenBatches == 0 && !take()) {
+      return;
+    }
+
+    while (!outputs.isEmpty()) {
+      Pending pending = outputs.peek();
+      TransactionBuffer.Output output = pending.output;
+      CdcTransaction transaction = output.getTransaction();
+      try {
+        if (transaction != null) {
+          outputClient.applyTransaction(table, tabletId, transaction, pending.checkpoint);
+        } else {
+          outputClient.applyChanges(table, tabletId, output.getRecords(), pending.checkpoint);
+        }
+      } catch (Exception e) {
+        String applied = transaction != null ? transaction.toString() :
+                         String.format("%d changes", output.getRecords().size());
+        LOG.error(String.format("Applying %s of tablet %s failed, retrying in %d ms",
+                                applied, tabletId, RETRY_DELAY_MS), e);
+        executor.schedule(applyTask, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        return;
+      }
+      outputs.poll();
+      if (transaction != null) {
+        transactions.release(transaction);
+      }
+    }
+    checkpoints.update(streamId, tabletId, takenCheckpoint);
+    metrics.applied(tabletId, lastCheckpoint, takenLastTime);
+
+    Runnable resume = null;
+    synchronized (this) {
+      for (int i = 0; i < takenBatches; i++) {
+        batches.poll();
+      }
+      queuedRecords -= takenRecords;
+      if (onDrained != null && queuedRecords <= lowWatermark) {
+        resume = onDrained;
+        onDrained = null;
+      }
+    }
+    takenBatches = 0;
+    if (resume != null) {
+      resume.run();
+    }
+    // Let the other tablets' queues go first.
+    executor.submit(applyTask);
+  }
+}
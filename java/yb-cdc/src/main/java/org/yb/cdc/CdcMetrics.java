@@ -0,0 +1,336 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import org.apache.log4j.Logger;
+import org.yb.client.LatencyHistogram;
+import org.yb.util.HybridTimeUtil;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the connector's metrics in memory: counters shared by all the pollers, and the
+ * throughput, poll latency and lag of each tablet. They're logged periodically by {@link
+ * #report()}.
+ * <p>
+ * The rates are the ones over the interval between the last two calls to {@link #tick()}, which
+ * the connector calls every {@link #TICK_INTERVAL_MS}. The lag of a tablet is measured two ways:
+ * the time since the last applied change was written, from its hybrid time, and the number of
+ * log entries the leader has past the applied checkpoint, from {@link #latestIndex}. Subclasses
+ * can publish the tablets' metrics as they show up, by overriding {@link #onNewTablet}. This class
+ * is thread-safe.
+ */
+public class CdcMetrics implements CdcMetricsSink {
+  private static final Logger LOG = Logger.getLogger(CdcMetrics.class);
+
+  static final long TICK_INTERVAL_MS = 10000;
+
+  /** The metrics of one tablet. */
+  public static class TabletMetrics {
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong emptyPolls = new AtomicLong();
+    private final AtomicLong failedPolls = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final LatencyHistogram pollLatency = new LatencyHistogram();
+
+    private volatile double recordsPerSec;
+    private volatile double bytesPerSec;
+    // The counters at the last tick, only used by tick().
+    private long lastTickNanos = System.nanoTime();
+    private long lastTickRecords;
+    private long lastTickBytes;
+
+    private volatile long appliedIndex = -1;
+    private volatile long latestIndex = -1;
+    // The physical part of the last applied change's hybrid time, in microseconds, or 0.
+    private volatile long lastAppliedMicros;
+    private volatile boolean caughtUp;
+
+    /** @return the successful polls */
+    public long getPolls() {
+      return polls.get();
+    }
+
+    /** @return the successful polls that returned no records */
+    public long getEmptyPolls() {
+      return emptyPolls.get();
+    }
+
+    /** @return the share of the successful polls that returned no records, from 0 to 1 */
+    public double getEmptyPollRatio() {
+      long total = polls.get();
+      return total == 0 ? 0 : (double) emptyPolls.get() / total;
+    }
+
+    public long getFailedPolls() {
+      return failedPolls.get();
+    }
+
+    public long getRecords() {
+      return records.get();
+    }
+
+    public long getBytes() {
+      return bytes.get();
+    }
+
+    public double getRecordsPerSec() {
+      return recordsPerSec;
+    }
+
+    public double getBytesPerSec() {
+      return bytesPerSec;
+    }
+
+    /** @return the latencies of the polls, successful or not, in microseconds */
+    public LatencyHistogram getPollLatency() {
+      return pollLatency;
+    }
+
+    /**
+     * @return how long ago the last applied change was written, in milliseconds, 0 if all of
+     *         them were applied, or -1 if we don't know yet
+     */
+    public long getLagMillis() {
+      if (caughtUp) {
+        return 0;
+      }
+      long micros = lastAppliedMicros;
+      if (micros == 0) {
+        return -1;
+      }
+      long nowMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+      return Math.max(0, TimeUnit.MICROSECONDS.toMillis(nowMicros - micros));
+    }
+
+    /**
+     * @return how many entries the leader's log has past the applied checkpoint, or -1 if we
+     *         don't know yet
+     */
+    public long getEntriesBehind() {
+      long latest = latestIndex;
+      long applied = appliedIndex;
+      if (latest < 0 || applied < 0) {
+        return -1;
+      }
+      return Math.max(0, latest - applied);
+    }
+
+    synchronized void tick(long nowNanos) {
+      long elapsedNanos = nowNanos - lastTickNanos;
+      if (elapsedNanos <= 0) {
+        return;
+      }
+      long currentRecords = records.get();
+      long currentBytes = bytes.get();
+      double seconds = elapsedNanos / 1e9;
+      recordsPerSec = (currentRecords - lastTickRecords) / seconds;
+      bytesPerSec = (currentBytes - lastTickBytes) / seconds;
+      lastTickNanos = nowNanos;
+      lastTickRecords = currentRecords;
+      lastTickBytes = currentBytes;
+    }
+  }
+
+  // Polls sent to a random tablet server because the tablet's leader wasn't known, which the
+  // server forwards to the leader unless it is the leader itself.
+  private final AtomicLong proxyHops = new AtomicLong();
+  // Polls sent straight to the tablet's leader.
+  private final AtomicLong directPolls = new AtomicLong();
+  // Lookups of a tablet's leader from the master.
+  private final AtomicLong leaderLookups = new AtomicLong();
+  // Times a poller stopped because too many of its changes were waiting to be applied.
+  private final AtomicLong pauses = new AtomicLong();
+  // Open transactions dropped as aborted after going without intents for too long.
+  private final AtomicLong droppedTransactions = new AtomicLong();
+
+  private final ConcurrentHashMap<String, TabletMetrics> tablets = new ConcurrentHashMap<>();
+
+  /**
+   * Called the first time a tablet is polled, before it's updated.
+   */
+  protected void onNewTablet(String tabletId, TabletMetrics tablet) {
+  }
+
+  /**
+   * Called once a tablet isn't followed anymore.
+   */
+  protected void onTabletStopped(String tabletId) {
+  }
+
+  @Override
+  public void pollSent(String tabletId, boolean direct) {
+    if (direct) {
+      directPolls.incrementAndGet();
+    } else {
+      proxyHops.incrementAndGet();
+    }
+    if (!tablets.containsKey(tabletId)) {
+      TabletMetrics tablet = new TabletMetrics();
+      if (tablets.putIfAbsent(tabletId, tablet) == null) {
+        onNewTablet(tabletId, tablet);
+      }
+    }
+  }
+
+  @Override
+  public void pollCompleted(String tabletId, long latencyNanos, int records, long bytes) {
+    TabletMetrics tablet = tablets.get(tabletId);
+    if (tablet == null) {
+      return;
+    }
+    tablet.pollLatency.recordNanos(latencyNanos);
+    tablet.polls.incrementAndGet();
+    if (records == 0) {
+      tablet.emptyPolls.incrementAndGet();
+    }
+    tablet.records.addAndGet(records);
+    tablet.bytes.addAndGet(bytes);
+  }
+
+  @Override
+  public void pollFailed(String tabletId, long latencyNanos) {
+    TabletMetrics tablet = tablets.get(tabletId);
+    if (tablet == null) {
+      return;
+    }
+    tablet.pollLatency.recordNanos(latencyNanos);
+    tablet.failedPolls.incrementAndGet();
+  }
+
+  @Override
+  public void leaderLookup(String tabletId) {
+    leaderLookups.incrementAndGet();
+  }
+
+  @Override
+  public void paused(String tabletId) {
+    pauses.incrementAndGet();
+  }
+
+  @Override
+  public void transactionDropped(String tabletId) {
+    droppedTransactions.incrementAndGet();
+  }
+
+  @Override
+  public void applied(String tabletId, Checkpoint checkpoint, long lastRecordTime) {
+    TabletMetrics tablet = tablets.get(tabletId);
+    if (tablet == null) {
+      return;
+    }
+    tablet.appliedIndex = checkpoint.getIndex();
+    if (lastRecordTime != 0) {
+      tablet.lastAppliedMicros = HybridTimeUtil.HTTimestampToPhysicalAndLogical(lastRecordTime)[0];
+      tablet.caughtUp = false;
+    }
+  }
+
+  @Override
+  public void caughtUp(String tabletId) {
+    TabletMetrics tablet = tablets.get(tabletId);
+    if (tablet != null) {
+      tablet.caughtUp = true;
+    }
+  }
+
+  @Override
+  public void latestIndex(String tabletId, long index) {
+    TabletMetrics tablet = tablets.get(tabletId);
+    if (tablet != null) {
+      tablet.latestIndex = index;
+    }
+  }
+
+  @Override
+  public void tabletStopped(String tabletId) {
+    if (tablets.remove(tabletId) != null) {
+      onTabletStopped(tabletId);
+    }
+  }
+
+  /**
+   * Updates the tablets' rates with what they read since the last call.
+   */
+  public void tick() {
+    long nowNanos = System.nanoTime();
+    for (TabletMetrics tablet : tablets.values()) {
+      tablet.tick(nowNanos);
+    }
+  }
+
+  public long getProxyHops() {
+    return proxyHops.get();
+  }
+
+  public long getDirectPolls() {
+    return directPolls.get();
+  }
+
+  public long getLeaderLookups() {
+    return leaderLookups.get();
+  }
+
+  public long getPauses() {
+    return pauses.get();
+  }
+
+  public long getDroppedTransactions() {
+    return droppedTransactions.get();
+  }
+
+  /**
+   * @return the metrics of the tablets polled, by tablet id
+   */
+  public Map<String, TabletMetrics> getTablets() {
+    return Collections.unmodifiableMap(tablets);
+  }
+
+  public void report() {
+    LOG.info(String.format("CDC polls: %d direct, %d through a proxy, %d leader lookups, " +
+                           "%d pauses for back pressure, %d transactions dropped as aborted",
+                           getDirectPolls(), getProxyHops(), getLeaderLookups(), getPauses(),
+                           getDroppedTransactions()));
+    double recordsPerSec = 0;
+    double bytesPerSec = 0;
+    long maxLagMillis = -1;
+    String maxLagTablet = null;
+    for (Map.Entry<String, TabletMetrics> entry : tablets.entrySet()) {
+      TabletMetrics tablet = entry.getValue();
+      recordsPerSec += tablet.getRecordsPerSec();
+      bytesPerSec += tablet.getBytesPerSec();
+      long lagMillis = tablet.getLagMillis();
+      if (lagMillis > maxLagMillis) {
+        maxLagMillis = lagMillis;
+        maxLagTablet = entry.getKey();
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("Tablet %s: %.1f records/s, %.1f bytes/s, %.2f empty polls, " +
+                                "poll latency %s, lag %d ms, %d entries behind",
+                                entry.getKey(), tablet.getRecordsPerSec(),
+                                tablet.getBytesPerSec(), tablet.getEmptyPollRatio(),
+                                tablet.getPollLatency(), lagMillis, tablet.getEntriesBehind()));
+      }
+    }
+    LOG.info(String.format("CDC throughput: %d tablets, %.1f records/s, %.1f bytes/s, " +
+                           "largest lag %d ms in tablet %s",
+                           tablets.size(), recordsPerSec, bytesPerSec, maxLagMillis,
+                           maxLagTablet));
+  }
+}
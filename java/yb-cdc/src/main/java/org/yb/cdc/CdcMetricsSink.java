@@ -0,0 +1,82 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+/**
+ * Receives the events the connector's tablets go through, to turn them into metrics.
+ * <p>
+ * Implementations are called from the pollers' and the apply threads, right in the path of every
+ * poll, so they must be thread-safe and must neither block nor do anything expensive. See {@link
+ * CdcMetrics} for an in-memory implementation and {@link JmxCdcMetrics} to publish it over JMX.
+ */
+public interface CdcMetricsSink {
+
+  /**
+   * A poll of the tablet is being sent.
+   * @param direct whether it goes straight to the tablet's leader, rather than through a proxy
+   */
+  void pollSent(String tabletId, boolean direct);
+
+  /**
+   * A poll of the tablet came back successfully.
+   * @param latencyNanos the time between sending the poll and getting its response
+   * @param records the number of records it returned
+   * @param bytes the size of the response
+   */
+  void pollCompleted(String tabletId, long latencyNanos, int records, long bytes);
+
+  /**
+   * A poll of the tablet failed, either with an error or with no response at all.
+   */
+  void pollFailed(String tabletId, long latencyNanos);
+
+  /**
+   * The tablet's leader is being looked up from the master.
+   */
+  void leaderLookup(String tabletId);
+
+  /**
+   * The tablet stopped being polled because too many of its changes are waiting to be applied.
+   */
+  void paused(String tabletId);
+
+  /**
+   * Changes of the tablet were applied by the output client.
+   * @param checkpoint the checkpoint they were read up to
+   * @param lastRecordTime the hybrid time of the last of them, or 0 if there were none
+   */
+  void applied(String tabletId, Checkpoint checkpoint, long lastRecordTime);
+
+  /**
+   * A poll of the tablet came back empty with nothing left to apply, so the connector has
+   * everything it wrote up to now.
+   */
+  void caughtUp(String tabletId);
+
+  /**
+   * The tablet's leader told the index of the last entry of its log.
+   */
+  void latestIndex(String tabletId, long index);
+
+  /**
+   * An open transaction of the tablet went without intents for too long, and was dropped as
+   * aborted.
+   */
+  void transactionDropped(String tabletId);
+
+  /**
+   * The tablet isn't followed anymore.
+   */
+  void tabletStopped(String tabletId);
+}
@@ -0,0 +1,209 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import com.google.protobuf.ByteString;
+import org.yb.ColumnSchema;
+import org.yb.Schema;
+import org.yb.Common.QLValuePB;
+
+/**
+ * A typed view of the columns of a CDC record, by their index in the table's schema.
+ * <p>
+ * A row is filled by {@link RowDecoder#decode}, and reused for the next record, so the values
+ * must be read before decoding into it again. A record only carries the key columns and, for
+ * writes, the columns that changed: {@link #isPresent} tells which ones, and they can be
+ * iterated with {@link #getNumPresent} and {@link #getPresentColumn}. Instances aren't
+ * thread-safe.
+ */
+public class CdcRow {
+  private final Schema schema;
+  private final QLValuePB[] values;
+  // The indexes of the columns present in the record, in the order they were decoded.
+  private final int[] present;
+  private int numPresent = 0;
+
+  private CdcService.CDCRecordPB.OperationType operation;
+  private long time;
+
+  CdcRow(Schema schema) {
+    this.schema = schema;
+    this.values = new QLValuePB[schema.getColumnCount()];
+    this.present = new int[schema.getColumnCount()];
+  }
+
+  void reset(CdcService.CDCRecordPB record) {
+    for (int i = 0; i < numPresent; i++) {
+      values[present[i]] = null;
+    }
+    numPresent = 0;
+    operation = record.getOperation();
+    time = record.getTime();
+  }
+
+  void set(int columnIndex, QLValuePB value) {
+    if (values[columnIndex] == null) {
+      present[numPresent++] = columnIndex;
+    }
+    values[columnIndex] = value;
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * @return whether the record wrote or deleted the row
+   */
+  public CdcService.CDCRecordPB.OperationType getOperation() {
+    return operation;
+  }
+
+  /**
+   * @return the hybrid time of the change
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * @return how many columns the record carries
+   */
+  public int getNumPresent() {
+    return numPresent;
+  }
+
+  /**
+   * @param i between 0 and {@link #getNumPresent()}
+   * @return the index of the i-th column the record carries
+   */
+  public int getPresentColumn(int i) {
+    if (i < 0 || i >= numPresent) {
+      throw new IndexOutOfBoundsException(
+          String.format("%d out of %d present columns", i, numPresent));
+    }
+    return present[i];
+  }
+
+  /**
+   * @param columnIndex the column's index in the schema
+   * @return whether the record carries the column
+   */
+  public boolean isPresent(int columnIndex) {
+    return values[columnIndex] != null;
+  }
+
+  /**
+   * @param columnIndex the column's index in the schema
+   * @return whether the record sets the column to null
+   * @throws IllegalArgumentException if the record doesn't carry the column
+   */
+  public boolean isNull(int columnIndex) {
+    return getValue(columnIndex).getValueCase() == QLValuePB.ValueCase.VALUE_NOT_SET;
+  }
+
+  /**
+   * @param columnIndex the column's index in the schema
+   * @return the column's value, as it came in the record
+   * @throws IllegalArgumentException if the record doesn't carry the column
+   */
+  public QLValuePB getValue(int columnIndex) {
+    QLValuePB value = values[columnIndex];
+    if (value == null) {
+      throw new IllegalArgumentException(String.format(
+          "The record doesn't carry column %s", schema.getColumnByIndex(columnIndex).getName()));
+    }
+    return value;
+  }
+
+  private QLValuePB getValue(int columnIndex, QLValuePB.ValueCase expected) {
+    QLValuePB value = getValue(columnIndex);
+    if (value.getValueCase() != expected) {
+      throw wrongType(columnIndex, value, expected.name());
+    }
+    return value;
+  }
+
+  private IllegalArgumentException wrongType(int columnIndex, QLValuePB value, String expected) {
+    ColumnSchema column = schema.getColumnByIndex(columnIndex);
+    return new IllegalArgumentException(String.format("Column %s holds %s, not %s",
+        column.getName(), value.getValueCase(), expected));
+  }
+
+  public boolean getBoolean(int columnIndex) {
+    return getValue(columnIndex, QLValuePB.ValueCase.BOOL_VALUE).getBoolValue();
+  }
+
+  public byte getByte(int columnIndex) {
+    return (byte) getValue(columnIndex, QLValuePB.ValueCase.INT8_VALUE).getInt8Value();
+  }
+
+  public short getShort(int columnIndex) {
+    return (short) getValue(columnIndex, QLValuePB.ValueCase.INT16_VALUE).getInt16Value();
+  }
+
+  public int getInt(int columnIndex) {
+    return getValue(columnIndex, QLValuePB.ValueCase.INT32_VALUE).getInt32Value();
+  }
+
+  /**
+   * @return the value of a bigint, timestamp (microseconds since the epoch) or time (nanoseconds
+   *         since midnight) column
+   */
+  public long getLong(int columnIndex) {
+    QLValuePB value = getValue(columnIndex);
+    switch (value.getValueCase()) {
+      case INT64_VALUE: return value.getInt64Value();
+      case TIMESTAMP_VALUE: return value.getTimestampValue();
+      case TIME_VALUE: return value.getTimeValue();
+      default: throw wrongType(columnIndex, value, "INT64_VALUE");
+    }
+  }
+
+  public float getFloat(int columnIndex) {
+    return getValue(columnIndex, QLValuePB.ValueCase.FLOAT_VALUE).getFloatValue();
+  }
+
+  public double getDouble(int columnIndex) {
+    return getValue(columnIndex, QLValuePB.ValueCase.DOUBLE_VALUE).getDoubleValue();
+  }
+
+  /**
+   * @return the value of a date column, in days where 2^31 is 1970-01-01
+   */
+  public int getDate(int columnIndex) {
+    return getValue(columnIndex, QLValuePB.ValueCase.DATE_VALUE).getDateValue();
+  }
+
+  public String getString(int columnIndex) {
+    return getValue(columnIndex, QLValuePB.ValueCase.STRING_VALUE).getStringValue();
+  }
+
+  /**
+   * @return the raw bytes of a binary, inet, decimal, varint, uuid, timeuuid or jsonb column
+   */
+  public ByteString getBinary(int columnIndex) {
+    QLValuePB value = getValue(columnIndex);
+    switch (value.getValueCase()) {
+      case BINARY_VALUE: return value.getBinaryValue();
+      case INETADDRESS_VALUE: return value.getInetaddressValue();
+      case DECIMAL_VALUE: return value.getDecimalValue();
+      case VARINT_VALUE: return value.getVarintValue();
+      case UUID_VALUE: return value.getUuidValue();
+      case TIMEUUID_VALUE: return value.getTimeuuidValue();
+      case JSONB_VALUE: return value.getJsonbValue();
+      default: throw wrongType(columnIndex, value, "BINARY_VALUE");
+    }
+  }
+}
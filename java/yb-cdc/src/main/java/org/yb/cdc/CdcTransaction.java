@@ -0,0 +1,215 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The changes a committed transaction made to a tablet, handed to
+ * {@link OutputClient#applyTransaction} as a whole.
+ * <p>
+ * The changes are the transaction's intents, in the order they were written, without the APPLY
+ * record that committed them. They are kept in memory, or in a spill file once the
+ * {@link TransactionBuffer} ran out of memory, in which case iterating over them reads them back
+ * from the file, so that the output client doesn't need to hold them all at once.
+ */
+public class CdcTransaction implements Iterable<CdcService.CDCRecordPB> {
+  private final ByteString id;
+  // The checkpoint the tablet must resume from for its intents to be read again.
+  private final Checkpoint startCheckpoint;
+  private long commitTime;
+  // The hybrid time of the last intent, which tells how long the transaction has been idle.
+  private long lastTime;
+
+  private List<CdcService.CDCRecordPB> records = new ArrayList<>();
+  private int size = 0;
+  private long bytes = 0;
+
+  private Path spillFile;
+  private OutputStream spillOut;
+
+  CdcTransaction(ByteString id, Checkpoint startCheckpoint) {
+    this.id = id;
+    this.startCheckpoint = startCheckpoint;
+  }
+
+  public ByteString getId() {
+    return id;
+  }
+
+  /**
+   * @return the hybrid time the transaction was committed at
+   */
+  public long getCommitTime() {
+    return commitTime;
+  }
+
+  /**
+   * @return the number of changes
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the serialized size of the changes
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  public boolean isSpilled() {
+    return spillFile != null;
+  }
+
+  Checkpoint getStartCheckpoint() {
+    return startCheckpoint;
+  }
+
+  long getLastTime() {
+    return lastTime;
+  }
+
+  /**
+   * @return how many bytes of the changes are held in memory
+   */
+  long getBufferedBytes() {
+    return spillFile == null ? bytes : 0;
+  }
+
+  void add(CdcService.CDCRecordPB record) throws IOException {
+    if (spillOut != null) {
+      record.writeDelimitedTo(spillOut);
+    } else {
+      records.add(record);
+    }
+    size++;
+    bytes += record.getSerializedSize();
+    lastTime = record.getTime();
+  }
+
+  /**
+   * Moves the changes to a new file in the directory, and writes the ones added later there.
+   */
+  void spill(Path dir) throws IOException {
+    Path file = Files.createTempFile(dir, "yb-cdc-txn-", ".spill");
+    OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+    try {
+      for (CdcService.CDCRecordPB record : records) {
+        record.writeDelimitedTo(out);
+      }
+    } catch (IOException e) {
+      out.close();
+      Files.deleteIfExists(file);
+      throw e;
+    }
+    spillFile = file;
+    spillOut = out;
+    records = null;
+  }
+
+  /**
+   * Marks the transaction committed, once all its changes were added.
+   */
+  void commit(long commitTime) throws IOException {
+    this.commitTime = commitTime;
+    if (spillOut != null) {
+      spillOut.close();
+      spillOut = null;
+    }
+  }
+
+  /**
+   * Drops the changes, and deletes the spill file if there is one.
+   */
+  void release() throws IOException {
+    records = null;
+    if (spillOut != null) {
+      spillOut.close();
+      spillOut = null;
+    }
+    if (spillFile != null) {
+      Files.deleteIfExists(spillFile);
+    }
+  }
+
+  /**
+   * Iterates over the changes. Reading a spill file back throws an {@link UncheckedIOException} if
+   * it fails.
+   */
+  @Override
+  public Iterator<CdcService.CDCRecordPB> iterator() {
+    if (spillFile == null) {
+      return records.iterator();
+    }
+    final InputStream in;
+    try {
+      in = new BufferedInputStream(Files.newInputStream(spillFile));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new Iterator<CdcService.CDCRecordPB>() {
+      private int read = 0;
+
+      @Override
+      public boolean hasNext() {
+        return read < size;
+      }
+
+      @Override
+      public CdcService.CDCRecordPB next() {
+        if (read == size) {
+          throw new NoSuchElementException();
+        }
+        try {
+          CdcService.CDCRecordPB record = CdcService.CDCRecordPB.parseDelimitedFrom(in);
+          if (record == null) {
+            throw new IOException(String.format("Spill file %s of transaction %s ends after %d " +
+                                                "of its %d changes", spillFile,
+                                                TransactionBuffer.formatId(id), read, size));
+          }
+          if (++read == size) {
+            in.close();
+          }
+          return record;
+        } catch (IOException e) {
+          try {
+            in.close();
+          } catch (IOException ignored) {
+          }
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return String.format("transaction %s with %d changes", TransactionBuffer.formatId(id), size);
+  }
+}
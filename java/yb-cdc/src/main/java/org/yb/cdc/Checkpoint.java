@@ -0,0 +1,57 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+/**
+ * The position of a CDC stream in a tablet's log: the op id of the last change consumed.
+ */
+public final class Checkpoint {
+  private final long term;
+  private final long index;
+
+  public Checkpoint(long term, long index) {
+    this.term = term;
+    this.index = index;
+  }
+
+  public long getTerm() {
+    return term;
+  }
+
+  public long getIndex() {
+    return index;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Checkpoint)) {
+      return false;
+    }
+    Checkpoint other = (Checkpoint) o;
+    return term == other.term && index == other.index;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Long.hashCode(term) + Long.hashCode(index);
+  }
+
+  @Override
+  public String toString() {
+    return term + "." + index;
+  }
+}
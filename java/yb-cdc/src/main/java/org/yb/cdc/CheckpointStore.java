@@ -0,0 +1,54 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the connector keeps how far it got in each tablet, so that it can resume from there when
+ * it restarts instead of reading the tablets from the start.
+ * <p>
+ * Checkpoints are recorded by {@link #update} as changes are consumed, and only become visible to
+ * {@link #get} once {@link #commit} made them durable, so that pollers can record every batch
+ * without paying for a write each time. The store also remembers which stream the connector
+ * created for each table, so that it resumes the same one. Implementations are thread-safe.
+ */
+public interface CheckpointStore extends Closeable {
+  /**
+   * @return the last committed checkpoint of the tablet in the stream, or null if there is none
+   */
+  Checkpoint get(String streamId, String tabletId);
+
+  /**
+   * Records the checkpoint of the tablet in the stream. It replaces the one recorded before, and
+   * is saved by the next {@link #commit}.
+   */
+  void update(String streamId, String tabletId, Checkpoint checkpoint);
+
+  /**
+   * Saves the checkpoints recorded since the last commit.
+   */
+  void commit() throws IOException;
+
+  /**
+   * @return the stream saved for the table, or null if there is none
+   */
+  String getStreamId(String tableId);
+
+  /**
+   * Saves the stream of the table right away.
+   */
+  void putStreamId(String tableId, String streamId) throws IOException;
+}
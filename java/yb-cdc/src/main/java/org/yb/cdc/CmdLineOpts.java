@@ -20,25 +20,134 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 public class CmdLineOpts {
 
   private static final String DEFAULT_MASTER_ADDRS = "127.0.0.1:7100";
+  private static final int DEFAULT_MAX_RECORDS = 1000;
+  private static final long DEFAULT_MAX_POLL_DELAY_MS = 1000;
+  private static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 1000;
+  private static final long DEFAULT_QUEUE_HIGH_WATERMARK = 10000;
+  private static final long DEFAULT_QUEUE_LOW_WATERMARK = 5000;
+  private static final int DEFAULT_SEGMENT_SIZE_MB = 64;
+  private static final long DEFAULT_FSYNC_INTERVAL_MS = 1000;
+  private static final int DEFAULT_MAX_INFLIGHT_POLLS_PER_TSERVER = 8;
+  private static final long DEFAULT_DISCOVERY_INTERVAL_MS = 10000;
+  private static final long DEFAULT_LAG_CHECK_INTERVAL_MS = 10000;
+  private static final int DEFAULT_TRANSACTION_BUFFER_MB = 256;
+  private static final long DEFAULT_TRANSACTION_TIMEOUT_MS = 300000;
 
   private static final Logger LOG = Logger.getLogger(CmdLineOpts.class);
 
-  public String tableName;
-  public String namespaceName;
+  // The tables to follow, as <namespace>.<table>.
+  public Set<String> tableNames = new LinkedHashSet<>();
+  // The namespace whose tables to all follow, if not empty.
+  public String namespaceName = "";
   public String masterAddrs = DEFAULT_MASTER_ADDRS;
   public String streamId = "";
+  public int maxRecords = DEFAULT_MAX_RECORDS;
+  public long maxPollDelayMs = DEFAULT_MAX_POLL_DELAY_MS;
+  public String checkpointFile = "";
+  public long checkpointIntervalMs = DEFAULT_CHECKPOINT_INTERVAL_MS;
+  // Whether to report the committed checkpoints to the tablets as their replicated index.
+  public boolean updateReplicatedIndex = false;
+  public long queueHighWatermark = DEFAULT_QUEUE_HIGH_WATERMARK;
+  public long queueLowWatermark = DEFAULT_QUEUE_LOW_WATERMARK;
+  // Where to write the changes to, the log if empty.
+  public String sinkDir = "";
+  public int segmentSizeMb = DEFAULT_SEGMENT_SIZE_MB;
+  public SegmentedFileSink.Compression sinkCompression = SegmentedFileSink.Compression.NONE;
+  public SegmentedFileSink.FsyncPolicy sinkFsync = SegmentedFileSink.FsyncPolicy.BATCH;
+  public long sinkFsyncIntervalMs = DEFAULT_FSYNC_INTERVAL_MS;
+  public int maxInflightPollsPerTserver = DEFAULT_MAX_INFLIGHT_POLLS_PER_TSERVER;
+  public long discoveryIntervalMs = DEFAULT_DISCOVERY_INTERVAL_MS;
+  // Whether to publish the metrics over JMX, on top of logging them.
+  public boolean jmxMetrics = false;
+  public long lagCheckIntervalMs = DEFAULT_LAG_CHECK_INTERVAL_MS;
+  // Whether to hand each committed transaction to the output client as a whole.
+  public boolean groupTransactions = false;
+  public int transactionBufferMb = DEFAULT_TRANSACTION_BUFFER_MB;
+  // Where to spill the transactions that don't fit in memory, the temporary directory if empty.
+  public String transactionSpillDir = "";
+  public long transactionTimeoutMs = DEFAULT_TRANSACTION_TIMEOUT_MS;
 
   public static CmdLineOpts createFromArgs(String[] args) throws Exception {
     Options options = new Options();
 
     options.addOption("master_addrs", true, "List of YB master ips to contact");
     options.addOption("table_name", true,
-            "Table to get change capture from in format <namespace>.<table>");
+            "Table to get change capture from in format <namespace>.<table>, or a comma " +
+            "separated list of them");
+    options.addOption("namespace_name", true,
+            "Namespace to get change capture from all the tables of, including the ones created " +
+            "later. Can be used instead of or along with --table_name");
     options.addOption("stream_id", true,
-            "Optional stream ID. Use this if you already have a CDC stream set up on the table");
+            "Optional stream ID. Use this if you already have a CDC stream set up on the table. " +
+            "Only when --table_name is a single table");
+    options.addOption("max_records", true,
+            "Maximum number of records to get per poll of a tablet. Polls are sent back to " +
+            "back while they return this many records. Default is " + DEFAULT_MAX_RECORDS);
+    options.addOption("max_poll_delay_ms", true,
+            "Longest delay between polls of an idle tablet, or after errors, in milliseconds. " +
+            "Default is " + DEFAULT_MAX_POLL_DELAY_MS);
+    options.addOption("checkpoint_file", true,
+            "Optional file to save the streams and how far each tablet was read in, to resume " +
+            "from when the connector is restarted");
+    options.addOption("checkpoint_interval_ms", true,
+            "How often to save the checkpoints, in milliseconds. Default is " +
+            DEFAULT_CHECKPOINT_INTERVAL_MS);
+    options.addOption("update_replicated_index", false,
+            "Let the tablets garbage collect their log up to the saved checkpoints. Only safe " +
+            "when the stream is the only one on its tablets, as the tablets' replicated index " +
+            "is the minimum over all their streams, xCluster replication included");
+    options.addOption("queue_high_watermark", true,
+            "Number of records read from a tablet and waiting to be applied at which the tablet " +
+            "stops being polled. Default is " + DEFAULT_QUEUE_HIGH_WATERMARK);
+    options.addOption("queue_low_watermark", true,
+            "Number of records waiting to be applied at which a stopped tablet is polled again. " +
+            "Default is " + DEFAULT_QUEUE_LOW_WATERMARK);
+    options.addOption("max_inflight_polls_per_tserver", true,
+            "Maximum number of polls in flight to each tablet server, the others wait for their " +
+            "turn. Default is " + DEFAULT_MAX_INFLIGHT_POLLS_PER_TSERVER);
+    options.addOption("discovery_interval_ms", true,
+            "How often to look for new tables, tablets and tablet servers, in milliseconds. " +
+            "Default is " + DEFAULT_DISCOVERY_INTERVAL_MS);
+    options.addOption("sink_dir", true,
+            "Optional directory to write the changes to, in segment files per tablet, instead " +
+            "of logging them");
+    options.addOption("segment_size_mb", true,
+            "Size of the segment files, in MB. Default is " + DEFAULT_SEGMENT_SIZE_MB);
+    options.addOption("sink_compression", true,
+            "Compression of the changes in the segment files, none or deflate. Default is none");
+    options.addOption("sink_fsync", true,
+            "When to sync the segment files: batch, after every batch of changes, interval, " +
+            "at most every --sink_fsync_interval_ms, or never. Default is batch");
+    options.addOption("sink_fsync_interval_ms", true,
+            "Interval between syncs of the segment files with --sink_fsync=interval, in " +
+            "milliseconds. Default is " + DEFAULT_FSYNC_INTERVAL_MS);
+    options.addOption("metrics", true,
+            "Where to publish the metrics: log, to only log them periodically, or jmx, to also " +
+            "publish them as MBeans. Default is log");
+    options.addOption("lag_check_interval_ms", true,
+            "How often to ask the tablets' leaders for the end of their log, to tell how many " +
+            "entries behind each tablet is, in milliseconds. Default is " +
+            DEFAULT_LAG_CHECK_INTERVAL_MS);
+    options.addOption("group_transactions", false,
+            "Hold back the intents of each transaction until it commits, and write them to the " +
+            "sink as one batch");
+    options.addOption("transaction_buffer_mb", true,
+            "Memory the intents of open transactions may take with --group_transactions, " +
+            "beyond which the largest transactions are spilled to disk. Default is " +
+            DEFAULT_TRANSACTION_BUFFER_MB);
+    options.addOption("transaction_spill_dir", true,
+            "Directory to spill the transactions to with --group_transactions. Default is the " +
+            "temporary directory");
+    options.addOption("transaction_timeout_ms", true,
+            "How long a transaction may go without intents before it's dropped as aborted, in " +
+            "milliseconds of the tablet's hybrid time. Default is " +
+            DEFAULT_TRANSACTION_TIMEOUT_MS);
 
     // Do the actual arg parsing.
     CommandLineParser parser = new BasicParser();
@@ -56,13 +165,6 @@ public class CmdLineOpts {
     return configuration;
   }
 
-  private String getRequiredOptionValue(CommandLine commandLine, String opt) throws Exception {
-    if (!commandLine.hasOption(opt)) {
-      throw new Exception (String.format("Command requires a %s argument", opt));
-    }
-    return commandLine.getOptionValue(opt);
-  }
-
   public void initialize(CommandLine commandLine) throws Exception {
 
     if (commandLine.hasOption("master_addrs")) {
@@ -71,18 +173,165 @@ public class CmdLineOpts {
       LOG.info("Defaulting master_addrs to 127.0.0.1:7100");
     }
 
-    String[] fullTableName = getRequiredOptionValue(commandLine, "table_name").split("\\.");
+    if (commandLine.hasOption("table_name")) {
+      for (String tableName : commandLine.getOptionValue("table_name").split(",")) {
+        String[] fullTableName = tableName.trim().split("\\.");
+        if (fullTableName.length != 2) {
+          throw new Exception(String.format("Expected a namespace and table name for " +
+                                            "--table_name in format <namespace>.<table>"));
+        }
+        tableNames.add(fullTableName[0] + "." + fullTableName[1]);
+      }
+    }
 
-    if (fullTableName.length != 2) {
-      throw new Exception(String.format("Expected a namespace and table name for --table_name in" +
-                                        " format <namespace>.<table>"));
+    if (commandLine.hasOption("namespace_name")) {
+      namespaceName = commandLine.getOptionValue("namespace_name");
     }
 
-    namespaceName = fullTableName[0];
-    tableName = fullTableName[1];
+    if (tableNames.isEmpty() && namespaceName.isEmpty()) {
+      throw new Exception("Command requires a table_name or namespace_name argument");
+    }
 
     if (commandLine.hasOption("stream_id")) {
       streamId = commandLine.getOptionValue("stream_id");
+      if (tableNames.size() != 1 || !namespaceName.isEmpty()) {
+        throw new Exception("--stream_id requires --table_name to be a single table");
+      }
+    }
+
+    if (commandLine.hasOption("max_records")) {
+      maxRecords = Integer.parseInt(commandLine.getOptionValue("max_records"));
+      if (maxRecords <= 0) {
+        throw new Exception("--max_records must be positive");
+      }
+    }
+
+    if (commandLine.hasOption("max_poll_delay_ms")) {
+      maxPollDelayMs = Long.parseLong(commandLine.getOptionValue("max_poll_delay_ms"));
+      if (maxPollDelayMs < Poller.MIN_POLL_DELAY_MS) {
+        throw new Exception(String.format("--max_poll_delay_ms must be at least %d",
+                                          Poller.MIN_POLL_DELAY_MS));
+      }
+    }
+
+    if (commandLine.hasOption("checkpoint_file")) {
+      checkpointFile = commandLine.getOptionValue("checkpoint_file");
+    }
+
+    if (commandLine.hasOption("checkpoint_interval_ms")) {
+      checkpointIntervalMs = Long.parseLong(commandLine.getOptionValue("checkpoint_interval_ms"));
+      if (checkpointIntervalMs <= 0) {
+        throw new Exception("--checkpoint_interval_ms must be positive");
+      }
+    }
+
+    updateReplicatedIndex = commandLine.hasOption("update_replicated_index");
+
+    if (commandLine.hasOption("queue_high_watermark")) {
+      queueHighWatermark = Long.parseLong(commandLine.getOptionValue("queue_high_watermark"));
+      if (queueHighWatermark <= 0) {
+        throw new Exception("--queue_high_watermark must be positive");
+      }
+      if (!commandLine.hasOption("queue_low_watermark")) {
+        queueLowWatermark = queueHighWatermark / 2;
+      }
+    }
+
+    if (commandLine.hasOption("queue_low_watermark")) {
+      queueLowWatermark = Long.parseLong(commandLine.getOptionValue("queue_low_watermark"));
+    }
+    if (queueLowWatermark < 0 || queueLowWatermark >= queueHighWatermark) {
+      throw new Exception("--queue_low_watermark must be at least 0 and less than " +
+                          "--queue_high_watermark");
+    }
+
+    if (commandLine.hasOption("sink_dir")) {
+      sinkDir = commandLine.getOptionValue("sink_dir");
+    }
+
+    if (commandLine.hasOption("segment_size_mb")) {
+      segmentSizeMb = Integer.parseInt(commandLine.getOptionValue("segment_size_mb"));
+      if (segmentSizeMb <= 0 || segmentSizeMb > 1024) {
+        throw new Exception("--segment_size_mb must be between 1 and 1024");
+      }
+    }
+
+    if (commandLine.hasOption("sink_compression")) {
+      String compression = commandLine.getOptionValue("sink_compression");
+      try {
+        sinkCompression = SegmentedFileSink.Compression.valueOf(compression.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new Exception(String.format("Unknown --sink_compression %s", compression));
+      }
+    }
+
+    if (commandLine.hasOption("sink_fsync")) {
+      String fsync = commandLine.getOptionValue("sink_fsync");
+      try {
+        sinkFsync = SegmentedFileSink.FsyncPolicy.valueOf(fsync.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new Exception(String.format("Unknown --sink_fsync %s", fsync));
+      }
+    }
+
+    if (commandLine.hasOption("sink_fsync_interval_ms")) {
+      sinkFsyncIntervalMs = Long.parseLong(commandLine.getOptionValue("sink_fsync_interval_ms"));
+      if (sinkFsyncIntervalMs <= 0) {
+        throw new Exception("--sink_fsync_interval_ms must be positive");
+      }
+    }
+
+    if (commandLine.hasOption("max_inflight_polls_per_tserver")) {
+      maxInflightPollsPerTserver =
+          Integer.parseInt(commandLine.getOptionValue("max_inflight_polls_per_tserver"));
+      if (maxInflightPollsPerTserver <= 0) {
+        throw new Exception("--max_inflight_polls_per_tserver must be positive");
+      }
+    }
+
+    if (commandLine.hasOption("discovery_interval_ms")) {
+      discoveryIntervalMs = Long.parseLong(commandLine.getOptionValue("discovery_interval_ms"));
+      if (discoveryIntervalMs <= 0) {
+        throw new Exception("--discovery_interval_ms must be positive");
+      }
+    }
+
+    if (commandLine.hasOption("metrics")) {
+      String metrics = commandLine.getOptionValue("metrics");
+      if (metrics.equalsIgnoreCase("jmx")) {
+        jmxMetrics = true;
+      } else if (!metrics.equalsIgnoreCase("log")) {
+        throw new Exception(String.format("Unknown --metrics %s", metrics));
+      }
+    }
+
+    if (commandLine.hasOption("lag_check_interval_ms")) {
+      lagCheckIntervalMs = Long.parseLong(commandLine.getOptionValue("lag_check_interval_ms"));
+      if (lagCheckIntervalMs <= 0) {
+        throw new Exception("--lag_check_interval_ms must be positive");
+      }
+    }
+
+    groupTransactions = commandLine.hasOption("group_transactions");
+
+    if (commandLine.hasOption("transaction_buffer_mb")) {
+      transactionBufferMb =
+          Integer.parseInt(commandLine.getOptionValue("transaction_buffer_mb"));
+      if (transactionBufferMb <= 0) {
+        throw new Exception("--transaction_buffer_mb must be positive");
+      }
+    }
+
+    if (commandLine.hasOption("transaction_spill_dir")) {
+      transactionSpillDir = commandLine.getOptionValue("transaction_spill_dir");
+    }
+
+    if (commandLine.hasOption("transaction_timeout_ms")) {
+      transactionTimeoutMs =
+          Long.parseLong(commandLine.getOptionValue("transaction_timeout_ms"));
+      if (transactionTimeoutMs <= 0) {
+        throw new Exception("--transaction_timeout_ms must be positive");
+      }
     }
 
   }
@@ -0,0 +1,206 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the checkpoints in a local file.
+ * <p>
+ * Each commit appends a line {@code <stream id> <tablet id> <term> <index>} for every checkpoint
+ * that changed since the previous one, and syncs the file. Streams are saved right away, as lines
+ * {@code stream <table id> <stream id>}. When it's loaded, the last line of a tablet wins, and a
+ * last line that isn't complete, because the process died while writing it, is ignored. Once the
+ * file holds {@link #COMPACTION_FACTOR} times more lines than there are tablets, and at least
+ * {@link #MIN_COMPACTION_LINES}, it's rewritten with only the last checkpoint of each tablet and
+ * the streams, into a temporary file that then replaces it.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+  private static final Logger LOG = Logger.getLogger(FileCheckpointStore.class);
+
+  static final int COMPACTION_FACTOR = 4;
+  static final int MIN_COMPACTION_LINES = 1000;
+  private static final String STREAM = "stream";
+
+  private final Path path;
+  private final Path tmpPath;
+  private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+  private final Map<String, Checkpoint> pending = new LinkedHashMap<>();
+  private final Map<String, String> streamIds = new HashMap<>();
+  private FileChannel channel;
+  // How many lines the file holds.
+  private long lines = 0;
+
+  public FileCheckpointStore(String path) throws IOException {
+    this.path = Paths.get(path);
+    this.tmpPath = Paths.get(path + ".tmp");
+    if (Files.exists(this.path)) {
+      load();
+    }
+    channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                               StandardOpenOption.APPEND);
+    LOG.info(String.format("Loaded %d checkpoints from %s", checkpoints.size(), path));
+  }
+
+  static String key(String streamId, String tabletId) {
+    return streamId + " " + tabletId;
+  }
+
+  private void load() throws IOException {
+    String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    int start = 0;
+    int end;
+    while ((end = content.indexOf('\n', start)) >= 0) {
+      String line = content.substring(start, end);
+      start = end + 1;
+      lines++;
+      String[] fields = line.split(" ");
+      if (fields.length == 3 && fields[0].equals(STREAM)) {
+        streamIds.put(fields[1], fields[2]);
+        continue;
+      }
+      if (fields.length != 4) {
+        LOG.warn(String.format("Skipping malformed checkpoint '%s' in %s", line, path));
+        continue;
+      }
+      try {
+        checkpoints.put(key(fields[0], fields[1]),
+                        new Checkpoint(Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+      } catch (NumberFormatException e) {
+        LOG.warn(String.format("Skipping malformed checkpoint '%s' in %s", line, path));
+      }
+    }
+    if (start < content.length()) {
+      LOG.warn(String.format("Ignoring the incomplete last checkpoint in %s", path));
+      // Drop it, or the next commit would append to it.
+      try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+        file.truncate(content.substring(0, start).getBytes(StandardCharsets.UTF_8).length);
+        file.force(true);
+      }
+    }
+  }
+
+  @Override
+  public synchronized Checkpoint get(String streamId, String tabletId) {
+    return checkpoints.get(key(streamId, tabletId));
+  }
+
+  @Override
+  public synchronized void update(String streamId, String tabletId, Checkpoint checkpoint) {
+    pending.put(key(streamId, tabletId), checkpoint);
+  }
+
+  @Override
+  public synchronized void commit() throws IOException {
+    if (channel == null) {
+      throw new IOException("The checkpoint store is closed");
+    }
+    StringBuilder sb = new StringBuilder();
+    int added = 0;
+    for (Map.Entry<String, Checkpoint> entry : pending.entrySet()) {
+      if (!entry.getValue().equals(checkpoints.get(entry.getKey()))) {
+        appendLine(sb, entry.getKey(), entry.getValue());
+        added++;
+      }
+    }
+    if (added > 0) {
+      write(channel, sb);
+      lines += added;
+    }
+    checkpoints.putAll(pending);
+    pending.clear();
+    if (lines >= MIN_COMPACTION_LINES &&
+        lines > (long) COMPACTION_FACTOR * (streamIds.size() + checkpoints.size())) {
+      compact();
+    }
+  }
+
+  @Override
+  public synchronized String getStreamId(String tableId) {
+    return streamIds.get(tableId);
+  }
+
+  @Override
+  public synchronized void putStreamId(String tableId, String streamId) throws IOException {
+    if (channel == null) {
+      throw new IOException("The checkpoint store is closed");
+    }
+    StringBuilder sb = new StringBuilder();
+    appendStreamLine(sb, tableId, streamId);
+    write(channel, sb);
+    lines++;
+    streamIds.put(tableId, streamId);
+  }
+
+  private void compact() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> entry : streamIds.entrySet()) {
+      appendStreamLine(sb, entry.getKey(), entry.getValue());
+    }
+    for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+      appendLine(sb, entry.getKey(), entry.getValue());
+    }
+    try (FileChannel tmp = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING)) {
+      write(tmp, sb);
+    }
+    Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    FileChannel old = channel;
+    channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    old.close();
+    long compacted = streamIds.size() + checkpoints.size();
+    LOG.debug(String.format("Compacted %s from %d to %d lines", path, lines, compacted));
+    lines = compacted;
+  }
+
+  private static void appendLine(StringBuilder sb, String key, Checkpoint checkpoint) {
+    sb.append(key).append(' ').append(checkpoint.getTerm()).append(' ')
+      .append(checkpoint.getIndex()).append('\n');
+  }
+
+  private static void appendStreamLine(StringBuilder sb, String tableId, String streamId) {
+    sb.append(STREAM).append(' ').append(tableId).append(' ').append(streamId).append('\n');
+  }
+
+  private static void write(FileChannel file, StringBuilder sb) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      file.write(buffer);
+    }
+    file.force(false);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      commit();
+      channel.close();
+      channel = null;
+    }
+  }
+}
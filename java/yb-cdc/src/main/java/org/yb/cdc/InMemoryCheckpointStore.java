@@ -0,0 +1,61 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the checkpoints in memory only, so the connector reads the tablets from the start every
+ * time it's started.
+ */
+public class InMemoryCheckpointStore implements CheckpointStore {
+  private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+  private final Map<String, Checkpoint> pending = new HashMap<>();
+  private final Map<String, String> streamIds = new HashMap<>();
+
+  private static String key(String streamId, String tabletId) {
+    return streamId + " " + tabletId;
+  }
+
+  @Override
+  public synchronized Checkpoint get(String streamId, String tabletId) {
+    return checkpoints.get(key(streamId, tabletId));
+  }
+
+  @Override
+  public synchronized void update(String streamId, String tabletId, Checkpoint checkpoint) {
+    pending.put(key(streamId, tabletId), checkpoint);
+  }
+
+  @Override
+  public synchronized void commit() {
+    checkpoints.putAll(pending);
+    pending.clear();
+  }
+
+  @Override
+  public synchronized String getStreamId(String tableId) {
+    return streamIds.get(tableId);
+  }
+
+  @Override
+  public synchronized void putStreamId(String tableId, String streamId) {
+    streamIds.put(tableId, streamId);
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import org.apache.log4j.Logger;
+import org.yb.client.LatencyHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * {@link CdcMetrics} that are also published as MBeans of the platform MBean server, under the
+ * {@code org.yb.cdc} domain:
+ * <ul>
+ *   <li>{@code type=Connector} for the counters shared by the pollers,
+ *   <li>{@code type=Tablet,tablet=<id>} for each tablet polled.
+ * </ul>
+ * A tablet's MBean is registered when it's first polled, and unregistered once it isn't followed
+ * anymore. {@link #close()} unregisters all of them. This class is thread-safe.
+ */
+public class JmxCdcMetrics extends CdcMetrics implements AutoCloseable {
+  private static final Logger LOG = Logger.getLogger(JmxCdcMetrics.class);
+
+  public static final String DOMAIN = "org.yb.cdc";
+
+  /** What the connector exposes over JMX. */
+  public interface ConnectorMXBean {
+    long getDirectPolls();
+    long getProxyHops();
+    long getLeaderLookups();
+    long getPauses();
+    long getDroppedTransactions();
+  }
+
+  /** What a tablet exposes over JMX, latencies are in microseconds. */
+  public interface TabletMXBean {
+    long getPolls();
+    long getFailedPolls();
+    double getEmptyPollRatio();
+    long getRecords();
+    long getBytes();
+    double getRecordsPerSec();
+    double getBytesPerSec();
+    double getPollLatencyMean();
+    long getPollLatencyP50();
+    long getPollLatencyP99();
+    long getPollLatencyMax();
+    long getLagMillis();
+    long getEntriesBehind();
+  }
+
+  private final MBeanServer mbeanServer;
+  // The registered MBeans, by tablet id, or by the empty string for the connector's.
+  private final Map<String, ObjectName> registered = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+
+  /**
+   * Creates the metrics and registers the connector's MBean.
+   */
+  public JmxCdcMetrics() {
+    this.mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    register("", "type=Connector", new ConnectorMXBean() {
+      @Override
+      public long getDirectPolls() {
+        return JmxCdcMetrics.this.getDirectPolls();
+      }
+
+      @Override
+      public long getProxyHops() {
+        return JmxCdcMetrics.this.getProxyHops();
+      }
+
+      @Override
+      public long getLeaderLookups() {
+        return JmxCdcMetrics.this.getLeaderLookups();
+      }
+
+      @Override
+      public long getPauses() {
+        return JmxCdcMetrics.this.getPauses();
+      }
+
+      @Override
+      public long getDroppedTransactions() {
+        return JmxCdcMetrics.this.getDroppedTransactions();
+      }
+    }, ConnectorMXBean.class);
+  }
+
+  @Override
+  protected void onNewTablet(String tabletId, final TabletMetrics tablet) {
+    final LatencyHistogram latency = tablet.getPollLatency();
+    register(tabletId, "type=Tablet,tablet=" + ObjectName.quote(tabletId), new TabletMXBean() {
+      @Override
+      public long getPolls() {
+        return tablet.getPolls();
+      }
+
+      @Override
+      public long getFailedPolls() {
+        return tablet.getFailedPolls();
+      }
+
+      @Override
+      public double getEmptyPollRatio() {
+        return tablet.getEmptyPollRatio();
+      }
+
+      @Override
+      public long getRecords() {
+        return tablet.getRecords();
+      }
+
+      @Override
+      public long getBytes() {
+        return tablet.getBytes();
+      }
+
+      @Override
+      public double getRecordsPerSec() {
+        return tablet.getRecordsPerSec();
+      }
+
+      @Override
+      public double getBytesPerSec() {
+        return tablet.getBytesPerSec();
+      }
+
+      @Override
+      public double getPollLatencyMean() {
+        return latency.getMean();
+      }
+
+      @Override
+      public long getPollLatencyP50() {
+        return latency.getValueAtPercentile(50);
+      }
+
+      @Override
+      public long getPollLatencyP99() {
+        return latency.getValueAtPercentile(99);
+      }
+
+      @Override
+      public long getPollLatencyMax() {
+        return latency.getMax();
+      }
+
+      @Override
+      public long getLagMillis() {
+        return tablet.getLagMillis();
+      }
+
+      @Override
+      public long getEntriesBehind() {
+        return tablet.getEntriesBehind();
+      }
+    }, TabletMXBean.class);
+  }
+
+  @Override
+  protected void onTabletStopped(String tabletId) {
+    ObjectName objectName = registered.remove(tabletId);
+    if (objectName != null) {
+      unregister(objectName);
+    }
+  }
+
+  private <T> void register(String key, String properties, T mbean, Class<T> mbeanInterface) {
+    if (closed) {
+      return;
+    }
+    try {
+      ObjectName objectName = new ObjectName(DOMAIN + ":" + properties);
+      mbeanServer.registerMBean(new StandardMBean(mbean, mbeanInterface, true), objectName);
+      registered.put(key, objectName);
+    } catch (JMException e) {
+      // Metrics are best effort, don't stop polling over them.
+      LOG.warn("Couldn't register MBean " + properties, e);
+    }
+  }
+
+  private void unregister(ObjectName objectName) {
+    try {
+      mbeanServer.unregisterMBean(objectName);
+    } catch (JMException e) {
+      LOG.warn("Couldn't unregister MBean " + objectName, e);
+    }
+  }
+
+  /**
+   * Unregisters all the MBeans. The metrics are still updated afterwards, they just aren't
+   * published anymore.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (ObjectName objectName : registered.values()) {
+      unregister(objectName);
+    }
+    registered.clear();
+  }
+}
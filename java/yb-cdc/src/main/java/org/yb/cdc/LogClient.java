@@ -16,11 +16,17 @@ package org.yb.cdc;
 import org.apache.log4j.Logger;
 import org.yb.client.YBTable;
 
+import java.util.List;
+
 public class LogClient implements OutputClient {
   private static final Logger LOG = Logger.getLogger(LogClient.class);
 
   @Override
-  public void applyChange(YBTable table, CdcService.CDCRecordPB changeRecord) throws Exception {
-    LOG.info(changeRecord.toString());
+  public void applyChanges(YBTable table, String tabletId,
+                           List<CdcService.CDCRecordPB> changeRecords,
+                           Checkpoint checkpoint) throws Exception {
+    for (CdcService.CDCRecordPB changeRecord : changeRecords) {
+      LOG.info(changeRecord.toString());
+    }
   }
 }
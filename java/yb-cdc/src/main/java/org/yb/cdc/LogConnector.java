@@ -21,35 +21,88 @@ import org.yb.client.ListTablesResponse;
 import org.yb.client.ListTabletServersResponse;
 import org.yb.client.LocatedTablet;
 
-import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.*;
 import org.apache.log4j.Logger;
 import org.yb.master.Master;
 import org.yb.util.ServerInfo;
 
+/**
+ * Follows the changes of a set of tables, or of all the tables of a namespace, with one client
+ * and one pool of threads.
+ * <p>
+ * Every {@code discoveryIntervalMs}, on a thread of its own, the connector lists the tables,
+ * tablets and tablet servers again: it starts polling the tables and tablets that appeared, and
+ * stops polling the tables that were dropped. The polls of all the tablets go through one {@link
+ * PollScheduler}, which caps how many of them are in flight to each tablet server.
+ */
 class LogConnector {
   private static final Logger LOG = Logger.getLogger(LogConnector.class);
 
   private static AsyncYBClient client;
   private static YBClient syncClient;
 
-  private ExecutorService executor;
+  private ScheduledExecutorService executor;
+  // Applies the changes, so that a slow output client doesn't hold up the polls.
+  private ScheduledExecutorService applyExecutor;
+  // Runs the discovery, whose blocking calls to the master would otherwise hold up the polls.
+  private ScheduledExecutorService discoveryExecutor;
 
   private static final int DEFAULT_TIMEOUT = 30000;
   private static final int DEFAULT_NUM_THREADS = 8;
+  private static final long METRICS_REPORT_INTERVAL_MS = 60000;
 
-  private YBTable table;
+  /** A table the connector follows, and the pollers of its tablets. */
+  private static class FollowedTable {
+    final YBTable table;
+    final String name;
+    final String streamId;
+    final ConcurrentMap<String, Poller> pollers = new ConcurrentHashMap<>();
 
-  private List<Poller> pollers = new ArrayList<>();
+    FollowedTable(YBTable table, String name, String streamId) {
+      this.table = table;
+      this.name = name;
+      this.streamId = streamId;
+    }
+  }
 
-  List<HostAndPort> hps = new ArrayList<>();
+  // The tables followed, by id.
+  private final ConcurrentMap<String, FollowedTable> tables = new ConcurrentHashMap<>();
+
+  List<HostAndPort> hps = new CopyOnWriteArrayList<>();
 
   private OutputClient outputClient;
 
+  private Set<String> tableNames;
+  private String namespaceName;
   private String streamId;
 
+  private int maxRecords;
+  private long maxPollDelayMs;
+
+  private CdcMetrics metrics;
+  private long lagCheckIntervalMs;
+
+  private CheckpointStore checkpoints;
+  private long checkpointIntervalMs;
+  private boolean updateReplicatedIndex;
+
+  private long queueHighWatermark;
+  private long queueLowWatermark;
+
+  // Shared by the tablets' transaction buffers, or null if the changes aren't grouped by
+  // transaction.
+  private TransactionBuffer.Pool transactionPool;
+
+  private PollScheduler scheduler;
+  private long discoveryIntervalMs;
+
   public LogConnector(CmdLineOpts opts) throws Exception {
     LOG.info("Creating new YB client...");
     client = new AsyncYBClient.AsyncYBClientBuilder(opts.masterAddrs)
@@ -60,52 +113,224 @@ class LogConnector {
 
     syncClient = new YBClient(client);
 
-    executor = Executors.newFixedThreadPool(DEFAULT_NUM_THREADS);
+    executor = Executors.newScheduledThreadPool(DEFAULT_NUM_THREADS);
+    applyExecutor = Executors.newScheduledThreadPool(DEFAULT_NUM_THREADS);
+    discoveryExecutor = Executors.newSingleThreadScheduledExecutor();
 
-    String tableId = null;
-    ListTablesResponse tablesResp = syncClient.getTablesList();
-    for (Master.ListTablesResponsePB.TableInfo tableInfo : tablesResp.getTableInfoList()) {
-      if (tableInfo.getName().equals(opts.tableName) &&
-          tableInfo.getNamespace().getName().equals(opts.namespaceName)) {
-        tableId =  tableInfo.getId().toStringUtf8();
-      }
+    if (opts.sinkDir.isEmpty()) {
+      outputClient = new LogClient();
+    } else {
+      outputClient = new SegmentedFileSink(opts.sinkDir, opts.segmentSizeMb << 20,
+                                           opts.sinkCompression, opts.sinkFsync,
+                                           opts.sinkFsyncIntervalMs);
     }
 
-    if (tableId == null) {
-      LOG.error(String.format("Could not find a table with name %s.%s",
-                              opts.namespaceName, opts.tableName));
+    tableNames = opts.tableNames;
+    namespaceName = opts.namespaceName;
+    streamId = opts.streamId;
+    maxRecords = opts.maxRecords;
+    maxPollDelayMs = opts.maxPollDelayMs;
+
+    if (opts.checkpointFile.isEmpty()) {
+      checkpoints = new InMemoryCheckpointStore();
+    } else {
+      checkpoints = new FileCheckpointStore(opts.checkpointFile);
+    }
+    checkpointIntervalMs = opts.checkpointIntervalMs;
+    updateReplicatedIndex = opts.updateReplicatedIndex;
+    queueHighWatermark = opts.queueHighWatermark;
+    queueLowWatermark = opts.queueLowWatermark;
+
+    scheduler = new PollScheduler(opts.maxInflightPollsPerTserver, executor);
+    discoveryIntervalMs = opts.discoveryIntervalMs;
+
+    metrics = opts.jmxMetrics ? new JmxCdcMetrics() : new CdcMetrics();
+    lagCheckIntervalMs = opts.lagCheckIntervalMs;
+
+    if (opts.groupTransactions) {
+      transactionPool = new TransactionBuffer.Pool(opts.transactionSpillDir,
+                                                   (long) opts.transactionBufferMb << 20,
+                                                   opts.transactionTimeoutMs);
+    }
+  }
+
+  public void run() throws Exception {
+    discover();
+
+    if (tables.isEmpty() && namespaceName.isEmpty()) {
+      LOG.error(String.format("Could not find a table with name %s", tableNames));
       System.exit(0);
     }
 
-    table = syncClient.openTableByUUID(tableId);
+    discoveryExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          discover();
+        } catch (Exception e) {
+          LOG.warn("Looking for new tables and tablets failed", e);
+        }
+      }
+    }, discoveryIntervalMs, discoveryIntervalMs, TimeUnit.MILLISECONDS);
+
+    executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        metrics.report();
+      }
+    }, METRICS_REPORT_INTERVAL_MS, METRICS_REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+    executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        metrics.tick();
+      }
+    }, CdcMetrics.TICK_INTERVAL_MS, CdcMetrics.TICK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        for (FollowedTable followed : tables.values()) {
+          for (Poller poller : followed.pollers.values()) {
+            poller.checkLatestIndex();
+          }
+        }
+      }
+    }, lagCheckIntervalMs, lagCheckIntervalMs, TimeUnit.MILLISECONDS);
+
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        commitCheckpoints();
+      }
+    }, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          outputClient.close();
+        } catch (Exception e) {
+          LOG.error("Closing the output client failed", e);
+        }
+        try {
+          checkpoints.close();
+        } catch (IOException e) {
+          LOG.error("Saving the checkpoints failed", e);
+        }
+      }
+    });
+  }
 
+  private boolean isFollowed(Master.ListTablesResponsePB.TableInfo tableInfo) {
+    String namespace = tableInfo.getNamespace().getName();
+    if (tableNames.contains(namespace + "." + tableInfo.getName())) {
+      return true;
+    }
+    return namespace.equals(namespaceName) &&
+        tableInfo.getRelationType() == Master.RelationType.USER_TABLE_RELATION;
+  }
+
+  /**
+   * Starts polling the tables, tablets and tablet servers that aren't yet, and stops polling the
+   * tables that were dropped.
+   */
+  private synchronized void discover() throws Exception {
     ListTabletServersResponse serversResp = syncClient.listTabletServers();
     for (ServerInfo serverInfo : serversResp.getTabletServersList()) {
-      hps.add(HostAndPort.fromParts(serverInfo.getHost(), serverInfo.getPort()));
+      HostAndPort hp = HostAndPort.fromParts(serverInfo.getHost(), serverInfo.getPort());
+      if (!hps.contains(hp)) {
+        LOG.info(String.format("Found tablet server %s", hp));
+        hps.add(hp);
+      }
     }
 
-    outputClient = new LogClient();
+    Set<String> tableIds = new HashSet<>();
+    ListTablesResponse tablesResp = syncClient.getTablesList();
+    for (Master.ListTablesResponsePB.TableInfo tableInfo : tablesResp.getTableInfoList()) {
+      if (!isFollowed(tableInfo)) {
+        continue;
+      }
+      String tableId = tableInfo.getId().toStringUtf8();
+      tableIds.add(tableId);
+      FollowedTable followed = tables.get(tableId);
+      if (followed == null) {
+        String name = tableInfo.getNamespace().getName() + "." + tableInfo.getName();
+        YBTable table = syncClient.openTableByUUID(tableId);
+        followed = new FollowedTable(table, name, getOrCreateStream(table));
+        LOG.info(String.format("Following table %s with stream %s", name, followed.streamId));
+        tables.put(tableId, followed);
+      }
+      startNewTablets(followed);
+    }
 
-    streamId = opts.streamId;
+    Iterator<FollowedTable> it = tables.values().iterator();
+    while (it.hasNext()) {
+      FollowedTable followed = it.next();
+      if (!tableIds.contains(followed.table.getTableId())) {
+        LOG.info(String.format("Table %s was dropped, stopping", followed.name));
+        for (Poller poller : followed.pollers.values()) {
+          poller.stop();
+        }
+        it.remove();
+      }
+    }
   }
 
-  public void run() throws Exception {
-    Random rand = new Random();
-
-    HostAndPort hp = hps.get(rand.nextInt(hps.size()));
-    if (streamId.isEmpty()) {
-      streamId = syncClient.createCDCStream(hp, table.getTableId()).getStreamId();
-      LOG.info(String.format("Created new stream with id %s", streamId));
+  private String getOrCreateStream(YBTable table) throws Exception {
+    if (!streamId.isEmpty()) {
+      return streamId;
+    }
+    String tableStreamId = checkpoints.getStreamId(table.getTableId());
+    if (tableStreamId != null) {
+      return tableStreamId;
     }
+    HostAndPort hp = hps.get(new Random().nextInt(hps.size()));
+    tableStreamId = syncClient.createCDCStream(hp, table.getTableId()).getStreamId();
+    LOG.info(String.format("Created new stream with id %s", tableStreamId));
+    checkpoints.putStreamId(table.getTableId(), tableStreamId);
+    return tableStreamId;
+  }
 
-    List<LocatedTablet> tabletLocations = table.getTabletsLocations(DEFAULT_TIMEOUT);
+  private void startNewTablets(FollowedTable followed) throws Exception {
+    List<LocatedTablet> tabletLocations = followed.table.getTabletsLocations(DEFAULT_TIMEOUT);
 
     for (LocatedTablet tablet : tabletLocations) {
       String tabletId = new String(tablet.getTabletId());
-      LOG.info(String.format("Polling for new tablet %s", tabletId));
-      Poller poller = new Poller(outputClient, hps, table, streamId, tabletId, executor, client);
-      pollers.add(poller);
+      if (followed.pollers.containsKey(tabletId)) {
+        continue;
+      }
+      LOG.info(String.format("Polling for new tablet %s of table %s", tabletId, followed.name));
+      TransactionBuffer transactions = transactionPool == null ? null :
+          new TransactionBuffer(tabletId, transactionPool, metrics);
+      ApplyQueue applyQueue = new ApplyQueue(outputClient, followed.table, followed.streamId,
+                                             tabletId, checkpoints, metrics, applyExecutor,
+                                             queueHighWatermark, queueLowWatermark, transactions);
+      Poller poller = new Poller(applyQueue, hps, followed.table, followed.streamId, tablet,
+                                 executor, client, maxRecords, maxPollDelayMs, metrics,
+                                 checkpoints, scheduler);
+      followed.pollers.put(tabletId, poller);
       poller.poll();
     }
   }
+
+  private void commitCheckpoints() {
+    try {
+      checkpoints.commit();
+    } catch (IOException e) {
+      // Keep them pending, the next commit will retry.
+      LOG.error("Saving the checkpoints failed", e);
+      return;
+    }
+    if (!updateReplicatedIndex) {
+      // The tablet servers keep the replicated index at the minimum over the tablets' streams.
+      return;
+    }
+    // The tablets' logs can only be garbage collected up to what we won't need after a restart.
+    for (FollowedTable followed : tables.values()) {
+      for (Poller poller : followed.pollers.values()) {
+        poller.updateReplicatedIndex();
+      }
+    }
+  }
 }
@@ -15,6 +15,46 @@ package org.yb.cdc;
 
 import org.yb.client.YBTable;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sink the connector writes the changes to.
+ */
 public interface OutputClient {
-  public void applyChange(YBTable table, CdcService.CDCRecordPB changeRecord) throws Exception;
+  /**
+   * Applies a batch of changes of a tablet. The batches of a tablet are applied one at a time, in
+   * order, while batches of different tablets can be applied concurrently. If this throws, the
+   * same batch is applied again later. Once it returns, the changes up to the checkpoint are
+   * considered delivered, and won't be read again after a restart.
+   * <p>
+   * A batch may have no changes, when the tablet's checkpoint moved without any.
+   */
+  public void applyChanges(YBTable table, String tabletId,
+                           List<CdcService.CDCRecordPB> changeRecords,
+                           Checkpoint checkpoint) throws Exception;
+
+  /**
+   * Applies the changes of a committed transaction of a tablet, with the same ordering and retries
+   * as {@link #applyChanges}, so that they can be written atomically. This is only called when the
+   * connector groups the changes by transaction. The transaction's changes may be read back from
+   * disk, so the client should iterate over them rather than copy them when it can.
+   * <p>
+   * By default, the changes are applied as one batch with {@link #applyChanges}.
+   */
+  public default void applyTransaction(YBTable table, String tabletId,
+                                       CdcTransaction transaction,
+                                       Checkpoint checkpoint) throws Exception {
+    List<CdcService.CDCRecordPB> changeRecords = new ArrayList<>(transaction.size());
+    for (CdcService.CDCRecordPB changeRecord : transaction) {
+      changeRecords.add(changeRecord);
+    }
+    applyChanges(table, tabletId, changeRecords, checkpoint);
+  }
+
+  /**
+   * Releases what the client holds, once the connector is shutting down.
+   */
+  public default void close() throws Exception {
+  }
 }
@@ -0,0 +1,94 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import com.google.common.net.HostAndPort;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Caps how many polls are in flight to each tablet server.
+ * <p>
+ * A poll is sent right away while its server has fewer than {@code maxInflightPerServer} of them
+ * in flight, and waits in the server's queue otherwise. The queues are first in, first out, and
+ * each tablet has at most one poll at a time, so the tablets a server hosts take turns. This
+ * class is thread-safe.
+ */
+public class PollScheduler {
+  private final int maxInflightPerServer;
+  private final ScheduledExecutorService executor;
+
+  private static class Server {
+    int inflight = 0;
+    final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+  }
+
+  private final Map<HostAndPort, Server> servers = new HashMap<>();
+
+  public PollScheduler(int maxInflightPerServer, ScheduledExecutorService executor) {
+    this.maxInflightPerServer = maxInflightPerServer;
+    this.executor = executor;
+  }
+
+  /**
+   * Runs the poll once the server has room for it. The poll must call {@link #release} once its
+   * RPC completed, whether it succeeded or not.
+   */
+  public void submit(HostAndPort hp, Runnable poll) {
+    synchronized (this) {
+      Server server = servers.get(hp);
+      if (server == null) {
+        server = new Server();
+        servers.put(hp, server);
+      }
+      if (server.inflight >= maxInflightPerServer) {
+        server.waiting.add(poll);
+        return;
+      }
+      server.inflight++;
+    }
+    poll.run();
+  }
+
+  /**
+   * Frees the slot of a poll to the server, and hands it to the next poll waiting for it.
+   */
+  public void release(HostAndPort hp) {
+    Runnable next;
+    synchronized (this) {
+      Server server = servers.get(hp);
+      next = server.waiting.poll();
+      if (next == null) {
+        server.inflight--;
+        return;
+      }
+    }
+    // Releases come from the RPC callbacks, send the next poll from the pollers' threads.
+    executor.submit(next);
+  }
+
+  /**
+   * @return how many polls wait for a slot, on all servers
+   */
+  public synchronized int getNumWaiting() {
+    int waiting = 0;
+    for (Server server : servers.values()) {
+      waiting += server.waiting.size();
+    }
+    return waiting;
+  }
+}
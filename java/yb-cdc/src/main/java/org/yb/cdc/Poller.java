@@ -17,66 +17,288 @@ import com.stumbleupon.async.Callback;
 import org.apache.log4j.Logger;
 import org.yb.client.AsyncYBClient;
 import org.yb.client.GetChangesResponse;
+import org.yb.client.GetLatestEntryOpIdResponse;
+import org.yb.client.LocatedTablet;
+import org.yb.client.UpdateCdcReplicatedIndexResponse;
 import org.yb.client.YBTable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.List;
 
 import com.google.common.net.HostAndPort;
 
 
+/**
+ * Polls the changes of one tablet, and hands them to the output client.
+ * <p>
+ * The next poll is sent right away while the tablet returns full batches of {@code maxRecords}.
+ * Once it's caught up, polls are spaced by {@link #MIN_POLL_DELAY_MS}, doubling every time a poll
+ * comes back empty, up to {@code maxPollDelayMs}. Failed polls are retried after a random delay
+ * that grows the same way with consecutive failures, so that pollers don't retry in lockstep.
+ * <p>
+ * Polls go straight to the tablet's leader. When the leader isn't known, because the tablet
+ * server we had says it doesn't lead the tablet anymore, it's looked up again from the master, at
+ * most every {@link #RESOLVE_INTERVAL_MS}. Until then, polls go to a random tablet server, which
+ * forwards them to the leader.
+ * <p>
+ * The changes are handed to the tablet's {@link ApplyQueue}, which records the checkpoint once
+ * they're applied. Polling pauses while the queue is full. The poller starts from the tablet's
+ * committed checkpoint. With --update_replicated_index, once a checkpoint is committed, {@link
+ * #updateReplicatedIndex} lets the tablet's replicas garbage collect the log before it.
+ * <p>
+ * Every poll, leader lookup and pause is reported to the {@link CdcMetricsSink}, and {@link
+ * #checkLatestIndex} reports how far the leader's log goes, to tell how far behind we are.
+ */
 public class Poller {
   private static final Logger LOG = Logger.getLogger(Poller.class);
 
+  // The delay after a batch that wasn't full, and the first one once they come back empty.
+  static final long MIN_POLL_DELAY_MS = 10;
+  // The first delay after a failed poll.
+  static final long MIN_ERROR_DELAY_MS = 100;
+  // The least time between two lookups of the tablet's leader.
+  static final long RESOLVE_INTERVAL_MS = 1000;
+
+  private static final long RESOLVE_TIMEOUT_MS = 30000;
+
   private long term;
   private long index;
   private String streamId;
   private String tabletId;
-  private ExecutorService executor;
+  private byte[] tabletIdBytes;
+  private byte[] partitionKeyStart;
+  private ScheduledExecutorService executor;
   private YBTable table;
   private AsyncYBClient client;
   private List<HostAndPort> hps;
-  private OutputClient outputClient;
+  private ApplyQueue applyQueue;
+  private final int maxRecords;
+  private final long maxPollDelayMs;
+  private final CdcMetricsSink metrics;
+  private final CheckpointStore checkpoints;
+  private final PollScheduler scheduler;
+  private volatile boolean stopped = false;
+
+  // The servers hosting the tablet's replicas.
+  private volatile List<HostAndPort> replicas;
+  // The index the replicas were last told about, or -1 to tell them again.
+  private volatile long replicatedIndex = -1;
+
+  // The tablet's leader, or null if it has to be looked up again.
+  private volatile HostAndPort leader;
+  private volatile long lastResolveNanos;
 
-  public Poller(OutputClient outputClient, List<HostAndPort> hps, YBTable table, String streamId,
-                String tabletId, ExecutorService executor, AsyncYBClient client) {
+  // How long we waited before the current poll, if it followed an empty one.
+  private long idleDelayMs = 0;
+  private int consecutiveErrors = 0;
+
+  public Poller(ApplyQueue applyQueue, List<HostAndPort> hps, YBTable table, String streamId,
+                LocatedTablet tablet, ScheduledExecutorService executor, AsyncYBClient client,
+                int maxRecords, long maxPollDelayMs, CdcMetricsSink metrics,
+                CheckpointStore checkpoints, PollScheduler scheduler) {
     this.streamId = streamId;
-    this.tabletId = tabletId;
-    this.term = 0;
-    this.index = 0;
+    this.tabletIdBytes = tablet.getTabletId();
+    this.tabletId = new String(tabletIdBytes);
+    this.partitionKeyStart = tablet.getPartition().getPartitionKeyStart();
+    this.checkpoints = checkpoints;
+    this.scheduler = scheduler;
+    Checkpoint checkpoint = checkpoints.get(streamId, tabletId);
+    if (checkpoint != null) {
+      LOG.info(String.format("Resuming tablet %s from %s", tabletId, checkpoint));
+      this.term = checkpoint.getTerm();
+      this.index = checkpoint.getIndex();
+    } else {
+      this.term = 0;
+      this.index = 0;
+    }
     this.executor = executor;
     this.client = client;
     this.table = table;
     this.hps = hps;
-    this.outputClient = outputClient;
+    this.applyQueue = applyQueue;
+    this.maxRecords = maxRecords;
+    this.maxPollDelayMs = maxPollDelayMs;
+    this.metrics = metrics;
+    this.leader = leaderOf(tablet);
+    this.replicas = replicasOf(tablet);
+    this.lastResolveNanos = System.nanoTime();
   }
 
+  private static HostAndPort leaderOf(LocatedTablet tablet) {
+    LocatedTablet.Replica replica = tablet.getLeaderReplica();
+    if (replica == null) {
+      return null;
+    }
+    return HostAndPort.fromParts(replica.getRpcHost(), replica.getRpcPort());
+  }
+
+  private static List<HostAndPort> replicasOf(LocatedTablet tablet) {
+    List<HostAndPort> replicas = new ArrayList<>();
+    for (LocatedTablet.Replica replica : tablet.getReplicas()) {
+      replicas.add(HostAndPort.fromParts(replica.getRpcHost(), replica.getRpcPort()));
+    }
+    return replicas;
+  }
+
+  private final Runnable resumeTask = new Runnable() {
+    @Override
+    public void run() {
+      poll();
+    }
+  };
+
   public Void poll() {
-    executor.submit(new Callable<Void>() {
+    return pollAfter(0);
+  }
+
+  private Void pollAfter(long delayMs) {
+    Callable<Void> task = new Callable<Void>() {
       @Override
       public Void call() throws Exception {
         return doPoll();
       }
-    });
+    };
+    if (delayMs == 0) {
+      executor.submit(task);
+    } else {
+      executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
     return null;
   }
 
+  /**
+   * Stops polling the tablet, once the poll in flight, if any, completed.
+   */
+  public void stop() {
+    stopped = true;
+    applyQueue.close();
+    metrics.tabletStopped(tabletId);
+  }
+
   private Void doPoll() {
-    Random rand = new Random();
-    HostAndPort hp = hps.get(rand.nextInt(hps.size()));
+    if (stopped) {
+      return null;
+    }
+    HostAndPort hp = leader;
+    final boolean direct = hp != null;
+    if (!direct) {
+      if (System.nanoTime() - lastResolveNanos >=
+          TimeUnit.MILLISECONDS.toNanos(RESOLVE_INTERVAL_MS)) {
+        return resolveLeader();
+      }
+      Random rand = new Random();
+      hp = hps.get(rand.nextInt(hps.size()));
+    }
 
-    client.getChanges(hp, table, streamId, tabletId, term, index,
-                      new Callback<Void, GetChangesResponse>() {
+    final HostAndPort target = hp;
+    scheduler.submit(target, new Runnable() {
       @Override
-      public Void call(GetChangesResponse getChangesResponse) throws Exception {
-        return handlePoll(getChangesResponse);
+      public void run() {
+        sendPoll(target, direct);
       }
     });
     return null;
   }
 
+  private void sendPoll(final HostAndPort hp, boolean direct) {
+    if (stopped) {
+      scheduler.release(hp);
+      return;
+    }
+    metrics.pollSent(tabletId, direct);
+    final long startNanos = System.nanoTime();
+    try {
+      client.getChanges(hp, table, streamId, tabletId, term, index, maxRecords, !direct,
+                        new Callback<Void, GetChangesResponse>() {
+        @Override
+        public Void call(GetChangesResponse getChangesResponse) throws Exception {
+          long latencyNanos = System.nanoTime() - startNanos;
+          if (getChangesResponse.getResp().hasError()) {
+            metrics.pollFailed(tabletId, latencyNanos);
+          } else {
+            metrics.pollCompleted(tabletId, latencyNanos,
+                                  getChangesResponse.getResp().getRecordsCount(),
+                                  getChangesResponse.getResp().getSerializedSize());
+          }
+          return handlePoll(getChangesResponse);
+        }
+      }).addErrback(new Callback<Void, Exception>() {
+        @Override
+        public Void call(Exception e) throws Exception {
+          metrics.pollFailed(tabletId, System.nanoTime() - startNanos);
+          if (stopped) {
+            // The connection likely went away with the client.
+            return null;
+          }
+          LOG.warn(String.format("Polling tablet %s failed", tabletId), e);
+          // The leader may be down, look it up again.
+          forgetLeader();
+          return pollAfterError();
+        }
+      }).addBoth(new Callback<Void, Void>() {
+        @Override
+        public Void call(Void ignored) throws Exception {
+          scheduler.release(hp);
+          return null;
+        }
+      });
+    } catch (RuntimeException e) {
+      scheduler.release(hp);
+      metrics.pollFailed(tabletId, System.nanoTime() - startNanos);
+      LOG.warn(String.format("Polling tablet %s failed", tabletId), e);
+      pollAfterError();
+    }
+  }
+
+  /**
+   * Looks up the tablet's leader from the master, then polls it.
+   */
+  private Void resolveLeader() {
+    lastResolveNanos = System.nanoTime();
+    metrics.leaderLookup(tabletId);
+    try {
+      // Only the tablet containing the start key is needed.
+      table.asyncGetTabletsLocations(partitionKeyStart, partitionKeyStart, RESOLVE_TIMEOUT_MS)
+          .addCallback(new Callback<Void, List<LocatedTablet>>() {
+            @Override
+            public Void call(List<LocatedTablet> tablets) throws Exception {
+              for (LocatedTablet tablet : tablets) {
+                if (Arrays.equals(tablet.getTabletId(), tabletIdBytes)) {
+                  leader = leaderOf(tablet);
+                  replicas = replicasOf(tablet);
+                  LOG.info(String.format("Leader of tablet %s is %s", tabletId, leader));
+                }
+              }
+              return poll();
+            }
+          }).addErrback(new Callback<Void, Exception>() {
+            @Override
+            public Void call(Exception e) throws Exception {
+              LOG.warn(String.format("Looking up the leader of tablet %s failed", tabletId), e);
+              return pollAfterError();
+            }
+          });
+    } catch (Exception e) {
+      LOG.warn(String.format("Looking up the leader of tablet %s failed", tabletId), e);
+      return pollAfterError();
+    }
+    return null;
+  }
+
+  private void forgetLeader() {
+    if (leader != null) {
+      leader = null;
+      // Send the next polls through a proxy until the new leader is known.
+      lastResolveNanos = System.nanoTime();
+    }
+  }
+
   private Void handlePoll(GetChangesResponse getChangesResponse) {
     executor.submit(new Callable<Void>() {
       @Override
@@ -90,22 +312,140 @@ public class Poller {
   private Void doHandlePoll(GetChangesResponse getChangesResponse) throws Exception {
     // Handle the poll
     if (getChangesResponse.getResp().hasError()) {
-      if (getChangesResponse.getResp().getError().getCode() ==
-              CdcService.CDCErrorPB.Code.INVALID_REQUEST) {
-        LOG.error("Invalid Request");
-        System.exit(0);
+      CdcService.CDCErrorPB.Code code = getChangesResponse.getResp().getError().getCode();
+      if (code == CdcService.CDCErrorPB.Code.INVALID_REQUEST) {
+        // Retrying won't help, e.g. the stream doesn't exist anymore. The other tablets may still
+        // be fine, so only this one stops.
+        LOG.error(String.format("Stream %s rejected the poll of tablet %s, stopping it: %s",
+                                streamId, tabletId,
+                                getChangesResponse.getResp().getError().getStatus().getMessage()));
+        stop();
+        return null;
+      }
+      if (code == CdcService.CDCErrorPB.Code.TABLET_NOT_FOUND ||
+          code == CdcService.CDCErrorPB.Code.NOT_LEADER ||
+          code == CdcService.CDCErrorPB.Code.LEADER_NOT_READY) {
+        LOG.info(String.format("%s isn't the leader of tablet %s anymore: %s",
+                               leader, tabletId, code));
+        forgetLeader();
+      }
+      return pollAfterError();
+    }
+    consecutiveErrors = 0;
+
+    int numRecords = getChangesResponse.getResp().getRecordsCount();
+    long newTerm = getChangesResponse.getResp().getCheckpoint().getOpId().getTerm();
+    long newIndex = getChangesResponse.getResp().getCheckpoint().getOpId().getIndex();
+    if (numRecords > 0 || newTerm != term || newIndex != index) {
+      term = newTerm;
+      index = newIndex;
+      boolean canPoll = applyQueue.enqueue(getChangesResponse.getResp().getRecordsList(),
+                                           new Checkpoint(term, index), resumeTask);
+      if (!canPoll) {
+        // The resume task polls again once the queue drained.
+        metrics.paused(tabletId);
+        idleDelayMs = 0;
+        return null;
       }
+    }
+
+    if (maxRecords > 0 && numRecords >= maxRecords) {
+      // There's likely more waiting.
+      idleDelayMs = 0;
       return poll();
     }
+    if (numRecords > 0) {
+      idleDelayMs = 0;
+      return pollAfter(MIN_POLL_DELAY_MS);
+    }
+    if (applyQueue.getQueuedRecords() == 0) {
+      metrics.caughtUp(tabletId);
+    }
+    idleDelayMs = idleDelayMs == 0 ?
+        MIN_POLL_DELAY_MS : Math.min(idleDelayMs * 2, maxPollDelayMs);
+    return pollAfter(idleDelayMs);
+  }
 
-    for (org.yb.cdc.CdcService.CDCRecordPB record : getChangesResponse.getResp().getRecordsList()) {
-      outputClient.applyChange(table, record);
+  /**
+   * Tells the tablet's replicas up to which index the log was consumed, if the committed
+   * checkpoint moved since the last time. This overwrites the replicated index the tablet server
+   * computes over all the tablet's streams, so it's only safe when the stream is the only one.
+   */
+  public void updateReplicatedIndex() {
+    Checkpoint checkpoint = checkpoints.get(streamId, tabletId);
+    if (checkpoint == null || checkpoint.getIndex() == replicatedIndex) {
+      return;
+    }
+    replicatedIndex = checkpoint.getIndex();
+    for (final HostAndPort hp : replicas) {
+      client.updateCdcReplicatedIndex(hp, table, tabletId, checkpoint.getIndex())
+          .addCallback(new Callback<Void, UpdateCdcReplicatedIndexResponse>() {
+            @Override
+            public Void call(UpdateCdcReplicatedIndexResponse response) throws Exception {
+              if (response.getResp().hasError()) {
+                LOG.warn(String.format("Updating the replicated index of tablet %s on %s " +
+                                       "failed: %s", tabletId, hp, response.getResp().getError()));
+                replicatedIndex = -1;
+              }
+              return null;
+            }
+          }).addErrback(new Callback<Void, Exception>() {
+            @Override
+            public Void call(Exception e) throws Exception {
+              LOG.warn(String.format("Updating the replicated index of tablet %s on %s failed",
+                                     tabletId, hp), e);
+              replicatedIndex = -1;
+              return null;
+            }
+          });
     }
+  }
 
-    this.term = getChangesResponse.getResp().getCheckpoint().getOpId().getTerm();
-    this.index = getChangesResponse.getResp().getCheckpoint().getOpId().getIndex();
+  /**
+   * Asks the tablet's leader for the index of the last entry of its log, and reports it to the
+   * metrics. Skipped while the leader isn't known.
+   */
+  public void checkLatestIndex() {
+    HostAndPort hp = leader;
+    if (stopped || hp == null) {
+      return;
+    }
+    try {
+      client.getLatestEntryOpId(hp, table, tabletId)
+          .addCallback(new Callback<Void, GetLatestEntryOpIdResponse>() {
+            @Override
+            public Void call(GetLatestEntryOpIdResponse response) throws Exception {
+              if (response.getResp().hasError()) {
+                LOG.debug(String.format("Getting the latest entry of tablet %s failed: %s",
+                                        tabletId, response.getResp().getError()));
+              } else {
+                metrics.latestIndex(tabletId, response.getResp().getOpId().getIndex());
+              }
+              return null;
+            }
+          }).addErrback(new Callback<Void, Exception>() {
+            @Override
+            public Void call(Exception e) throws Exception {
+              LOG.debug(String.format("Getting the latest entry of tablet %s failed", tabletId),
+                        e);
+              return null;
+            }
+          });
+    } catch (RuntimeException e) {
+      LOG.debug(String.format("Getting the latest entry of tablet %s failed", tabletId), e);
+    }
+  }
 
-    return poll();
+  /**
+   * Retries after a random delay, of up to {@link #MIN_ERROR_DELAY_MS} doubled for every failure
+   * in a row but the first, capped at {@code maxPollDelayMs}.
+   */
+  private Void pollAfterError() {
+    consecutiveErrors = Math.min(consecutiveErrors + 1, 30);
+    long ceilingMs = Math.min(MIN_ERROR_DELAY_MS << (consecutiveErrors - 1),
+                              Math.max(maxPollDelayMs, MIN_ERROR_DELAY_MS));
+    return pollAfter(MIN_POLL_DELAY_MS +
+                     ThreadLocalRandom.current().nextLong(ceilingMs - MIN_POLL_DELAY_MS + 1));
   }
 
 }
@@ -0,0 +1,86 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import com.google.protobuf.ByteString;
+import org.yb.Schema;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes CDC records into {@link CdcRow}s of a table's schema.
+ * <p>
+ * Records name their columns, so the decoder looks them up once per column in a map built from
+ * the schema, and puts the values into the reused row by index, which doesn't allocate anything
+ * per record:
+ * <pre>{@code
+ * RowDecoder decoder = new RowDecoder(table.getSchema());
+ * CdcRow row = decoder.newRow();
+ * for (CdcService.CDCRecordPB record : records) {
+ *   decoder.decode(record, row);
+ *   long id = row.getLong(idIndex);
+ *   ...
+ * }
+ * }</pre>
+ * Columns the schema doesn't know, because they were added after it was fetched or because the
+ * stream is in the WAL format, are skipped. The decoder is thread-safe, its rows aren't.
+ */
+public class RowDecoder {
+  private final Schema schema;
+  private final Map<ByteString, Integer> columnIndexes = new HashMap<>();
+
+  public RowDecoder(Schema schema) {
+    this.schema = schema;
+    for (int i = 0; i < schema.getColumnCount(); i++) {
+      columnIndexes.put(ByteString.copyFromUtf8(schema.getColumnByIndex(i).getName()), i);
+    }
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * @return a new row to decode records into
+   */
+  public CdcRow newRow() {
+    return new CdcRow(schema);
+  }
+
+  /**
+   * Decodes the key and changed columns of the record into the row, replacing what it held.
+   * @return the row
+   */
+  public CdcRow decode(CdcService.CDCRecordPB record, CdcRow row) {
+    if (row.getSchema() != schema) {
+      throw new IllegalArgumentException("The row was created by another decoder");
+    }
+    row.reset(record);
+    decodeColumns(record.getKeyList(), row);
+    decodeColumns(record.getChangesList(), row);
+    return row;
+  }
+
+  private void decodeColumns(List<CdcService.KeyValuePairPB> columns, CdcRow row) {
+    for (int i = 0; i < columns.size(); i++) {
+      CdcService.KeyValuePairPB column = columns.get(i);
+      Integer index = columnIndexes.get(column.getKey());
+      if (index != null) {
+        row.set(index, column.getValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.cdc.SegmentedFileSink.BLOCK_HEADER_SIZE;
+import static org.yb.cdc.SegmentedFileSink.ROLL_MARKER;
+
+import com.google.protobuf.CodedInputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads back the changes {@link SegmentedFileSink} wrote for a tablet, from its first segment.
+ * <p>
+ * {@link #next} returns null once it caught up with the writer, and the records written after
+ * that once it's called again, so the segments can be tailed while the connector is running:
+ * <pre>{@code
+ * try (SegmentReader reader = new SegmentReader(dir + "/" + tabletId)) {
+ *   while (running) {
+ *     CdcService.CDCRecordPB record = reader.next();
+ *     if (record == null) {
+ *       Thread.sleep(100);
+ *       continue;
+ *     }
+ *     ...
+ *   }
+ * }
+ * }</pre>
+ * Instances aren't thread-safe.
+ */
+public class SegmentReader implements Closeable {
+  private final Path dir;
+  private long segment;
+  private FileChannel channel;
+  private long position = 0;
+
+  private final ByteBuffer header =
+      ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer nextLength = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+  private final CRC32 crc = new CRC32();
+  private final Inflater inflater = new Inflater();
+  private byte[] stored = new byte[0];
+  private byte[] frames = new byte[0];
+
+  // The frames of the current block.
+  private CodedInputStream block;
+  private Checkpoint checkpoint;
+
+  public SegmentReader(String tabletDir) throws IOException {
+    this.dir = Paths.get(tabletDir);
+    this.segment = Math.max(SegmentedFileSink.findSegment(dir, true), 0);
+  }
+
+  /**
+   * @return the next record, or null if there is none yet
+   * @throws IOException if the segments can't be read, or are corrupted
+   */
+  public CdcService.CDCRecordPB next() throws IOException {
+    while (block == null || block.isAtEnd()) {
+      block = null;
+      if (!readBlock()) {
+        return null;
+      }
+    }
+    int length = block.readRawLittleEndian32();
+    int limit = block.pushLimit(length);
+    CdcService.CDCRecordPB record = CdcService.CDCRecordPB.parseFrom(block);
+    block.popLimit(limit);
+    return record;
+  }
+
+  /**
+   * @return the checkpoint of the batch the last record returned by {@link #next} belongs to, or
+   *         null if none was returned yet
+   */
+  public Checkpoint getCheckpoint() {
+    return checkpoint;
+  }
+
+  private boolean readBlock() throws IOException {
+    while (true) {
+      if (channel == null) {
+        Path path = SegmentedFileSink.segmentPath(dir, segment);
+        if (!Files.exists(path)) {
+          return false;
+        }
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        position = 0;
+      }
+      // The length first, as a roll marker may be too close to the end for a whole header.
+      header.clear();
+      header.limit(4);
+      if (!readFully(header, position)) {
+        return false;
+      }
+      int length = header.getInt(0);
+      if (length == 0) {
+        return false;
+      }
+      if (length == ROLL_MARKER) {
+        if (!Files.exists(SegmentedFileSink.segmentPath(dir, segment + 1))) {
+          // The writer is about to create it.
+          return false;
+        }
+        channel.close();
+        channel = null;
+        segment++;
+        continue;
+      }
+      header.limit(BLOCK_HEADER_SIZE);
+      if (!readFully(header, position + 4)) {
+        throw corrupted("is truncated");
+      }
+      int rawLength = header.getInt(4);
+      int expectedCrc = header.getInt(8);
+      byte codec = header.get(12);
+      long term = header.getLong(13);
+      long index = header.getLong(21);
+
+      if (stored.length < length) {
+        stored = new byte[length];
+      }
+      ByteBuffer storedBuffer = ByteBuffer.wrap(stored, 0, length);
+      if (!readFully(storedBuffer, position + BLOCK_HEADER_SIZE)) {
+        throw corrupted("is truncated");
+      }
+      crc.reset();
+      crc.update(stored, 0, length);
+      if ((int) crc.getValue() != expectedCrc) {
+        if (!isFollowed(position + BLOCK_HEADER_SIZE + length)) {
+          // The writer may still be writing the rest of the last block: nothing orders its store
+          // of the length before the ones of the header and the frames.
+          return false;
+        }
+        throw corrupted("has a wrong checksum");
+      }
+
+      byte[] data = stored;
+      if (codec == SegmentedFileSink.Compression.DEFLATE.ordinal()) {
+        if (frames.length < rawLength) {
+          frames = new byte[rawLength];
+        }
+        inflater.reset();
+        inflater.setInput(stored, 0, length);
+        try {
+          if (inflater.inflate(frames, 0, rawLength) != rawLength) {
+            throw corrupted("doesn't inflate to its length");
+          }
+        } catch (DataFormatException e) {
+          throw new IOException(corrupted("can't be inflated").getMessage(), e);
+        }
+        data = frames;
+      } else if (codec != SegmentedFileSink.Compression.NONE.ordinal()) {
+        throw corrupted("has an unknown compression " + codec);
+      }
+
+      block = CodedInputStream.newInstance(data, 0, rawLength);
+      block.setSizeLimit(Integer.MAX_VALUE);
+      checkpoint = new Checkpoint(term, index);
+      position += BLOCK_HEADER_SIZE + length;
+      return true;
+    }
+  }
+
+  /**
+   * @return whether a block or a roll marker was written at the position
+   */
+  private boolean isFollowed(long at) throws IOException {
+    nextLength.clear();
+    return readFully(nextLength, at) && nextLength.getInt(0) != 0;
+  }
+
+  private boolean readFully(ByteBuffer buffer, long at) throws IOException {
+    long offset = at;
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, offset);
+      if (read < 0) {
+        return false;
+      }
+      offset += read;
+    }
+    return true;
+  }
+
+  private IOException corrupted(String what) {
+    return new IOException(String.format("The block at %d of %s %s", position,
+                                         SegmentedFileSink.segmentPath(dir, segment), what));
+  }
+
+  @Override
+  public void close() throws IOException {
+    inflater.end();
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+}
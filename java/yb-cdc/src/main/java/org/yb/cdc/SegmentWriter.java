@@ -0,0 +1,230 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.cdc.SegmentedFileSink.BLOCK_HEADER_SIZE;
+import static org.yb.cdc.SegmentedFileSink.ROLL_MARKER;
+
+import com.google.protobuf.CodedOutputStream;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Appends the blocks of one tablet to its segments, see {@link SegmentedFileSink} for the format.
+ * <p>
+ * When it's opened on a directory that already has segments, it goes on after the last complete
+ * block of the last one, and clears what follows, which a crash may have left half written.
+ */
+class SegmentWriter implements Closeable {
+  private static final Logger LOG = Logger.getLogger(SegmentWriter.class);
+
+  /** Exposes its buffer, so that the frames aren't copied before they're written. */
+  private static class FrameBuffer extends ByteArrayOutputStream {
+    byte[] array() {
+      return buf;
+    }
+  }
+
+  private final Path dir;
+  private final int segmentSize;
+  private final SegmentedFileSink.Compression compression;
+  private final SegmentedFileSink.FsyncPolicy fsyncPolicy;
+  private final long fsyncIntervalNanos;
+
+  private final FrameBuffer frames = new FrameBuffer();
+  private final CRC32 crc = new CRC32();
+  private final Deflater deflater;
+  private byte[] compressed = new byte[0];
+
+  private long segment;
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private long lastFsyncNanos = System.nanoTime();
+
+  SegmentWriter(Path dir, int segmentSize, SegmentedFileSink.Compression compression,
+                SegmentedFileSink.FsyncPolicy fsyncPolicy, long fsyncIntervalNanos)
+      throws IOException {
+    this.dir = dir;
+    this.segmentSize = segmentSize;
+    this.compression = compression;
+    this.fsyncPolicy = fsyncPolicy;
+    this.fsyncIntervalNanos = fsyncIntervalNanos;
+    this.deflater = compression == SegmentedFileSink.Compression.DEFLATE ?
+        new Deflater(Deflater.BEST_SPEED) : null;
+    Files.createDirectories(dir);
+    long last = SegmentedFileSink.findSegment(dir, false);
+    if (last < 0) {
+      openSegment(0, segmentSize);
+    } else {
+      recover(last);
+    }
+  }
+
+  private void openSegment(long segment, int size) throws IOException {
+    this.segment = segment;
+    channel = FileChannel.open(SegmentedFileSink.segmentPath(dir, segment),
+                               StandardOpenOption.CREATE, StandardOpenOption.READ,
+                               StandardOpenOption.WRITE);
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void recover(long last) throws IOException {
+    openSegment(last, segmentSize);
+    int position = 0;
+    while (position + 4 <= buffer.capacity()) {
+      int length = buffer.getInt(position);
+      if (length == ROLL_MARKER) {
+        // The next segment wasn't created yet.
+        closeSegment();
+        openSegment(last + 1, segmentSize);
+        return;
+      }
+      if (length <= 0 || position + BLOCK_HEADER_SIZE > buffer.capacity() ||
+          length > buffer.capacity() - position - BLOCK_HEADER_SIZE) {
+        break;
+      }
+      crc.reset();
+      for (int i = 0; i < length; i++) {
+        crc.update(buffer.get(position + BLOCK_HEADER_SIZE + i));
+      }
+      if ((int) crc.getValue() != buffer.getInt(position + 8)) {
+        LOG.warn(String.format("Dropping the incomplete block at %d of %s", position,
+                               SegmentedFileSink.segmentPath(dir, last)));
+        break;
+      }
+      position += BLOCK_HEADER_SIZE + length;
+    }
+    for (int i = position; i < buffer.capacity(); i++) {
+      buffer.put(i, (byte) 0);
+    }
+    buffer.force();
+    buffer.position(position);
+    LOG.info(String.format("Appending to %s at %d", SegmentedFileSink.segmentPath(dir, last),
+                           position));
+  }
+
+  private void closeSegment() throws IOException {
+    buffer.force();
+    buffer = null;
+    channel.close();
+    channel = null;
+  }
+
+  synchronized void append(List<CdcService.CDCRecordPB> records, Checkpoint checkpoint)
+      throws IOException {
+    if (buffer == null) {
+      throw new IOException("The segments of " + dir + " are closed");
+    }
+    if (records.isEmpty()) {
+      // A block of length 0 would read as the end of what was written, and hide the blocks after
+      // it. The checkpoint of a batch without records is only needed by the checkpoint store.
+      return;
+    }
+    frames.reset();
+    CodedOutputStream output = CodedOutputStream.newInstance(frames);
+    for (CdcService.CDCRecordPB record : records) {
+      output.writeFixed32NoTag(record.getSerializedSize());
+      record.writeTo(output);
+    }
+    output.flush();
+
+    int rawLength = frames.size();
+    byte[] stored = frames.array();
+    int storedLength = rawLength;
+    SegmentedFileSink.Compression codec = SegmentedFileSink.Compression.NONE;
+    if (deflater != null) {
+      int deflated = deflate(rawLength);
+      if (deflated < rawLength) {
+        stored = compressed;
+        storedLength = deflated;
+        codec = SegmentedFileSink.Compression.DEFLATE;
+      }
+    }
+    crc.reset();
+    crc.update(stored, 0, storedLength);
+
+    int blockSize = BLOCK_HEADER_SIZE + storedLength;
+    // Always leave room for the roll marker.
+    if (buffer.remaining() < blockSize + 4) {
+      buffer.putInt(buffer.position(), ROLL_MARKER);
+      closeSegment();
+      openSegment(segment + 1, Math.max(segmentSize, blockSize + 4));
+    }
+
+    int start = buffer.position();
+    buffer.position(start + 4);
+    buffer.putInt(rawLength);
+    buffer.putInt((int) crc.getValue());
+    buffer.put((byte) codec.ordinal());
+    buffer.putLong(checkpoint.getTerm());
+    buffer.putLong(checkpoint.getIndex());
+    buffer.put(stored, 0, storedLength);
+    // Publish the block. A reader tailing the segment may see this before the rest of the block,
+    // until it checks the checksum.
+    buffer.putInt(start, storedLength);
+
+    switch (fsyncPolicy) {
+      case BATCH:
+        buffer.force();
+        break;
+      case INTERVAL:
+        long now = System.nanoTime();
+        if (now - lastFsyncNanos >= fsyncIntervalNanos) {
+          buffer.force();
+          lastFsyncNanos = now;
+        }
+        break;
+      case NEVER:
+        break;
+    }
+  }
+
+  private int deflate(int rawLength) {
+    if (compressed.length < rawLength) {
+      compressed = new byte[rawLength];
+    }
+    deflater.reset();
+    deflater.setInput(frames.array(), 0, rawLength);
+    deflater.finish();
+    int deflated = 0;
+    while (!deflater.finished() && deflated < rawLength) {
+      deflated += deflater.deflate(compressed, deflated, rawLength - deflated);
+    }
+    // Not smaller, store it as is.
+    return deflater.finished() ? deflated : rawLength;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (buffer != null) {
+      closeSegment();
+    }
+    if (deflater != null) {
+      deflater.end();
+    }
+  }
+}
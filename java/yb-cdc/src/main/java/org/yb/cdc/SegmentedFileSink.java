@@ -0,0 +1,165 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import org.apache.log4j.Logger;
+import org.yb.client.YBTable;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the changes to local files, to be read with {@link SegmentReader}.
+ * <p>
+ * Each tablet gets a directory named after it, holding segment files of {@code segmentSize}
+ * bytes named after their sequence number, which are memory-mapped and written in turn. Each
+ * batch of changes is written as a block, except for the batches without changes, which only
+ * move the checkpoint and aren't written at all:
+ * <pre>
+ *   int32   length of the stored frames, 0 if nothing was written there yet, or
+ *           {@link #ROLL_MARKER} if the tablet goes on in the next segment
+ *   int32   length of the frames once uncompressed
+ *   int32   CRC32 of the stored frames
+ *   int8    compression of the frames, see {@link Compression}
+ *   int64   term of the checkpoint of the batch
+ *   int64   index of the checkpoint of the batch
+ *   bytes   the frames, each a CDCRecordPB prefixed with its int32 length
+ * </pre>
+ * All integers are little-endian. The length of a block is written last, but as a plain store to
+ * the mapped segment, so a reader may still see it before the rest of the block: {@link
+ * SegmentReader} takes a last block with a wrong checksum for one that isn't complete yet.
+ * <p>
+ * When the sink is written to is made durable according to the {@link FsyncPolicy}.
+ */
+public class SegmentedFileSink implements OutputClient {
+  private static final Logger LOG = Logger.getLogger(SegmentedFileSink.class);
+
+  static final int BLOCK_HEADER_SIZE = 29;
+  static final int ROLL_MARKER = -1;
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  /**
+   * How the frames of a block are compressed.
+   */
+  public enum Compression {
+    NONE,
+    // java.util.zip's deflate, at its fastest level. A block it wouldn't make smaller is stored
+    // uncompressed.
+    DEFLATE
+  }
+
+  /**
+   * When the segments are synced to disk.
+   */
+  public enum FsyncPolicy {
+    // After every batch, before its checkpoint is recorded, so a restart never skips changes.
+    BATCH,
+    // After a batch, if the last sync was at least the sync interval ago.
+    INTERVAL,
+    // Only when a segment is full, or the sink is closed.
+    NEVER
+  }
+
+  private final Path dir;
+  private final int segmentSize;
+  private final Compression compression;
+  private final FsyncPolicy fsyncPolicy;
+  private final long fsyncIntervalNanos;
+
+  private final ConcurrentMap<String, SegmentWriter> writers = new ConcurrentHashMap<>();
+
+  public SegmentedFileSink(String dir, int segmentSize, Compression compression,
+                           FsyncPolicy fsyncPolicy, long fsyncIntervalMs) throws IOException {
+    this.dir = Paths.get(dir);
+    this.segmentSize = segmentSize;
+    this.compression = compression;
+    this.fsyncPolicy = fsyncPolicy;
+    this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+    Files.createDirectories(this.dir);
+    LOG.info(String.format("Writing the changes to %s", this.dir.toAbsolutePath()));
+  }
+
+  static Path segmentPath(Path tabletDir, long segment) {
+    return tabletDir.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+  }
+
+  /**
+   * @return the sequence number of the first or last segment in the directory, or -1 if there is
+   *         none
+   */
+  static long findSegment(Path tabletDir, boolean first) throws IOException {
+    long found = -1;
+    if (!Files.isDirectory(tabletDir)) {
+      return found;
+    }
+    try (DirectoryStream<Path> segments = Files.newDirectoryStream(tabletDir,
+                                                                    "*" + SEGMENT_SUFFIX)) {
+      for (Path segment : segments) {
+        String name = segment.getFileName().toString();
+        long number;
+        try {
+          number = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+          continue;
+        }
+        if (found < 0 || (first ? number < found : number > found)) {
+          found = number;
+        }
+      }
+    }
+    return found;
+  }
+
+  private SegmentWriter getWriter(String tabletId) throws IOException {
+    SegmentWriter writer = writers.get(tabletId);
+    if (writer == null) {
+      synchronized (writers) {
+        writer = writers.get(tabletId);
+        if (writer == null) {
+          writer = new SegmentWriter(dir.resolve(tabletId), segmentSize, compression,
+                                     fsyncPolicy, fsyncIntervalNanos);
+          writers.put(tabletId, writer);
+        }
+      }
+    }
+    return writer;
+  }
+
+  @Override
+  public void applyChanges(YBTable table, String tabletId,
+                           List<CdcService.CDCRecordPB> changeRecords,
+                           Checkpoint checkpoint) throws Exception {
+    getWriter(tabletId).append(changeRecords, checkpoint);
+  }
+
+  /**
+   * Syncs and closes the segments.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (writers) {
+      for (SegmentWriter writer : writers.values()) {
+        writer.close();
+      }
+      writers.clear();
+    }
+  }
+}
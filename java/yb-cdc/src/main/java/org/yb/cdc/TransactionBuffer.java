@@ -0,0 +1,366 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import com.google.protobuf.ByteString;
+import org.apache.log4j.Logger;
+import org.yb.Common;
+import org.yb.tserver.Tserver;
+import org.yb.util.HybridTimeUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups the changes of a tablet by transaction, so that the output client gets each committed
+ * transaction as a whole instead of one intent at a time.
+ * <p>
+ * The intents of a transaction, the records with a transaction state but no status, are held back
+ * until the APPLY record of the transaction comes, and then handed out as one {@link
+ * CdcTransaction}, in the position of the APPLY record. The other records go through as they
+ * are, including the APPLYING and COMMITTED ones the tablet sends instead of intents when it
+ * doesn't replicate them, in which case its writes are already committed.
+ * <p>
+ * The tablet never reports a transaction aborted, so like the tablet server with
+ * cdc_transaction_timeout_ms, a transaction that had no intents for the pool's timeout, in hybrid
+ * time of the tablet's records, is taken for aborted and dropped. Its APPLY, if it comes after
+ * all, is skipped.
+ * <p>
+ * The buffers of all the tablets share a {@link Pool} that bounds how much memory their intents
+ * take. Once it's full, the largest transactions in memory, whichever tablet they're on, are
+ * written to spill files until it isn't, so that a large transaction only takes disk space.
+ * <p>
+ * A tablet must not be checkpointed past the intents of the transactions still open, or they
+ * wouldn't be read again after a restart, so {@link #getSafeCheckpoint} holds the checkpoint back
+ * to where the oldest of them started. The changes read since are delivered again after a
+ * restart.
+ */
+public class TransactionBuffer {
+  private static final Logger LOG = Logger.getLogger(TransactionBuffer.class);
+
+  /**
+   * The memory and the spill directory shared by the buffers of all the tablets.
+   */
+  public static class Pool {
+    private final Path spillDir;
+    private final long maxBufferedBytes;
+    private final long timeoutMicros;
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final Set<TransactionBuffer> buffers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param spillDir where to write the transactions that don't fit in memory, the temporary
+     *                 directory if empty
+     * @param maxBufferedBytes how many bytes of intents to hold in memory
+     * @param timeoutMs how long a transaction may go without intents before it's dropped as
+     *                  aborted
+     */
+    public Pool(String spillDir, long maxBufferedBytes, long timeoutMs) throws IOException {
+      this.spillDir = Paths.get(spillDir.isEmpty() ? System.getProperty("java.io.tmpdir") :
+                                spillDir);
+      this.maxBufferedBytes = maxBufferedBytes;
+      this.timeoutMicros = TimeUnit.MILLISECONDS.toMicros(timeoutMs);
+      Files.createDirectories(this.spillDir);
+    }
+
+    public long getBufferedBytes() {
+      return bufferedBytes.get();
+    }
+
+    /**
+     * Spills the largest transactions in memory, across the buffers, until the pool is back under
+     * its bound. Only one buffer at a time is locked, and always after the pool, so the buffers
+     * never wait on each other.
+     */
+    synchronized void spill() {
+      while (bufferedBytes.get() > maxBufferedBytes) {
+        TransactionBuffer owner = null;
+        CdcTransaction largest = null;
+        long largestBytes = 0;
+        for (TransactionBuffer buffer : buffers) {
+          synchronized (buffer) {
+            CdcTransaction candidate = buffer.largestInMemory();
+            if (candidate != null && candidate.getBufferedBytes() > largestBytes) {
+              owner = buffer;
+              largest = candidate;
+              largestBytes = candidate.getBufferedBytes();
+            }
+          }
+        }
+        if (largest == null || !owner.spill(largest)) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * A piece of what the buffered records turned into: either records that are not part of a
+   * transaction, or a committed transaction.
+   */
+  public static final class Output {
+    private final List<CdcService.CDCRecordPB> records;
+    private final CdcTransaction transaction;
+
+    Output(List<CdcService.CDCRecordPB> records) {
+      this.records = records;
+      this.transaction = null;
+    }
+
+    Output(CdcTransaction transaction) {
+      this.records = null;
+      this.transaction = transaction;
+    }
+
+    /**
+     * @return the records, or null if this is a transaction
+     */
+    public List<CdcService.CDCRecordPB> getRecords() {
+      return records;
+    }
+
+    /**
+     * @return the transaction, or null if these are records
+     */
+    public CdcTransaction getTransaction() {
+      return transaction;
+    }
+  }
+
+  private final String tabletId;
+  private final Pool pool;
+  private final CdcMetricsSink metrics;
+
+  // The open transactions, by id, in the order they started.
+  private final Map<ByteString, CdcTransaction> open = new LinkedHashMap<>();
+
+  public TransactionBuffer(String tabletId, Pool pool, CdcMetricsSink metrics) {
+    this.tabletId = tabletId;
+    this.pool = pool;
+    this.metrics = metrics;
+    pool.buffers.add(this);
+  }
+
+  static String formatId(ByteString id) {
+    if (id.size() != 16) {
+      return id.toStringUtf8();
+    }
+    ByteBuffer buffer = id.asReadOnlyByteBuffer();
+    return new UUID(buffer.getLong(), buffer.getLong()).toString();
+  }
+
+  /**
+   * Adds the records of a batch, then spills the largest transactions of the pool if the batch
+   * filled it.
+   * @param previous the checkpoint of the batch before, which the transactions starting in this
+   *                 one must resume from
+   * @return the records and the transactions committed by the batch, in order
+   */
+  public List<Output> add(List<CdcService.CDCRecordPB> records, Checkpoint previous) {
+    if (records.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Output> outputs = addRecords(records, previous);
+    // Not under the lock of this buffer, as the pool locks the others while it looks for the
+    // largest transaction.
+    if (pool.bufferedBytes.get() > pool.maxBufferedBytes) {
+      pool.spill();
+    }
+    return outputs;
+  }
+
+  private synchronized List<Output> addRecords(List<CdcService.CDCRecordPB> records,
+                                               Checkpoint previous) {
+    List<Output> outputs = new ArrayList<>();
+    List<CdcService.CDCRecordPB> run = null;
+    for (CdcService.CDCRecordPB record : records) {
+      if (!record.hasTransactionState() ||
+          (record.getOperation() != CdcService.CDCRecordPB.OperationType.APPLY &&
+           isStatusRecord(record.getTransactionState()))) {
+        if (run == null) {
+          run = new ArrayList<>();
+        }
+        run.add(record);
+        continue;
+      }
+
+      Tserver.TransactionStatePB state = record.getTransactionState();
+      ByteString id = state.getTransactionId();
+      if (record.getOperation() == CdcService.CDCRecordPB.OperationType.APPLY) {
+        CdcTransaction transaction = open.remove(id);
+        if (transaction == null) {
+          // The intents were written before the checkpoint the tablet started from, which only
+          // happens when it wasn't a checkpoint of this connector, as those are held back to the
+          // start of the open transactions.
+          LOG.warn(String.format("Tablet %s applies transaction %s whose intents weren't read, " +
+                                 "skipping it", tabletId, formatId(id)));
+          continue;
+        }
+        try {
+          transaction.commit(state.hasCommitHybridTime() ? state.getCommitHybridTime() :
+                             record.getTime());
+        } catch (IOException e) {
+          LOG.error(String.format("Closing the spill file of %s failed", transaction), e);
+        }
+        if (run != null) {
+          outputs.add(new Output(run));
+          run = null;
+        }
+        outputs.add(new Output(transaction));
+      } else {
+        CdcTransaction transaction = open.get(id);
+        if (transaction == null) {
+          transaction = new CdcTransaction(id, previous);
+          open.put(id, transaction);
+        }
+        boolean spilled = transaction.isSpilled();
+        try {
+          transaction.add(record);
+        } catch (IOException e) {
+          // Dropping the intent would lose it, so the tablet can't go on.
+          throw new IllegalStateException(String.format("Writing to the spill file of %s failed",
+                                                   transaction), e);
+        }
+        if (!spilled) {
+          pool.bufferedBytes.addAndGet(record.getSerializedSize());
+        }
+      }
+    }
+    if (run != null) {
+      outputs.add(new Output(run));
+    }
+    expire(records.get(records.size() - 1).getTime());
+    return outputs;
+  }
+
+  /**
+   * @return whether the state is the status of a transaction the tablet sends when it doesn't
+   *         replicate intents, rather than the one of an intent, which has no status
+   */
+  private static boolean isStatusRecord(Tserver.TransactionStatePB state) {
+    return state.hasStatus() && (state.getStatus() == Common.TransactionStatus.APPLYING ||
+                                 state.getStatus() == Common.TransactionStatus.COMMITTED);
+  }
+
+  /**
+   * @return the largest open transaction that is still in memory, or null if there is none
+   */
+  private CdcTransaction largestInMemory() {
+    CdcTransaction largest = null;
+    for (CdcTransaction transaction : open.values()) {
+      if (!transaction.isSpilled() &&
+          (largest == null || transaction.getBytes() > largest.getBytes())) {
+        largest = transaction;
+      }
+    }
+    return largest;
+  }
+
+  /**
+   * Writes an open transaction of this buffer to a spill file, unless it was committed or
+   * dropped since the pool picked it.
+   * @return false if the transaction couldn't be spilled
+   */
+  private synchronized boolean spill(CdcTransaction transaction) {
+    if (open.get(transaction.getId()) != transaction || transaction.isSpilled()) {
+      return true;
+    }
+    long bytes = transaction.getBufferedBytes();
+    try {
+      transaction.spill(pool.spillDir);
+    } catch (IOException e) {
+      // Going over the memory bound is better than losing the intents.
+      LOG.error(String.format("Spilling %s of tablet %s to %s failed, keeping it in memory",
+                              transaction, tabletId, pool.spillDir), e);
+      return false;
+    }
+    pool.bufferedBytes.addAndGet(-bytes);
+    LOG.debug(String.format("Spilled %s of tablet %s, %d bytes", transaction, tabletId, bytes));
+    return true;
+  }
+
+  /**
+   * Drops the transactions that had no intents for the timeout before the hybrid time.
+   */
+  private void expire(long now) {
+    long nowMicros = HybridTimeUtil.HTTimestampToPhysicalAndLogical(now)[0];
+    Iterator<CdcTransaction> it = open.values().iterator();
+    while (it.hasNext()) {
+      CdcTransaction transaction = it.next();
+      long lastMicros =
+          HybridTimeUtil.HTTimestampToPhysicalAndLogical(transaction.getLastTime())[0];
+      if (nowMicros - lastMicros > pool.timeoutMicros) {
+        LOG.warn(String.format("Tablet %s has had no intents for %s for %d ms, dropping it as " +
+                               "aborted", tabletId, transaction,
+                               TimeUnit.MICROSECONDS.toMillis(nowMicros - lastMicros)));
+        it.remove();
+        release(transaction);
+        metrics.transactionDropped(tabletId);
+      }
+    }
+  }
+
+  /**
+   * Releases the memory or the spill file of a transaction that was applied or dropped. A
+   * committed transaction holds them until then.
+   */
+  public void release(CdcTransaction transaction) {
+    pool.bufferedBytes.addAndGet(-transaction.getBufferedBytes());
+    try {
+      transaction.release();
+    } catch (IOException e) {
+      LOG.warn(String.format("Deleting the spill file of %s failed", transaction), e);
+    }
+  }
+
+  /**
+   * @param latest the checkpoint of the last batch added
+   * @return the checkpoint the tablet can resume from without missing the intents of the open
+   *         transactions
+   */
+  public synchronized Checkpoint getSafeCheckpoint(Checkpoint latest) {
+    Iterator<CdcTransaction> it = open.values().iterator();
+    return it.hasNext() ? it.next().getStartCheckpoint() : latest;
+  }
+
+  public synchronized int getOpenTransactions() {
+    return open.size();
+  }
+
+  /**
+   * Drops the open transactions, once the tablet isn't followed anymore.
+   */
+  public synchronized void close() {
+    pool.buffers.remove(this);
+    for (CdcTransaction transaction : open.values()) {
+      release(transaction);
+    }
+    open.clear();
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import com.google.protobuf.ByteString;
+import org.yb.Common;
+import org.yb.tserver.Tserver;
+import org.yb.util.HybridTimeUtil;
+
+/**
+ * Builds the records the tests of the connector feed it.
+ */
+class CdcTestUtil {
+  /**
+   * @return the hybrid time of the physical time in milliseconds
+   */
+  static long hybridTime(long millis) {
+    return HybridTimeUtil.physicalAndLogicalToHTTimestamp(millis * 1000, 0);
+  }
+
+  static ByteString transactionId(int id) {
+    byte[] bytes = new byte[16];
+    bytes[15] = (byte) id;
+    return ByteString.copyFrom(bytes);
+  }
+
+  /**
+   * @return a write outside of any transaction, whose key is its name
+   */
+  static CdcService.CDCRecordPB write(String name, long millis) {
+    return CdcService.CDCRecordPB.newBuilder()
+        .setTime(hybridTime(millis))
+        .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+        .addKey(CdcService.KeyValuePairPB.newBuilder()
+            .setKey(ByteString.copyFromUtf8("k"))
+            .setValue(Common.QLValuePB.newBuilder().setStringValue(name)))
+        .build();
+  }
+
+  /**
+   * @return an intent of the transaction, whose key is its name, as the tablet sends it when it
+   *         replicates intents
+   */
+  static CdcService.CDCRecordPB intent(int transaction, String name, long millis) {
+    return write(name, millis).toBuilder()
+        .setTransactionState(Tserver.TransactionStatePB.newBuilder()
+            .setTransactionId(transactionId(transaction))
+            .addTablets(ByteString.copyFromUtf8("tablet")))
+        .build();
+  }
+
+  /**
+   * @return the APPLY record of the transaction, as the tablet sends it when it replicates intents
+   */
+  static CdcService.CDCRecordPB apply(int transaction, long millis) {
+    return CdcService.CDCRecordPB.newBuilder()
+        .setTime(hybridTime(millis))
+        .setOperation(CdcService.CDCRecordPB.OperationType.APPLY)
+        .setTransactionState(Tserver.TransactionStatePB.newBuilder()
+            .setTransactionId(transactionId(transaction))
+            .setCommitHybridTime(hybridTime(millis)))
+        .build();
+  }
+
+  /**
+   * @return the record of a transaction getting applied, as the tablet sends it when it doesn't
+   *         replicate intents
+   */
+  static CdcService.CDCRecordPB applying(int transaction, long millis) {
+    return CdcService.CDCRecordPB.newBuilder()
+        .setTime(hybridTime(millis))
+        .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+        .setTransactionState(Tserver.TransactionStatePB.newBuilder()
+            .setTransactionId(transactionId(transaction))
+            .setStatus(Common.TransactionStatus.APPLYING)
+            .addTablets(ByteString.copyFromUtf8("status-tablet"))
+            .setCommitHybridTime(hybridTime(millis)))
+        .build();
+  }
+
+  /**
+   * @return the name of a record built by {@link #write} or {@link #intent}
+   */
+  static String name(CdcService.CDCRecordPB record) {
+    return record.getKey(0).getValue().getStringValue();
+  }
+}
@@ -0,0 +1,182 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertTrue;
+import static org.yb.cdc.CdcTestUtil.apply;
+import static org.yb.cdc.CdcTestUtil.intent;
+import static org.yb.cdc.CdcTestUtil.name;
+import static org.yb.cdc.CdcTestUtil.write;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.client.YBTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(value=YBTestRunner.class)
+public class TestApplyQueue {
+  private static final String STREAM_ID = "stream";
+  private static final String TABLET_ID = "tablet";
+
+  /** Records what it's asked to apply, and with which checkpoint. */
+  private static class RecordingClient implements OutputClient {
+    final List<String> applied = new ArrayList<>();
+    final List<Checkpoint> checkpoints = new ArrayList<>();
+    // How many calls to fail before succeeding.
+    int failures = 0;
+
+    @Override
+    public synchronized void applyChanges(YBTable table, String tabletId,
+                                          List<CdcService.CDCRecordPB> changeRecords,
+                                          Checkpoint checkpoint) throws Exception {
+      List<String> names = new ArrayList<>();
+      for (CdcService.CDCRecordPB record : changeRecords) {
+        names.add(name(record));
+      }
+      record(names.toString(), checkpoint);
+    }
+
+    @Override
+    public synchronized void applyTransaction(YBTable table, String tabletId,
+                                              CdcTransaction transaction,
+                                              Checkpoint checkpoint) throws Exception {
+      List<String> names = new ArrayList<>();
+      for (CdcService.CDCRecordPB record : transaction) {
+        names.add(name(record));
+      }
+      record("txn" + names, checkpoint);
+    }
+
+    private void record(String what, Checkpoint checkpoint) throws Exception {
+      if (failures > 0) {
+        failures--;
+        throw new Exception("Injected failure applying " + what);
+      }
+      applied.add(what);
+      checkpoints.add(checkpoint);
+    }
+  }
+
+  private ScheduledExecutorService executor;
+  private CountDownLatch started;
+  private InMemoryCheckpointStore checkpoints;
+  private RecordingClient client;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    // Holds the executor back until the test queued its batches, so that they're taken at once.
+    started = new CountDownLatch(1);
+    executor.submit(() -> {
+      started.await();
+      return null;
+    });
+    checkpoints = new InMemoryCheckpointStore();
+    client = new RecordingClient();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static Checkpoint checkpoint(long index) {
+    return new Checkpoint(1, index);
+  }
+
+  private ApplyQueue newQueue(TransactionBuffer transactions) {
+    return new ApplyQueue(client, null, STREAM_ID, TABLET_ID, checkpoints, new CdcMetrics(),
+                          executor, 1000, 500, transactions);
+  }
+
+  private void awaitCheckpoint(Checkpoint expected) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < deadline) {
+      checkpoints.commit();
+      if (expected.equals(checkpoints.get(STREAM_ID, TABLET_ID))) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    assertEquals(expected, checkpoints.get(STREAM_ID, TABLET_ID));
+  }
+
+  @Test
+  public void testBatchesAreMerged() throws Exception {
+    ApplyQueue queue = newQueue(null);
+    queue.enqueue(Arrays.asList(write("a", 1)), checkpoint(1), null);
+    queue.enqueue(Collections.emptyList(), checkpoint(2), null);
+    queue.enqueue(Arrays.asList(write("b", 2)), checkpoint(3), null);
+    started.countDown();
+    awaitCheckpoint(checkpoint(3));
+
+    synchronized (client) {
+      assertEquals(Arrays.asList("[a, b]"), client.applied);
+      assertEquals(Arrays.asList(checkpoint(3)), client.checkpoints);
+    }
+    assertEquals(0L, queue.getQueuedRecords());
+  }
+
+  @Test
+  public void testEachOutputGetsItsCheckpoint() throws Exception {
+    TransactionBuffer.Pool pool = new TransactionBuffer.Pool("", 1 << 20, 1000);
+    ApplyQueue queue = newQueue(new TransactionBuffer(TABLET_ID, pool, new CdcMetrics()));
+    queue.enqueue(Arrays.asList(write("a", 1)), checkpoint(1), null);
+    queue.enqueue(Arrays.asList(write("b", 2), intent(1, "t1", 3)), checkpoint(2), null);
+    queue.enqueue(Arrays.asList(write("c", 4), apply(1, 5), write("d", 6)), checkpoint(3), null);
+    queue.enqueue(Arrays.asList(intent(2, "u1", 7)), checkpoint(4), null);
+    started.countDown();
+    // The second transaction is still open, so the tablet resumes from where it started.
+    awaitCheckpoint(checkpoint(3));
+
+    synchronized (client) {
+      assertEquals(Arrays.asList("[a]", "[b]", "[c]", "txn[t1]", "[d]"), client.applied);
+      // The changes up to the first transaction's start are all applied once "a" is, and those
+      // up to where the second one starts once "d" is. Nothing in between completes a batch.
+      assertEquals(Arrays.asList(checkpoint(1), checkpoint(1), checkpoint(1), checkpoint(1),
+                                 checkpoint(3)),
+                   client.checkpoints);
+    }
+  }
+
+  @Test
+  public void testFailedOutputIsRetried() throws Exception {
+    TransactionBuffer.Pool pool = new TransactionBuffer.Pool("", 1 << 20, 1000);
+    ApplyQueue queue = newQueue(new TransactionBuffer(TABLET_ID, pool, new CdcMetrics()));
+    client.failures = 1;
+    queue.enqueue(Arrays.asList(intent(1, "t1", 1), apply(1, 2), write("a", 3)), checkpoint(1),
+                  null);
+    started.countDown();
+    awaitCheckpoint(checkpoint(1));
+
+    synchronized (client) {
+      assertEquals(Arrays.asList("txn[t1]", "[a]"), client.applied);
+      // The transaction doesn't complete the batch, so it only gets the checkpoint before it.
+      assertEquals(Arrays.asList(new Checkpoint(0, 0), checkpoint(1)), client.checkpoints);
+    }
+    assertTrue(pool.getBufferedBytes() == 0);
+  }
+}
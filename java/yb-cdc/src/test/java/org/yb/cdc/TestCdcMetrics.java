@@ -0,0 +1,147 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertTrue;
+import static org.yb.cdc.CdcTestUtil.hybridTime;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(value=YBTestRunner.class)
+public class TestCdcMetrics {
+  private static final String TABLET_ID = "tablet";
+
+  @Test
+  public void testCountsProxyHops() {
+    CdcMetrics metrics = new CdcMetrics();
+    metrics.pollSent(TABLET_ID, false);
+    metrics.pollSent(TABLET_ID, true);
+    metrics.leaderLookup(TABLET_ID);
+    metrics.pollSent(TABLET_ID, true);
+
+    assertEquals(1, metrics.getProxyHops());
+    assertEquals(2, metrics.getDirectPolls());
+    assertEquals(1, metrics.getLeaderLookups());
+  }
+
+  @Test
+  public void testCountsPolls() {
+    CdcMetrics metrics = new CdcMetrics();
+    metrics.pollSent(TABLET_ID, false);
+    metrics.pollCompleted(TABLET_ID, 1000000, 0, 10);
+    metrics.pollSent(TABLET_ID, true);
+    metrics.pollCompleted(TABLET_ID, 2000000, 5, 500);
+    metrics.pollSent(TABLET_ID, true);
+    metrics.pollFailed(TABLET_ID, 3000000);
+    metrics.paused(TABLET_ID);
+    assertEquals(1, metrics.getPauses());
+
+    CdcMetrics.TabletMetrics tablet = metrics.getTablets().get(TABLET_ID);
+    assertEquals(2, tablet.getPolls());
+    assertEquals(1, tablet.getEmptyPolls());
+    assertEquals(0.5, tablet.getEmptyPollRatio(), 0.001);
+    assertEquals(1, tablet.getFailedPolls());
+    assertEquals(5, tablet.getRecords());
+    assertEquals(510, tablet.getBytes());
+    // Failed polls count toward the latency too.
+    assertEquals(3, tablet.getPollLatency().getCount());
+  }
+
+  @Test
+  public void testIgnoresUnknownTablet() {
+    CdcMetrics metrics = new CdcMetrics();
+    metrics.pollCompleted(TABLET_ID, 1000000, 5, 500);
+    metrics.applied(TABLET_ID, new Checkpoint(1, 10), hybridTime(1000));
+    metrics.latestIndex(TABLET_ID, 20);
+    assertTrue(metrics.getTablets().isEmpty());
+  }
+
+  @Test
+  public void testLag() {
+    CdcMetrics metrics = new CdcMetrics();
+    metrics.pollSent(TABLET_ID, true);
+    CdcMetrics.TabletMetrics tablet = metrics.getTablets().get(TABLET_ID);
+    assertEquals(-1, tablet.getLagMillis());
+    assertEquals(-1, tablet.getEntriesBehind());
+
+    long writtenMillis = System.currentTimeMillis() - 5000;
+    metrics.applied(TABLET_ID, new Checkpoint(1, 10), hybridTime(writtenMillis));
+    metrics.latestIndex(TABLET_ID, 25);
+    assertTrue(tablet.getLagMillis() >= 5000);
+    assertEquals(15, tablet.getEntriesBehind());
+
+    // An applied batch with no changes moves the checkpoint but keeps the lag.
+    metrics.applied(TABLET_ID, new Checkpoint(1, 20), 0);
+    assertTrue(tablet.getLagMillis() >= 5000);
+    assertEquals(5, tablet.getEntriesBehind());
+
+    metrics.caughtUp(TABLET_ID);
+    assertEquals(0, tablet.getLagMillis());
+
+    // Until new changes are applied.
+    metrics.applied(TABLET_ID, new Checkpoint(1, 25), hybridTime(writtenMillis));
+    assertTrue(tablet.getLagMillis() >= 5000);
+    assertEquals(0, tablet.getEntriesBehind());
+  }
+
+  @Test
+  public void testRates() throws Exception {
+    CdcMetrics metrics = new CdcMetrics();
+    metrics.pollSent(TABLET_ID, true);
+    CdcMetrics.TabletMetrics tablet = metrics.getTablets().get(TABLET_ID);
+    metrics.pollCompleted(TABLET_ID, 1000000, 100, 10000);
+    Thread.sleep(10);
+    metrics.tick();
+    assertTrue(tablet.getRecordsPerSec() > 0);
+    assertTrue(tablet.getBytesPerSec() > tablet.getRecordsPerSec());
+
+    // Nothing was read since the last tick.
+    Thread.sleep(10);
+    metrics.tick();
+    assertEquals(0.0, tablet.getRecordsPerSec(), 0.0);
+    assertEquals(0.0, tablet.getBytesPerSec(), 0.0);
+  }
+
+  @Test
+  public void testNotifiesTablets() {
+    List<String> events = new ArrayList<>();
+    CdcMetrics metrics = new CdcMetrics() {
+      @Override
+      protected void onNewTablet(String tabletId, TabletMetrics tablet) {
+        events.add("new " + tabletId);
+      }
+
+      @Override
+      protected void onTabletStopped(String tabletId) {
+        events.add("stopped " + tabletId);
+      }
+    };
+    metrics.pollSent(TABLET_ID, true);
+    metrics.pollSent(TABLET_ID, true);
+    metrics.tabletStopped(TABLET_ID);
+    metrics.tabletStopped(TABLET_ID);
+    assertEquals(2, events.size());
+    assertEquals("new " + TABLET_ID, events.get(0));
+    assertEquals("stopped " + TABLET_ID, events.get(1));
+    assertFalse(metrics.getTablets().containsKey(TABLET_ID));
+  }
+}
@@ -0,0 +1,203 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertNull;
+import static org.yb.AssertionWrappers.assertTrue;
+import static org.yb.AssertionWrappers.fail;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+@RunWith(value=YBTestRunner.class)
+public class TestFileCheckpointStore {
+  private Path dir;
+  private Path file;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("TestFileCheckpointStore");
+    file = dir.resolve("checkpoints");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  private FileCheckpointStore open() throws IOException {
+    return new FileCheckpointStore(file.toString());
+  }
+
+  private void writeFile(String content) throws IOException {
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private List<String> readLines() throws IOException {
+    return Files.readAllLines(file, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testResumesFromCommitted() throws Exception {
+    try (FileCheckpointStore store = open()) {
+      store.putStreamId("table1", "stream1");
+      store.update("stream1", "tablet1", new Checkpoint(1, 10));
+      store.update("stream1", "tablet2", new Checkpoint(1, 20));
+      // Recorded, but not visible before it's committed.
+      assertNull(store.get("stream1", "tablet1"));
+      store.commit();
+      assertEquals(new Checkpoint(1, 10), store.get("stream1", "tablet1"));
+      store.update("stream1", "tablet1", new Checkpoint(2, 11));
+      store.commit();
+    }
+
+    try (FileCheckpointStore store = open()) {
+      assertEquals("stream1", store.getStreamId("table1"));
+      assertNull(store.getStreamId("table2"));
+      assertEquals(new Checkpoint(2, 11), store.get("stream1", "tablet1"));
+      assertEquals(new Checkpoint(1, 20), store.get("stream1", "tablet2"));
+      assertNull(store.get("stream2", "tablet1"));
+    }
+  }
+
+  @Test
+  public void testCommitOnlyWritesChanges() throws Exception {
+    try (FileCheckpointStore store = open()) {
+      store.update("stream1", "tablet1", new Checkpoint(1, 10));
+      store.update("stream1", "tablet2", new Checkpoint(1, 20));
+      store.commit();
+      store.update("stream1", "tablet1", new Checkpoint(1, 10));
+      store.update("stream1", "tablet2", new Checkpoint(1, 21));
+      store.commit();
+      // Nothing recorded, nothing written.
+      store.commit();
+    }
+    assertEquals(3, readLines().size());
+    assertEquals("stream1 tablet2 1 21", readLines().get(2));
+  }
+
+  @Test
+  public void testCloseCommits() throws Exception {
+    FileCheckpointStore store = open();
+    store.update("stream1", "tablet1", new Checkpoint(3, 30));
+    store.close();
+    try {
+      store.commit();
+      fail("Committed to a closed store");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("closed"));
+    }
+    // Closing it again does nothing.
+    store.close();
+
+    try (FileCheckpointStore reopened = open()) {
+      assertEquals(new Checkpoint(3, 30), reopened.get("stream1", "tablet1"));
+    }
+  }
+
+  @Test
+  public void testLastLineWins() throws Exception {
+    writeFile("stream table1 stream1\n" +
+              "stream1 tablet1 1 10\n" +
+              "stream1 tablet2 1 5\n" +
+              "not a checkpoint\n" +
+              "stream1 tablet1 1 x\n" +
+              "stream1 tablet1 2 12\n" +
+              "stream table1 stream2\n");
+    try (FileCheckpointStore store = open()) {
+      assertEquals("stream2", store.getStreamId("table1"));
+      assertEquals(new Checkpoint(2, 12), store.get("stream1", "tablet1"));
+      assertEquals(new Checkpoint(1, 5), store.get("stream1", "tablet2"));
+    }
+  }
+
+  @Test
+  public void testIgnoresTruncatedLastLine() throws Exception {
+    // The process died while appending the last line.
+    writeFile("stream1 tablet1 1 10\n" +
+              "stream1 tablet1 1 1");
+    try (FileCheckpointStore store = open()) {
+      assertEquals(new Checkpoint(1, 10), store.get("stream1", "tablet1"));
+      // The partial line was cut, so the next one isn't appended to it.
+      store.update("stream1", "tablet2", new Checkpoint(1, 7));
+      store.commit();
+    }
+    assertEquals(2, readLines().size());
+    try (FileCheckpointStore store = open()) {
+      assertEquals(new Checkpoint(1, 10), store.get("stream1", "tablet1"));
+      assertEquals(new Checkpoint(1, 7), store.get("stream1", "tablet2"));
+    }
+  }
+
+  @Test
+  public void testCompacts() throws Exception {
+    Path tmp = Paths.get(file + ".tmp");
+    try (FileCheckpointStore store = open()) {
+      store.putStreamId("table1", "stream1");
+      for (int i = 1; i <= FileCheckpointStore.MIN_COMPACTION_LINES; i++) {
+        store.update("stream1", "tablet1", new Checkpoint(1, i));
+        store.update("stream1", "tablet2", new Checkpoint(1, 2 * i));
+        store.commit();
+        // The file never grows much past the point where it's compacted.
+        assertTrue(readLines().size() <= FileCheckpointStore.MIN_COMPACTION_LINES + 2);
+      }
+      assertFalse(Files.exists(tmp));
+      assertTrue(readLines().size() < FileCheckpointStore.MIN_COMPACTION_LINES);
+
+      // It's appended to after being replaced.
+      store.update("stream1", "tablet3", new Checkpoint(1, 1));
+      store.commit();
+    }
+
+    try (FileCheckpointStore store = open()) {
+      assertEquals("stream1", store.getStreamId("table1"));
+      int last = FileCheckpointStore.MIN_COMPACTION_LINES;
+      assertEquals(new Checkpoint(1, last), store.get("stream1", "tablet1"));
+      assertEquals(new Checkpoint(1, 2 * last), store.get("stream1", "tablet2"));
+      assertEquals(new Checkpoint(1, 1), store.get("stream1", "tablet3"));
+    }
+  }
+
+  @Test
+  public void testReplacesLeftoverTemporaryFile() throws Exception {
+    // A compaction that died before its rename leaves its temporary file, which is ignored.
+    Path tmp = Paths.get(file + ".tmp");
+    Files.write(tmp, "stream1 tablet1 9 99\n".getBytes(StandardCharsets.UTF_8));
+    try (FileCheckpointStore store = open()) {
+      assertNull(store.get("stream1", "tablet1"));
+      for (int i = 1; i <= FileCheckpointStore.MIN_COMPACTION_LINES; i++) {
+        store.update("stream1", "tablet1", new Checkpoint(1, i));
+        store.commit();
+      }
+    }
+    assertFalse(Files.exists(tmp));
+    try (FileCheckpointStore store = open()) {
+      assertEquals(new Checkpoint(1, FileCheckpointStore.MIN_COMPACTION_LINES),
+                   store.get("stream1", "tablet1"));
+    }
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.assertEquals;
+
+import com.google.common.net.HostAndPort;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+@RunWith(value=YBTestRunner.class)
+public class TestPollScheduler {
+  private static final HostAndPort SERVER_1 = HostAndPort.fromParts("127.0.0.1", 9100);
+  private static final HostAndPort SERVER_2 = HostAndPort.fromParts("127.0.0.2", 9100);
+
+  private ScheduledExecutorService executor;
+  // The polls that ran, in order.
+  private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private Runnable poll(String tabletId) {
+    return () -> sent.add(tabletId);
+  }
+
+  /** Waits for the polls handed to the executor so far to run. */
+  private void drain() throws Exception {
+    executor.submit(() -> {}).get();
+  }
+
+  @Test
+  public void testCapsPollsPerServer() throws Exception {
+    PollScheduler scheduler = new PollScheduler(2, executor);
+    scheduler.submit(SERVER_1, poll("a"));
+    scheduler.submit(SERVER_1, poll("b"));
+    scheduler.submit(SERVER_1, poll("c"));
+    scheduler.submit(SERVER_1, poll("d"));
+    assertEquals(Arrays.asList("a", "b"), sent);
+    assertEquals(2, scheduler.getNumWaiting());
+
+    // The waiting polls take the freed slots in the order they were submitted.
+    scheduler.release(SERVER_1);
+    drain();
+    assertEquals(Arrays.asList("a", "b", "c"), sent);
+    assertEquals(1, scheduler.getNumWaiting());
+
+    scheduler.release(SERVER_1);
+    drain();
+    assertEquals(Arrays.asList("a", "b", "c", "d"), sent);
+    assertEquals(0, scheduler.getNumWaiting());
+  }
+
+  @Test
+  public void testReleaseFreesSlot() throws Exception {
+    PollScheduler scheduler = new PollScheduler(1, executor);
+    scheduler.submit(SERVER_1, poll("a"));
+    scheduler.release(SERVER_1);
+    // Nothing was waiting, so the next poll goes out right away, on the caller's thread.
+    scheduler.submit(SERVER_1, poll("b"));
+    assertEquals(Arrays.asList("a", "b"), sent);
+    assertEquals(0, scheduler.getNumWaiting());
+
+    scheduler.submit(SERVER_1, poll("c"));
+    assertEquals(1, scheduler.getNumWaiting());
+  }
+
+  @Test
+  public void testServersAreIndependent() throws Exception {
+    PollScheduler scheduler = new PollScheduler(1, executor);
+    scheduler.submit(SERVER_1, poll("a"));
+    scheduler.submit(SERVER_1, poll("b"));
+    scheduler.submit(SERVER_2, poll("c"));
+    assertEquals(Arrays.asList("a", "c"), sent);
+    assertEquals(1, scheduler.getNumWaiting());
+
+    // Freeing the other server's slot doesn't send the first server's waiting poll.
+    scheduler.release(SERVER_2);
+    drain();
+    assertEquals(Arrays.asList("a", "c"), sent);
+
+    scheduler.release(SERVER_1);
+    drain();
+    assertEquals(Arrays.asList("a", "c", "b"), sent);
+  }
+}
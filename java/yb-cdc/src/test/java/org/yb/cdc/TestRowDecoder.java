@@ -0,0 +1,207 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertSame;
+import static org.yb.AssertionWrappers.assertTrue;
+import static org.yb.AssertionWrappers.fail;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.ColumnSchema;
+import org.yb.Common.QLValuePB;
+import org.yb.Schema;
+import org.yb.Type;
+import org.yb.YBTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(value=YBTestRunner.class)
+public class TestRowDecoder {
+  private static final String[] NAMES = {
+      "key", "int8", "int16", "int32", "int64", "float", "double", "string", "bool", "timestamp",
+      "time", "date", "binary", "inet", "decimal", "varint", "uuid", "timeuuid", "jsonb" };
+  private static final Type[] TYPES = {
+      Type.INT64, Type.INT8, Type.INT16, Type.INT32, Type.INT64, Type.FLOAT, Type.DOUBLE,
+      Type.STRING, Type.BOOL, Type.TIMESTAMP, Type.TIME, Type.DATE, Type.BINARY, Type.INET,
+      Type.DECIMAL, Type.VARINT, Type.UUID, Type.TIMEUUID, Type.JSONB };
+
+  private static Schema schema() {
+    List<ColumnSchema> columns = new ArrayList<>();
+    for (int i = 0; i < NAMES.length; i++) {
+      columns.add(new ColumnSchema.ColumnSchemaBuilder(NAMES[i], TYPES[i]).key(i == 0).build());
+    }
+    return new Schema(columns);
+  }
+
+  private static int index(String name) {
+    for (int i = 0; i < NAMES.length; i++) {
+      if (NAMES[i].equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(name);
+  }
+
+  private static CdcService.KeyValuePairPB column(String name, QLValuePB.Builder value) {
+    return CdcService.KeyValuePairPB.newBuilder()
+        .setKey(ByteString.copyFromUtf8(name))
+        .setValue(value)
+        .build();
+  }
+
+  private static CdcService.CDCRecordPB.Builder record(long key) {
+    return CdcService.CDCRecordPB.newBuilder()
+        .setTime(CdcTestUtil.hybridTime(1000))
+        .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+        .addKey(column("key", QLValuePB.newBuilder().setInt64Value(key)));
+  }
+
+  private static ByteString bytes(String s) {
+    return ByteString.copyFromUtf8(s);
+  }
+
+  @Test
+  public void testDecodesEachType() {
+    RowDecoder decoder = new RowDecoder(schema());
+    CdcService.CDCRecordPB record = record(1)
+        .addChanges(column("int8", QLValuePB.newBuilder().setInt8Value(-8)))
+        .addChanges(column("int16", QLValuePB.newBuilder().setInt16Value(-16)))
+        .addChanges(column("int32", QLValuePB.newBuilder().setInt32Value(-32)))
+        .addChanges(column("int64", QLValuePB.newBuilder().setInt64Value(-64)))
+        .addChanges(column("float", QLValuePB.newBuilder().setFloatValue(1.5f)))
+        .addChanges(column("double", QLValuePB.newBuilder().setDoubleValue(2.5)))
+        .addChanges(column("string", QLValuePB.newBuilder().setStringValue("text")))
+        .addChanges(column("bool", QLValuePB.newBuilder().setBoolValue(true)))
+        .addChanges(column("timestamp", QLValuePB.newBuilder().setTimestampValue(123456)))
+        .addChanges(column("time", QLValuePB.newBuilder().setTimeValue(789)))
+        .addChanges(column("date", QLValuePB.newBuilder().setDateValue(1 << 31)))
+        .addChanges(column("binary", QLValuePB.newBuilder().setBinaryValue(bytes("bin"))))
+        .addChanges(column("inet", QLValuePB.newBuilder().setInetaddressValue(bytes("ip"))))
+        .addChanges(column("decimal", QLValuePB.newBuilder().setDecimalValue(bytes("dec"))))
+        .addChanges(column("varint", QLValuePB.newBuilder().setVarintValue(bytes("var"))))
+        .addChanges(column("uuid", QLValuePB.newBuilder().setUuidValue(bytes("uuid"))))
+        .addChanges(column("timeuuid", QLValuePB.newBuilder().setTimeuuidValue(bytes("tuuid"))))
+        .addChanges(column("jsonb", QLValuePB.newBuilder().setJsonbValue(bytes("{}"))))
+        .build();
+    CdcRow row = decoder.decode(record, decoder.newRow());
+
+    assertEquals(CdcService.CDCRecordPB.OperationType.WRITE, row.getOperation());
+    assertEquals(record.getTime(), row.getTime());
+    assertEquals(NAMES.length, row.getNumPresent());
+    for (int i = 0; i < NAMES.length; i++) {
+      // The key comes first, then the changes in the order of the record.
+      assertEquals(i, row.getPresentColumn(i));
+      assertTrue(row.isPresent(i));
+      assertFalse(row.isNull(i));
+    }
+    assertEquals(1, row.getLong(index("key")));
+    assertEquals(-8, row.getByte(index("int8")));
+    assertEquals(-16, row.getShort(index("int16")));
+    assertEquals(-32, row.getInt(index("int32")));
+    assertEquals(-64, row.getLong(index("int64")));
+    assertEquals(1.5f, row.getFloat(index("float")), 0.0f);
+    assertEquals(2.5, row.getDouble(index("double")), 0.0);
+    assertEquals("text", row.getString(index("string")));
+    assertTrue(row.getBoolean(index("bool")));
+    assertEquals(123456, row.getLong(index("timestamp")));
+    assertEquals(789, row.getLong(index("time")));
+    assertEquals(1 << 31, row.getDate(index("date")));
+    assertEquals(bytes("bin"), row.getBinary(index("binary")));
+    assertEquals(bytes("ip"), row.getBinary(index("inet")));
+    assertEquals(bytes("dec"), row.getBinary(index("decimal")));
+    assertEquals(bytes("var"), row.getBinary(index("varint")));
+    assertEquals(bytes("uuid"), row.getBinary(index("uuid")));
+    assertEquals(bytes("tuuid"), row.getBinary(index("timeuuid")));
+    assertEquals(bytes("{}"), row.getBinary(index("jsonb")));
+  }
+
+  @Test
+  public void testNullAndWrongType() {
+    RowDecoder decoder = new RowDecoder(schema());
+    CdcRow row = decoder.decode(
+        record(1).addChanges(column("string", QLValuePB.newBuilder())).build(),
+        decoder.newRow());
+    assertTrue(row.isNull(index("string")));
+    try {
+      row.getInt(index("key"));
+      fail("Read a bigint as an int");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("key"));
+    }
+  }
+
+  @Test
+  public void testReusesRow() {
+    RowDecoder decoder = new RowDecoder(schema());
+    CdcRow row = decoder.newRow();
+    decoder.decode(record(1)
+        .addChanges(column("int32", QLValuePB.newBuilder().setInt32Value(32)))
+        .addChanges(column("string", QLValuePB.newBuilder().setStringValue("first")))
+        .build(), row);
+    assertEquals(3, row.getNumPresent());
+
+    // The columns of the previous record that the next one doesn't carry are cleared.
+    CdcService.CDCRecordPB delete = record(2)
+        .setOperation(CdcService.CDCRecordPB.OperationType.DELETE)
+        .build();
+    assertSame(row, decoder.decode(delete, row));
+    assertEquals(CdcService.CDCRecordPB.OperationType.DELETE, row.getOperation());
+    assertEquals(1, row.getNumPresent());
+    assertEquals(2, row.getLong(index("key")));
+    assertFalse(row.isPresent(index("int32")));
+    assertFalse(row.isPresent(index("string")));
+    try {
+      row.getString(index("string"));
+      fail("Read a column the record doesn't carry");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      row.getPresentColumn(1);
+      fail("Read past the present columns");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testSkipsUnknownColumns() {
+    RowDecoder decoder = new RowDecoder(schema());
+    CdcRow row = decoder.decode(record(1)
+        .addChanges(column("added_later", QLValuePB.newBuilder().setInt32Value(1)))
+        .addChanges(column("int32", QLValuePB.newBuilder().setInt32Value(32)))
+        .build(), decoder.newRow());
+    assertEquals(2, row.getNumPresent());
+    assertEquals(index("int32"), row.getPresentColumn(1));
+    assertEquals(32, row.getInt(index("int32")));
+  }
+
+  @Test
+  public void testRejectsRowOfAnotherDecoder() {
+    RowDecoder decoder = new RowDecoder(schema());
+    CdcRow row = new RowDecoder(schema()).newRow();
+    try {
+      decoder.decode(record(1).build(), row);
+      fail("Decoded into a row of another schema");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+}
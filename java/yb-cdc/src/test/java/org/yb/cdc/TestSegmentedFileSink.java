@@ -0,0 +1,320 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertNull;
+import static org.yb.AssertionWrappers.assertTrue;
+import static org.yb.AssertionWrappers.fail;
+
+import com.google.protobuf.ByteString;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.Common;
+import org.yb.YBTestRunner;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(value=YBTestRunner.class)
+public class TestSegmentedFileSink {
+  private static final String TABLET_ID = "tablet";
+
+  private Path dir;
+  private SegmentedFileSink sink;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("TestSegmentedFileSink");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (sink != null) {
+      sink.close();
+    }
+    FileUtils.deleteDirectory(dir.toFile());
+  }
+
+  private void openSink(int segmentSize, SegmentedFileSink.Compression compression)
+      throws IOException {
+    if (sink != null) {
+      sink.close();
+    }
+    sink = new SegmentedFileSink(dir.toString(), segmentSize, compression,
+                                 SegmentedFileSink.FsyncPolicy.NEVER, 0);
+  }
+
+  private static CdcService.CDCRecordPB record(long time, String value) {
+    return CdcService.CDCRecordPB.newBuilder()
+        .setTime(time)
+        .setOperation(CdcService.CDCRecordPB.OperationType.WRITE)
+        .addKey(CdcService.KeyValuePairPB.newBuilder()
+            .setKey(ByteString.copyFromUtf8("k"))
+            .setValue(Common.QLValuePB.newBuilder().setInt64Value(time)))
+        .addChanges(CdcService.KeyValuePairPB.newBuilder()
+            .setKey(ByteString.copyFromUtf8("v"))
+            .setValue(Common.QLValuePB.newBuilder().setStringValue(value)))
+        .build();
+  }
+
+  private void apply(long index, CdcService.CDCRecordPB... records) throws Exception {
+    sink.applyChanges(null, TABLET_ID, Arrays.asList(records), new Checkpoint(1, index));
+  }
+
+  /**
+   * @return the times of the records the reader returns
+   */
+  private List<Long> readTimes() throws IOException {
+    List<Long> times = new ArrayList<>();
+    try (SegmentReader reader = new SegmentReader(dir.resolve(TABLET_ID).toString())) {
+      CdcService.CDCRecordPB record;
+      while ((record = reader.next()) != null) {
+        times.add(record.getTime());
+        // Each test applies a record with the checkpoint of its time, or of a record before it
+        // in the same batch.
+        assertTrue(reader.getCheckpoint().getIndex() <= record.getTime());
+      }
+    }
+    return times;
+  }
+
+  private Path firstSegment() {
+    return SegmentedFileSink.segmentPath(dir.resolve(TABLET_ID), 0);
+  }
+
+  @Test
+  public void testEmptyBatchIsNotWritten() throws Exception {
+    openSink(1 << 20, SegmentedFileSink.Compression.NONE);
+    apply(1, record(1, "a"));
+    sink.applyChanges(null, TABLET_ID, Collections.emptyList(), new Checkpoint(1, 1));
+    apply(2, record(2, "b"));
+    apply(3, record(3, "c"));
+    assertEquals(Arrays.asList(1L, 2L, 3L), readTimes());
+
+    // Nothing is lost when the writer recovers the segment either.
+    openSink(1 << 20, SegmentedFileSink.Compression.NONE);
+    apply(4, record(4, "d"));
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L), readTimes());
+  }
+
+  @Test
+  public void testRollsToNextSegment() throws Exception {
+    // Each block takes about 70 bytes, so only a few of them fit in a segment.
+    openSink(256, SegmentedFileSink.Compression.NONE);
+    List<Long> expected = new ArrayList<>();
+    for (long i = 1; i <= 20; i++) {
+      apply(i, record(i, "value"));
+      expected.add(i);
+    }
+    assertTrue(Files.exists(SegmentedFileSink.segmentPath(dir.resolve(TABLET_ID), 3)));
+    assertEquals(expected, readTimes());
+
+    // A block bigger than a segment gets a segment of its own size.
+    StringBuilder big = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      big.append('x');
+    }
+    apply(21, record(21, big.toString()));
+    apply(22, record(22, "value"));
+    expected.add(21L);
+    expected.add(22L);
+    assertEquals(expected, readTimes());
+
+    // The writer goes on in the last segment after a restart.
+    openSink(256, SegmentedFileSink.Compression.NONE);
+    apply(23, record(23, "value"));
+    expected.add(23L);
+    assertEquals(expected, readTimes());
+  }
+
+  @Test
+  public void testRecoversRollMarker() throws Exception {
+    openSink(256, SegmentedFileSink.Compression.NONE);
+    for (long i = 1; i <= 20; i++) {
+      apply(i, record(i, "value"));
+    }
+    sink.close();
+    sink = null;
+    // As if the writer crashed after marking the roll, before it created the next segment.
+    Path tabletDir = dir.resolve(TABLET_ID);
+    Files.delete(SegmentedFileSink.segmentPath(tabletDir,
+                                               SegmentedFileSink.findSegment(tabletDir, false)));
+    List<Long> expected = readTimes();
+
+    openSink(256, SegmentedFileSink.Compression.NONE);
+    apply(100, record(100, "value"));
+    expected.add(100L);
+    assertEquals(expected, readTimes());
+  }
+
+  @Test
+  public void testReaderTailsWriter() throws Exception {
+    openSink(256, SegmentedFileSink.Compression.NONE);
+    try (SegmentReader reader = new SegmentReader(dir.resolve(TABLET_ID).toString())) {
+      assertNull(reader.next());
+      for (long i = 1; i <= 10; i++) {
+        apply(i, record(i, "value"));
+        sink.applyChanges(null, TABLET_ID, Collections.emptyList(), new Checkpoint(1, i));
+        CdcService.CDCRecordPB record = reader.next();
+        assertTrue("record " + i, record != null);
+        assertEquals(i, record.getTime());
+        assertEquals(new Checkpoint(1, i), reader.getCheckpoint());
+        assertNull(reader.next());
+      }
+    }
+  }
+
+  /**
+   * Flips a byte of the records of the third block, as if the segment was only partly written
+   * back to disk when the host crashed.
+   */
+  private void tearThirdBlock() throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(firstSegment().toFile(), "rw")) {
+      long position = 0;
+      for (int i = 0; i < 2; i++) {
+        file.seek(position);
+        position += SegmentedFileSink.BLOCK_HEADER_SIZE + Integer.reverseBytes(file.readInt());
+      }
+      long target = position + SegmentedFileSink.BLOCK_HEADER_SIZE + 5;
+      file.seek(target);
+      byte value = file.readByte();
+      file.seek(target);
+      file.writeByte(value ^ 0xff);
+    }
+  }
+
+  @Test
+  public void testReaderRejectsWrongChecksum() throws Exception {
+    openSink(1 << 20, SegmentedFileSink.Compression.NONE);
+    for (long i = 1; i <= 4; i++) {
+      apply(i, record(i, "value"));
+    }
+    sink.close();
+    sink = null;
+    tearThirdBlock();
+
+    try (SegmentReader reader = new SegmentReader(dir.resolve(TABLET_ID).toString())) {
+      assertEquals(1L, reader.next().getTime());
+      assertEquals(2L, reader.next().getTime());
+      try {
+        reader.next();
+        fail("Read a block with a wrong checksum");
+      } catch (IOException e) {
+        assertTrue(e.getMessage().contains("wrong checksum"));
+      }
+    }
+  }
+
+  @Test
+  public void testReaderWaitsForLastBlock() throws Exception {
+    openSink(1 << 20, SegmentedFileSink.Compression.NONE);
+    for (long i = 1; i <= 3; i++) {
+      apply(i, record(i, "value"));
+    }
+    sink.close();
+    sink = null;
+    // As if the reader saw the length of the last block before its records.
+    tearThirdBlock();
+
+    try (SegmentReader reader = new SegmentReader(dir.resolve(TABLET_ID).toString())) {
+      assertEquals(1L, reader.next().getTime());
+      assertEquals(2L, reader.next().getTime());
+      assertNull(reader.next());
+      // Flipping the byte back completes the block.
+      tearThirdBlock();
+      assertEquals(3L, reader.next().getTime());
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void testWriterDropsTornBlock() throws Exception {
+    openSink(1 << 20, SegmentedFileSink.Compression.NONE);
+    for (long i = 1; i <= 4; i++) {
+      apply(i, record(i, "value"));
+    }
+    sink.close();
+    tearThirdBlock();
+
+    // The torn block and the ones after it are cleared, and writing goes on in their place.
+    openSink(1 << 20, SegmentedFileSink.Compression.NONE);
+    apply(5, record(5, "value"));
+    assertEquals(Arrays.asList(1L, 2L, 5L), readTimes());
+  }
+
+  @Test
+  public void testWriterDropsUnpublishedBlock() throws Exception {
+    openSink(1 << 20, SegmentedFileSink.Compression.NONE);
+    for (long i = 1; i <= 2; i++) {
+      apply(i, record(i, "value"));
+    }
+    sink.close();
+    // Leave garbage after the last block, like a block whose length wasn't written yet.
+    try (RandomAccessFile file = new RandomAccessFile(firstSegment().toFile(), "rw")) {
+      long end = 0;
+      for (int i = 0; i < 2; i++) {
+        file.seek(end);
+        end += SegmentedFileSink.BLOCK_HEADER_SIZE + Integer.reverseBytes(file.readInt());
+      }
+      file.seek(end + 4);
+      for (int i = 0; i < 64; i++) {
+        file.writeByte(0x5a);
+      }
+    }
+
+    openSink(1 << 20, SegmentedFileSink.Compression.NONE);
+    apply(3, record(3, "value"));
+    assertEquals(Arrays.asList(1L, 2L, 3L), readTimes());
+  }
+
+  @Test
+  public void testDeflate() throws Exception {
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      value.append("abcd");
+    }
+    openSink(1 << 20, SegmentedFileSink.Compression.DEFLATE);
+    apply(1, record(1, value.toString()), record(2, value.toString()));
+    // Too small to get smaller, so it's stored as is.
+    apply(3, record(3, "v"));
+    assertEquals(Arrays.asList(1L, 2L, 3L), readTimes());
+
+    try (RandomAccessFile file = new RandomAccessFile(firstSegment().toFile(), "r")) {
+      int stored = Integer.reverseBytes(file.readInt());
+      int raw = Integer.reverseBytes(file.readInt());
+      assertTrue(stored < raw / 10);
+      file.seek(12);
+      assertEquals(SegmentedFileSink.Compression.DEFLATE.ordinal(), (int) file.readByte());
+
+      file.seek(SegmentedFileSink.BLOCK_HEADER_SIZE + stored + 12);
+      assertEquals(SegmentedFileSink.Compression.NONE.ordinal(), (int) file.readByte());
+    }
+
+    // The compressed blocks are recovered like the others.
+    openSink(1 << 20, SegmentedFileSink.Compression.DEFLATE);
+    apply(4, record(4, value.toString()));
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L), readTimes());
+  }
+
+}
@@ -0,0 +1,226 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.cdc;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertNull;
+import static org.yb.AssertionWrappers.assertTrue;
+import static org.yb.cdc.CdcTestUtil.applying;
+import static org.yb.cdc.CdcTestUtil.apply;
+import static org.yb.cdc.CdcTestUtil.intent;
+import static org.yb.cdc.CdcTestUtil.name;
+import static org.yb.cdc.CdcTestUtil.write;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.Common;
+import org.yb.YBTestRunner;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+@RunWith(value=YBTestRunner.class)
+public class TestTransactionBuffer {
+  private static final long TIMEOUT_MS = 1000;
+
+  private Path spillDir;
+
+  @Before
+  public void setUp() throws Exception {
+    spillDir = Files.createTempDirectory("TestTransactionBuffer");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(spillDir.toFile());
+  }
+
+  private TransactionBuffer newBuffer(long maxBufferedBytes) throws Exception {
+    return new TransactionBuffer("tablet", new TransactionBuffer.Pool(spillDir.toString(),
+                                                                       maxBufferedBytes,
+                                                                       TIMEOUT_MS),
+                                 new CdcMetrics());
+  }
+
+  private static List<String> names(Iterable<CdcService.CDCRecordPB> records) {
+    List<String> names = new ArrayList<>();
+    for (CdcService.CDCRecordPB record : records) {
+      names.add(name(record));
+    }
+    return names;
+  }
+
+  /**
+   * @return the names of the records of each output, with the transactions' ones prefixed with
+   *         "txn"
+   */
+  private static List<String> describe(List<TransactionBuffer.Output> outputs) {
+    List<String> described = new ArrayList<>();
+    for (TransactionBuffer.Output output : outputs) {
+      if (output.getTransaction() != null) {
+        described.add("txn" + names(output.getTransaction()));
+      } else {
+        described.add(names(output.getRecords()).toString());
+      }
+    }
+    return described;
+  }
+
+  @Test
+  public void testGroupsCommittedTransaction() throws Exception {
+    TransactionBuffer buffer = newBuffer(1 << 20);
+    Checkpoint start = new Checkpoint(1, 1);
+    List<TransactionBuffer.Output> outputs = buffer.add(
+        Arrays.asList(write("a", 1), intent(1, "t1", 2), write("b", 3), intent(1, "t2", 4)),
+        start);
+    assertEquals(Arrays.asList("[a, b]"), describe(outputs));
+    assertEquals(1, buffer.getOpenTransactions());
+    assertEquals(start, buffer.getSafeCheckpoint(new Checkpoint(1, 2)));
+
+    outputs = buffer.add(Arrays.asList(write("c", 5), apply(1, 6), write("d", 7)),
+                         new Checkpoint(1, 2));
+    assertEquals(Arrays.asList("[c]", "txn[t1, t2]", "[d]"), describe(outputs));
+    assertEquals(CdcTestUtil.hybridTime(6), outputs.get(1).getTransaction().getCommitTime());
+    assertEquals(0, buffer.getOpenTransactions());
+    assertEquals(new Checkpoint(1, 3), buffer.getSafeCheckpoint(new Checkpoint(1, 3)));
+  }
+
+  @Test
+  public void testIdleTransactionIsDropped() throws Exception {
+    TransactionBuffer.Pool pool = new TransactionBuffer.Pool(spillDir.toString(), 1 << 20,
+                                                             TIMEOUT_MS);
+    CdcMetrics metrics = new CdcMetrics();
+    TransactionBuffer buffer = new TransactionBuffer("tablet", pool, metrics);
+    Checkpoint start = new Checkpoint(1, 1);
+    buffer.add(Arrays.asList(intent(1, "t1", 0), intent(2, "u1", 0)), start);
+
+    // Within the timeout, both transactions hold the checkpoint back.
+    buffer.add(Arrays.asList(intent(2, "u2", TIMEOUT_MS), write("a", TIMEOUT_MS)),
+               new Checkpoint(1, 2));
+    assertEquals(2, buffer.getOpenTransactions());
+    assertEquals(start, buffer.getSafeCheckpoint(new Checkpoint(1, 3)));
+    assertEquals(0L, metrics.getDroppedTransactions());
+
+    // Past it, the one without intents since is dropped as aborted.
+    List<TransactionBuffer.Output> outputs =
+        buffer.add(Arrays.asList(write("b", TIMEOUT_MS + 1)), new Checkpoint(1, 3));
+    assertEquals(Arrays.asList("[b]"), describe(outputs));
+    assertEquals(1, buffer.getOpenTransactions());
+    assertEquals(1L, metrics.getDroppedTransactions());
+
+    // Its APPLY, if it comes after all, is skipped.
+    outputs = buffer.add(Arrays.asList(apply(1, TIMEOUT_MS + 2), apply(2, TIMEOUT_MS + 3)),
+                         new Checkpoint(1, 4));
+    assertEquals(Arrays.asList("txn[u1, u2]"), describe(outputs));
+    buffer.release(outputs.get(0).getTransaction());
+    assertEquals(0, buffer.getOpenTransactions());
+    assertEquals(0, pool.getBufferedBytes());
+    assertEquals(new Checkpoint(1, 5), buffer.getSafeCheckpoint(new Checkpoint(1, 5)));
+  }
+
+  @Test
+  public void testPassesThroughTransactionStatus() throws Exception {
+    TransactionBuffer buffer = newBuffer(1 << 20);
+    // Without intents replicated, the writes are already committed, and the APPLYING records of
+    // the transactions come as writes with a transaction state.
+    List<CdcService.CDCRecordPB> records = Arrays.asList(
+        write("a", 1), applying(1, 2),
+        applying(2, 3).toBuilder()
+            .setTransactionState(applying(2, 3).getTransactionState().toBuilder()
+                .setStatus(Common.TransactionStatus.COMMITTED))
+            .build(),
+        write("b", 4));
+    List<TransactionBuffer.Output> outputs = buffer.add(records, new Checkpoint(1, 1));
+    assertEquals(1, outputs.size());
+    assertEquals(records, outputs.get(0).getRecords());
+    assertEquals(0, buffer.getOpenTransactions());
+    assertEquals(new Checkpoint(1, 2), buffer.getSafeCheckpoint(new Checkpoint(1, 2)));
+  }
+
+  @Test
+  public void testSpillsLargestTransaction() throws Exception {
+    TransactionBuffer.Pool pool = new TransactionBuffer.Pool(spillDir.toString(), 100,
+                                                             TIMEOUT_MS);
+    TransactionBuffer buffer = new TransactionBuffer("tablet", pool, new CdcMetrics());
+    List<CdcService.CDCRecordPB> records = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      records.add(intent(1, "t" + i, i));
+      expected.add("t" + i);
+    }
+    records.add(intent(2, "u", 10));
+    buffer.add(records, new Checkpoint(1, 1));
+    assertTrue(pool.getBufferedBytes() <= 100);
+    try (Stream<Path> files = Files.list(spillDir)) {
+      assertEquals(1L, files.count());
+    }
+
+    List<TransactionBuffer.Output> outputs =
+        buffer.add(Arrays.asList(apply(1, 11)), new Checkpoint(1, 2));
+    CdcTransaction transaction = outputs.get(0).getTransaction();
+    assertTrue(transaction.isSpilled());
+    assertEquals(expected, names(transaction));
+    // It can be read again, when applying it is retried.
+    assertEquals(expected, names(transaction));
+
+    buffer.release(transaction);
+    try (Stream<Path> files = Files.list(spillDir)) {
+      assertEquals(0L, files.count());
+    }
+    assertNull(outputs.get(0).getRecords());
+  }
+
+  @Test
+  public void testSpillsLargestTransactionOfPool() throws Exception {
+    long intentBytes = intent(1, "t0", 0).getSerializedSize();
+    TransactionBuffer.Pool pool = new TransactionBuffer.Pool(spillDir.toString(),
+                                                             10 * intentBytes, TIMEOUT_MS);
+    TransactionBuffer large = new TransactionBuffer("large", pool, new CdcMetrics());
+    TransactionBuffer small = new TransactionBuffer("small", pool, new CdcMetrics());
+    List<CdcService.CDCRecordPB> records = new ArrayList<>();
+    for (int i = 0; i < 9; i++) {
+      records.add(intent(1, "t" + i, i));
+    }
+    large.add(records, new Checkpoint(1, 1));
+    try (Stream<Path> files = Files.list(spillDir)) {
+      assertEquals(0L, files.count());
+    }
+
+    // The tablet that goes over the bound only has small transactions, so the large one of the
+    // other tablet is the one spilled, once, instead of each new small one.
+    for (int i = 0; i < 3; i++) {
+      small.add(Arrays.asList(intent(2 + i, "u" + i, 10 + i)), new Checkpoint(1, 2 + i));
+    }
+    assertTrue(pool.getBufferedBytes() <= 10 * intentBytes);
+    try (Stream<Path> files = Files.list(spillDir)) {
+      assertEquals(1L, files.count());
+    }
+    List<TransactionBuffer.Output> outputs =
+        large.add(Arrays.asList(apply(1, 20)), new Checkpoint(1, 5));
+    assertTrue(outputs.get(0).getTransaction().isSpilled());
+    outputs = small.add(Arrays.asList(apply(2, 21)), new Checkpoint(1, 6));
+    assertFalse(outputs.get(0).getTransaction().isSpilled());
+
+    large.close();
+    small.close();
+  }
+}
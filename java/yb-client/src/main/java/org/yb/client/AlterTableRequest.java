@@ -35,7 +35,7 @@ import com.google.protobuf.Message;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.master.Master;
 import org.yb.util.Pair;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 import static org.yb.master.Master.*;
 
@@ -59,7 +59,7 @@ class AlterTableRequest extends YRpc<AlterTableResponse> {
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     TableIdentifierPB tableID = TableIdentifierPB.newBuilder()
                                 .setTableName(name)
@@ -67,7 +67,7 @@ class AlterTableRequest extends YRpc<AlterTableResponse> {
                                               .setName(this.keyspace))
                                 .build();
     this.builder.setTable(tableID);
-    return toChannelBuffer(header, this.builder.build());
+    return toByteBuf(header, this.builder.build());
   }
 
   @Override
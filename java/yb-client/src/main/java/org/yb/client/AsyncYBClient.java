@@ -45,9 +45,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.net.HostAndPort;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.Message;
 import com.stumbleupon.async.Callback;
 import com.stumbleupon.async.Deferred;
@@ -68,19 +68,24 @@ import org.yb.util.AsyncUtil;
 import org.yb.util.NetUtil;
 import org.yb.util.Pair;
 import org.yb.util.Slice;
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.channel.ChannelEvent;
-import org.jboss.netty.channel.ChannelStateEvent;
-import org.jboss.netty.channel.DefaultChannelPipeline;
-import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
-import org.jboss.netty.channel.socket.SocketChannel;
-import org.jboss.netty.channel.socket.SocketChannelConfig;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
-import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
-import org.jboss.netty.handler.ssl.SslHandler;
-import org.jboss.netty.util.HashedWheelTimer;
-import org.jboss.netty.util.Timeout;
-import org.jboss.netty.util.TimerTask;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -114,13 +119,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -169,8 +172,19 @@ public class AsyncYBClient implements AutoCloseable {
   public static final long NO_TIMESTAMP = -1;
   public static final long DEFAULT_OPERATION_TIMEOUT_MS = 10000;
   public static final long DEFAULT_SOCKET_READ_TIMEOUT_MS = 5000;
+  public static final long DEFAULT_RETRY_BACKOFF_BASE_MS = 100;
+  public static final long DEFAULT_RETRY_BACKOFF_MAX_MS = 10000;
 
-  private final ClientSocketChannelFactory channelFactory;
+  // How many tablets to ask the master for per GetTableLocations RPC when prefetching.
+  private static final int PREFETCH_MAX_RETURNED_LOCATIONS = 1000;
+
+  // The client's threads, which may be shared with other clients.
+  private final ClientResources resources;
+
+  private final EventLoopGroup eventLoopGroup;
+
+  // Connections are made from a copy of this, with their own pipeline.
+  private final Bootstrap bootstrap;
 
   // TODO(Bharat) - get tablet id from master leader.
   private static final String MASTER_TABLET_ID = "00000000000000000000000000000000";
@@ -188,8 +202,8 @@ public class AsyncYBClient implements AutoCloseable {
    *
    * This map is keyed by table ID.
    */
-  private final ConcurrentHashMap<String, ConcurrentSkipListMap<byte[],
-      RemoteTablet>> tabletsCache = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, TableLocationsCache> tabletsCache =
+      new ConcurrentHashMap<>();
 
   /**
    * Maps a tablet ID to the RemoteTablet that knows where all the replicas are served.
@@ -227,11 +241,20 @@ public class AsyncYBClient implements AutoCloseable {
    * us because we want to purge disconnected clients from the cache as
    * quickly as possible after the disconnection, to avoid handing out clients
    * that are going to cause unnecessary errors.
-   * @see TabletClientPipeline#handleDisconnect
+   * @see TabletClientInitializer#operationComplete
    */
   private final HashMap<String, TabletClient> ip2client =
       new HashMap<String, TabletClient>();
 
+  /**
+   * Maps a server address ("ip:port") to the connections we opened to it, when we open more than
+   * one per server. The pools outlive the primary connections in {@link #ip2client}, so the other
+   * connections survive when the primary one gets replaced.
+   * <p>
+   * Access to this map must be synchronized by locking the monitor of {@link #ip2client}.
+   */
+  private final HashMap<String, ConnectionPool> ip2pool = new HashMap<String, ConnectionPool>();
+
   // Since the masters also go through TabletClient, we need to treat them as if they were a normal
   // table. We'll use the following fake table name to identify places where we need special
   // handling.
@@ -239,7 +262,7 @@ public class AsyncYBClient implements AutoCloseable {
   final YBTable masterTable;
   private final List<HostAndPort> masterAddresses;
 
-  private final HashedWheelTimer timer = new HashedWheelTimer(20, MILLISECONDS);
+  private final HashedWheelTimer timer;
 
   /**
    * Timestamp required for HybridTime external consistency through timestamp
@@ -262,7 +285,13 @@ public class AsyncYBClient implements AutoCloseable {
    */
   private final Semaphore masterLookups = new Semaphore(50);
 
-  private final Random sleepRandomizer = new Random();
+  /**
+   * Master lookups in flight, keyed by table ID and partition key. Concurrent lookups for the
+   * same key wait on the first one instead of all going to the master.
+   * @see #locateTablet
+   */
+  private final ConcurrentHashMap<Pair<String, Slice>, PendingLookup> pendingLookups =
+      new ConcurrentHashMap<>();
 
   private final long defaultOperationTimeoutMs;
 
@@ -278,10 +307,40 @@ public class AsyncYBClient implements AutoCloseable {
   private final String clientHost;
   private final int clientPort;
 
+  private final ReplicaSelectionPolicy replicaSelectionPolicy;
+
+  private final int rpcWriteBatchMaxBytes;
+  private final long rpcWriteBatchMaxDelayMs;
+
+  private final long retryBackoffBaseMs;
+  private final long retryBackoffMaxMs;
+
+  private final double circuitBreakerFailureRatio;
+  private final int circuitBreakerWindowSize;
+  private final long circuitBreakerOpenMs;
+
+  private final RpcMetricsSink metricsSink;
+
+  private final int connectionsPerServer;
+
   private volatile boolean closed;
 
   private AsyncYBClient(AsyncYBClientBuilder b) {
-    this.channelFactory = b.createChannelFactory();
+    this.resources = b.clientResources != null ?
+        b.clientResources.retain() : b.createClientResources();
+    this.eventLoopGroup = resources.getEventLoopGroup();
+    this.timer = resources.getTimer();
+    this.bootstrap = new Bootstrap()
+        .group(eventLoopGroup)
+        .channel(eventLoopGroup instanceof EpollEventLoopGroup ?
+                     EpollSocketChannel.class : NioSocketChannel.class)
+        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+        .option(ChannelOption.TCP_NODELAY, true)
+        // Unfortunately there is no way to override the keep-alive timeout in
+        // Java since the JRE doesn't expose any way to call setsockopt() with
+        // TCP_KEEPIDLE.  And of course the default timeout is >2h. Sigh.
+        .option(ChannelOption.SO_KEEPALIVE, true);
     this.masterAddresses = b.masterAddresses;
     this.masterTable = new YBTable(this, MASTER_TABLE_NAME_PLACEHOLDER,
         MASTER_TABLE_NAME_PLACEHOLDER, null, null);
@@ -293,6 +352,16 @@ public class AsyncYBClient implements AutoCloseable {
     this.clientHost = b.clientHost;
     this.clientPort = b.clientPort;
     this.defaultSocketReadTimeoutMs = b.defaultSocketReadTimeoutMs;
+    this.replicaSelectionPolicy = b.replicaSelectionPolicy;
+    this.rpcWriteBatchMaxBytes = b.rpcWriteBatchMaxBytes;
+    this.rpcWriteBatchMaxDelayMs = b.rpcWriteBatchMaxDelayMs;
+    this.retryBackoffBaseMs = b.retryBackoffBaseMs;
+    this.retryBackoffMaxMs = b.retryBackoffMaxMs;
+    this.circuitBreakerFailureRatio = b.circuitBreakerFailureRatio;
+    this.circuitBreakerWindowSize = b.circuitBreakerWindowSize;
+    this.circuitBreakerOpenMs = b.circuitBreakerOpenMs;
+    this.metricsSink = b.metricsSink;
+    this.connectionsPerServer = b.connectionsPerServer;
   }
 
   /**
@@ -396,18 +465,86 @@ public class AsyncYBClient implements AutoCloseable {
   public Deferred<Void> getChanges(
           HostAndPort hp, YBTable table, String streamId, String tabletId, long term,
           long index, Callback<Void, GetChangesResponse> cb) {
+    return getChanges(hp, table, streamId, tabletId, term, index, 0, true, cb);
+  }
+
+  /**
+   * Get at most a given number of changes for a given tablet and stream.
+   * @param hp host port of the server.
+   * @param table the table to get changes for.
+   * @param streamId the stream to get changes for.
+   * @param tabletId the tablet to get changes for.
+   * @param term the leader term to start getting changes for.
+   * @param index the log index to start get changes for.
+   * @param maxRecords the most records to return, 0 to let the server decide.
+   * @param serveAsProxy whether the server should forward the request to the tablet's leader if
+   *                     it isn't the leader, instead of failing it with TABLET_NOT_FOUND.
+   * @param cb the callback to call once the RPC returns.
+   * @return a deferred object for the response from server.
+   */
+  public Deferred<Void> getChanges(
+          HostAndPort hp, YBTable table, String streamId, String tabletId, long term,
+          long index, int maxRecords, boolean serveAsProxy,
+          Callback<Void, GetChangesResponse> cb) {
     checkIsClosed();
     TabletClient client = newSimpleClient(hp);
     if (client == null) {
       throw new IllegalStateException("Could not create a client to " + hp.toString());
     }
-    GetChangesRequest rpc = new GetChangesRequest(table, streamId, tabletId, term, index);
+    GetChangesRequest rpc =
+        new GetChangesRequest(table, streamId, tabletId, term, index, maxRecords, serveAsProxy);
     rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
     Deferred<GetChangesResponse> d = rpc.getDeferred();
     client.sendRpc(rpc);
     return d.addCallback(cb);
   }
 
+  /**
+   * Tell a replica of a tablet up to which index its log was consumed, so that it may garbage
+   * collect the log segments before it. Each replica only updates its own log.
+   * @param hp host port of the server hosting the replica.
+   * @param table the table the tablet belongs to.
+   * @param tabletId the tablet to update.
+   * @param replicatedIndex the lowest log index still needed by the CDC streams of the tablet.
+   * @return a deferred object for the response from server.
+   */
+  public Deferred<UpdateCdcReplicatedIndexResponse> updateCdcReplicatedIndex(
+          HostAndPort hp, YBTable table, String tabletId, long replicatedIndex) {
+    checkIsClosed();
+    TabletClient client = newSimpleClient(hp);
+    if (client == null) {
+      throw new IllegalStateException("Could not create a client to " + hp.toString());
+    }
+    UpdateCdcReplicatedIndexRequest rpc =
+        new UpdateCdcReplicatedIndexRequest(table, tabletId, replicatedIndex);
+    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+    Deferred<UpdateCdcReplicatedIndexResponse> d = rpc.getDeferred();
+    client.sendRpc(rpc);
+    return d;
+  }
+
+  /**
+   * Get the op id of the last entry appended to the log of a tablet replica. Comparing it with
+   * the op id a CDC stream consumed up to tells how far behind the stream is.
+   * @param hp host port of the server hosting the replica.
+   * @param table the table the tablet belongs to.
+   * @param tabletId the tablet to look up.
+   * @return a deferred object for the response from server.
+   */
+  public Deferred<GetLatestEntryOpIdResponse> getLatestEntryOpId(
+          HostAndPort hp, YBTable table, String tabletId) {
+    checkIsClosed();
+    TabletClient client = newSimpleClient(hp);
+    if (client == null) {
+      throw new IllegalStateException("Could not create a client to " + hp.toString());
+    }
+    GetLatestEntryOpIdRequest rpc = new GetLatestEntryOpIdRequest(table, tabletId);
+    rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+    Deferred<GetLatestEntryOpIdResponse> d = rpc.getDeferred();
+    client.sendRpc(rpc);
+    return d;
+  }
+
   /**
    * Check if the server is ready to serve requests.
    * @param hp host port of the server.
@@ -975,7 +1112,7 @@ public class AsyncYBClient implements AutoCloseable {
     }
 
     @Override
-    ChannelBuffer serialize(Message header) {
+    ByteBuf serialize(Message header) {
       return null;
     }
 
@@ -1087,6 +1224,14 @@ public class AsyncYBClient implements AutoCloseable {
   }
 
   <R> Deferred<R> sendRpcToTablet(final YRpc<R> request) {
+    if (closed) {
+      // The timer may be shared with other clients and keep running after this one was shut
+      // down, don't let the retries it fires open new connections.
+      final Exception e = new NonRecoverableException("The client to " + getMasterAddresses() +
+                                                      " was closed: " + request);
+      request.errback(e);
+      return Deferred.fromError(e);
+    }
     if (cannotRetryRequest(request)) {
       return tooManyAttemptsOrTimeout(request, null);
     }
@@ -1106,10 +1251,24 @@ public class AsyncYBClient implements AutoCloseable {
     }
 
     if (tablet != null) {
-      TabletClient tabletClient = clientFor(tablet);
+      TabletClient tabletClient = clientFor(tablet, request);
       if (tabletClient != null) {
         request.setTablet(tablet);
         final Deferred<R> d = request.getDeferred();
+        CircuitBreaker breaker = tabletClient.getCircuitBreaker();
+        if (breaker != null && !breaker.allowRequest()) {
+          TabletClient other = otherReplicaFor(tablet, request, tabletClient);
+          if (metricsSink != null) {
+            metricsSink.circuitBreakerRejected(request.serviceName(), request.method(),
+                                               tabletClient.getUuid(), other != null);
+          }
+          if (other == null) {
+            handleRetryableError(request, new CircuitBreakerOpenException(
+                "Circuit breaker of " + tabletClient.getUuid() + " is open"), tabletClient);
+            return d;
+          }
+          tabletClient = other;
+        }
         tabletClient.sendRpc(request);
         return d;
       }
@@ -1302,22 +1461,43 @@ public class AsyncYBClient implements AutoCloseable {
   }
 
 
+  /**
+   * Computes how long to wait before retrying an RPC, using exponential backoff with decorrelated
+   * jitter: each sleep is picked at random between the base backoff and three times the previous
+   * sleep, capped at the maximum backoff. Unlike a fixed schedule, this spreads out the retries
+   * of clients that all failed at the same time, and keeps them from hitting a busy server in
+   * lockstep.
+   */
   long getSleepTimeForRpc(YRpc<?> rpc) {
     byte attemptCount = rpc.attempt;
     assert (attemptCount > 0);
     if (attemptCount == 0) {
       LOG.warn("Possible bug: attempting to retry an RPC with no attempts. RPC: " + rpc,
           new Exception("Exception created to collect stack trace"));
-      attemptCount = 1;
     }
-    // TODO backoffs? Sleep in increments of 500 ms, plus some random time up to 50
-    long sleepTime = (attemptCount * SLEEP_TIME) + sleepRandomizer.nextInt(50);
+    long sleepTime = nextBackoffMs(rpc.lastBackoffMs, retryBackoffBaseMs, retryBackoffMaxMs);
+    rpc.lastBackoffMs = sleepTime;
     if (LOG.isDebugEnabled()) {
       LOG.debug("Going to sleep for " + sleepTime + " at retry " + rpc.attempt);
     }
     return sleepTime;
   }
 
+  /**
+   * Picks the next decorrelated jitter backoff.
+   * @param lastBackoffMs the previous backoff, or 0 if this is the first one
+   * @param baseMs the smallest backoff
+   * @param maxMs the largest backoff
+   * @return a backoff between {@code baseMs} and {@code maxMs}
+   */
+  static long nextBackoffMs(long lastBackoffMs, long baseMs, long maxMs) {
+    long upper = Math.min(maxMs, Math.max(baseMs, lastBackoffMs) * 3);
+    if (upper <= baseMs) {
+      return baseMs;
+    }
+    return baseMs + ThreadLocalRandom.current().nextLong(upper - baseMs + 1);
+  }
+
   /**
    * Modifying the list returned by this method won't change how AsyncYBClient behaves,
    * but calling certain methods on the returned TabletClients can. For example,
@@ -1353,21 +1533,163 @@ public class AsyncYBClient implements AutoCloseable {
       return null;
     }
 
-    synchronized (tablet.tabletServers) {
-      if (tablet.tabletServers.isEmpty()) {
-        return null;
+    // Lock-free, this reads the last replica list the tablet published.
+    ReplicaSnapshot replicas = tablet.replicas;
+    if (replicas.servers.isEmpty()) {
+      return null;
+    }
+    if (replicas.leaderIndex == RemoteTablet.NO_LEADER_INDEX) {
+      // TODO we don't know where the leader is, either because one wasn't provided or because
+      // we couldn't resolve its IP. We'll just send the client back so it retries and probably
+      // dies after too many attempts.
+      return null;
+    } else {
+      // RPCs that can be served by followers go through clientFor(RemoteTablet, YRpc).
+      return replicas.servers.get(replicas.leaderIndex);
+    }
+  }
+
+  /**
+   * Picks the server that should receive the given RPC. RPCs that allow follower reads are routed
+   * by the configured {@link ReplicaSelectionPolicy}, all the other ones go to the leader.
+   * @param tablet the tablet the RPC is for
+   * @param rpc the RPC to route
+   * @return a client for the chosen server, or null if the tablet's locations need a refresh
+   */
+  TabletClient clientFor(RemoteTablet tablet, YRpc<?> rpc) {
+    if (tablet == null) {
+      return null;
+    }
+    if (!rpc.isFollowerReadsAllowed() || isMasterTable(tablet.getTableId())) {
+      return clientFor(tablet);
+    }
+
+    ReplicaSnapshot replicas = tablet.replicas;
+    if (replicas.servers.isEmpty()) {
+      return null;
+    }
+    int index = replicaSelectionPolicy.selectReplica(replicas.servers, replicas.leaderIndex);
+    if (index < 0 || index >= replicas.servers.size()) {
+      // The policy deferred to the leader, which might be unknown as well.
+      return replicas.leaderIndex == RemoteTablet.NO_LEADER_INDEX ?
+          null : replicas.servers.get(replicas.leaderIndex);
+    }
+    return replicas.servers.get(index);
+  }
+
+  /**
+   * Finds another replica for an RPC whose server's circuit breaker is open. Only RPCs that can
+   * be served by followers have one, the leader is preferred over the other followers.
+   * @return a client for a replica whose breaker lets the RPC through, or null if there isn't any
+   */
+  private TabletClient otherReplicaFor(RemoteTablet tablet, YRpc<?> rpc, TabletClient rejected) {
+    if (!rpc.isFollowerReadsAllowed() || isMasterTable(tablet.getTableId())) {
+      return null;
+    }
+    ReplicaSnapshot replicas = tablet.replicas;
+    int numReplicas = replicas.servers.size();
+    int start = replicas.leaderIndex == RemoteTablet.NO_LEADER_INDEX ? 0 : replicas.leaderIndex;
+    for (int i = 0; i < numReplicas; i++) {
+      TabletClient replica = replicas.servers.get((start + i) % numReplicas);
+      if (replica == rejected) {
+        continue;
       }
-      if (tablet.leaderIndex == RemoteTablet.NO_LEADER_INDEX) {
-        // TODO we don't know where the leader is, either because one wasn't provided or because
-        // we couldn't resolve its IP. We'll just send the client back so it retries and probably
-        // dies after too many attempts.
-        return null;
-      } else {
-        // TODO we currently always hit the leader, we probably don't need to except for writes
-        // and some reads.
-        return tablet.tabletServers.get(tablet.leaderIndex);
+      CircuitBreaker breaker = replica.getCircuitBreaker();
+      if (breaker == null || breaker.allowRequest()) {
+        return replica;
       }
     }
+    return null;
+  }
+
+  /**
+   * Get the circuit breakers of the servers the client is connected to.
+   * @return a map from "host:port" to the server's breaker, empty if circuit breakers aren't
+   *         enabled
+   */
+  public Map<String, CircuitBreaker> getCircuitBreakers() {
+    Map<String, CircuitBreaker> breakers = new HashMap<>();
+    synchronized (ip2client) {
+      for (Map.Entry<String, TabletClient> entry : ip2client.entrySet()) {
+        CircuitBreaker breaker = entry.getValue().getCircuitBreaker();
+        if (breaker != null) {
+          breakers.put(entry.getKey(), breaker);
+        }
+      }
+    }
+    return breakers;
+  }
+
+  /**
+   * Get the state of the connections the client has open.
+   * @return a map from "host:port" to the stats of each connection to the server
+   */
+  public Map<String, List<ConnectionStats>> getConnectionStats() {
+    Map<String, List<ConnectionStats>> stats = new HashMap<>();
+    synchronized (ip2client) {
+      for (Map.Entry<String, TabletClient> entry : ip2client.entrySet()) {
+        ConnectionPool pool = ip2pool.get(entry.getKey());
+        stats.put(entry.getKey(), pool != null ? pool.getStats() :
+            Collections.singletonList(new ConnectionStats(0, entry.getValue(), 0)));
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Get the number of connections the client opens to each server.
+   * @return a number of connections
+   */
+  public int getConnectionsPerServer() {
+    return connectionsPerServer;
+  }
+
+  /**
+   * Get where the client reports its RPC events.
+   * @return the sink, or null if metrics aren't enabled
+   */
+  public RpcMetricsSink getMetricsSink() {
+    return metricsSink;
+  }
+
+  /**
+   * Creates the circuit breaker of a new connection.
+   * @param serverUuid the server the connection goes to, which its state changes are reported for
+   * @return the breaker, or null if circuit breakers aren't enabled
+   */
+  CircuitBreaker newCircuitBreaker(final String serverUuid) {
+    if (circuitBreakerWindowSize == 0) {
+      return null;
+    }
+    final RpcMetricsSink sink = metricsSink;
+    return new CircuitBreaker(circuitBreakerFailureRatio, circuitBreakerWindowSize,
+                              circuitBreakerOpenMs, System::nanoTime,
+                              sink == null ? null :
+                                  state -> sink.circuitBreakerStateChanged(serverUuid, state));
+  }
+
+  /**
+   * Get the policy used to route RPCs that can be served by followers.
+   * @return the replica selection policy
+   */
+  public ReplicaSelectionPolicy getReplicaSelectionPolicy() {
+    return replicaSelectionPolicy;
+  }
+
+  /**
+   * Get the number of bytes of RPCs a connection queues before writing them all at once.
+   * @return a number of bytes, 0 if write batching is disabled
+   */
+  public int getRpcWriteBatchMaxBytes() {
+    return rpcWriteBatchMaxBytes;
+  }
+
+  /**
+   * Get how long a connection may hold an RPC to batch it with the following ones.
+   * @return a delay in milliseconds
+   */
+  public long getRpcWriteBatchMaxDelayMs() {
+    return rpcWriteBatchMaxDelayMs;
   }
 
   /**
@@ -1409,20 +1731,41 @@ public class AsyncYBClient implements AutoCloseable {
    * @return Deferred to track the progress
    */
   Deferred<Master.GetTableLocationsResponsePB> locateTablet(YBTable table, byte[] partitionKey) {
-    final boolean has_permit = acquireMasterLookupPermit();
     String tableId = table.getTableId();
+    final Pair<String, Slice> lookupKey = new Pair<>(tableId,
+        new Slice(partitionKey == null ? EMPTY_ARRAY : partitionKey));
+    final PendingLookup pending = new PendingLookup();
+    final PendingLookup existing = pendingLookups.putIfAbsent(lookupKey, pending);
+    if (existing != null) {
+      Deferred<Master.GetTableLocationsResponsePB> d = existing.addWaiter();
+      if (d != null) {
+        if (metricsSink != null) {
+          metricsSink.masterLookup(tableId, true);
+        }
+        return d;
+      }
+      // The lookup we found just completed, do our own.
+      pendingLookups.put(lookupKey, pending);
+    }
+
+    final boolean has_permit = acquireMasterLookupPermit();
     if (!has_permit) {
       // If we failed to acquire a permit, it's worth checking if someone
       // looked up the tablet we're interested in.  Every once in a while
       // this will save us a Master lookup.
       RemoteTablet tablet = getTablet(tableId, partitionKey);
       if (tablet != null && clientFor(tablet) != null) {
+        pendingLookups.remove(lookupKey, pending);
+        pending.complete(null);
         return Deferred.fromResult(null);  // Looks like no lookup needed.
       }
     }
     GetTableLocationsRequest rpc =
         new GetTableLocationsRequest(masterTable, partitionKey, partitionKey, tableId);
     rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+    if (metricsSink != null) {
+      metricsSink.masterLookup(tableId, false);
+    }
     final Deferred<Master.GetTableLocationsResponsePB> d;
 
     // If we know this is going to the master, check the master consensus configuration (as specified by
@@ -1436,9 +1779,69 @@ public class AsyncYBClient implements AutoCloseable {
     if (has_permit) {
       d.addBoth(new ReleaseMasterLookupPermit<Master.GetTableLocationsResponsePB>());
     }
+    d.addBoth(new Callback<Master.GetTableLocationsResponsePB,
+        Master.GetTableLocationsResponsePB>() {
+      @Override
+      public Master.GetTableLocationsResponsePB call(Master.GetTableLocationsResponsePB arg) {
+        pendingLookups.remove(lookupKey, pending);
+        pending.complete(arg);
+        return arg;
+      }
+
+      @Override
+      public String toString() {
+        return "wake up lookups waiting on " + lookupKey;
+      }
+    });
     return d;
   }
 
+  /**
+   * The callers waiting on a master lookup started by someone else. They get called back with
+   * whatever the lookup's own Deferred ended up with, which is either null or an exception.
+   */
+  private static final class PendingLookup {
+    private List<Deferred<Master.GetTableLocationsResponsePB>> waiters = new ArrayList<>();
+
+    /**
+     * @return a Deferred called back once the lookup completes, or null if it already has
+     */
+    synchronized Deferred<Master.GetTableLocationsResponsePB> addWaiter() {
+      if (waiters == null) {
+        return null;
+      }
+      Deferred<Master.GetTableLocationsResponsePB> d = new Deferred<>();
+      waiters.add(d);
+      return d;
+    }
+
+    void complete(Object result) {
+      List<Deferred<Master.GetTableLocationsResponsePB>> toWake;
+      synchronized (this) {
+        toWake = waiters;
+        waiters = null;
+      }
+      for (Deferred<Master.GetTableLocationsResponsePB> d : toWake) {
+        d.callback(result);
+      }
+    }
+  }
+
+  /**
+   * Loads the locations of all the tablets of a table in the cache, so that the first operations
+   * on the table don't each have to go to the master. The master is asked for as many tablets
+   * per request as it allows, in partition order.
+   * @param table the table to load the tablet locations of
+   * @return a deferred object that yields the locations of all the tablets of the table
+   */
+  public Deferred<List<LocatedTablet>> prefetchTableLocations(YBTable table) {
+    checkIsClosed();
+    final DeadlineTracker deadlineTracker = new DeadlineTracker();
+    deadlineTracker.setDeadline(defaultAdminOperationTimeoutMs);
+    return loopLocateTable(table, null, null, Lists.<LocatedTablet>newArrayList(),
+        deadlineTracker, PREFETCH_MAX_RETURNED_LOCATIONS);
+  }
+
   /**
    * Update the master config: send RPCs to all config members, use the returned data to
    * fill a {@link Master.GetTabletLocationsResponsePB} object.
@@ -1491,21 +1894,47 @@ public class AsyncYBClient implements AutoCloseable {
   private Deferred<List<LocatedTablet>> loopLocateTable(final String tableId,
       final byte[] startPartitionKey, final byte[] endPartitionKey, final List<LocatedTablet> ret,
       final DeadlineTracker deadlineTracker) {
+    return loopLocateTable(tableId, null, startPartitionKey, endPartitionKey, ret,
+        deadlineTracker, 0);
+  }
+
+  private Deferred<List<LocatedTablet>> loopLocateTable(final YBTable table,
+      final byte[] startPartitionKey, final byte[] endPartitionKey, final List<LocatedTablet> ret,
+      final DeadlineTracker deadlineTracker, final int maxReturnedLocations) {
+    return loopLocateTable(table.getTableId(), table, startPartitionKey, endPartitionKey, ret,
+        deadlineTracker, maxReturnedLocations);
+  }
+
+  /**
+   * @param tableToCache if not null, the tablets found are also added to the tablet cache
+   * @param maxReturnedLocations how many tablets to ask for per request, 0 for the master default
+   */
+  private Deferred<List<LocatedTablet>> loopLocateTable(final String tableId,
+      final YBTable tableToCache, final byte[] startPartitionKey, final byte[] endPartitionKey,
+      final List<LocatedTablet> ret, final DeadlineTracker deadlineTracker,
+      final int maxReturnedLocations) {
     if (deadlineTracker.timedOut()) {
       return Deferred.fromError(new NonRecoverableException(
           "Took too long getting the list of tablets, " + deadlineTracker));
     }
     GetTableLocationsRequest rpc = new GetTableLocationsRequest(masterTable, startPartitionKey,
-        endPartitionKey, tableId);
+        endPartitionKey, tableId, maxReturnedLocations);
     rpc.setTimeoutMillis(defaultAdminOperationTimeoutMs);
+    if (metricsSink != null) {
+      metricsSink.masterLookup(tableId, false);
+    }
     final Deferred<Master.GetTableLocationsResponsePB> d = sendRpcToTablet(rpc);
     return d.addCallbackDeferring(
         new Callback<Deferred<List<LocatedTablet>>, Master.GetTableLocationsResponsePB>() {
           @Override
-          public Deferred<List<LocatedTablet>> call(GetTableLocationsResponsePB response) {
+          public Deferred<List<LocatedTablet>> call(GetTableLocationsResponsePB response)
+              throws Exception {
             // Table doesn't exist or is being created.
             if (response.getTabletLocationsCount() == 0) {
-              Deferred.fromResult(ret);
+              return Deferred.fromResult(ret);
+            }
+            if (tableToCache != null) {
+              discoverTablets(tableToCache, response);
             }
             byte[] lastEndPartition = startPartitionKey;
             for (Master.TabletLocationsPB tabletPb : response.getTabletLocationsList()) {
@@ -1526,8 +1955,8 @@ public class AsyncYBClient implements AutoCloseable {
                 || (endPartitionKey != null && Bytes.memcmp(lastEndPartition, endPartitionKey) > 0)) {
               return Deferred.fromResult(ret);
             } else {
-              return loopLocateTable(tableId, lastEndPartition, endPartitionKey, ret,
-                  deadlineTracker);
+              return loopLocateTable(tableId, tableToCache, lastEndPartition, endPartitionKey, ret,
+                  deadlineTracker, maxReturnedLocations);
             }
           }
         });
@@ -1598,6 +2027,10 @@ public class AsyncYBClient implements AutoCloseable {
       // Don't let it retry.
       return;
     }
+    if (metricsSink != null) {
+      metricsSink.rpcRetried(rpc.serviceName(), rpc.method(),
+                             server == null ? null : server.getUuid());
+    }
     newTimeout(new RetryTimer(), sleepTime);
   }
 
@@ -1664,18 +2097,19 @@ public class AsyncYBClient implements AutoCloseable {
       tablesNotServed.add(tableId);
       return;
     }
-    // Doing a get first instead of putIfAbsent to avoid creating unnecessary CSLMs because in
+    // Doing a get first instead of putIfAbsent to avoid creating unnecessary caches because in
     // the most common case the table should already be present
-    ConcurrentSkipListMap<byte[], RemoteTablet> tablets = tabletsCache.get(tableId);
+    TableLocationsCache tablets = tabletsCache.get(tableId);
     if (tablets == null) {
-      tablets = new ConcurrentSkipListMap<>(Bytes.MEMCMP);
-      ConcurrentSkipListMap<byte[], RemoteTablet> oldTablets = tabletsCache.putIfAbsent
-          (tableId, tablets);
+      tablets = new TableLocationsCache();
+      TableLocationsCache oldTablets = tabletsCache.putIfAbsent(tableId, tablets);
       if (oldTablets != null) {
         tablets = oldTablets;
       }
     }
 
+    List<RemoteTablet> discovered = new ArrayList<>(response.getTabletLocationsCount());
+
     for (Master.TabletLocationsPB tabletPb : response.getTabletLocationsList()) {
       // Early creating the tablet so that it parses out the pb
       RemoteTablet rt = createTabletFromPb(tableId, tabletPb);
@@ -1698,11 +2132,12 @@ public class AsyncYBClient implements AutoCloseable {
       LOG.info("Discovered tablet {} for table {} with partition {}",
                tabletId.toString(Charset.defaultCharset()), tableName, rt.getPartition());
       rt.refreshServers(tabletPb);
-      // This is making this tablet available
-      // Even if two clients were racing in this method they are putting the same RemoteTablet
-      // with the same start key in the CSLM in the end
-      tablets.put(rt.getPartition().getPartitionKeyStart(), rt);
+      discovered.add(rt);
     }
+    // This is making these tablets available, all at once so the cache is only copied once.
+    // Even if two clients were racing in this method they are putting the same RemoteTablet
+    // with the same start key in the cache in the end
+    tablets.putAll(discovered);
   }
 
   RemoteTablet createTabletFromPb(String tableId, Master.TabletLocationsPB tabletPb) {
@@ -1718,7 +2153,7 @@ public class AsyncYBClient implements AutoCloseable {
    * @return a tablet ID as a slice or null if not found
    */
   RemoteTablet getTablet(String tableId, byte[] partitionKey) {
-    ConcurrentSkipListMap<byte[], RemoteTablet> tablets = tabletsCache.get(tableId);
+    TableLocationsCache tablets = tabletsCache.get(tableId);
 
     if (tablets == null) {
       return null;
@@ -1726,28 +2161,25 @@ public class AsyncYBClient implements AutoCloseable {
 
     // We currently only have one master tablet.
     if (isMasterTable(tableId)) {
-      if (tablets.firstEntry() == null) {
-        return null;
-      }
-      return tablets.firstEntry().getValue();
+      return tablets.first();
     }
 
-    Map.Entry<byte[], RemoteTablet> tabletPair = tablets.floorEntry(partitionKey);
+    RemoteTablet tablet = tablets.floor(partitionKey);
 
-    if (tabletPair == null) {
+    if (tablet == null) {
       return null;
     }
 
-    Partition partition = tabletPair.getValue().getPartition();
+    Partition partition = tablet.getPartition();
 
     // If the partition is not the end partition, but it doesn't include the key
     // we are looking for, then we have not yet found the correct tablet.
-    if (!partition.isEndPartition()
-        && Bytes.memcmp(partitionKey, partition.getPartitionKeyEnd()) >= 0) {
+    if (!partition.isEndPartition() && Bytes.memcmp(
+        partitionKey == null ? EMPTY_ARRAY : partitionKey, partition.getPartitionKeyEnd()) >= 0) {
       return null;
     }
 
-    return tabletPair.getValue();
+    return tablet;
   }
 
   /**
@@ -1798,30 +2230,42 @@ public class AsyncYBClient implements AutoCloseable {
   TabletClient newClient(String uuid, final String host, final int port) {
     final String hostport = host + ':' + port;
     TabletClient client;
-    SocketChannel chan;
     synchronized (ip2client) {
       client = ip2client.get(hostport);
       if (client != null && client.isAlive()) {
         return client;
       }
-      final TabletClientPipeline pipeline = new TabletClientPipeline();
-      client = pipeline.init(uuid);
-      chan = channelFactory.newChannel(pipeline);
+      client = new TabletClient(AsyncYBClient.this, uuid);
       ip2client.put(hostport, client);  // This is guaranteed to return null.
+      if (connectionsPerServer > 1) {
+        ConnectionPool pool = ip2pool.get(hostport);
+        if (pool == null) {
+          pool = new ConnectionPool(this, host, port, connectionsPerServer);
+          ip2pool.put(hostport, pool);
+        }
+        pool.setPrimary(client);
+      }
     }
     this.client2tablets.put(client, new ArrayList<RemoteTablet>());
-    final SocketChannelConfig config = chan.getConfig();
-    config.setConnectTimeoutMillis(5000);
-    config.setTcpNoDelay(true);
-    // Unfortunately there is no way to override the keep-alive timeout in
-    // Java since the JRE doesn't expose any way to call setsockopt() with
-    // TCP_KEEPIDLE.  And of course the default timeout is >2h. Sigh.
-    config.setKeepAlive(true);
+    connect(client, host, port);
+    return client;
+  }
+
+  /**
+   * Opens the connection of a client to a server.
+   * @param client a client that isn't connected yet
+   * @param host the server's host
+   * @param port the server's port
+   */
+  void connect(TabletClient client, String host, int port) {
+    final TabletClientInitializer initializer = new TabletClientInitializer(client);
+    final Bootstrap connector = bootstrap.clone().handler(initializer);
     if (clientHost != null) {
-      chan.bind(new InetSocketAddress(clientHost, clientPort));
+      connector.localAddress(new InetSocketAddress(clientHost, clientPort));
     }
-    chan.connect(new InetSocketAddress(host, port));  // Won't block.
-    return client;
+    // Won't block. The channel gets closed if we fail to connect, so this covers both cases.
+    final Channel chan = connector.connect(new InetSocketAddress(host, port)).channel();
+    chan.closeFuture().addListener(initializer);
   }
 
   /**
@@ -1842,7 +2286,8 @@ public class AsyncYBClient implements AutoCloseable {
    *   <li>{@link AsyncYBSession#flush Flushes} all buffered edits.</li>
    *   <li>Cancels all the other requests.</li>
    *   <li>Terminates all connections.</li>
-   *   <li>Releases all other resources.</li>
+   *   <li>Releases all other resources. {@link ClientResources} shared with other clients are
+   *   only released once they're all shut down.</li>
    * </ul>
    * <strong>Not calling this method before losing the last reference to this
    * instance may result in data loss and other unwanted side effects</strong>
@@ -1857,27 +2302,11 @@ public class AsyncYBClient implements AutoCloseable {
     checkIsClosed();
     closed = true;
 
-    // This is part of step 2.  We need to execute this in its own thread
-    // because Netty gets stuck in an infinite loop if you try to shut it
-    // down from within a thread of its own thread pool.  They don't want
-    // to fix this so as a workaround we always shut Netty's thread pool
-    // down from another thread.
-    final class ShutdownThread extends Thread {
-      ShutdownThread() {
-        super("AsyncYBClient@" + AsyncYBClient.super.hashCode() + " shutdown");
-      }
-      public void run() {
-        // This terminates the Executor.
-        channelFactory.releaseExternalResources();
-      }
-    }
-
     // 2. Release all other resources.
     final class ReleaseResourcesCB implements Callback<ArrayList<Void>, ArrayList<Void>> {
       public ArrayList<Void> call(final ArrayList<Void> arg) {
         LOG.debug("Releasing all remaining resources");
-        timer.stop();
-        new ShutdownThread().start();
+        resources.release();
         return arg;
       }
       public String toString() {
@@ -1904,22 +2333,27 @@ public class AsyncYBClient implements AutoCloseable {
     ArrayList<Deferred<Void>> deferreds =
         new ArrayList<Deferred<Void>>(2);
     HashMap<String, TabletClient> ip2client_copy;
+    ArrayList<ConnectionPool> pools;
     synchronized (ip2client) {
       // Make a local copy so we can shutdown every Tablet Server clients
       // without hold the lock while we iterate over the data structure.
       ip2client_copy = new HashMap<String, TabletClient>(ip2client);
+      pools = new ArrayList<ConnectionPool>(ip2pool.values());
     }
 
     for (TabletClient ts : ip2client_copy.values()) {
       deferreds.add(ts.shutdown());
     }
+    for (ConnectionPool pool : pools) {
+      deferreds.addAll(pool.shutdown());
+    }
     final int size = deferreds.size();
     return Deferred.group(deferreds).addCallback(
         new Callback<ArrayList<Void>, ArrayList<Void>>() {
           public ArrayList<Void> call(final ArrayList<Void> arg) {
             // Normally, now that we've shutdown() every client, all our caches should
-            // be empty since each shutdown() generates a DISCONNECTED event, which
-            // causes TabletClientPipeline to call removeClientFromCache().
+            // be empty since each shutdown() closes a channel, which causes
+            // TabletClientInitializer to call removeClientFromCache().
             HashMap<String, TabletClient> logme = null;
             synchronized (ip2client) {
               if (!ip2client.isEmpty()) {
@@ -2007,6 +2441,9 @@ public class AsyncYBClient implements AutoCloseable {
     if (remote == null) {
       return;  // Can't continue without knowing the remote address.
     }
+    if (!client.isPrimary()) {
+      return;  // Nothing but its pool knows about it, and the pool will replace it.
+    }
 
     String hostport;
     if (remote instanceof InetSocketAddress) {
@@ -2062,53 +2499,36 @@ public class AsyncYBClient implements AutoCloseable {
     return MASTER_TABLE_NAME_PLACEHOLDER == tableId;
   }
 
-  private final class TabletClientPipeline extends DefaultChannelPipeline {
+  /**
+   * Sets up the pipeline of a connection to a server, and cleans up after it once it's closed.
+   */
+  private final class TabletClientInitializer extends ChannelInitializer<Channel>
+      implements ChannelFutureListener {
+
+    private final Logger log = LoggerFactory.getLogger(TabletClientInitializer.class);
 
-    private final Logger log = LoggerFactory.getLogger(TabletClientPipeline.class);
-    /**
-     * Have we already disconnected?.
-     * We use this to avoid doing the cleanup work for the same client more
-     * than once, even if we get multiple events indicating that the client
-     * is no longer connected to the TabletServer (e.g. DISCONNECTED, CLOSED).
-     * No synchronization needed as this is always accessed from only one
-     * thread at a time (equivalent to a non-shared state in a Netty handler).
-     */
-    private boolean disconnected = false;
+    private final TabletClient client;
+
+    TabletClientInitializer(TabletClient client) {
+      this.client = client;
+    }
 
-    TabletClient init(String uuid) {
-      final TabletClient client = new TabletClient(AsyncYBClient.this, uuid);
+    @Override
+    protected void initChannel(Channel chan) {
+      final ChannelPipeline pipeline = chan.pipeline();
       if (certFile != null) {
         SslHandler sslHandler = this.createSslHandler(certFile, clientCertFile, clientKeyFile);
         if (sslHandler != null) {
-          sslHandler.setIssueHandshake(true);
-          super.addFirst("ssl", sslHandler);
+          // The handshake starts as soon as we're connected, the RPC header is held until it's
+          // done.
+          pipeline.addFirst("ssl", sslHandler);
         }
       }
       if (defaultSocketReadTimeoutMs > 0) {
-        super.addLast("timeout-handler",
-            new ReadTimeoutHandler(timer,
-                defaultSocketReadTimeoutMs,
-                TimeUnit.MILLISECONDS));
+        pipeline.addLast("timeout-handler",
+            new ReadTimeoutHandler(defaultSocketReadTimeoutMs, TimeUnit.MILLISECONDS));
       }
-      super.addLast("yb-handler", client);
-
-      return client;
-    }
-
-    @Override
-    public void sendDownstream(final ChannelEvent event) {
-      if (event instanceof ChannelStateEvent) {
-        handleDisconnect((ChannelStateEvent) event);
-      }
-      super.sendDownstream(event);
-    }
-
-    @Override
-    public void sendUpstream(final ChannelEvent event) {
-      if (event instanceof ChannelStateEvent) {
-        handleDisconnect((ChannelStateEvent) event);
-      }
-      super.sendUpstream(event);
+      pipeline.addLast("yb-handler", client);
     }
 
     private PrivateKey getPrivateKey(String keyFile) {
@@ -2205,33 +2625,19 @@ public class AsyncYBClient implements AutoCloseable {
       }
     }
 
-    private void handleDisconnect(final ChannelStateEvent state_event) {
-      if (disconnected) {
-        return;
-      }
-      switch (state_event.getState()) {
-        case OPEN:
-          if (state_event.getValue() == Boolean.FALSE) {
-            break;  // CLOSED
-          }
-          return;
-        case CONNECTED:
-          if (state_event.getValue() == null) {
-            break;  // DISCONNECTED
-          }
-          return;
-        default:
-          return;  // Not an event we're interested in, ignore it.
-      }
-
-      disconnected = true;  // So we don't clean up the same client twice.
+    /**
+     * Called once the channel is closed, whether it got disconnected or never connected at all.
+     * @param closeFuture the close future of the channel
+     */
+    @Override
+    public void operationComplete(final ChannelFuture closeFuture) {
+      final Channel chan = closeFuture.channel();
       try {
-        final TabletClient client = super.get(TabletClient.class);
-        SocketAddress remote = super.getChannel().getRemoteAddress();
+        SocketAddress remote = chan.remoteAddress();
         // At this point Netty gives us no easy way to access the
         // SocketAddress of the peer we tried to connect to. This
         // kinda sucks but I couldn't find an easier way.
-        if (remote == null) {
+        if (remote == null && client.isPrimary()) {
           remote = slowSearchClientIP(client);
         }
 
@@ -2241,10 +2647,11 @@ public class AsyncYBClient implements AutoCloseable {
           removeClientFromCache(client, remote);
         }
       } catch (Exception e) {
-        log.error("Uncaught exception when handling a disconnection of " + getChannel(), e);
+        log.error("Uncaught exception when handling a disconnection of " + chan, e);
       }
+      // Fails or retries what was waiting for the connection, if it never got established.
+      client.channelClosed(chan);
     }
-
   }
 
   /**
@@ -2295,15 +2702,20 @@ public class AsyncYBClient implements AutoCloseable {
     return port;
   }
 
-  void newTimeout(final TimerTask task, final long timeout_ms) {
+  /**
+   * Schedules a task on the client's timer.
+   * @return the task's handle, or null if it couldn't be scheduled because we're shutting down
+   */
+  Timeout newTimeout(final TimerTask task, final long timeout_ms) {
     try {
-      timer.newTimeout(task, timeout_ms, MILLISECONDS);
+      return timer.newTimeout(task, timeout_ms, MILLISECONDS);
     } catch (IllegalStateException e) {
       // This can happen if the timer fires just before shutdown()
       // is called from another thread, and due to how threads get
       // scheduled we tried to call newTimeout() after timer.stop().
       LOG.warn("Failed to schedule timer."
           + "  Ignore this if we're shutting down.", e);
+      return null;
     }
   }
 
@@ -2343,6 +2755,9 @@ public class AsyncYBClient implements AutoCloseable {
     private final Partition partition;
     private int leaderIndex = NO_LEADER_INDEX;
 
+    // What clientFor() reads, republished under the tabletServers lock after every change.
+    private volatile ReplicaSnapshot replicas = ReplicaSnapshot.EMPTY;
+
     RemoteTablet(String tableId, Slice tabletId, Partition partition) {
       this.tabletId = tabletId;
       this.tableId = tableId;
@@ -2373,7 +2788,8 @@ public class AsyncYBClient implements AutoCloseable {
           // based on some kind of policy. For now just use the first always.
           try {
             addTabletClient(uuid, addresses.get(0).getHost(), addresses.get(0).getPort(),
-                replica.getRole().equals(Metadata.RaftPeerPB.Role.LEADER));
+                replica.getRole().equals(Metadata.RaftPeerPB.Role.LEADER),
+                replica.getTsInfo().hasCloudInfo() ? replica.getTsInfo().getCloudInfo() : null);
           } catch (UnknownHostException ex) {
             lookupExceptions.add(ex);
           }
@@ -2383,6 +2799,8 @@ public class AsyncYBClient implements AutoCloseable {
           LOG.warn("No leader provided for tablet " + getTabletIdAsString());
         }
 
+        publishReplicas();
+
         // If we found a tablet that doesn't contain a single location that we can resolve, there's
         // no point in retrying.
         if (!lookupExceptions.isEmpty() &&
@@ -2394,8 +2812,8 @@ public class AsyncYBClient implements AutoCloseable {
     }
 
     // Must be called with tabletServers synchronized
-    void addTabletClient(String uuid, String host, int port, boolean isLeader)
-        throws UnknownHostException {
+    void addTabletClient(String uuid, String host, int port, boolean isLeader,
+                         Common.CloudInfoPB cloudInfo) throws UnknownHostException {
       String ip = getIP(host);
       if (ip == null) {
         throw new UnknownHostException("Failed to resolve the IP of `" + host + "'");
@@ -2407,8 +2825,11 @@ public class AsyncYBClient implements AutoCloseable {
       if (tablets == null) {
         // We raced with removeClientFromCache and lost. The client we got was just disconnected.
         // Reconnect.
-        addTabletClient(uuid, host, port, isLeader);
+        addTabletClient(uuid, host, port, isLeader, cloudInfo);
       } else {
+        if (cloudInfo != null) {
+          client.setCloudInfo(cloudInfo);
+        }
         synchronized (tablets) {
           if (isLeader) {
             tabletServers.add(0, client);
@@ -2445,6 +2866,7 @@ public class AsyncYBClient implements AutoCloseable {
         } else if (leaderIndex > index) {
           leaderIndex--; // leader moved down the list
         }
+        publishReplicas();
 
         return true;
         // TODO if we reach 0 TS, maybe we should remove ourselves?
@@ -2472,10 +2894,16 @@ public class AsyncYBClient implements AutoCloseable {
           } else {
             leaderIndex++;
           }
+          publishReplicas();
         }
       }
     }
 
+    // Must be called with tabletServers synchronized
+    private void publishReplicas() {
+      replicas = new ReplicaSnapshot(ImmutableList.copyOf(tabletServers), leaderIndex);
+    }
+
     public String getTableId() {
       return tableId;
     }
@@ -2536,13 +2964,29 @@ public class AsyncYBClient implements AutoCloseable {
     }
   }
 
+  /**
+   * An immutable copy of the replicas of a {@link RemoteTablet}, so that routing an RPC doesn't
+   * need to lock the tablet.
+   */
+  static final class ReplicaSnapshot {
+    static final ReplicaSnapshot EMPTY =
+        new ReplicaSnapshot(ImmutableList.<TabletClient>of(), RemoteTablet.NO_LEADER_INDEX);
+
+    final List<TabletClient> servers;
+    final int leaderIndex;
+
+    ReplicaSnapshot(List<TabletClient> servers, int leaderIndex) {
+      this.servers = servers;
+      this.leaderIndex = leaderIndex;
+    }
+  }
+
   /**
    * Builder class to use in order to connect to YB.
    * All the parameters beyond those in the constructors are optional.
    */
   public final static class AsyncYBClientBuilder {
     private static final int DEFAULT_MASTER_PORT = 7100;
-    private static final int DEFAULT_BOSS_COUNT = 1;
     private static final int DEFAULT_WORKER_COUNT = 2 * Runtime.getRuntime().availableProcessors();
 
     private final List<HostAndPort> masterAddresses;
@@ -2556,10 +3000,27 @@ public class AsyncYBClient implements AutoCloseable {
     private String clientHost = null;
     private int clientPort = 0;
 
-    private Executor bossExecutor;
     private Executor workerExecutor;
-    private int bossCount = DEFAULT_BOSS_COUNT;
     private int workerCount = DEFAULT_WORKER_COUNT;
+    private boolean nativeTransport = true;
+
+    private ReplicaSelectionPolicy replicaSelectionPolicy = ReplicaSelectionPolicies.leaderOnly();
+
+    private int rpcWriteBatchMaxBytes = 0;
+    private long rpcWriteBatchMaxDelayMs = 0;
+
+    private long retryBackoffBaseMs = DEFAULT_RETRY_BACKOFF_BASE_MS;
+    private long retryBackoffMaxMs = DEFAULT_RETRY_BACKOFF_MAX_MS;
+
+    private double circuitBreakerFailureRatio = 0;
+    private int circuitBreakerWindowSize = 0;
+    private long circuitBreakerOpenMs = 0;
+
+    private RpcMetricsSink metricsSink = null;
+
+    private int connectionsPerServer = 1;
+
+    private ClientResources clientResources = null;
 
     /**
      * Creates a new builder for a client that will connect to the specified masters.
@@ -2677,17 +3138,136 @@ public class AsyncYBClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Sets the policy that picks which replica serves RPCs that can be served by a follower.
+     * Optional.
+     * If not provided, such RPCs go to the tablet leader like all the other ones.
+     * @param policy the policy, see {@link ReplicaSelectionPolicies} for the built-in ones
+     * @return this builder
+     */
+    public AsyncYBClientBuilder replicaSelectionPolicy(ReplicaSelectionPolicy policy) {
+      this.replicaSelectionPolicy = Preconditions.checkNotNull(policy);
+      return this;
+    }
+
+    /**
+     * Enables coalescing the RPCs sent on each connection into fewer, bigger writes.
+     * Optional.
+     * If not provided, every RPC is written to the socket on its own. When enabled, a connection
+     * queues RPCs until {@code maxBatchBytes} are waiting or the first of them waited for
+     * {@code maxDelayMs}, which trades a bit of latency for fewer syscalls under load. The
+     * delay can't be shorter than the tick of the client's timer, 20ms.
+     * @param maxBatchBytes the number of queued bytes that triggers a write, must be positive
+     * @param maxDelayMs the longest time an RPC may be queued, must be positive
+     * @return this builder
+     */
+    public AsyncYBClientBuilder rpcWriteBatching(int maxBatchBytes, long maxDelayMs) {
+      Preconditions.checkArgument(maxBatchBytes > 0, "maxBatchBytes must be positive");
+      Preconditions.checkArgument(maxDelayMs > 0, "maxDelayMs must be positive");
+      this.rpcWriteBatchMaxBytes = maxBatchBytes;
+      this.rpcWriteBatchMaxDelayMs = maxDelayMs;
+      return this;
+    }
+
+    /**
+     * Sets how long RPCs wait before being retried.
+     * Optional.
+     * If not provided, retries wait between 100ms and 10s. Each wait is picked at random between
+     * {@code baseMs} and three times the previous wait, up to {@code maxMs}.
+     * @param baseMs the shortest wait, must be positive
+     * @param maxMs the longest wait, must be at least {@code baseMs}
+     * @return this builder
+     */
+    public AsyncYBClientBuilder retryBackoff(long baseMs, long maxMs) {
+      Preconditions.checkArgument(baseMs > 0, "baseMs must be positive");
+      Preconditions.checkArgument(maxMs >= baseMs, "maxMs must be at least baseMs");
+      this.retryBackoffBaseMs = baseMs;
+      this.retryBackoffMaxMs = maxMs;
+      return this;
+    }
+
+    /**
+     * Enables a circuit breaker per server, which stops sending RPCs to a server that keeps
+     * answering that it's too busy or not answering in time.
+     * Optional.
+     * If not provided, RPCs are sent to busy servers like to any other one. When enabled, a
+     * server's breaker opens once {@code failureRatio} of its last {@code windowSize} RPCs were
+     * busy or timed out. RPCs that can be served by followers then go to another replica, the
+     * other ones are retried with backoff. After {@code openMs} a single RPC is let through to
+     * check if the server recovered. See {@link CircuitBreaker}.
+     * @param failureRatio the ratio of failures that opens the breaker, between 0 and 1
+     * @param windowSize the number of RPCs the ratio is computed over, must be positive
+     * @param openMs how long the breaker first stays open, must be positive
+     * @return this builder
+     */
+    public AsyncYBClientBuilder circuitBreaker(double failureRatio, int windowSize, long openMs) {
+      Preconditions.checkArgument(failureRatio > 0 && failureRatio <= 1,
+          "failureRatio must be between 0 and 1");
+      Preconditions.checkArgument(windowSize > 0, "windowSize must be positive");
+      Preconditions.checkArgument(openMs > 0, "openMs must be positive");
+      this.circuitBreakerFailureRatio = failureRatio;
+      this.circuitBreakerWindowSize = windowSize;
+      this.circuitBreakerOpenMs = openMs;
+      return this;
+    }
+
+    /**
+     * Sets where the client reports the events its RPCs go through.
+     * Optional.
+     * If not provided, the client doesn't collect any metrics. Use {@link RpcMetrics} to keep
+     * per-method latency histograms and per-server counters in memory, or {@link JmxRpcMetrics}
+     * to also publish them over JMX.
+     * @param sink the sink, called from the client's IO threads
+     * @return this builder
+     */
+    public AsyncYBClientBuilder metricsSink(RpcMetricsSink sink) {
+      this.metricsSink = Preconditions.checkNotNull(sink);
+      return this;
+    }
+
+    /**
+     * Sets how many connections the client opens to each server.
+     * Optional.
+     * If not provided, all the RPCs to a server go through a single connection, so they're written
+     * and their responses decoded by a single IO thread. With more connections, each RPC goes on
+     * the connection with the fewest RPCs in flight. The extra connections are opened the first
+     * time they're needed, and each one is reopened on its own if it dies. See
+     * {@link AsyncYBClient#getConnectionStats()}.
+     * @param connections the number of connections per server, must be positive
+     * @return this builder
+     */
+    public AsyncYBClientBuilder connectionsPerServer(int connections) {
+      Preconditions.checkArgument(connections > 0, "connections must be positive");
+      this.connectionsPerServer = connections;
+      return this;
+    }
+
+    /**
+     * Sets the threads the client runs on, to share them with other clients.
+     * Optional.
+     * If not provided, the client starts its own event loops and timer, sized by
+     * {@link #workerCount(int)}, and stops them when it's shut down. When provided, those
+     * settings are ignored and the client holds a reference to the resources until it's shut
+     * down, see {@link ClientResources}.
+     * @param resources the resources, which must not have been released already
+     * @return this builder
+     */
+    public AsyncYBClientBuilder clientResources(ClientResources resources) {
+      Preconditions.checkArgument(resources.refCnt() > 0, "the resources were released");
+      this.clientResources = resources;
+      return this;
+    }
+
     /**
      * Set the executors which will be used for the embedded Netty boss and workers.
      * Optional.
-     * If not provided, uses a simple cached threadpool. If either argument is null,
-     * then such a thread pool will be used in place of that argument.
+     * If not provided, the workers use their own daemon threads. Netty doesn't use boss
+     * threads for clients anymore, so {@code bossExecutor} is ignored.
      * Note: executor's max thread number must be greater or equal to corresponding
      * worker count, or netty cannot start enough threads, and client will get stuck.
      * If not sure, please just use CachedThreadPool.
      */
     public AsyncYBClientBuilder nioExecutors(Executor bossExecutor, Executor workerExecutor) {
-      this.bossExecutor = bossExecutor;
       this.workerExecutor = workerExecutor;
       return this;
     }
@@ -2695,11 +3275,12 @@ public class AsyncYBClient implements AutoCloseable {
     /**
      * Set the maximum number of boss threads.
      * Optional.
-     * If not provided, 1 is used.
+     * Ignored, Netty doesn't use boss threads for clients anymore.
+     * @deprecated there are no boss threads anymore
      */
+    @Deprecated
     public AsyncYBClientBuilder bossCount(int bossCount) {
       Preconditions.checkArgument(bossCount > 0, "bossCount should be greater than 0");
-      this.bossCount = bossCount;
       return this;
     }
 
@@ -2715,22 +3296,24 @@ public class AsyncYBClient implements AutoCloseable {
     }
 
     /**
-     * Creates the channel factory for Netty. The user can specify the executors, but
-     * if they don't, we'll use a simple thread pool.
+     * Set whether to use the native epoll transport instead of NIO.
+     * Optional.
+     * If not provided, epoll is used when it's available, which is only on Linux.
      */
-    private NioClientSocketChannelFactory createChannelFactory() {
-      Executor boss = bossExecutor;
-      Executor worker = workerExecutor;
-      if (boss == null || worker == null) {
-        Executor defaultExec = Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder()
-                .setNameFormat("yb-nio-%d")
-                .setDaemon(true)
-                .build());
-        if (boss == null) boss = defaultExec;
-        if (worker == null) worker = defaultExec;
-      }
-      return new NioClientSocketChannelFactory(boss, worker, bossCount, workerCount);
+    public AsyncYBClientBuilder nativeTransport(boolean enabled) {
+      this.nativeTransport = enabled;
+      return this;
+    }
+
+    /**
+     * Creates the resources of a client that doesn't share them.
+     */
+    private ClientResources createClientResources() {
+      return new ClientResources.ClientResourcesBuilder()
+          .workerExecutor(workerExecutor)
+          .workerCount(workerCount)
+          .nativeTransport(nativeTransport)
+          .build();
     }
 
     /**
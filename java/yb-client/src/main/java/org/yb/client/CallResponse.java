@@ -37,46 +37,52 @@ import org.yb.annotations.InterfaceAudience;
 import org.yb.rpc.RpcHeader;
 import org.yb.util.Slice;
 
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
  * This class handles information received from an RPC response, providing
  * access to sidecars and decoded protobufs from the message.
+ * <p>
+ * Nothing is copied out of the frame: the header and the main message are parsed straight from
+ * the buffer. The buffer is pooled and recycled as soon as the response is decoded, so this
+ * object must not be used past that point, only the protobufs parsed out of it.
  */
 @InterfaceAudience.Private
 final class CallResponse {
-  private final ChannelBuffer buf;
+  private final ByteBuf buf;
   private final RpcHeader.ResponseHeader header;
   private final int totalResponseSize;
 
-  // Non-header main message slice is generated upon request and cached.
-  private Slice message = null;
+  // Non-header main message is sliced upon request and cached.
+  private ByteBuf message = null;
 
   /**
-   * Performs some sanity checks on the sizes recorded in the packet
+   * Performs some sanity checks on the sizes recorded in the frame
    * referred to by {@code buf}. Assumes that {@code buf} has not been
    * read from yet, and will only be accessed by this class.
    *
    * Afterwards, this constructs the RpcHeader from the buffer.
-   * @param buf Channel buffer which call response reads from.
+   * @param buf Channel buffer holding exactly one frame, including its length prefix.
    * @throws IllegalArgumentException If either the entire recorded packet
    * size or recorded response header PB size are not within reasonable
-   * limits as defined by {@link YRpc#checkArrayLength(ChannelBuffer, long)}.
-   * @throws IndexOutOfBoundsException if the ChannelBuffer does not contain
+   * limits as defined by {@link YRpc#checkArrayLength(ByteBuf, long)}.
+   * @throws IndexOutOfBoundsException if the ByteBuf does not contain
    * the amount of bytes specified by its length prefix.
    */
-  public CallResponse(final ChannelBuffer buf) {
+  public CallResponse(final ByteBuf buf) {
     this.buf = buf;
 
     this.totalResponseSize = buf.readInt();
     if (this.totalResponseSize > 0) {
       YRpc.checkArrayLength(buf, this.totalResponseSize);
-      TabletClient.ensureReadable(buf, this.totalResponseSize);
+      if (buf.readableBytes() < this.totalResponseSize) {
+        throw new IndexOutOfBoundsException("Frame of " + this.totalResponseSize
+            + " bytes truncated to " + buf.readableBytes() + " bytes");
+      }
 
       final int headerSize = Bytes.readVarInt32(buf);
-      final Slice headerSlice = nextBytes(buf, headerSize);
       RpcHeader.ResponseHeader.Builder builder = RpcHeader.ResponseHeader.newBuilder();
-      YRpc.readProtobuf(headerSlice, builder);
+      YRpc.readProtobuf(nextBytes(buf, headerSize), builder);
       this.header = builder.build();
     } else {
       this.header = null;
@@ -100,24 +106,24 @@ final class CallResponse {
   public int getTotalResponseSize() { return this.totalResponseSize; }
 
   /**
-   * @return A slice pointing to the section of the packet reserved for the main
-   * protobuf message.
+   * @return A buffer pointing to the section of the packet reserved for the main
+   * protobuf message, to be parsed with {@link YRpc#readProtobuf}.
    * @throws IllegalArgumentException If the recorded size for the main message
    * is not within reasonable limits as defined by
-   * {@link YRpc#checkArrayLength(ChannelBuffer, long)}.
+   * {@link YRpc#checkArrayLength(ByteBuf, long)}.
    * @throws IllegalStateException If the offset for the main protobuf message
    * is not valid.
    */
-  public Slice getPBMessage() {
+  public ByteBuf getPBMessage() {
     cacheMessage();
     final int mainLength = this.header.getSidecarOffsetsCount() == 0 ?
-        this.message.length() : this.header.getSidecarOffsets(0);
-    if (mainLength < 0 || mainLength > this.message.length()) {
+        this.message.readableBytes() : this.header.getSidecarOffsets(0);
+    if (mainLength < 0 || mainLength > this.message.readableBytes()) {
       throw new IllegalStateException("Main protobuf message invalid. "
           + "Length is " + mainLength + " while the size of the message "
-          + "excluding the header is " + this.message.length());
+          + "excluding the header is " + this.message.readableBytes());
     }
-    return subslice(this.message, 0, mainLength);
+    return this.message.slice(this.message.readerIndex(), mainLength);
   }
 
   /**
@@ -129,7 +135,7 @@ final class CallResponse {
    * does not exist.
    * @throws IllegalArgumentException If the recorded size for the main message
    * is not within reasonable limits as defined by
-   * {@link YRpc#checkArrayLength(ChannelBuffer, long)}.
+   * {@link YRpc#checkArrayLength(ByteBuf, long)}.
    */
   public Slice getSidecar(int sidecar) {
     cacheMessage();
@@ -140,18 +146,19 @@ final class CallResponse {
           + " not valid, response has " + sidecarList.size() + " sidecars");
     }
 
+    final int messageLength = this.message.readableBytes();
     final int prevOffset = sidecarList.get(sidecar);
     final int nextOffset = sidecar + 1 == sidecarList.size() ?
-        this.message.length() : sidecarList.get(sidecar + 1);
+        messageLength : sidecarList.get(sidecar + 1);
     final int length = nextOffset - prevOffset;
 
-    if (prevOffset < 0 || length < 0 || prevOffset + length > this.message.length()) {
+    if (prevOffset < 0 || length < 0 || prevOffset + length > messageLength) {
       throw new IllegalStateException("Sidecar " + sidecar + " invalid "
           + "(offset = " + prevOffset + ", length = " + length + "). The size "
-          + "of the message " + "excluding the header is " + this.message.length());
+          + "of the message " + "excluding the header is " + messageLength);
     }
 
-    return subslice(this.message, prevOffset, length);
+    return toSlice(this.message.slice(this.message.readerIndex() + prevOffset, length));
   }
 
   // Reads the message after the header if not read yet
@@ -161,25 +168,19 @@ final class CallResponse {
     this.message = nextBytes(buf, length);
   }
 
-  // Accounts for a parent slice's offset when making a new one with relative offsets.
-  private static Slice subslice(Slice parent, int offset, int length) {
-    return new Slice(parent.getRawArray(), parent.getRawOffset() + offset, length);
+  // Sidecars are handed out as slices, which have to be copied since they may outlive the
+  // pooled buffer.
+  private static Slice toSlice(final ByteBuf buf) {
+    final int length = buf.readableBytes();
+    final byte[] payload = new byte[length];
+    buf.getBytes(buf.readerIndex(), payload);
+    return new Slice(payload, 0, length);
   }
 
-  // After checking the length, generates a slice for the next 'length'
-  // bytes of 'buf'.
-  private static Slice nextBytes(final ChannelBuffer buf, final int length) {
+  // After checking the length, returns a view of the next 'length' bytes of 'buf' and skips
+  // over them.
+  private static ByteBuf nextBytes(final ByteBuf buf, final int length) {
     YRpc.checkArrayLength(buf, length);
-    byte[] payload;
-    int offset;
-    if (buf.hasArray()) {  // Zero copy.
-      payload = buf.array();
-      offset = buf.arrayOffset() + buf.readerIndex();
-    } else {  // We have to copy the entire payload out of the buffer :(
-      payload = new byte[length];
-      buf.readBytes(payload);
-      offset = 0;
-    }
-    return new Slice(payload, offset, length);
+    return buf.readSlice(length);
   }
 }
@@ -15,7 +15,7 @@ package org.yb.client;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 import org.yb.annotations.InterfaceAudience;
 import org.yb.Common.HostPortPB;
@@ -58,7 +58,7 @@ class ChangeConfigRequest extends YRpc<ChangeConfigResponse> {
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     final Consensus.ChangeConfigRequestPB.Builder builder =
       Consensus.ChangeConfigRequestPB.newBuilder();
@@ -92,7 +92,7 @@ class ChangeConfigRequest extends YRpc<ChangeConfigResponse> {
            .setTabletId(ByteString.copyFromUtf8(tablet_id))
            .setServer(pbb.build());
 
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 
   @Override
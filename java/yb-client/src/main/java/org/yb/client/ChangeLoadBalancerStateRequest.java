@@ -15,7 +15,7 @@ package org.yb.client;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 import org.yb.annotations.InterfaceAudience;
 import org.yb.Common.HostPortPB;
@@ -39,13 +39,13 @@ class ChangeLoadBalancerStateRequest extends YRpc<ChangeLoadBalancerStateRespons
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     final Master.ChangeLoadBalancerStateRequestPB.Builder builder =
       Master.ChangeLoadBalancerStateRequestPB.newBuilder();
     builder.setIsEnabled(isEnable);
 
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 
   @Override
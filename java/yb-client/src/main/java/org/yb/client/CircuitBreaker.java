@@ -0,0 +1,249 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Stops sending RPCs to a server that keeps answering that it's too busy, or not answering in
+ * time.
+ * <p>
+ * The breaker remembers the outcome of the last {@code windowSize} RPCs. When at least
+ * {@code failureRatio} of them were busy or timed out, it opens and rejects RPCs for
+ * {@code openMs}, then lets a single probe RPC through. The breaker closes again if the probe
+ * succeeds, otherwise it stays open twice as long as the last time, up to 32 times
+ * {@code openMs}.
+ * <p>
+ * Rejected RPCs go to another replica when they can be served by a follower, otherwise they are
+ * retried with the client's backoff. The state changes and rejections are reported to the
+ * client's {@link RpcMetricsSink}, if it has one. This class is thread-safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class CircuitBreaker {
+
+  /** The states of a breaker. */
+  public enum State {
+    /** RPCs go through. */
+    CLOSED,
+    /** RPCs are rejected. */
+    OPEN,
+    /** A single probe RPC is let through to see if the server recovered. */
+    HALF_OPEN
+  }
+
+  // The most the open period grows to, as a multiple of openMs.
+  private static final int MAX_OPEN_MULTIPLIER = 32;
+
+  private final double failureRatio;
+  private final int windowSize;
+  private final long openNanos;
+  private final LongSupplier nanoClock;
+  // Told about every state change, while this is synchronized. May be null.
+  private final Consumer<State> stateListener;
+
+  // All guarded by this.
+  private State state = State.CLOSED;
+  // Ring buffer of the last outcomes, true for a failure.
+  private final boolean[] outcomes;
+  private int numOutcomes;
+  private int nextOutcome;
+  private int numFailures;
+  private long openUntilNanos;
+  private int openMultiplier = 1;
+  private long probeSentNanos;
+  private boolean probeInFlight;
+
+  private final AtomicLong successes = new AtomicLong();
+  private final AtomicLong busy = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong trips = new AtomicLong();
+
+  CircuitBreaker(double failureRatio, int windowSize, long openMs) {
+    this(failureRatio, windowSize, openMs, System::nanoTime, null);
+  }
+
+  CircuitBreaker(double failureRatio, int windowSize, long openMs, LongSupplier nanoClock,
+                 Consumer<State> stateListener) {
+    this.failureRatio = failureRatio;
+    this.windowSize = windowSize;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+    this.nanoClock = nanoClock;
+    this.stateListener = stateListener;
+    this.outcomes = new boolean[windowSize];
+  }
+
+  /**
+   * Checks whether an RPC may be sent to the server. When this returns true for a half-open
+   * breaker, the caller is sending the probe.
+   * @return true if the RPC can be sent, false if it's rejected
+   */
+  synchronized boolean allowRequest() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    long now = nanoClock.getAsLong();
+    if (state == State.OPEN && now - openUntilNanos >= 0) {
+      setState(State.HALF_OPEN);
+      probeInFlight = false;
+    }
+    // A probe that never came back, because its connection went away for example, doesn't keep
+    // the breaker half-open forever.
+    if (state == State.HALF_OPEN && (!probeInFlight || now - probeSentNanos >= openNanos)) {
+      probeInFlight = true;
+      probeSentNanos = now;
+      return true;
+    }
+    rejected.incrementAndGet();
+    return false;
+  }
+
+  /** Records an RPC that the server answered. */
+  void recordSuccess() {
+    successes.incrementAndGet();
+    record(false);
+  }
+
+  /** Records an RPC that the server rejected because it's too busy. */
+  void recordBusy() {
+    busy.incrementAndGet();
+    record(true);
+  }
+
+  /** Records an RPC that the server didn't answer in time. */
+  void recordTimeout() {
+    timeouts.incrementAndGet();
+    record(true);
+  }
+
+  private synchronized void record(boolean failure) {
+    switch (state) {
+      case HALF_OPEN:
+        if (failure) {
+          openMultiplier = Math.min(openMultiplier * 2, MAX_OPEN_MULTIPLIER);
+          open();
+        } else {
+          setState(State.CLOSED);
+          openMultiplier = 1;
+          clearOutcomes();
+        }
+        return;
+      case OPEN:
+        // Answers to RPCs sent before we opened, they don't tell us anything new.
+        return;
+      case CLOSED:
+        if (numOutcomes == windowSize) {
+          if (outcomes[nextOutcome]) {
+            numFailures--;
+          }
+        } else {
+          numOutcomes++;
+        }
+        outcomes[nextOutcome] = failure;
+        if (failure) {
+          numFailures++;
+        }
+        nextOutcome = (nextOutcome + 1) % windowSize;
+        if (numOutcomes == windowSize && numFailures >= failureRatio * windowSize) {
+          open();
+        }
+        return;
+      default:
+        throw new AssertionError(state);
+    }
+  }
+
+  // Must be called with this synchronized.
+  private void open() {
+    setState(State.OPEN);
+    openUntilNanos = nanoClock.getAsLong() + openNanos * openMultiplier;
+    probeInFlight = false;
+    clearOutcomes();
+    trips.incrementAndGet();
+  }
+
+  // Must be called with this synchronized.
+  private void setState(State newState) {
+    state = newState;
+    if (stateListener != null) {
+      stateListener.accept(newState);
+    }
+  }
+
+  // Must be called with this synchronized.
+  private void clearOutcomes() {
+    numOutcomes = 0;
+    nextOutcome = 0;
+    numFailures = 0;
+  }
+
+  /**
+   * @return the current state of the breaker
+   */
+  public synchronized State getState() {
+    if (state == State.OPEN && nanoClock.getAsLong() - openUntilNanos >= 0) {
+      return State.HALF_OPEN;
+    }
+    return state;
+  }
+
+  /**
+   * @return how many RPCs the server answered
+   */
+  public long getSuccessCount() {
+    return successes.get();
+  }
+
+  /**
+   * @return how many RPCs the server rejected because it was too busy
+   */
+  public long getBusyCount() {
+    return busy.get();
+  }
+
+  /**
+   * @return how many RPCs the server didn't answer in time
+   */
+  public long getTimeoutCount() {
+    return timeouts.get();
+  }
+
+  /**
+   * @return how many RPCs the breaker kept from going to the server
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * @return how many times the breaker opened
+   */
+  public long getTripCount() {
+    return trips.get();
+  }
+
+  @Override
+  public String toString() {
+    return "CircuitBreaker(state=" + getState() + ", trips=" + getTripCount() +
+        ", rejected=" + getRejectedCount() + ", busy=" + getBusyCount() +
+        ", timeouts=" + getTimeoutCount() + ")";
+  }
+}
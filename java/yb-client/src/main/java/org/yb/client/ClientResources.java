@@ -0,0 +1,208 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.HashedWheelTimer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * The threads a client runs on: the Netty event loops that do its IO, and the timer that
+ * schedules its retries and timeouts.
+ * <p>
+ * By default each {@link AsyncYBClient} creates its own, which adds up to a lot of threads when a
+ * process talks to many universes. Instead, create one instance and pass it to every client with
+ * {@link AsyncYBClient.AsyncYBClientBuilder#clientResources(ClientResources)}:
+ * <pre>{@code
+ * ClientResources resources = new ClientResources.ClientResourcesBuilder().build();
+ * AsyncYBClient client = new AsyncYBClient.AsyncYBClientBuilder(masters)
+ *     .clientResources(resources)
+ *     .build();
+ * ...
+ * client.close();     // Only closes the client's connections.
+ * resources.close();  // The threads stop once no client uses them anymore.
+ * }</pre>
+ * The resources are reference counted: the creator holds one reference, and each client built
+ * with them holds another one until it's shut down. The threads are stopped when the last
+ * reference is released. This class is thread-safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class ClientResources extends AbstractReferenceCounted implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClientResources.class);
+
+  /** How long the event loops may take to stop once the resources are released. */
+  private static final long SHUTDOWN_TIMEOUT_MS = AsyncYBClient.DEFAULT_OPERATION_TIMEOUT_MS;
+
+  private final EventLoopGroup eventLoopGroup;
+  private final HashedWheelTimer timer;
+
+  private ClientResources(ClientResourcesBuilder b) {
+    this.eventLoopGroup = b.createEventLoopGroup();
+    this.timer = new HashedWheelTimer(20, MILLISECONDS);
+  }
+
+  /**
+   * @return the event loops the connections run on
+   */
+  EventLoopGroup getEventLoopGroup() {
+    return eventLoopGroup;
+  }
+
+  /**
+   * @return the timer retries and timeouts are scheduled on
+   */
+  HashedWheelTimer getTimer() {
+    return timer;
+  }
+
+  /**
+   * Stops the threads, once the last reference was released. This doesn't block, so it's fine to
+   * call it from one of the event loops.
+   */
+  @Override
+  protected void deallocate() {
+    LOG.debug("Releasing the client resources");
+    try {
+      timer.stop();
+    } catch (IllegalStateException e) {
+      // The last client was closed from one of the timer's tasks, the thread will exit with them.
+      LOG.warn("Couldn't stop the timer from its own thread", e);
+    }
+    eventLoopGroup.shutdownGracefully(0, SHUTDOWN_TIMEOUT_MS, MILLISECONDS);
+  }
+
+  @Override
+  public ClientResources retain() {
+    super.retain();
+    return this;
+  }
+
+  @Override
+  public ClientResources retain(int increment) {
+    super.retain(increment);
+    return this;
+  }
+
+  @Override
+  public ClientResources touch() {
+    return this;
+  }
+
+  @Override
+  public ClientResources touch(Object hint) {
+    return this;
+  }
+
+  /**
+   * Releases the creator's reference. The threads keep running until the clients using them are
+   * shut down as well.
+   */
+  @Override
+  public void close() {
+    release();
+  }
+
+  /**
+   * Builder for {@link ClientResources}.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Evolving
+  public final static class ClientResourcesBuilder {
+    private static final int DEFAULT_WORKER_COUNT =
+        2 * Runtime.getRuntime().availableProcessors();
+
+    private Executor workerExecutor;
+    private int workerCount = DEFAULT_WORKER_COUNT;
+    private boolean nativeTransport = true;
+
+    /**
+     * Set the executor the event loops run on.
+     * Optional.
+     * If not provided, each event loop gets its own daemon thread.
+     * Note: executor's max thread number must be greater or equal to the worker count, or netty
+     * cannot start enough threads, and the clients will get stuck.
+     * If not sure, please just use CachedThreadPool.
+     */
+    public ClientResourcesBuilder workerExecutor(Executor workerExecutor) {
+      this.workerExecutor = workerExecutor;
+      return this;
+    }
+
+    /**
+     * Set the number of event loops.
+     * Optional.
+     * If not provided, (2 * the number of available processors) is used.
+     */
+    public ClientResourcesBuilder workerCount(int workerCount) {
+      Preconditions.checkArgument(workerCount > 0, "workerCount should be greater than 0");
+      this.workerCount = workerCount;
+      return this;
+    }
+
+    /**
+     * Set whether to use the native epoll transport instead of NIO.
+     * Optional.
+     * If not provided, epoll is used when it's available, which is only on Linux.
+     */
+    public ClientResourcesBuilder nativeTransport(boolean enabled) {
+      this.nativeTransport = enabled;
+      return this;
+    }
+
+    /**
+     * Creates the event loops for Netty, on the native transport if we can. The user can
+     * specify the executor, but if they don't, each event loop gets its own daemon thread.
+     */
+    private EventLoopGroup createEventLoopGroup() {
+      final boolean epoll = nativeTransport && Epoll.isAvailable();
+      if (workerExecutor != null) {
+        return epoll ? new EpollEventLoopGroup(workerCount, workerExecutor) :
+                       new NioEventLoopGroup(workerCount, workerExecutor);
+      }
+      final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+          .setNameFormat(epoll ? "yb-epoll-%d" : "yb-nio-%d")
+          .setDaemon(true)
+          .build();
+      return epoll ? new EpollEventLoopGroup(workerCount, threadFactory) :
+                     new NioEventLoopGroup(workerCount, threadFactory);
+    }
+
+    /**
+     * Creates the resources, which start their threads right away. The caller holds the only
+     * reference to them.
+     * @return new client resources
+     */
+    public ClientResources build() {
+      return new ClientResources(this);
+    }
+  }
+}
@@ -0,0 +1,635 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import com.google.common.net.HostAndPort;
+import com.stumbleupon.async.Callback;
+import com.stumbleupon.async.Deferred;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yb.Common.YQLDatabase;
+import org.yb.Schema;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+import org.yb.consensus.Metadata;
+import org.yb.master.Master;
+
+/**
+ * A {@link CompletableFuture} based client for YB.
+ * <p>
+ * This class acts as a wrapper around {@link AsyncYBClient}, each operation returns a future
+ * that completes along with the underlying {@link Deferred}. Unlike {@link YBClient}, nothing
+ * here blocks: the {@code waitFor*} methods poll their condition every
+ * {@link AsyncYBClient#SLEEP_TIME} ms from the client's timer instead of sleeping in the calling
+ * thread, so any number of conditions can be waited on at once, and the futures can be joined
+ * from virtual threads without pinning a carrier thread.
+ * <p>
+ * The futures are completed from the client's I/O and timer threads, so stages added without an
+ * executor run there and must not block; use the {@code *Async} variants for anything slow.
+ * <p>
+ * This class is thread-safe, and doesn't own the {@link AsyncYBClient}: closing it is up to the
+ * caller.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class CompletableYBClient {
+
+  public static final Logger LOG = LoggerFactory.getLogger(CompletableYBClient.class);
+
+  // Number of response errors to tolerate while waiting on a condition.
+  private static final int MAX_ERRORS_TO_IGNORE = 2500;
+
+  // Log errors every so many errors.
+  private static final int LOG_ERRORS_EVERY_NUM_ITERS = 100;
+
+  // Log info after these many iterations.
+  private static final int LOG_EVERY_NUM_ITERS = 200;
+
+  private final AsyncYBClient asyncClient;
+
+  public CompletableYBClient(AsyncYBClient asyncClient) {
+    this.asyncClient = asyncClient;
+  }
+
+  /**
+   * @return the client this one wraps
+   */
+  public AsyncYBClient getAsyncClient() {
+    return asyncClient;
+  }
+
+  /**
+   * Returns a future that completes along with the given {@link Deferred}, with either its
+   * result or its exception.
+   */
+  public static <T> CompletableFuture<T> toCompletableFuture(Deferred<T> d) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    d.addCallbacks(new Callback<Void, T>() {
+      @Override
+      public Void call(T result) {
+        future.complete(result);
+        return null;
+      }
+    }, new Callback<Void, Exception>() {
+      @Override
+      public Void call(Exception e) {
+        future.completeExceptionally(e);
+        return null;
+      }
+    });
+    return future;
+  }
+
+  /** An {@link AsyncYBClient} call, some of them declare exceptions. */
+  private interface DeferredCall<T> {
+    Deferred<T> call() throws Exception;
+  }
+
+  private static <T> CompletableFuture<T> call(DeferredCall<T> call) {
+    try {
+      return toCompletableFuture(call.call());
+    } catch (Exception e) {
+      return failedFuture(e);
+    }
+  }
+
+  private static <T> CompletableFuture<T> failedFuture(Throwable t) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(t);
+    return future;
+  }
+
+  /** Strips the wrapping that dependent stages add around exceptions. */
+  private static Throwable unwrap(Throwable t) {
+    return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+  }
+
+  /**
+   * Ping a certain server to see if it is responding to RPC requests.
+   * @param hp the host and port of the server
+   */
+  public CompletableFuture<PingResponse> ping(HostAndPort hp) {
+    return call(() -> asyncClient.ping(hp));
+  }
+
+  /**
+   * Set a gflag of a given server.
+   * @param hp the host and port of the server
+   * @param flag the flag to be set
+   * @param value the value to set the flag to
+   * @param force if the flag needs to be set even if it is not marked runtime safe
+   */
+  public CompletableFuture<SetFlagResponse> setFlag(HostAndPort hp, String flag, String value,
+                                                    boolean force) {
+    return call(() -> asyncClient.setFlag(hp, flag, value, force));
+  }
+
+  /**
+   * Get the list of master addresses from a given tserver.
+   * @param hp the host and port of the server
+   */
+  public CompletableFuture<GetMasterAddressesResponse> getMasterAddresses(HostAndPort hp) {
+    return call(() -> asyncClient.getMasterAddresses(hp));
+  }
+
+  /**
+   * Check if the server is ready to serve requests.
+   * @param hp the host and port of the server
+   * @param isTserver true if host/port is for tserver, else its master
+   */
+  public CompletableFuture<IsServerReadyResponse> isServerReady(HostAndPort hp,
+                                                                boolean isTserver) {
+    return call(() -> asyncClient.isServerReady(hp, isTserver));
+  }
+
+  /**
+   * Create a table on the cluster with the specified name, schema, and table configurations.
+   * @see AsyncYBClient#createTable(String, String, Schema, CreateTableOptions)
+   */
+  public CompletableFuture<YBTable> createTable(String keyspace, String name, Schema schema,
+                                                CreateTableOptions builder) {
+    return call(() -> asyncClient.createTable(keyspace, name, schema, builder));
+  }
+
+  /**
+   * Create a keyspace (namespace) for the given database type.
+   */
+  public CompletableFuture<CreateKeyspaceResponse> createKeyspace(String keyspace,
+                                                                  YQLDatabase databaseType) {
+    return call(() -> asyncClient.createKeyspace(keyspace, databaseType));
+  }
+
+  /**
+   * Delete a table on the cluster with the specified name.
+   */
+  public CompletableFuture<DeleteTableResponse> deleteTable(String keyspace, String name) {
+    return call(() -> asyncClient.deleteTable(keyspace, name));
+  }
+
+  /**
+   * Alter a table on the cluster as specified by the builder. When the returned future
+   * completes it only indicates that the master accepted the alter command, use
+   * {@link #waitForAlterTableDone(String, String, long)} to know when it's done.
+   */
+  public CompletableFuture<AlterTableResponse> alterTable(String keyspace, String name,
+                                                          AlterTableOptions ato) {
+    return call(() -> asyncClient.alterTable(keyspace, name, ato));
+  }
+
+  /**
+   * Check whether an alter command is done.
+   */
+  public CompletableFuture<IsAlterTableDoneResponse> isAlterTableDone(String keyspace,
+                                                                      String name) {
+    return call(() -> asyncClient.isAlterTableDone(keyspace, name));
+  }
+
+  /**
+   * Get the list of running tablet servers.
+   */
+  public CompletableFuture<ListTabletServersResponse> listTabletServers() {
+    return call(asyncClient::listTabletServers);
+  }
+
+  /**
+   * Get the list of all the masters.
+   */
+  public CompletableFuture<ListMastersResponse> listMasters() {
+    return call(asyncClient::listMasters);
+  }
+
+  /**
+   * Get the master's cluster config.
+   */
+  public CompletableFuture<GetMasterClusterConfigResponse> getMasterClusterConfig() {
+    return call(asyncClient::getMasterClusterConfig);
+  }
+
+  /**
+   * Change the master's cluster config.
+   */
+  public CompletableFuture<ChangeMasterClusterConfigResponse> changeMasterClusterConfig(
+      Master.SysClusterConfigEntryPB config) {
+    return call(() -> asyncClient.changeMasterClusterConfig(config));
+  }
+
+  /**
+   * Change the load balancer state on the master leader.
+   */
+  public CompletableFuture<ChangeLoadBalancerStateResponse> changeLoadBalancerState(
+      boolean isEnable) {
+    return call(() -> asyncClient.changeLoadBalancerState(isEnable));
+  }
+
+  /**
+   * Get the tablet load move completion percentage for blacklisted nodes.
+   */
+  public CompletableFuture<GetLoadMovePercentResponse> getLoadMoveCompletion() {
+    return call(asyncClient::getLoadMoveCompletion);
+  }
+
+  /**
+   * Get the leadership move completion percentage for leader blacklisted nodes.
+   */
+  public CompletableFuture<GetLoadMovePercentResponse> getLeaderBlacklistCompletion() {
+    return call(asyncClient::getLeaderBlacklistCompletion);
+  }
+
+  /**
+   * Check if the tablet load is balanced as run by the master leader.
+   */
+  public CompletableFuture<IsLoadBalancedResponse> getIsLoadBalanced(int numServers) {
+    return call(() -> asyncClient.getIsLoadBalanced(numServers));
+  }
+
+  /**
+   * Check if the load balancer is idle as seen by the master leader.
+   */
+  public CompletableFuture<IsLoadBalancerIdleResponse> getIsLoadBalancerIdle() {
+    return call(asyncClient::getIsLoadBalancerIdle);
+  }
+
+  /**
+   * Check if the tablet leaders are on the preferred zones only.
+   */
+  public CompletableFuture<AreLeadersOnPreferredOnlyResponse> getAreLeadersOnPreferredOnly() {
+    return call(asyncClient::getAreLeadersOnPreferredOnly);
+  }
+
+  /**
+   * Check if initdb executed by the master is done running.
+   */
+  public CompletableFuture<IsInitDbDoneResponse> getIsInitDbDone() {
+    return call(asyncClient::getIsInitDbDone);
+  }
+
+  /**
+   * Step down the given leader of the given tablet.
+   */
+  public CompletableFuture<LeaderStepDownResponse> leaderStepDown(String leaderUuid,
+                                                                  String tabletId) {
+    return call(() -> asyncClient.masterLeaderStepDown(leaderUuid, tabletId));
+  }
+
+  /**
+   * Check whether encryption at rest is enabled.
+   */
+  public CompletableFuture<IsEncryptionEnabledResponse> isEncryptionEnabled() {
+    return call(asyncClient::isEncryptionEnabled);
+  }
+
+  /**
+   * Add universe keys in memory to a master at hp, with universe keys in format id -> key.
+   */
+  public CompletableFuture<AddUniverseKeysResponse> addUniverseKeys(
+      Map<String, byte[]> universeKeys, HostAndPort hp) {
+    return call(() -> asyncClient.addUniverseKeys(universeKeys, hp));
+  }
+
+  /**
+   * Check if a master at hp has the given universe key in memory.
+   */
+  public CompletableFuture<HasUniverseKeyInMemoryResponse> hasUniverseKeyInMemory(
+      String universeKeyId, HostAndPort hp) {
+    return call(() -> asyncClient.hasUniverseKeyInMemory(universeKeyId, hp));
+  }
+
+  /**
+   * Get a list of table names.
+   * @see AsyncYBClient#getTablesList(String, boolean, String)
+   */
+  public CompletableFuture<ListTablesResponse> getTablesList(String nameFilter,
+                                                             boolean excludeSystemTables,
+                                                             String namespace) {
+    return call(() -> asyncClient.getTablesList(nameFilter, excludeSystemTables, namespace));
+  }
+
+  /**
+   * Test if a table exists.
+   */
+  public CompletableFuture<Boolean> tableExists(String keyspace, String name) {
+    return call(() -> asyncClient.tableExists(keyspace, name));
+  }
+
+  /**
+   * Test if a table exists based on its UUID.
+   */
+  public CompletableFuture<Boolean> tableExistsByUUID(String tableUUID) {
+    return call(() -> asyncClient.tableExistsByUUID(tableUUID));
+  }
+
+  /**
+   * Open the table with the given name.
+   */
+  public CompletableFuture<YBTable> openTable(String keyspace, String name) {
+    return call(() -> asyncClient.openTable(keyspace, name));
+  }
+
+  /**
+   * Open the table with the given UUID.
+   */
+  public CompletableFuture<YBTable> openTableByUUID(String tableUUID) {
+    return call(() -> asyncClient.openTableByUUID(tableUUID));
+  }
+
+  /**
+   * Loads the locations of all the tablets of a table in the client's tablet cache.
+   */
+  public CompletableFuture<List<LocatedTablet>> prefetchTableLocations(YBTable table) {
+    return call(() -> asyncClient.prefetchTableLocations(table));
+  }
+
+  /**
+   * Find the uuid of a master using the given host/port.
+   * @return a future with the uuid of the master, or null if it couldn't be reached
+   */
+  public CompletableFuture<String> getMasterUUID(HostAndPort hp) {
+    return getMasterRegistration(hp).thenApply(
+        resp -> resp == null ? null : resp.getInstanceId().getPermanentUuid().toStringUtf8());
+  }
+
+  /**
+   * Find the uuid of the leader master, asking all the masters at once.
+   * @return a future with the uuid of the leader master, or null if no leader was found
+   */
+  public CompletableFuture<String> getLeaderMasterUUID() {
+    List<CompletableFuture<GetMasterRegistrationResponse>> registrations = new ArrayList<>();
+    for (HostAndPort hp : asyncClient.getMasterAddresses()) {
+      registrations.add(getMasterRegistration(hp));
+    }
+    return CompletableFuture.allOf(registrations.toArray(new CompletableFuture[0]))
+        .thenApply(ignored -> {
+          for (CompletableFuture<GetMasterRegistrationResponse> registration : registrations) {
+            GetMasterRegistrationResponse resp = registration.join();
+            if (resp != null && resp.getRole() == Metadata.RaftPeerPB.Role.LEADER) {
+              return resp.getInstanceId().getPermanentUuid().toStringUtf8();
+            }
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Gets the registration of the master at the given host/port, the future has null rather
+   * than an exception if the master couldn't be reached.
+   */
+  private CompletableFuture<GetMasterRegistrationResponse> getMasterRegistration(
+      HostAndPort hp) {
+    TabletClient clientForHostAndPort = asyncClient.newMasterClient(hp);
+    if (clientForHostAndPort == null) {
+      LOG.warn("Couldn't resolve master's address at {}", hp);
+      return CompletableFuture.completedFuture(null);
+    }
+    return call(() -> asyncClient.getMasterRegistration(clientForHostAndPort))
+        .exceptionally(t -> {
+          LOG.warn("Couldn't get registration info for master {} due to error '{}'.",
+                   hp, unwrap(t).getMessage());
+          return null;
+        });
+  }
+
+  /**
+   * Polls a condition every {@link AsyncYBClient#SLEEP_TIME} ms until it returns true or the
+   * timeout expires, without blocking any thread in between.
+   * <p>
+   * A condition that fails is retried like one that returned false, up to a point: after too
+   * many failures the wait gives up as if it timed out.
+   * @param condition starts the check, and returns a future with its outcome
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if the condition was met in the given time, false otherwise. It
+   *         only completes exceptionally if the client was shut down while waiting.
+   */
+  public CompletableFuture<Boolean> waitForCondition(
+      Supplier<CompletableFuture<Boolean>> condition, long timeoutMs) {
+    ConditionWaiter waiter = new ConditionWaiter(condition, timeoutMs);
+    waiter.start();
+    return waiter.result;
+  }
+
+  /**
+   * Wait for the specific server to come online.
+   * @param hp the HostAndPort of the server
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if the server responded to pings in the given time
+   */
+  public CompletableFuture<Boolean> waitForServer(HostAndPort hp, long timeoutMs) {
+    return waitForCondition(() -> ping(hp).thenApply(resp -> true), timeoutMs);
+  }
+
+  /**
+   * Wait for the master server to be running and initialized.
+   * @param hp the host and port for the master
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if the master is properly initialized in the given time
+   */
+  public CompletableFuture<Boolean> waitForMaster(HostAndPort hp, long timeoutMs) {
+    return waitForCondition(() -> getMasterUUID(hp).thenApply(uuid -> uuid != null), timeoutMs);
+  }
+
+  /**
+   * Wait for the cluster to have successfully elected a master leader.
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if a leader was found in the given time
+   */
+  public CompletableFuture<Boolean> waitForMasterLeader(long timeoutMs) {
+    return waitForCondition(() -> getLeaderMasterUUID().thenApply(uuid -> uuid != null),
+                            timeoutMs);
+  }
+
+  /**
+   * Wait for an alter command to be done.
+   * @param keyspace CQL keyspace to which this table belongs
+   * @param name Table's name, if the table was renamed then that name must be checked against
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if the table was done being altered in the given time
+   */
+  public CompletableFuture<Boolean> waitForAlterTableDone(String keyspace, String name,
+                                                          long timeoutMs) {
+    return waitForCondition(
+        () -> isAlterTableDone(keyspace, name).thenApply(IsAlterTableDoneResponse::isDone),
+        timeoutMs);
+  }
+
+  /**
+   * Wait for the tablet load to be balanced by master leader.
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @param numServers expected number of servers which need to balanced
+   * @return a future with true if the master leader does not return any error balance check
+   */
+  public CompletableFuture<Boolean> waitForLoadBalance(long timeoutMs, int numServers) {
+    return waitForCondition(
+        () -> getIsLoadBalanced(numServers).thenApply(resp -> !resp.hasError()), timeoutMs);
+  }
+
+  /**
+   * Wait for the load balancer to become idle.
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if the master leader does not return any error idle check
+   */
+  public CompletableFuture<Boolean> waitForLoadBalancerIdle(long timeoutMs) {
+    return waitForCondition(() -> getIsLoadBalancerIdle().thenApply(resp -> !resp.hasError()),
+                            timeoutMs);
+  }
+
+  /**
+   * Wait for the load balancer to become active.
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if the load balancer ran in the given time
+   */
+  public CompletableFuture<Boolean> waitForLoadBalancerActive(long timeoutMs) {
+    return waitForCondition(() -> getIsLoadBalancerIdle().handle((resp, t) -> {
+      if (t == null) {
+        return false;
+      }
+      Throwable cause = unwrap(t);
+      if (cause instanceof MasterErrorException) {
+        // Same as YBClient, the error code isn't exposed.
+        return cause.toString().contains("LOAD_BALANCER_RECENTLY_ACTIVE");
+      }
+      throw new CompletionException(cause);
+    }), timeoutMs);
+  }
+
+  /**
+   * Wait for the leader load to be balanced by master leader.
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if the leaders are on the preferred zones only in the given time
+   */
+  public CompletableFuture<Boolean> waitForAreLeadersOnPreferredOnlyCondition(long timeoutMs) {
+    return waitForCondition(
+        () -> getAreLeadersOnPreferredOnly().thenApply(resp -> !resp.hasError()), timeoutMs);
+  }
+
+  /**
+   * Wait for a master to have the given universe key in memory.
+   * @param timeoutMs the amount of time, in MS, to wait
+   * @return a future with true if the master had the key in the given time
+   */
+  public CompletableFuture<Boolean> waitForMasterHasUniverseKeyInMemory(
+      long timeoutMs, String universeKeyId, HostAndPort hp) {
+    return waitForCondition(() -> hasUniverseKeyInMemory(universeKeyId, hp).thenApply(resp -> {
+      if (resp.getServerError() != null) {
+        throw new CompletionException(new RuntimeException(
+            "Could not check universe keys on " + hp + " with error: " +
+            resp.getServerError().getStatus().getMessage()));
+      }
+      return resp.hasKey();
+    }), timeoutMs);
+  }
+
+  /**
+   * Checks a condition, then schedules the next check on the client's timer until the condition
+   * holds or the deadline passes. A timer task also fires at the deadline, so that a check that
+   * is still in flight doesn't hold up the result.
+   */
+  private final class ConditionWaiter implements TimerTask {
+    final CompletableFuture<Boolean> result = new CompletableFuture<>();
+    private final Supplier<CompletableFuture<Boolean>> condition;
+    private final long timeoutMs;
+    private final long deadlineNanos;
+
+    // Only updated by one check at a time, the deadline task only reads them to log.
+    private volatile int numErrors;
+    private volatile int numIters;
+    private volatile Throwable lastError;
+
+    ConditionWaiter(Supplier<CompletableFuture<Boolean>> condition, long timeoutMs) {
+      this.condition = condition;
+      this.timeoutMs = timeoutMs;
+      this.deadlineNanos = System.nanoTime() + MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    void start() {
+      Timeout deadline = asyncClient.newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+          if (result.complete(false)) {
+            LOG.error("Timed out waiting for operation after {} ms, {} iterations, {} errors. " +
+                      "Final exception was {}.", timeoutMs, numIters, numErrors,
+                      lastError != null ? lastError.toString() : "none");
+          }
+        }
+      }, timeoutMs);
+      if (deadline == null) {
+        result.completeExceptionally(new IllegalStateException("The client is shutting down"));
+        return;
+      }
+      // Don't keep the deadline's task in the timer once we're done.
+      result.whenComplete((done, t) -> deadline.cancel());
+      check();
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+      check();
+    }
+
+    private void check() {
+      if (result.isDone()) {
+        return;
+      }
+      CompletableFuture<Boolean> check;
+      try {
+        check = condition.get();
+      } catch (Exception e) {
+        check = failedFuture(e);
+      }
+      check.whenComplete(this::onChecked);
+    }
+
+    private void onChecked(Boolean done, Throwable t) {
+      if (t == null && done) {
+        result.complete(true);
+        return;
+      }
+      if (t != null) {
+        // We will get exceptions if we cannot connect to the other end, save them for the final
+        // debug message if we never succeed.
+        lastError = unwrap(t);
+        numErrors++;
+        if (numErrors % LOG_ERRORS_EVERY_NUM_ITERS == 0) {
+          LOG.warn("Hit {} errors so far. Latest is : {}.", numErrors, lastError.toString());
+        }
+        if (numErrors >= MAX_ERRORS_TO_IGNORE) {
+          if (result.complete(false)) {
+            LOG.error("Hit too many errors, final exception is {}.", lastError.toString());
+          }
+          return;
+        }
+      }
+      numIters++;
+      if (numIters % LOG_EVERY_NUM_ITERS == 0) {
+        LOG.info("Tried operation {} times so far.", numIters);
+      }
+
+      long remainingMs = NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+      if (remainingMs > 0 && !result.isDone() &&
+          asyncClient.newTimeout(this, Math.min(AsyncYBClient.SLEEP_TIME, remainingMs)) == null) {
+        result.completeExceptionally(new IllegalStateException("The client is shutting down"));
+      }
+    }
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.stumbleupon.async.Deferred;
+
+import org.yb.annotations.InterfaceAudience;
+
+/**
+ * The connections of the client to one server, when it opens more than one per server.
+ * <p>
+ * Connection 0 is the server's primary {@link TabletClient}, the one the tablets and the caches of
+ * {@link AsyncYBClient} know about. It's replaced by {@link AsyncYBClient} when it dies, like when
+ * there's a single connection. The other connections are only used to send RPCs: they're opened
+ * the first time they're needed, and each one is reopened on its own when an RPC is sent after it
+ * died, at most once per {@link #RECONNECT_INTERVAL_MS}.
+ * <p>
+ * Every RPC sent through the primary goes on the connection with the fewest RPCs in flight, ties
+ * are broken round-robin. This class is thread-safe, picking a connection doesn't lock.
+ */
+@InterfaceAudience.Private
+class ConnectionPool {
+
+  /** The shortest time between two attempts to reopen the same connection. */
+  static final long RECONNECT_INTERVAL_MS = 1000;
+
+  private final AsyncYBClient client;
+  private final String host;
+  private final int port;
+
+  private volatile TabletClient primary;
+
+  // Connections 1 to size - 1, at index - 1. Only replaced while holding the monitor.
+  private final AtomicReferenceArray<TabletClient> others;
+  private final AtomicLongArray lastConnectNanos;
+  private final AtomicLongArray reconnects;
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  private volatile boolean closed;
+
+  ConnectionPool(AsyncYBClient client, String host, int port, int size) {
+    this.client = client;
+    this.host = host;
+    this.port = port;
+    this.others = new AtomicReferenceArray<>(size - 1);
+    this.lastConnectNanos = new AtomicLongArray(size - 1);
+    this.reconnects = new AtomicLongArray(size);
+  }
+
+  /**
+   * Makes a new connection the primary one, after the previous one died.
+   * @param primary a connection known to the rest of the client
+   */
+  void setPrimary(TabletClient primary) {
+    if (this.primary != null) {
+      reconnects.incrementAndGet(0);
+    }
+    this.primary = primary;
+    primary.setConnectionPool(this);
+  }
+
+  /**
+   * Picks the connection an RPC should be sent on.
+   * @param caller the connection the RPC was handed to
+   * @return the live connection with the fewest RPCs in flight, or {@code caller} if they're all
+   *         dead, so that it fails or retries the RPC like a single connection would
+   */
+  TabletClient select(TabletClient caller) {
+    final int size = others.length() + 1;
+    final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+    TabletClient best = null;
+    int bestInflight = Integer.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      final int index = (start + i) % size;
+      TabletClient connection = index == 0 ? primary : connectionAt(index);
+      if (connection == null || !connection.isAlive()) {
+        continue;
+      }
+      final int inflight = connection.getNumInflightRpcs();
+      if (inflight < bestInflight) {
+        best = connection;
+        bestInflight = inflight;
+        if (inflight == 0) {
+          break;
+        }
+      }
+    }
+    return best == null ? caller : best;
+  }
+
+  /**
+   * Gets one of the non-primary connections, opening it if it isn't there or died.
+   * @return the connection, or {@code null} if it's dead and was reopened too recently
+   */
+  private TabletClient connectionAt(int index) {
+    TabletClient connection = others.get(index - 1);
+    if (connection != null && connection.isAlive()) {
+      return connection;
+    }
+    synchronized (this) {
+      connection = others.get(index - 1);
+      if (connection != null && connection.isAlive()) {
+        return connection;
+      }
+      final long now = System.nanoTime();
+      if (closed || (connection != null &&
+          now - lastConnectNanos.get(index - 1) <
+              TimeUnit.MILLISECONDS.toNanos(RECONNECT_INTERVAL_MS))) {
+        return null;
+      }
+      lastConnectNanos.set(index - 1, now);
+      if (connection != null) {
+        reconnects.incrementAndGet(index);
+      }
+      final TabletClient primary = this.primary;
+      connection = new TabletClient(client, primary);
+      others.set(index - 1, connection);
+    }
+    client.connect(connection, host, port);
+    return connection;
+  }
+
+  /**
+   * @return the in-flight RPCs of all the live connections
+   */
+  int getNumInflightRpcs() {
+    int inflight = 0;
+    final TabletClient primary = this.primary;
+    if (primary != null && primary.isAlive()) {
+      inflight += primary.getNumInflightRpcs();
+    }
+    for (int i = 0; i < others.length(); i++) {
+      final TabletClient connection = others.get(i);
+      if (connection != null && connection.isAlive()) {
+        inflight += connection.getNumInflightRpcs();
+      }
+    }
+    return inflight;
+  }
+
+  /**
+   * @return the stats of every connection, the primary one first
+   */
+  List<ConnectionStats> getStats() {
+    final List<ConnectionStats> stats = new ArrayList<>(others.length() + 1);
+    stats.add(new ConnectionStats(0, primary, reconnects.get(0)));
+    for (int i = 0; i < others.length(); i++) {
+      stats.add(new ConnectionStats(i + 1, others.get(i), reconnects.get(i + 1)));
+    }
+    return stats;
+  }
+
+  /**
+   * Closes the non-primary connections for good, the primary one is closed along with the other
+   * connections of the client.
+   * @return one {@link Deferred} per connection that was open
+   */
+  List<Deferred<Void>> shutdown() {
+    final List<Deferred<Void>> deferreds = new ArrayList<>();
+    synchronized (this) {
+      closed = true;
+    }
+    for (int i = 0; i < others.length(); i++) {
+      final TabletClient connection = others.get(i);
+      if (connection != null) {
+        deferreds.add(connection.shutdown());
+      }
+    }
+    return deferreds;
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * A snapshot of the state of one of the client's connections to a server.
+ * @see AsyncYBClient#getConnectionStats()
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class ConnectionStats {
+
+  private final int index;
+  private final boolean alive;
+  private final boolean connected;
+  private final int inflightRpcs;
+  private final long reconnects;
+
+  ConnectionStats(int index, TabletClient connection, long reconnects) {
+    this.index = index;
+    this.alive = connection != null && connection.isAlive();
+    this.connected = connection != null && connection.isConnected();
+    this.inflightRpcs = connection == null ? 0 : connection.getNumInflightRpcs();
+    this.reconnects = reconnects;
+  }
+
+  /**
+   * @return the position of the connection among the server's, 0 being the one the client
+   *         first opened
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * @return whether the connection is open or being opened
+   */
+  public boolean isAlive() {
+    return alive;
+  }
+
+  /**
+   * @return whether the connection is established
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * @return how many RPCs were sent on the connection and are waiting for a response
+   */
+  public int getInflightRpcs() {
+    return inflightRpcs;
+  }
+
+  /**
+   * @return how many times the connection was reopened after it died
+   */
+  public long getReconnects() {
+    return reconnects;
+  }
+
+  @Override
+  public String toString() {
+    return "ConnectionStats(index=" + index + ", alive=" + alive + ", connected=" + connected +
+        ", inflightRpcs=" + inflightRpcs + ", reconnects=" + reconnects + ")";
+  }
+}
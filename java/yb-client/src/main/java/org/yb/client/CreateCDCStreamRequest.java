@@ -1,7 +1,7 @@
 package org.yb.client;
 
 import com.google.protobuf.Message;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 import org.yb.cdc.CdcService.CreateCDCStreamRequestPB;
 import org.yb.cdc.CdcService.CreateCDCStreamResponsePB;
 import org.yb.util.Pair;
@@ -15,11 +15,11 @@ public class CreateCDCStreamRequest extends YRpc<CreateCDCStreamResponse> {
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     final CreateCDCStreamRequestPB.Builder builder = CreateCDCStreamRequestPB.newBuilder();
     builder.setTableId(this.tableId);
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 
   @Override
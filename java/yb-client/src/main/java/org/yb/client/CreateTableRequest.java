@@ -38,7 +38,7 @@ import org.yb.Schema;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.master.Master;
 import org.yb.util.Pair;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
  * RPC to create new tables
@@ -66,14 +66,14 @@ class CreateTableRequest extends YRpc<CreateTableResponse> {
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     this.builder.setName(this.name);
     Master.NamespaceIdentifierPB.Builder nsBuilder = Master.NamespaceIdentifierPB.newBuilder();
     this.builder.setNamespace(nsBuilder.setName(this.keyspace).build());
     this.builder.getSchemaBuilder().mergeFrom(ProtobufHelper.schemaToPb(this.schema));
     this.builder.setTableType(this.tableType);
-    return toChannelBuffer(header, this.builder.build());
+    return toByteBuf(header, this.builder.build());
   }
 
   @Override
@@ -35,7 +35,7 @@ import com.google.protobuf.Message;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.master.Master;
 import org.yb.util.Pair;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
  * RPC to delete tables
@@ -55,7 +55,7 @@ class DeleteTableRequest extends YRpc<DeleteTableResponse> {
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     final Master.DeleteTableRequestPB.Builder builder = Master.DeleteTableRequestPB.newBuilder();
     Master.TableIdentifierPB.Builder tbuilder = Master.TableIdentifierPB.newBuilder();
@@ -65,7 +65,7 @@ class DeleteTableRequest extends YRpc<DeleteTableResponse> {
               .setNamespace(Master.NamespaceIdentifierPB.newBuilder().setName(this.keyspace))
               .build();
     builder.setTable(tableID);
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 
   @Override
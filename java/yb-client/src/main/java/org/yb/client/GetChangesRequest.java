@@ -15,7 +15,7 @@ package org.yb.client;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 import org.yb.Opid;
 import org.yb.cdc.CdcService;
 import org.yb.util.Pair;
@@ -27,17 +27,26 @@ public class GetChangesRequest extends YRpc<GetChangesResponse> {
   private final String tabletId;
   private final long term;
   private final long index;
+  private final int maxRecords;
+  private final boolean serveAsProxy;
 
   public GetChangesRequest(YBTable table, String streamId, String tabletId, long term, long index) {
+    this(table, streamId, tabletId, term, index, 0, true);
+  }
+
+  public GetChangesRequest(YBTable table, String streamId, String tabletId, long term, long index,
+                           int maxRecords, boolean serveAsProxy) {
     super(table);
     this.streamId = streamId;
     this.tabletId = tabletId;
     this.term = term;
     this.index = index;
+    this.maxRecords = maxRecords;
+    this.serveAsProxy = serveAsProxy;
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     final GetChangesRequestPB.Builder builder = GetChangesRequestPB.newBuilder();
     builder.setStreamId(ByteString.copyFromUtf8(this.streamId));
@@ -48,7 +57,11 @@ public class GetChangesRequest extends YRpc<GetChangesResponse> {
       checkpointBuilder.setOpId(Opid.OpIdPB.newBuilder().setIndex(this.index).setTerm(this.term));
       builder.setFromCheckpoint(checkpointBuilder);
     }
-    return toChannelBuffer(header, builder.build());
+    if (maxRecords > 0) {
+      builder.setMaxRecords(maxRecords);
+    }
+    builder.setServeAsProxy(serveAsProxy);
+    return toByteBuf(header, builder.build());
   }
 
   @Override
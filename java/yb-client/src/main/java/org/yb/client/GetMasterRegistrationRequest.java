@@ -37,7 +37,7 @@ import static org.yb.master.Master.*;
 
 import org.yb.annotations.InterfaceAudience;
 import org.yb.util.Pair;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
  * Package-private RPC that can only go to master.
@@ -51,11 +51,11 @@ public class GetMasterRegistrationRequest extends YRpc<GetMasterRegistrationResp
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     final GetMasterRegistrationRequestPB.Builder builder =
         GetMasterRegistrationRequestPB.newBuilder();
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 
   @Override
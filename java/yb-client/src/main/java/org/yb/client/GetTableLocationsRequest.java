@@ -37,7 +37,7 @@ import com.google.protobuf.UnsafeByteOperations;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.master.Master;
 import org.yb.util.Pair;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
  * Package-private RPC that can only go to a master.
@@ -48,9 +48,18 @@ class GetTableLocationsRequest extends YRpc<Master.GetTableLocationsResponsePB>
   private final byte[] startPartitionKey;
   private final byte[] endKey;
   private final String tableId;
+  private final int maxReturnedLocations;
 
   GetTableLocationsRequest(YBTable table, byte[] startPartitionKey,
                            byte[] endPartitionKey, String tableId) {
+    this(table, startPartitionKey, endPartitionKey, tableId, 0);
+  }
+
+  /**
+   * @param maxReturnedLocations the most tablets to return, 0 to use the master's default
+   */
+  GetTableLocationsRequest(YBTable table, byte[] startPartitionKey,
+                           byte[] endPartitionKey, String tableId, int maxReturnedLocations) {
     super(table);
     if (startPartitionKey != null && endPartitionKey != null
         && Bytes.memcmp(startPartitionKey, endPartitionKey) > 0) {
@@ -60,6 +69,7 @@ class GetTableLocationsRequest extends YRpc<Master.GetTableLocationsResponsePB>
     this.startPartitionKey = startPartitionKey;
     this.endKey = endPartitionKey;
     this.tableId = tableId;
+    this.maxReturnedLocations = maxReturnedLocations;
   }
 
   @Override
@@ -83,7 +93,7 @@ class GetTableLocationsRequest extends YRpc<Master.GetTableLocationsResponsePB>
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     final Master.GetTableLocationsRequestPB.Builder builder = Master
         .GetTableLocationsRequestPB.newBuilder();
     builder.setTable(Master.TableIdentifierPB.newBuilder().
@@ -94,6 +104,9 @@ class GetTableLocationsRequest extends YRpc<Master.GetTableLocationsResponsePB>
     if (endKey != null) {
       builder.setPartitionKeyEnd(UnsafeByteOperations.unsafeWrap(endKey));
     }
-    return toChannelBuffer(header, builder.build());
+    if (maxReturnedLocations > 0) {
+      builder.setMaxReturnedLocations(maxReturnedLocations);
+    }
+    return toByteBuf(header, builder.build());
   }
 }
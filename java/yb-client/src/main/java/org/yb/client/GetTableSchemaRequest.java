@@ -38,7 +38,7 @@ import static org.yb.master.Master.*;
 import org.yb.Schema;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.util.Pair;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
  * RPC to fetch a table's schema
@@ -62,7 +62,7 @@ public class GetTableSchemaRequest extends YRpc<GetTableSchemaResponse> {
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     assert name != null || uuid != null;
     final GetTableSchemaRequestPB.Builder builder = GetTableSchemaRequestPB.newBuilder();
@@ -77,7 +77,7 @@ public class GetTableSchemaRequest extends YRpc<GetTableSchemaResponse> {
     tableID = tbuilder.build();
 
     builder.setTable(tableID);
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 
   @Override
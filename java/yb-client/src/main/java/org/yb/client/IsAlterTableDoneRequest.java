@@ -37,7 +37,7 @@ import static org.yb.master.Master.*;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.master.Master;
 import org.yb.util.Pair;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
  * RPC used to check if an alter is running for the specified table
@@ -57,7 +57,7 @@ class IsAlterTableDoneRequest extends YRpc<IsAlterTableDoneResponse> {
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     final IsAlterTableDoneRequestPB.Builder builder = IsAlterTableDoneRequestPB.newBuilder();
     TableIdentifierPB tableID = TableIdentifierPB.newBuilder()
@@ -66,7 +66,7 @@ class IsAlterTableDoneRequest extends YRpc<IsAlterTableDoneResponse> {
                                               .setName(this.keyspace))
                                 .build();
     builder.setTable(tableID);
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 
   @Override
@@ -36,7 +36,7 @@ import com.google.protobuf.Message;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.master.Master;
 import org.yb.util.Pair;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
  * Package-private RPC that can only go to a master.
@@ -71,11 +71,11 @@ class IsCreateTableDoneRequest extends YRpc<Master.IsCreateTableDoneResponsePB>
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     final Master.IsCreateTableDoneRequestPB.Builder builder = Master
         .IsCreateTableDoneRequestPB.newBuilder();
     builder.setTable(Master.TableIdentifierPB.newBuilder().setTableId(
         ByteString.copyFromUtf8(tableId)));
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 }
@@ -13,7 +13,6 @@
 
 package org.yb.client;
 
-import org.jboss.netty.buffer.ChannelBuffer;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.tserver.Tserver;
 import org.yb.util.Pair;
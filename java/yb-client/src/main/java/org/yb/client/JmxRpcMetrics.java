@@ -0,0 +1,233 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * {@link RpcMetrics} that are also published as MBeans of the platform MBean server, under the
+ * {@code org.yb.client} domain:
+ * <ul>
+ *   <li>{@code type=Client,name=<name>} for the master lookups,
+ *   <li>{@code type=RpcLatency,name=<name>,service=<service>,method=<method>} for each method,
+ *   <li>{@code type=Server,name=<name>,uuid=<uuid>} for each server.
+ * </ul>
+ * The name tells apart the clients of a process. The MBeans are registered as methods and servers
+ * show up, and unregistered by {@link #close()}, which should be called along with closing the
+ * client. This class is thread-safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class JmxRpcMetrics extends RpcMetrics implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JmxRpcMetrics.class);
+
+  public static final String DOMAIN = "org.yb.client";
+
+  /** What a client exposes over JMX. */
+  public interface ClientMXBean {
+    long getMasterLookupCount();
+    long getCoalescedMasterLookupCount();
+  }
+
+  /** What a method exposes over JMX, latencies are in microseconds. */
+  public interface RpcLatencyMXBean {
+    long getCount();
+    double getMean();
+    long getMax();
+    long getP50();
+    long getP95();
+    long getP99();
+    long getP999();
+  }
+
+  /** What a server exposes over JMX. */
+  public interface ServerMXBean {
+    long getInflight();
+    long getSent();
+    long getAborted();
+    long getRetries();
+    long getTimeouts();
+    long getTooBusy();
+    String getCircuitBreakerState();
+    long getCircuitBreakerTrips();
+    long getCircuitBreakerRejections();
+    long getSteeredAway();
+  }
+
+  private final String name;
+  private final MBeanServer mbeanServer;
+  private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+  private volatile boolean closed;
+
+  /**
+   * Creates the metrics and registers the client's MBean.
+   * @param name the name of the client in the MBeans' names
+   */
+  public JmxRpcMetrics(String name) {
+    this.name = ObjectName.quote(name);
+    this.mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    register("type=Client,name=" + this.name, new ClientMXBean() {
+      @Override
+      public long getMasterLookupCount() {
+        return JmxRpcMetrics.this.getMasterLookupCount();
+      }
+
+      @Override
+      public long getCoalescedMasterLookupCount() {
+        return JmxRpcMetrics.this.getCoalescedMasterLookupCount();
+      }
+    }, ClientMXBean.class);
+  }
+
+  @Override
+  protected void onNewMethod(String service, String method, final LatencyHistogram histogram) {
+    register("type=RpcLatency,name=" + name + ",service=" + ObjectName.quote(service) +
+             ",method=" + ObjectName.quote(method), new RpcLatencyMXBean() {
+      @Override
+      public long getCount() {
+        return histogram.getCount();
+      }
+
+      @Override
+      public double getMean() {
+        return histogram.getMean();
+      }
+
+      @Override
+      public long getMax() {
+        return histogram.getMax();
+      }
+
+      @Override
+      public long getP50() {
+        return histogram.getValueAtPercentile(50);
+      }
+
+      @Override
+      public long getP95() {
+        return histogram.getValueAtPercentile(95);
+      }
+
+      @Override
+      public long getP99() {
+        return histogram.getValueAtPercentile(99);
+      }
+
+      @Override
+      public long getP999() {
+        return histogram.getValueAtPercentile(99.9);
+      }
+    }, RpcLatencyMXBean.class);
+  }
+
+  @Override
+  protected void onNewServer(String serverUuid, final ServerCounters counters) {
+    register("type=Server,name=" + name + ",uuid=" + ObjectName.quote(serverUuid),
+             new ServerMXBean() {
+      @Override
+      public long getInflight() {
+        return counters.getInflight();
+      }
+
+      @Override
+      public long getSent() {
+        return counters.getSent();
+      }
+
+      @Override
+      public long getAborted() {
+        return counters.getAborted();
+      }
+
+      @Override
+      public long getRetries() {
+        return counters.getRetries();
+      }
+
+      @Override
+      public long getTimeouts() {
+        return counters.getTimeouts();
+      }
+
+      @Override
+      public long getTooBusy() {
+        return counters.getTooBusy();
+      }
+
+      @Override
+      public String getCircuitBreakerState() {
+        return counters.getCircuitBreakerState().name();
+      }
+
+      @Override
+      public long getCircuitBreakerTrips() {
+        return counters.getCircuitBreakerTrips();
+      }
+
+      @Override
+      public long getCircuitBreakerRejections() {
+        return counters.getCircuitBreakerRejections();
+      }
+
+      @Override
+      public long getSteeredAway() {
+        return counters.getSteeredAway();
+      }
+    }, ServerMXBean.class);
+  }
+
+  private <T> void register(String properties, T mbean, Class<T> mbeanInterface) {
+    if (closed) {
+      return;
+    }
+    try {
+      ObjectName objectName = new ObjectName(DOMAIN + ":" + properties);
+      mbeanServer.registerMBean(new StandardMBean(mbean, mbeanInterface, true), objectName);
+      registered.add(objectName);
+    } catch (JMException e) {
+      // Metrics are best effort, don't fail RPCs over them.
+      LOG.warn("Couldn't register MBean " + properties, e);
+    }
+  }
+
+  /**
+   * Unregisters all the MBeans. The metrics are still updated afterwards, they just aren't
+   * published anymore.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (ObjectName objectName : registered) {
+      try {
+        mbeanServer.unregisterMBean(objectName);
+      } catch (JMException e) {
+        LOG.warn("Couldn't unregister MBean " + objectName, e);
+      }
+    }
+    registered.clear();
+  }
+}
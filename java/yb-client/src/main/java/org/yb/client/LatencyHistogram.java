@@ -0,0 +1,141 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * A histogram of latencies in microseconds, with the same layout as an HDR histogram with two
+ * significant digits: values under 32 get their own bucket, and each power of two above that is
+ * split in 32 buckets, so the value reported for a percentile is at most about 3% above the
+ * actual one. Latencies from 0 to about 12 days fit in 1152 buckets.
+ * <p>
+ * Recording is lock-free and never allocates. Reads aren't atomic with respect to concurrent
+ * recordings, which is fine for monitoring. This class is thread-safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values of up to 2^MAX_MAGNITUDE - 1 microseconds are tracked, bigger ones are clamped.
+  private static final int MAX_MAGNITUDE = 40;
+  private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+  private static final int NUM_BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a latency.
+   * @param nanos the latency, in nanoseconds
+   */
+  public void recordNanos(long nanos) {
+    record(nanos / 1000);
+  }
+
+  /**
+   * Records a latency.
+   * @param micros the latency, in microseconds
+   */
+  public void record(long micros) {
+    long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+    counts.incrementAndGet(bucketFor(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax = max.get();
+    while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  static int bucketFor(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @return the highest value that falls in the given bucket
+   */
+  static long highestValueIn(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+    long lowest = (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+    return lowest + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * @return how many latencies were recorded
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the average latency in microseconds, 0 if nothing was recorded
+   */
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * @return the highest latency recorded, in microseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Gets the latency under which the given percentage of the recorded latencies fall.
+   * @param percentile a percentage between 0 and 100
+   * @return a latency in microseconds, 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueIn(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram(count=" + getCount() + ", mean=" + getMean() +
+        ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99) +
+        ", p999=" + getValueAtPercentile(99.9) + ", max=" + getMax() + ")";
+  }
+}
@@ -15,7 +15,7 @@ package org.yb.client;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
-import org.jboss.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ByteBuf;
 
 import org.yb.annotations.InterfaceAudience;
 import org.yb.consensus.Consensus;
@@ -33,13 +33,13 @@ class LeaderStepDownRequest extends YRpc<LeaderStepDownResponse> {
   }
 
   @Override
-  ChannelBuffer serialize(Message header) {
+  ByteBuf serialize(Message header) {
     assert header.isInitialized();
     final Consensus.LeaderStepDownRequestPB.Builder builder =
       Consensus.LeaderStepDownRequestPB.newBuilder();
     builder.setDestUuid(ByteString.copyFromUtf8(leader_uuid));
     builder.setTabletId(ByteString.copyFromUtf8(tablet_id));
-    return toChannelBuffer(header, builder.build());
+    return toByteBuf(header, builder.build());
   }
 
   @Override
@@ -0,0 +1,167 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.yb.Common.CloudInfoPB;
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * The built-in {@link ReplicaSelectionPolicy} implementations.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class ReplicaSelectionPolicies {
+
+  private static final ReplicaSelectionPolicy LEADER_ONLY = new ReplicaSelectionPolicy() {
+    @Override
+    public int selectReplica(List<TabletClient> replicas, int leaderIndex) {
+      return leaderIndex;
+    }
+
+    @Override
+    public String toString() {
+      return "LeaderOnly";
+    }
+  };
+
+  private static final ReplicaSelectionPolicy LEAST_OUTSTANDING_RPCS =
+      new ReplicaSelectionPolicy() {
+    @Override
+    public int selectReplica(List<TabletClient> replicas, int leaderIndex) {
+      return leastLoaded(replicas, leaderIndex, null);
+    }
+
+    @Override
+    public String toString() {
+      return "LeastOutstandingRpcs";
+    }
+  };
+
+  private ReplicaSelectionPolicies() {
+  }
+
+  /**
+   * Always sends RPCs to the tablet leader. This is the default.
+   */
+  public static ReplicaSelectionPolicy leaderOnly() {
+    return LEADER_ONLY;
+  }
+
+  /**
+   * Sends RPCs to the replica with the fewest RPCs in flight, preferring the leader on ties.
+   */
+  public static ReplicaSelectionPolicy leastOutstandingRpcs() {
+    return LEAST_OUTSTANDING_RPCS;
+  }
+
+  /**
+   * Spreads RPCs over all the replicas of a tablet in turn.
+   */
+  public static ReplicaSelectionPolicy roundRobin() {
+    return new RoundRobin();
+  }
+
+  /**
+   * Sends RPCs to the replica placed closest to the client: same zone first, then same region,
+   * then same cloud. Replicas at the same distance are picked by fewest RPCs in flight.
+   * @param cloud the cloud the client runs in
+   * @param region the region the client runs in
+   * @param zone the zone the client runs in
+   */
+  public static ReplicaSelectionPolicy closestZone(String cloud, String region, String zone) {
+    return new ClosestZone(CloudInfoPB.newBuilder()
+        .setPlacementCloud(cloud)
+        .setPlacementRegion(region)
+        .setPlacementZone(zone)
+        .build());
+  }
+
+  /**
+   * How close a replica is to the given placement, higher is closer.
+   */
+  static int placementScore(CloudInfoPB local, CloudInfoPB remote) {
+    if (local == null || remote == null ||
+        !local.getPlacementCloud().equals(remote.getPlacementCloud())) {
+      return 0;
+    }
+    if (!local.getPlacementRegion().equals(remote.getPlacementRegion())) {
+      return 1;
+    }
+    if (!local.getPlacementZone().equals(remote.getPlacementZone())) {
+      return 2;
+    }
+    return 3;
+  }
+
+  /**
+   * Picks the replica with the fewest RPCs in flight among those with the best placement score
+   * relative to {@code local}, or among all replicas if {@code local} is null.
+   */
+  private static int leastLoaded(List<TabletClient> replicas, int leaderIndex,
+                                 CloudInfoPB local) {
+    int best = -1;
+    int bestScore = -1;
+    int bestInflight = Integer.MAX_VALUE;
+    for (int i = 0; i < replicas.size(); i++) {
+      TabletClient replica = replicas.get(i);
+      int score = local == null ? 0 : placementScore(local, replica.getCloudInfo());
+      int inflight = replica.getNumServerInflightRpcs();
+      if (score > bestScore ||
+          (score == bestScore && inflight < bestInflight) ||
+          (score == bestScore && inflight == bestInflight && i == leaderIndex)) {
+        best = i;
+        bestScore = score;
+        bestInflight = inflight;
+      }
+    }
+    return best;
+  }
+
+  private static final class RoundRobin implements ReplicaSelectionPolicy {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public int selectReplica(List<TabletClient> replicas, int leaderIndex) {
+      return (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.size();
+    }
+
+    @Override
+    public String toString() {
+      return "RoundRobin";
+    }
+  }
+
+  private static final class ClosestZone implements ReplicaSelectionPolicy {
+    private final CloudInfoPB local;
+
+    ClosestZone(CloudInfoPB local) {
+      this.local = local;
+    }
+
+    @Override
+    public int selectReplica(List<TabletClient> replicas, int leaderIndex) {
+      return leastLoaded(replicas, leaderIndex, local);
+    }
+
+    @Override
+    public String toString() {
+      return "ClosestZone(" + local.getPlacementCloud() + "." + local.getPlacementRegion() + "." +
+          local.getPlacementZone() + ")";
+    }
+  }
+}
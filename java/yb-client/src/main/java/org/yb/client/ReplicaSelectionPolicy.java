@@ -0,0 +1,39 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.List;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Decides which replica of a tablet serves an RPC that tolerates being served by a follower.
+ * <p>
+ * RPCs that need the leader (writes, master requests, consistent reads) never go through the
+ * policy. Implementations must be thread-safe, they are called concurrently from user threads
+ * and Netty IO threads. See {@link ReplicaSelectionPolicies} for the built-in policies.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface ReplicaSelectionPolicy {
+
+  /**
+   * Picks the replica that should receive the RPC.
+   * @param replicas the connected replicas of the tablet, never empty. Must not be modified.
+   * @param leaderIndex the position of the leader in {@code replicas}, or -1 if it's unknown
+   * @return a position in {@code replicas}, or -1 to send the RPC to the leader
+   */
+  int selectReplica(List<TabletClient> replicas, int leaderIndex);
+}
@@ -0,0 +1,284 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Keeps the client's RPC metrics in memory: a {@link LatencyHistogram} per service and method,
+ * and {@link ServerCounters} per server.
+ * <p>
+ * Pass it to {@link AsyncYBClient.AsyncYBClientBuilder#metricsSink(RpcMetricsSink)} and read it
+ * whenever needed. Histograms and counters are created the first time a method or server is
+ * seen, and are never removed. This class is thread-safe.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class RpcMetrics implements RpcMetricsSink {
+
+  /** The RPC counters of one server. */
+  public static final class ServerCounters {
+    private final AtomicLong inflight = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong tooBusy = new AtomicLong();
+    private volatile CircuitBreaker.State circuitBreakerState = CircuitBreaker.State.CLOSED;
+    private final AtomicLong circuitBreakerTrips = new AtomicLong();
+    private final AtomicLong circuitBreakerRejections = new AtomicLong();
+    private final AtomicLong steeredAway = new AtomicLong();
+
+    /**
+     * @return how many RPCs were sent to the server and are waiting for a response
+     */
+    public long getInflight() {
+      return inflight.get();
+    }
+
+    /**
+     * @return how many RPCs were sent to the server
+     */
+    public long getSent() {
+      return sent.get();
+    }
+
+    /**
+     * @return how many RPCs lost their connection to the server before getting a response
+     */
+    public long getAborted() {
+      return aborted.get();
+    }
+
+    /**
+     * @return how many times the server made us retry an RPC
+     */
+    public long getRetries() {
+      return retries.get();
+    }
+
+    /**
+     * @return how many times the server didn't answer in time
+     */
+    public long getTimeouts() {
+      return timeouts.get();
+    }
+
+    /**
+     * @return how many RPCs the server rejected because it was too busy
+     */
+    public long getTooBusy() {
+      return tooBusy.get();
+    }
+
+    /**
+     * @return the last state the server's circuit breaker reported, closed if it never changed
+     */
+    public CircuitBreaker.State getCircuitBreakerState() {
+      return circuitBreakerState;
+    }
+
+    /**
+     * @return how many times the server's circuit breaker opened
+     */
+    public long getCircuitBreakerTrips() {
+      return circuitBreakerTrips.get();
+    }
+
+    /**
+     * @return how many RPCs routed to the server its circuit breaker kept from being sent
+     */
+    public long getCircuitBreakerRejections() {
+      return circuitBreakerRejections.get();
+    }
+
+    /**
+     * @return how many of the rejected RPCs went to another replica instead
+     */
+    public long getSteeredAway() {
+      return steeredAway.get();
+    }
+
+    @Override
+    public String toString() {
+      return "ServerCounters(inflight=" + getInflight() + ", sent=" + getSent() +
+          ", aborted=" + getAborted() + ", retries=" + getRetries() +
+          ", timeouts=" + getTimeouts() + ", tooBusy=" + getTooBusy() +
+          ", circuitBreakerState=" + getCircuitBreakerState() +
+          ", circuitBreakerTrips=" + getCircuitBreakerTrips() +
+          ", circuitBreakerRejections=" + getCircuitBreakerRejections() +
+          ", steeredAway=" + getSteeredAway() + ")";
+    }
+  }
+
+  // Retries of RPCs that weren't sent to any server, when no master leader was found for example.
+  static final String NO_SERVER = "none";
+
+  private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, ServerCounters> servers = new ConcurrentHashMap<>();
+  private final AtomicLong masterLookups = new AtomicLong();
+  private final AtomicLong coalescedMasterLookups = new AtomicLong();
+
+  /**
+   * Called the first time an RPC method completes, before its first latency is recorded.
+   * @param service the RPC's service
+   * @param method the RPC's method
+   * @param histogram the histogram of the method's latencies
+   */
+  protected void onNewMethod(String service, String method, LatencyHistogram histogram) {
+  }
+
+  /**
+   * Called the first time an event is recorded for a server.
+   * @param serverUuid the server's UUID
+   * @param counters the server's counters
+   */
+  protected void onNewServer(String serverUuid, ServerCounters counters) {
+  }
+
+  private ServerCounters server(String serverUuid) {
+    String key = serverUuid == null ? NO_SERVER : serverUuid;
+    ServerCounters counters = servers.get(key);
+    if (counters == null) {
+      ServerCounters created = new ServerCounters();
+      counters = servers.putIfAbsent(key, created);
+      if (counters == null) {
+        counters = created;
+        onNewServer(key, created);
+      }
+    }
+    return counters;
+  }
+
+  private static String methodKey(String service, String method) {
+    return service + "/" + method;
+  }
+
+  @Override
+  public void rpcSent(String service, String method, String serverUuid) {
+    ServerCounters counters = server(serverUuid);
+    counters.sent.incrementAndGet();
+    counters.inflight.incrementAndGet();
+  }
+
+  @Override
+  public void rpcCompleted(String service, String method, String serverUuid, long latencyNanos) {
+    server(serverUuid).inflight.decrementAndGet();
+    String key = methodKey(service, method);
+    LatencyHistogram histogram = latencies.get(key);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = latencies.putIfAbsent(key, created);
+      if (histogram == null) {
+        histogram = created;
+        onNewMethod(service, method, created);
+      }
+    }
+    histogram.recordNanos(latencyNanos);
+  }
+
+  @Override
+  public void rpcAborted(String service, String method, String serverUuid) {
+    ServerCounters counters = server(serverUuid);
+    counters.inflight.decrementAndGet();
+    counters.aborted.incrementAndGet();
+  }
+
+  @Override
+  public void rpcRetried(String service, String method, String serverUuid) {
+    server(serverUuid).retries.incrementAndGet();
+  }
+
+  @Override
+  public void rpcTimedOut(String serverUuid) {
+    server(serverUuid).timeouts.incrementAndGet();
+  }
+
+  @Override
+  public void serverTooBusy(String serverUuid) {
+    server(serverUuid).tooBusy.incrementAndGet();
+  }
+
+  @Override
+  public void circuitBreakerStateChanged(String serverUuid, CircuitBreaker.State state) {
+    ServerCounters counters = server(serverUuid);
+    counters.circuitBreakerState = state;
+    if (state == CircuitBreaker.State.OPEN) {
+      counters.circuitBreakerTrips.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void circuitBreakerRejected(String service, String method, String serverUuid,
+                                     boolean steered) {
+    ServerCounters counters = server(serverUuid);
+    counters.circuitBreakerRejections.incrementAndGet();
+    if (steered) {
+      counters.steeredAway.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void masterLookup(String tableId, boolean coalesced) {
+    if (coalesced) {
+      coalescedMasterLookups.incrementAndGet();
+    } else {
+      masterLookups.incrementAndGet();
+    }
+  }
+
+  /**
+   * Gets the latencies of an RPC method.
+   * @param service the RPC's service, like {@code yb.tserver.TabletServerService}
+   * @param method the RPC's method, like {@code Write}
+   * @return the method's histogram, or null if no such RPC completed yet
+   */
+  public LatencyHistogram getLatencyHistogram(String service, String method) {
+    return latencies.get(methodKey(service, method));
+  }
+
+  /**
+   * @return the latencies of every RPC method that completed so far, keyed by "service/method"
+   */
+  public Map<String, LatencyHistogram> getLatencyHistograms() {
+    return Collections.unmodifiableMap(latencies);
+  }
+
+  /**
+   * @return the counters of every server we sent RPCs to so far, keyed by UUID
+   */
+  public Map<String, ServerCounters> getServerCounters() {
+    return Collections.unmodifiableMap(servers);
+  }
+
+  /**
+   * @return how many times the client asked the master for tablet locations
+   */
+  public long getMasterLookupCount() {
+    return masterLookups.get();
+  }
+
+  /**
+   * @return how many tablet location lookups waited on one that was already in flight
+   */
+  public long getCoalescedMasterLookupCount() {
+    return coalescedMasterLookups.get();
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import org.yb.annotations.InterfaceAudience;
+import org.yb.annotations.InterfaceStability;
+
+/**
+ * Receives the events the client's RPCs go through, to turn them into metrics.
+ * <p>
+ * Implementations are called from Netty IO threads, right in the path of every RPC, so they must
+ * be thread-safe and must neither block nor do anything expensive. When no sink is configured the
+ * client doesn't even read the clock. See {@link RpcMetrics} for an in-memory implementation and
+ * {@link JmxRpcMetrics} to publish it over JMX.
+ * <p>
+ * Services and methods are the ones of the RPC protocol, like
+ * {@code yb.tserver.TabletServerService} and {@code Write}. Servers are identified by their
+ * UUID, or by a placeholder followed by their address before we learn it.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface RpcMetricsSink {
+
+  /**
+   * An RPC was sent to a server.
+   */
+  void rpcSent(String service, String method, String serverUuid);
+
+  /**
+   * A server answered an RPC, successfully or not.
+   * @param latencyNanos the time between sending the RPC and decoding its response
+   */
+  void rpcCompleted(String service, String method, String serverUuid, long latencyNanos);
+
+  /**
+   * An RPC that was sent will never get its response, because the connection went away.
+   */
+  void rpcAborted(String service, String method, String serverUuid);
+
+  /**
+   * An RPC is going to be retried after a delay.
+   * @param serverUuid the server that made us retry, or null if it wasn't sent to one
+   */
+  void rpcRetried(String service, String method, String serverUuid);
+
+  /**
+   * A server didn't answer in time, either an RPC or the whole connection.
+   */
+  void rpcTimedOut(String serverUuid);
+
+  /**
+   * A server rejected an RPC because it's too busy.
+   */
+  void serverTooBusy(String serverUuid);
+
+  /**
+   * The circuit breaker of a server changed state.
+   * @param state the new state, {@link CircuitBreaker.State#OPEN} when the breaker trips
+   */
+  void circuitBreakerStateChanged(String serverUuid, CircuitBreaker.State state);
+
+  /**
+   * The circuit breaker of the server an RPC was routed to kept it from being sent there.
+   * @param steered true if the RPC went to another replica instead, false if it will be retried
+   */
+  void circuitBreakerRejected(String service, String method, String serverUuid,
+                              boolean steered);
+
+  /**
+   * The client asked the master where the tablets of a table are.
+   * @param coalesced true if the client waited on a lookup that was already in flight instead of
+   *                  asking the master itself
+   */
+  void masterLookup(String tableId, boolean coalesced);
+}
@@ -0,0 +1,219 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import org.yb.annotations.InterfaceAudience;
+
+/**
+ * Coalesces the serialized RPCs sent on one connection so that they go out in a single write.
+ * <p>
+ * RPCs are queued until either {@code maxBatchBytes} are waiting or {@code maxDelayMs} went by
+ * since the first one was queued, then all of them are handed to the channel's event loop in one
+ * task that writes them and flushes once, so they go out in a single gathering write. The delay
+ * is enforced by the client's timer, so it can't be shorter than the timer's tick. A timeout only
+ * flushes the batch it was armed for: once that batch went out because it was full, the timeout
+ * leaves the next one alone.
+ * <p>
+ * This class is thread-safe.
+ */
+@InterfaceAudience.Private
+public final class RpcWriteBatcher {
+
+  private final AsyncYBClient ybClient;
+  private final int maxBatchBytes;
+  private final long maxDelayMs;
+
+  // All guarded by this.
+  private ArrayList<ByteBuf> queued = new ArrayList<>();
+  private int queuedBytes;
+  private long firstQueuedNanos;
+  private Channel queuedOn;
+  // Numbers the batches, so that a timeout can tell whether its batch was already flushed.
+  private long batch;
+
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong batchedRpcs = new AtomicLong();
+  private final AtomicLong batchedBytes = new AtomicLong();
+  private final AtomicLong maxBatchRpcs = new AtomicLong();
+  private final AtomicLong totalFlushDelayNanos = new AtomicLong();
+
+  RpcWriteBatcher(AsyncYBClient ybClient, int maxBatchBytes, long maxDelayMs) {
+    this.ybClient = ybClient;
+    this.maxBatchBytes = maxBatchBytes;
+    this.maxDelayMs = maxDelayMs;
+  }
+
+  /**
+   * Queues a serialized RPC to be written on the given channel.
+   */
+  void write(Channel chan, ByteBuf serialized) {
+    boolean flushNow;
+    boolean scheduleFlush = false;
+    final long queuedBatch;
+    synchronized (this) {
+      if (queuedOn != null && queuedOn != chan) {
+        // We reconnected, whatever was queued for the old channel is lost along with the RPCs
+        // it carried, which the old channel's cleanup takes care of.
+        resetQueue();
+      }
+      if (queued.isEmpty()) {
+        batch++;
+        firstQueuedNanos = System.nanoTime();
+        queuedOn = chan;
+        scheduleFlush = true;
+      }
+      queuedBatch = batch;
+      queued.add(serialized);
+      queuedBytes += serialized.readableBytes();
+      flushNow = queuedBytes >= maxBatchBytes;
+    }
+    if (flushNow) {
+      flush();
+    } else if (scheduleFlush) {
+      ybClient.newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+          flush(queuedBatch);
+        }
+      }, maxDelayMs);
+    }
+  }
+
+  /**
+   * Writes everything that's queued, if anything.
+   */
+  void flush() {
+    flush(-1);
+  }
+
+  /**
+   * Writes the given batch if it's still queued.
+   * @param onlyBatch the batch's number, or -1 to write whatever is queued
+   */
+  private void flush(long onlyBatch) {
+    final ArrayList<ByteBuf> toWrite;
+    final Channel chan;
+    final long delayNanos;
+    synchronized (this) {
+      if (queued.isEmpty() || (onlyBatch >= 0 && onlyBatch != batch)) {
+        return;
+      }
+      toWrite = queued;
+      chan = queuedOn;
+      delayNanos = System.nanoTime() - firstQueuedNanos;
+      batchedBytes.addAndGet(queuedBytes);
+      queued = new ArrayList<>(toWrite.size());
+      resetQueue();
+    }
+    // Counted before handing the batch off, so the stats are up to date once it's written.
+    final int size = toWrite.size();
+    flushes.incrementAndGet();
+    batchedRpcs.addAndGet(size);
+    totalFlushDelayNanos.addAndGet(delayNanos);
+    long max = maxBatchRpcs.get();
+    while (size > max && !maxBatchRpcs.compareAndSet(max, size)) {
+      max = maxBatchRpcs.get();
+    }
+
+    try {
+      chan.eventLoop().execute(new Runnable() {
+        @Override
+        public void run() {
+          for (ByteBuf buf : toWrite) {
+            // Write failures go to the TabletClient's exceptionCaught().
+            chan.write(buf, chan.voidPromise());
+          }
+          chan.flush();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // We're shutting down, the RPCs will be failed along with the connection.
+      release(toWrite);
+    }
+  }
+
+  // Must be called with this synchronized.
+  private void resetQueue() {
+    release(queued);
+    queued.clear();
+    queuedBytes = 0;
+    queuedOn = null;
+  }
+
+  private static void release(ArrayList<ByteBuf> bufs) {
+    for (ByteBuf buf : bufs) {
+      buf.release();
+    }
+  }
+
+  /**
+   * @return how many writes were issued so far
+   */
+  public long getFlushCount() {
+    return flushes.get();
+  }
+
+  /**
+   * @return how many RPCs were written so far
+   */
+  public long getBatchedRpcCount() {
+    return batchedRpcs.get();
+  }
+
+  /**
+   * @return how many bytes were written so far
+   */
+  public long getBatchedBytes() {
+    return batchedBytes.get();
+  }
+
+  /**
+   * @return the most RPCs written at once
+   */
+  public long getMaxBatchRpcCount() {
+    return maxBatchRpcs.get();
+  }
+
+  /**
+   * @return the average number of RPCs per write
+   */
+  public double getAverageBatchRpcCount() {
+    long count = flushes.get();
+    return count == 0 ? 0 : (double) batchedRpcs.get() / count;
+  }
+
+  /**
+   * @return the average time between queuing the first RPC of a batch and writing it, in
+   *         microseconds
+   */
+  public double getAverageFlushDelayMicros() {
+    long count = flushes.get();
+    return count == 0 ? 0 : totalFlushDelayNanos.get() / 1000.0 / count;
+  }
+
+  @Override
+  public String toString() {
+    return "RpcWriteBatcher(maxBatchBytes=" + maxBatchBytes + ", maxDelayMs=" + maxDelayMs +
+        ", flushes=" + getFlushCount() + ", avgBatchRpcs=" + getAverageBatchRpcCount() +
+        ", avgFlushDelayUs=" + getAverageFlushDelayMicros() + ")";
+  }
+}
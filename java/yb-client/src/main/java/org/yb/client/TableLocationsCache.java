@@ -0,0 +1,157 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.yb.annotations.InterfaceAudience;
+
+/**
+ * The known tablets of one table, indexed by the start of their partition.
+ * <p>
+ * Lookups never lock: they binary search an immutable snapshot that is replaced wholesale on
+ * every update. Updates are serialized on this object and copy the snapshot, which is fine
+ * because they only happen after a master lookup and are batched per lookup response.
+ * <p>
+ * To keep the binary search cheap, the first 8 bytes of each partition start key are also
+ * kept in a {@code long[]}. Comparing those as unsigned longs gives the same order as
+ * {@link Bytes#memcmp} on zero-padded keys, so the full keys are only compared on ties, which
+ * never happens with the 2-byte keys of hash partitioned tables.
+ */
+@InterfaceAudience.Private
+final class TableLocationsCache {
+
+  private static final class Snapshot {
+    final long[] prefixes;
+    final byte[][] startKeys;
+    final AsyncYBClient.RemoteTablet[] tablets;
+
+    Snapshot(long[] prefixes, byte[][] startKeys, AsyncYBClient.RemoteTablet[] tablets) {
+      this.prefixes = prefixes;
+      this.startKeys = startKeys;
+      this.tablets = tablets;
+    }
+  }
+
+  private static final Snapshot EMPTY =
+      new Snapshot(new long[0], new byte[0][], new AsyncYBClient.RemoteTablet[0]);
+
+  private volatile Snapshot snapshot = EMPTY;
+
+  /**
+   * Returns the tablet whose partition starts at or right before the given key, it is up to the
+   * caller to check that the key falls before the end of that partition.
+   * @param partitionKey the key to look up, null is the same as the empty key
+   * @return the tablet or null if there's none
+   */
+  AsyncYBClient.RemoteTablet floor(byte[] partitionKey) {
+    final Snapshot s = snapshot;
+    final byte[] key = partitionKey == null ? AsyncYBClient.EMPTY_ARRAY : partitionKey;
+    final int index = floorIndex(s, prefixOf(key), key);
+    return index < 0 ? null : s.tablets[index];
+  }
+
+  /**
+   * Returns the tablet with the smallest partition start key, or null if there's none.
+   */
+  AsyncYBClient.RemoteTablet first() {
+    final Snapshot s = snapshot;
+    return s.tablets.length == 0 ? null : s.tablets[0];
+  }
+
+  int size() {
+    return snapshot.tablets.length;
+  }
+
+  /**
+   * Adds tablets to the cache, replacing those that start at the same partition key.
+   * @param added the tablets to add
+   */
+  synchronized void putAll(Collection<AsyncYBClient.RemoteTablet> added) {
+    if (added.isEmpty()) {
+      return;
+    }
+    final Snapshot s = snapshot;
+    int size = s.tablets.length;
+    long[] prefixes = Arrays.copyOf(s.prefixes, size + added.size());
+    byte[][] startKeys = Arrays.copyOf(s.startKeys, size + added.size());
+    AsyncYBClient.RemoteTablet[] tablets = Arrays.copyOf(s.tablets, size + added.size());
+    for (AsyncYBClient.RemoteTablet tablet : added) {
+      byte[] key = tablet.getPartition().getPartitionKeyStart();
+      long prefix = prefixOf(key);
+      int index = floorIndex(prefixes, startKeys, size, prefix, key);
+      if (index >= 0 && compare(prefixes[index], startKeys[index], prefix, key) == 0) {
+        tablets[index] = tablet;
+        continue;
+      }
+      // Shift everything after the floor one slot to the right.
+      int insertAt = index + 1;
+      System.arraycopy(prefixes, insertAt, prefixes, insertAt + 1, size - insertAt);
+      System.arraycopy(startKeys, insertAt, startKeys, insertAt + 1, size - insertAt);
+      System.arraycopy(tablets, insertAt, tablets, insertAt + 1, size - insertAt);
+      prefixes[insertAt] = prefix;
+      startKeys[insertAt] = key;
+      tablets[insertAt] = tablet;
+      size++;
+    }
+    snapshot = new Snapshot(Arrays.copyOf(prefixes, size), Arrays.copyOf(startKeys, size),
+                            Arrays.copyOf(tablets, size));
+  }
+
+  private static int floorIndex(Snapshot s, long prefix, byte[] key) {
+    return floorIndex(s.prefixes, s.startKeys, s.tablets.length, prefix, key);
+  }
+
+  /**
+   * Binary search for the last position in [0, size) whose key is smaller or equal to the given
+   * one, or -1 if all of them are bigger.
+   */
+  private static int floorIndex(long[] prefixes, byte[][] startKeys, int size,
+                                long prefix, byte[] key) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = compare(prefixes[mid], startKeys[mid], prefix, key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return high;
+  }
+
+  private static int compare(long prefixA, byte[] keyA, long prefixB, byte[] keyB) {
+    final int cmp = Long.compareUnsigned(prefixA, prefixB);
+    return cmp != 0 ? cmp : Bytes.memcmp(keyA, keyB);
+  }
+
+  /**
+   * Packs the first 8 bytes of the key, big endian and zero-padded, in a long.
+   */
+  static long prefixOf(byte[] key) {
+    long prefix = 0;
+    for (int i = 0; i < Long.BYTES; i++) {
+      prefix <<= 8;
+      if (i < key.length) {
+        prefix |= key[i] & 0xFF;
+      }
+    }
+    return prefix;
+  }
+}
@@ -43,8 +43,15 @@ package org.yb.client;
 
 import com.stumbleupon.async.Deferred;
 
-import org.jboss.netty.channel.ConnectTimeoutException;
-import org.jboss.netty.handler.timeout.ReadTimeoutException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.yb.Common;
 import org.yb.WireProtocol;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.master.Master;
@@ -52,18 +59,6 @@ import org.yb.rpc.RpcHeader;
 import org.yb.tserver.Tserver;
 import org.yb.util.Pair;
 
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelEvent;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelFutureListener;
-import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.channel.ChannelStateEvent;
-import org.jboss.netty.channel.Channels;
-import org.jboss.netty.channel.ExceptionEvent;
-import org.jboss.netty.handler.codec.replay.ReplayingDecoder;
-import org.jboss.netty.handler.codec.replay.VoidEnum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,6 +67,7 @@ import javax.security.sasl.SaslException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -96,7 +92,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * channel isn't connected.
  */
 @InterfaceAudience.Private
-public class TabletClient extends ReplayingDecoder<VoidEnum> {
+public class TabletClient extends ByteToMessageDecoder {
 
   public static final Logger LOG = LoggerFactory.getLogger(TabletClient.class);
 
@@ -148,27 +144,104 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
 
   private final long socketReadTimeoutMs;
 
+  /**
+   * Placement of the server, as last reported by the master. This is {@code null} for masters
+   * and for servers we only know by address.
+   */
+  private volatile Common.CloudInfoPB cloudInfo;
+
+  /**
+   * Coalesces the writes of this connection, {@code null} unless write batching is enabled.
+   */
+  private final RpcWriteBatcher writeBatcher;
+
+  /**
+   * Tracks how busy the server is, {@code null} unless circuit breakers are enabled.
+   */
+  private final CircuitBreaker circuitBreaker;
+
+  /**
+   * Where RPC events go, {@code null} unless the client has a metrics sink.
+   */
+  private final RpcMetricsSink metricsSink;
+
+  /**
+   * The primary connection to the server, the one the rest of the client knows about. It's
+   * {@code this} unless this is one of the extra connections of a {@link ConnectionPool}.
+   */
+  private final TabletClient server;
+
+  /**
+   * The other connections to the server, {@code null} unless the client opens more than one
+   * connection per server. Only set on primary connections.
+   */
+  private volatile ConnectionPool pool;
+
   public TabletClient(AsyncYBClient client, String uuid) {
+    this(client, uuid, null);
+  }
+
+  /**
+   * Creates an extra connection to the server of a primary connection. It shares the server's
+   * circuit breaker, and reports errors as coming from the primary connection.
+   * @param client the client this connection belongs to
+   * @param server the primary connection to the server
+   */
+  TabletClient(AsyncYBClient client, TabletClient server) {
+    this(client, server.uuid, server);
+  }
+
+  private TabletClient(AsyncYBClient client, String uuid, TabletClient server) {
     this.ybClient = client;
     this.uuid = uuid;
+    this.server = server == null ? this : server;
     this.socketReadTimeoutMs = client.getDefaultSocketReadTimeoutMs();
+    this.writeBatcher = client.getRpcWriteBatchMaxBytes() > 0 ?
+        new RpcWriteBatcher(client, client.getRpcWriteBatchMaxBytes(),
+                            client.getRpcWriteBatchMaxDelayMs()) :
+        null;
+    this.circuitBreaker = server == null ? client.newCircuitBreaker(uuid) : server.circuitBreaker;
+    this.metricsSink = client.getMetricsSink();
   }
 
+  void setConnectionPool(ConnectionPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Sends an RPC to the server, on the least busy connection if there are several.
+   * @param rpc the RPC to send
+   */
   <R> void sendRpc(YRpc<R> rpc) {
+    final ConnectionPool pool = this.pool;
+    if (pool == null) {
+      sendRpcOnConnection(rpc);
+    } else {
+      pool.select(this).sendRpcOnConnection(rpc);
+    }
+  }
+
+  private <R> void sendRpcOnConnection(YRpc<R> rpc) {
     if (!rpc.deadlineTracker.hasDeadline()) {
       LOG.warn(getPeerUuidLoggingString() + " sending an rpc without a timeout " + rpc);
     }
     if (chan != null) {
-      final ChannelBuffer serialized = encode(rpc);
+      final ByteBuf serialized = encode(rpc);
       if (serialized == null) {  // Error during encoding.
         return;  // Stop here.  RPC has been failed already.
       }
 
       final Channel chan = this.chan;  // Volatile read.
       if (chan != null) {  // Double check if we disconnected during encode().
-        Channels.write(chan, serialized);
+        if (writeBatcher != null) {
+          writeBatcher.write(chan, serialized);
+        } else {
+          // Write failures go to exceptionCaught(), like read failures.
+          chan.writeAndFlush(serialized, chan.voidPromise());
+        }
         return;
       }
+      serialized.release();  // It will be encoded again, with a new RPC ID.
     }
     boolean tryagain = false;
     boolean copyOfDead;
@@ -193,14 +266,14 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       // a second time,  we will either succeed to send the RPC if we're still
       // connected, or fail through to the code below if we got disconnected
       // in the mean time.
-      sendRpc(rpc);
+      sendRpcOnConnection(rpc);
       return;
     }
   }
 
-  private <R> ChannelBuffer encode(final YRpc<R> rpc) {
+  private <R> ByteBuf encode(final YRpc<R> rpc) {
     final int rpcid = this.rpcid.incrementAndGet();
-    ChannelBuffer payload;
+    ByteBuf payload;
     final String service = rpc.serviceName();
     final String method = rpc.method();
     try {
@@ -241,6 +314,10 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       // Make it fail. This isn't an expected failure mode.
       oldrpc.errback(new NonRecoverableException(wtf));
     }
+    if (metricsSink != null) {
+      rpc.sendNanos = System.nanoTime();
+      metricsSink.rpcSent(service, method, uuid);
+    }
 
     if (LOG.isDebugEnabled()) {
       LOG.debug(getPeerUuidLoggingString() + chan + " Sending RPC #" + rpcid
@@ -255,6 +332,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     for (Iterator<YRpc<?>> ite = rpcs_inflight.values().iterator(); ite
         .hasNext();) {
       YRpc<?> rpc = ite.next();
+      rpcAborted(rpc);
       rpc.errback(new ConnectionResetException(null));
       ite.remove();
     }
@@ -273,15 +351,9 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     if (chancopy == null) {
       return Deferred.fromResult(null);
     }
-    if (chancopy.isConnected()) {
-      Channels.disconnect(chancopy);   // ... this is going to set it to null.
-      // At this point, all in-flight RPCs are going to be failed.
-    }
-    if (chancopy.isBound()) {
-      Channels.unbind(chancopy);
-    }
-    // It's OK to call close() on a Channel if it's already closed.
-    final ChannelFuture future = Channels.close(chancopy);
+    // It's OK to call close() on a Channel if it's already closed. Closing it is going to set
+    // chan to null and fail all the in-flight RPCs.
+    final ChannelFuture future = chancopy.close();
     // Now wrap the ChannelFuture in a Deferred.
     final Deferred<Void> d = new Deferred<Void>();
     // Opportunistically check if it's already completed successfully.
@@ -296,7 +368,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
             d.callback(null);
             return;
           }
-          final Throwable t = future.getCause();
+          final Throwable t = future.cause();
           if (t instanceof Exception) {
             d.callback(t);
           } else {
@@ -312,27 +384,44 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   }
 
   /**
+   * Cuts the next response out of what we read so far, once we have all of it.
+   * <p>
+   * Each response is prefixed with its length, which doesn't count the prefix itself. Until the
+   * whole response is there we return without reading anything and wait to be called again with
+   * more bytes, so a response is only ever decoded once.
+   */
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) {
+    if (buf.readableBytes() < 4) {
+      return;
+    }
+    final int length = buf.getInt(buf.readerIndex());
+    YRpc.checkArrayLength(buf, length);
+    if (buf.readableBytes() < length + 4) {
+      return;
+    }
+    decodeFrame(buf.readSlice(length + 4));
+  }
+
+  /**
+   * Decodes one complete response and triggers the {@link Deferred} of its RPC.
+   * <p>
    * The reason we are suppressing the unchecked conversions is because the YRpc is coming
    * from a collection that has RPCs with different generics, and there's no way to get "decoded"
    * casted correctly. The best we can do is to rely on the RPC to decode correctly,
    * and to not pass an Exception in the callback.
+   * @param buf the response, including its length prefix, which is released once this returns
    */
-  @Override
   @SuppressWarnings("unchecked")
-  protected Object decode(ChannelHandlerContext ctx, Channel chan, ChannelBuffer buf,
-                              VoidEnum voidEnum) {
+  private void decodeFrame(final ByteBuf buf) {
     final long start = System.nanoTime();
     final int rdx = buf.readerIndex();
     LOG.debug("------------------>> ENTERING DECODE >>------------------");
 
-    if (buf == null) {
-      return null;
-    }
-
     CallResponse response = new CallResponse(buf);
     if (response.isEmpty()) {
       // Skip empty messages which we are using as heartbeats.
-      return null;
+      return;
     }
 
     RpcHeader.ResponseHeader header = response.getHeader();
@@ -353,12 +442,11 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
           + buf + '=' + Bytes.pretty(buf);
       LOG.error(msg);
       // The problem here is that we don't know which Deferred corresponds to
-      // this RPC, since we don't have a valid ID.  So we're hopeless, we'll
-      // never be able to recover because responses are not framed, we don't
-      // know where the next response will start...  We have to give up here
-      // and throw this outside of our Netty handler, so Netty will call our
-      // exception handler where we'll close this channel, which will cause
-      // all RPCs in flight to be failed.
+      // this RPC, since we don't have a valid ID.  So we can't trust anything
+      // else this server sends us...  We have to give up here and throw this
+      // outside of our Netty handler, so Netty will call our exception handler
+      // where we'll close this channel, which will cause all RPCs in flight to
+      // be failed.
       throw new NonRecoverableException(msg);
     }
 
@@ -389,7 +477,6 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     if (LOG.isDebugEnabled()) {
       LOG.debug(getPeerUuidLoggingString() + "rpcid=" + rpcid
           + ", response size=" + (buf.readerIndex() - rdx) + " bytes"
-          + ", " + actualReadableBytes() + " readable bytes left"
           + ", rpc=" + rpc);
     }
 
@@ -401,10 +488,28 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       }
     }
 
+    if (metricsSink != null) {
+      metricsSink.rpcCompleted(rpc.serviceName(), rpc.method(), uuid, start - rpc.sendNanos);
+      if (retryableHeaderException != null) {
+        metricsSink.serverTooBusy(uuid);
+      } else if (decoded != null && isTimedOut(decoded.getSecond())) {
+        metricsSink.rpcTimedOut(uuid);
+      }
+    }
+    if (circuitBreaker != null) {
+      if (retryableHeaderException != null) {
+        circuitBreaker.recordBusy();
+      } else if (decoded != null && isTimedOut(decoded.getSecond())) {
+        circuitBreaker.recordTimeout();
+      } else {
+        circuitBreaker.recordSuccess();
+      }
+    }
+
     // This check is specifically for the ERROR_SERVER_TOO_BUSY case above.
     if (retryableHeaderException != null) {
-      ybClient.handleRetryableError(rpc, retryableHeaderException, this);
-      return null;
+      ybClient.handleRetryableError(rpc, retryableHeaderException, server);
+      return;
     }
 
     // We can get this Message from within the RPC's expected type,
@@ -416,7 +521,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
         exception = dispatchTSErrorOrReturnException(rpc, error);
         if (exception == null) {
           // It was taken care of.
-          return null;
+          return;
         } else {
           // We're going to errback.
           decoded = null;
@@ -427,7 +532,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
         exception = dispatchMasterErrorOrReturnException(rpc, error);
         if (exception == null) {
           // Exception was taken care of.
-          return null;
+          return;
         } else {
           decoded = null;
         }
@@ -449,7 +554,17 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
       LOG.debug("------------------<< LEAVING  DECODE <<------------------"
           + " time elapsed: " + ((System.nanoTime() - start) / 1000) + "us");
     }
-    return null;  // Stop processing here.  The Deferred does everything else.
+    // Stop processing here.  The Deferred does everything else.
+  }
+
+  /**
+   * Checks whether the server answered that it ran out of time serving an RPC.
+   * @param error the error the server sent, or null
+   */
+  private static boolean isTimedOut(Object error) {
+    return error instanceof Tserver.TabletServerErrorPB &&
+        ((Tserver.TabletServerErrorPB) error).getStatus().getCode() ==
+            WireProtocol.AppStatusPB.ErrorCode.TIMED_OUT;
   }
 
   /**
@@ -464,7 +579,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     WireProtocol.AppStatusPB.ErrorCode code = error.getStatus().getCode();
     TabletServerErrorException ex = new TabletServerErrorException(uuid, error);
     if (error.getCode() == Tserver.TabletServerErrorPB.Code.TABLET_NOT_FOUND) {
-      ybClient.handleTabletNotFound(rpc, ex, this);
+      ybClient.handleTabletNotFound(rpc, ex, server);
       // we're not calling rpc.callback() so we rely on the client to retry that RPC
     } else if (code == WireProtocol.AppStatusPB.ErrorCode.SERVICE_UNAVAILABLE ||
                code == WireProtocol.AppStatusPB.ErrorCode.LEADER_NOT_READY_TO_SERVE ||
@@ -474,7 +589,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
                  Tserver.TabletServerErrorPB.Code.LEADER_NOT_READY_TO_STEP_DOWN ||
                error.getCode() ==
                  Tserver.TabletServerErrorPB.Code.LEADER_NOT_READY_TO_SERVE) {
-      ybClient.handleRetryableError(rpc, ex, this);
+      ybClient.handleRetryableError(rpc, ex, server);
       // The following error codes are an indication that the tablet isn't a leader, or, in case
       // of LEADER_HAS_NO_LEASE, might no longer be the leader due to failing to replicate a leader
       // lease, so we retry looking up the leader anyway.
@@ -482,7 +597,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
                code == WireProtocol.AppStatusPB.ErrorCode.ILLEGAL_STATE ||
                code == WireProtocol.AppStatusPB.ErrorCode.ABORTED ||
                error.getCode() == Tserver.TabletServerErrorPB.Code.NOT_THE_LEADER) {
-      ybClient.handleNotLeader(rpc, ex, this);
+      ybClient.handleNotLeader(rpc, ex, server);
     } else {
       return ex;
     }
@@ -501,15 +616,15 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     WireProtocol.AppStatusPB.ErrorCode code = error.getStatus().getCode();
     MasterErrorException ex = new MasterErrorException(uuid, error);
     if (error.getCode() == Master.MasterErrorPB.Code.NOT_THE_LEADER) {
-      ybClient.handleNotLeader(rpc, ex, this);
+      ybClient.handleNotLeader(rpc, ex, server);
     } else if (error.getCode() == Master.MasterErrorPB.Code.CATALOG_MANAGER_NOT_INITIALIZED ||
                error.getCode() == Master.MasterErrorPB.Code.CAN_RETRY_LOAD_BALANCE_CHECK) {
-      ybClient.handleRetryableError(rpc, ex, this);
+      ybClient.handleRetryableError(rpc, ex, server);
     } else if (code == WireProtocol.AppStatusPB.ErrorCode.SERVICE_UNAVAILABLE &&
         (!(rpc instanceof GetMasterRegistrationRequest))) {
       // TODO: This is a crutch until we either don't have to retry RPCs going to the
       // same server or use retry policies.
-      ybClient.handleRetryableError(rpc, ex, this);
+      ybClient.handleRetryableError(rpc, ex, server);
     } else {
       return ex;
     }
@@ -519,37 +634,33 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   /**
    * Decodes the response of an RPC and triggers its {@link Deferred}.
    * <p>
-   * This method is used by FrameDecoder when the channel gets
+   * This method is used by ByteToMessageDecoder when the channel gets
    * disconnected.  The buffer for that channel is passed to this method in
    * case there's anything left in it.
-   * @param ctx Unused.
-   * @param chan The channel on which the response came.
+   * @param ctx The context of this handler.
    * @param buf The buffer containing the raw RPC response.
-   * @return {@code null}, always.
+   * @param out Unused, responses aren't passed down the pipeline.
    */
   @Override
-  protected Object decodeLast(final ChannelHandlerContext ctx,
-                              final Channel chan,
-                              final ChannelBuffer buf,
-                              final VoidEnum unused) {
+  protected void decodeLast(final ChannelHandlerContext ctx,
+                            final ByteBuf buf,
+                            final List<Object> out) {
     // When we disconnect, decodeLast is called instead of decode.
     // We simply check whether there's any data left in the buffer, in which
     // case we attempt to process it.  But if there's no data left, then we
     // don't even bother calling decode() as it'll complain that the buffer
     // doesn't contain enough data, which unnecessarily pollutes the logs.
-    if (buf.readable()) {
+    if (buf.isReadable()) {
       try {
-        return decode(ctx, chan, buf, unused);
+        decode(ctx, buf, out);
       } finally {
-        if (buf.readable()) {
-          LOG.error(getPeerUuidLoggingString() + "After decoding the last message on " + chan
-              + ", there was still some undecoded bytes in the channel's"
+        if (buf.isReadable()) {
+          LOG.error(getPeerUuidLoggingString() + "After decoding the last message on "
+              + ctx.channel() + ", there was still some undecoded bytes in the channel's"
               + " buffer (which are going to be lost): "
               + buf + '=' + Bytes.pretty(buf));
         }
       }
-    } else {
-      return null;
     }
   }
 
@@ -576,55 +687,41 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
   }
 
   /**
-   * Ensures that at least a {@code nbytes} are readable from the given buffer.
-   * If there aren't enough bytes in the buffer this will raise an exception
-   * and cause the {@link ReplayingDecoder} to undo whatever we did thus far
-   * so we can wait until we read more from the socket.
-   * @param buf Buffer to check.
-   * @param nbytes Number of bytes desired.
+   * @return whether the connection to the server is established
    */
-  static void ensureReadable(final ChannelBuffer buf, final int nbytes) {
-    buf.markReaderIndex();
-    buf.skipBytes(nbytes); // can puke with Throwable
-    buf.resetReaderIndex();
+  boolean isConnected() {
+    return chan != null;
   }
 
   @Override
-  public void channelConnected(final ChannelHandlerContext ctx,
-                               final ChannelStateEvent e) {
-    final Channel chan = e.getChannel();
-    ChannelBuffer header = connectionHeaderPreamble();
-    header.writerIndex(RPC_HEADER.length);
-    Channels.write(chan, header);
+  public void channelActive(final ChannelHandlerContext ctx) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(getPeerUuidLoggingString() + "Connected " + ctx.channel());
+    }
+    final Channel chan = ctx.channel();
+    chan.writeAndFlush(connectionHeaderPreamble(), chan.voidPromise());
     becomeReady(chan);
+    ctx.fireChannelActive();
   }
 
   @Override
-  public void handleUpstream(final ChannelHandlerContext ctx,
-                             final ChannelEvent e) throws Exception {
+  public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
     if (LOG.isDebugEnabled()) {
-      LOG.debug(getPeerUuidLoggingString() + e.toString());
+      LOG.debug(getPeerUuidLoggingString() + "Disconnected " + ctx.channel());
     }
-    super.handleUpstream(ctx, e);
-  }
-
-  @Override
-  public void channelDisconnected(final ChannelHandlerContext ctx,
-                                  final ChannelStateEvent e) throws Exception {
     chan = null;
-    super.channelDisconnected(ctx, e);  // Let the ReplayingDecoder cleanup.
-    cleanup(e.getChannel());
+    super.channelInactive(ctx);  // Let the ByteToMessageDecoder cleanup.
+    cleanup(ctx.channel());
   }
 
-  @Override
-  public void channelClosed(final ChannelHandlerContext ctx,
-                            final ChannelStateEvent e) {
-    chan = null;
-    // No need to call super.channelClosed() because we already called
-    // super.channelDisconnected().  If we get here without getting a
-    // DISCONNECTED event, then we were never connected in the first place so
-    // the ReplayingDecoder has nothing to cleanup.
-    cleanup(e.getChannel());
+  /**
+   * Called once the channel is closed, including when it never got connected, in which case
+   * {@link #channelInactive} isn't called.
+   * @param chan the closed channel
+   */
+  void channelClosed(final Channel chan) {
+    this.chan = null;
+    cleanup(chan);
   }
 
   /**
@@ -639,6 +736,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     for (Iterator<YRpc<?>> ite = rpcs_inflight.values().iterator(); ite
         .hasNext();) {
       YRpc<?> rpc = ite.next();
+      rpcAborted(rpc);
       failOrRetryRpc(rpc, exception);
       ite.remove();
     }
@@ -654,6 +752,12 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     }
   }
 
+  private void rpcAborted(YRpc<?> rpc) {
+    if (metricsSink != null) {
+      metricsSink.rpcAborted(rpc.serviceName(), rpc.method(), uuid);
+    }
+  }
+
   /**
    * Retry all the given RPCs.
    * @param rpcs a possibly empty but non-{@code null} collection of RPCs to retry or fail
@@ -676,6 +780,9 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     AsyncYBClient.RemoteTablet tablet = rpc.getTablet();
     if (tablet == null) {  // Can't retry, dunno where this RPC should go.
       rpc.errback(exception);
+    } else if (server != this) {
+      // The other connections to the server may be fine, this one will be reopened.
+      ybClient.handleRetryableError(rpc, exception, server);
     } else {
       ybClient.handleTabletNotFound(rpc, exception, this);
     }
@@ -684,32 +791,37 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
 
   @Override
   public void exceptionCaught(final ChannelHandlerContext ctx,
-                              final ExceptionEvent event) {
-    final Throwable e = event.getCause();
-    final Channel c = event.getChannel();
+                              final Throwable e) {
+    final Channel c = ctx.channel();
 
     if (e instanceof RejectedExecutionException) {
       LOG.warn(getPeerUuidLoggingString() + "RPC rejected by the executor," +
                " ignore this if we're shutting down", e);
     } else if (e instanceof ReadTimeoutException) {
       LOG.debug(getPeerUuidLoggingString() + "Encountered a read timeout");
+      if (circuitBreaker != null) {
+        circuitBreaker.recordTimeout();
+      }
+      if (metricsSink != null) {
+        metricsSink.rpcTimedOut(uuid);
+      }
       // Doing the cleanup here since we want to invalidate all the RPCs right _now_, and not let
-      // the ReplayingDecoder continue decoding through Channels.close() below.
+      // the ByteToMessageDecoder continue decoding through close() below.
       cleanup(c);
     } else {
       LOG.debug(getPeerUuidLoggingString() + "Unexpected exception " + e.getMessage() +
                 " from downstream on " + c, e);
     }
     if (c.isOpen()) {
-      Channels.close(c);  // Will trigger channelClosed(), which will cleanup()
+      c.close();          // Will trigger channelInactive(), which will cleanup()
     } else {              // else: presumably a connection timeout.
       cleanup(c);         // => need to cleanup() from here directly.
     }
   }
 
 
-  private ChannelBuffer connectionHeaderPreamble() {
-    return ChannelBuffers.wrappedBuffer(RPC_HEADER);
+  private ByteBuf connectionHeaderPreamble() {
+    return Unpooled.wrappedBuffer(RPC_HEADER);
   }
 
   public void becomeReady(Channel chan) {
@@ -719,7 +831,7 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
 
   /**
    * Sends the queued RPCs to the server, once we're connected to it.
-   * This gets called after {@link #channelConnected}, once we were able to
+   * This gets called after {@link #channelActive}, once we were able to
    * handshake with the server
    */
   private void sendQueuedRpcs() {
@@ -731,7 +843,11 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     if (rpcs != null) {
       for (final YRpc<?> rpc : rpcs) {
         LOG.debug(getPeerUuidLoggingString() + "Executing RPC queued: " + rpc);
-        sendRpc(rpc);
+        sendRpcOnConnection(rpc);
+      }
+      if (writeBatcher != null) {
+        // Don't make the RPCs that waited for the connection wait any longer.
+        writeBatcher.flush();
       }
     }
   }
@@ -740,14 +856,67 @@ public class TabletClient extends ReplayingDecoder<VoidEnum> {
     return "[Peer " + uuid + "] ";
   }
 
+  /**
+   * Returns the circuit breaker of this server, which exposes how busy it's been.
+   * @return the breaker, or {@code null} if circuit breakers aren't enabled
+   */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Returns the write coalescing statistics of this connection.
+   * @return the batcher, or {@code null} if write batching isn't enabled
+   */
+  public RpcWriteBatcher getWriteBatcher() {
+    return writeBatcher;
+  }
+
   /**
    * Returns this tablet server's uuid.
    * @return a string that contains this tablet server's uuid
    */
-  String getUuid() {
+  public String getUuid() {
     return uuid;
   }
 
+  /**
+   * Returns the placement of this tablet server.
+   * @return the cloud, region and zone of the server, or {@code null} if it isn't known
+   */
+  public Common.CloudInfoPB getCloudInfo() {
+    return cloudInfo;
+  }
+
+  void setCloudInfo(Common.CloudInfoPB cloudInfo) {
+    this.cloudInfo = cloudInfo;
+  }
+
+  /**
+   * Returns the number of RPCs sent on this connection that are still awaiting a response.
+   * @return the number of in-flight RPCs
+   */
+  public int getNumInflightRpcs() {
+    return rpcs_inflight.size();
+  }
+
+  /**
+   * Returns the number of RPCs sent to this tablet server that are still awaiting a response,
+   * over all the connections to it.
+   * @return the number of in-flight RPCs
+   */
+  public int getNumServerInflightRpcs() {
+    final ConnectionPool pool = this.pool;
+    return pool == null ? rpcs_inflight.size() : pool.getNumInflightRpcs();
+  }
+
+  /**
+   * @return whether this is the connection the rest of the client knows the server by
+   */
+  boolean isPrimary() {
+    return server == this;
+  }
+
   public String toString() {
     final StringBuilder buf = new StringBuilder(13 + 10 + 6 + 64 + 7 + 32 + 16 + 1 + 17 + 2 + 1);
     buf.append("TabletClient@")           // =13
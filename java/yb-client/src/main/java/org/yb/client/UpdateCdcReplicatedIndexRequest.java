@@ -0,0 +1,62 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import io.netty.buffer.ByteBuf;
+import org.yb.util.Pair;
+import org.yb.cdc.CdcService.UpdateCdcReplicatedIndexRequestPB;
+import org.yb.cdc.CdcService.UpdateCdcReplicatedIndexResponsePB;
+
+public class UpdateCdcReplicatedIndexRequest extends YRpc<UpdateCdcReplicatedIndexResponse> {
+  private final String tabletId;
+  private final long replicatedIndex;
+
+  public UpdateCdcReplicatedIndexRequest(YBTable table, String tabletId, long replicatedIndex) {
+    super(table);
+    this.tabletId = tabletId;
+    this.replicatedIndex = replicatedIndex;
+  }
+
+  @Override
+  ByteBuf serialize(Message header) {
+    assert header.isInitialized();
+    final UpdateCdcReplicatedIndexRequestPB.Builder builder =
+        UpdateCdcReplicatedIndexRequestPB.newBuilder();
+    builder.setTabletId(ByteString.copyFromUtf8(this.tabletId));
+    builder.setReplicatedIndex(this.replicatedIndex);
+    return toByteBuf(header, builder.build());
+  }
+
+  @Override
+  String serviceName() { return CDC_SERVICE_NAME; }
+
+  @Override
+  String method() {
+    return "UpdateCdcReplicatedIndex";
+  }
+
+  @Override
+  Pair<UpdateCdcReplicatedIndexResponse, Object> deserialize(
+          CallResponse callResponse, String uuid) throws Exception {
+    final UpdateCdcReplicatedIndexResponsePB.Builder respBuilder =
+        UpdateCdcReplicatedIndexResponsePB.newBuilder();
+    readProtobuf(callResponse.getPBMessage(), respBuilder);
+    UpdateCdcReplicatedIndexResponse response = new UpdateCdcReplicatedIndexResponse(
+            deadlineTracker.getElapsedMillis(), uuid, respBuilder.build());
+    return new Pair<UpdateCdcReplicatedIndexResponse, Object>(
+            response, respBuilder.hasError() ? respBuilder.getError() : null);
+  }
+}
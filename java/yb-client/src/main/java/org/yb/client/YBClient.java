@@ -280,6 +280,16 @@ public class YBClient implements AutoCloseable {
     return d.join(getDefaultAdminOperationTimeoutMs());
   }
 
+  /**
+   * Loads the locations of all the tablets of a table in the client's tablet cache.
+   * @param table the table to load the tablet locations of
+   * @return the locations of all the tablets of the table
+   */
+  public List<LocatedTablet> prefetchTableLocations(YBTable table) throws Exception {
+    Deferred<List<LocatedTablet>> d = asyncClient.prefetchTableLocations(table);
+    return d.join(getDefaultAdminOperationTimeoutMs());
+  }
+
   /**
    * Get the list of all the masters.
    * @return a list of masters
@@ -1387,11 +1397,92 @@ public class YBClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Sets the policy that picks which replica serves RPCs that can be served by a follower.
+     * Optional.
+     * If not provided, such RPCs go to the tablet leader like all the other ones.
+     * @param policy the policy, see {@link ReplicaSelectionPolicies} for the built-in ones
+     * @return this builder
+     */
+    public YBClientBuilder replicaSelectionPolicy(ReplicaSelectionPolicy policy) {
+      clientBuilder.replicaSelectionPolicy(policy);
+      return this;
+    }
+
+    /**
+     * Enables coalescing the RPCs sent on each connection into fewer, bigger writes.
+     * Optional.
+     * If not provided, every RPC is written to the socket on its own. When enabled, a connection
+     * queues RPCs until {@code maxBatchBytes} are waiting or the first of them waited for
+     * {@code maxDelayMs}, which trades a bit of latency for fewer syscalls under load. The
+     * delay can't be shorter than the tick of the client's timer, 20ms.
+     * @param maxBatchBytes the number of queued bytes that triggers a write, must be positive
+     * @param maxDelayMs the longest time an RPC may be queued, must be positive
+     * @return this builder
+     */
+    public YBClientBuilder rpcWriteBatching(int maxBatchBytes, long maxDelayMs) {
+      clientBuilder.rpcWriteBatching(maxBatchBytes, maxDelayMs);
+      return this;
+    }
+
+    /**
+     * Sets how long RPCs wait before being retried.
+     * Optional.
+     * If not provided, retries wait between 100ms and 10s. Each wait is picked at random between
+     * {@code baseMs} and three times the previous wait, up to {@code maxMs}.
+     * @param baseMs the shortest wait, must be positive
+     * @param maxMs the longest wait, must be at least {@code baseMs}
+     * @return this builder
+     */
+    public YBClientBuilder retryBackoff(long baseMs, long maxMs) {
+      clientBuilder.retryBackoff(baseMs, maxMs);
+      return this;
+    }
+
+    /**
+     * Enables a circuit breaker per server, which stops sending RPCs to a server that keeps
+     * answering that it's too busy or not answering in time.
+     * Optional.
+     * See {@link AsyncYBClient.AsyncYBClientBuilder#circuitBreaker(double, int, long)}.
+     * @param failureRatio the ratio of failures that opens the breaker, between 0 and 1
+     * @param windowSize the number of RPCs the ratio is computed over, must be positive
+     * @param openMs how long the breaker first stays open, must be positive
+     * @return this builder
+     */
+    public YBClientBuilder circuitBreaker(double failureRatio, int windowSize, long openMs) {
+      clientBuilder.circuitBreaker(failureRatio, windowSize, openMs);
+      return this;
+    }
+
+    /**
+     * Sets where the client reports the events its RPCs go through.
+     * Optional.
+     * See {@link AsyncYBClient.AsyncYBClientBuilder#metricsSink(RpcMetricsSink)}.
+     * @param sink the sink, called from the client's IO threads
+     * @return this builder
+     */
+    public YBClientBuilder metricsSink(RpcMetricsSink sink) {
+      clientBuilder.metricsSink(sink);
+      return this;
+    }
+
+    /**
+     * Sets how many connections the client opens to each server.
+     * Optional.
+     * See {@link AsyncYBClient.AsyncYBClientBuilder#connectionsPerServer(int)}.
+     * @param connections the number of connections per server, must be positive
+     * @return this builder
+     */
+    public YBClientBuilder connectionsPerServer(int connections) {
+      clientBuilder.connectionsPerServer(connections);
+      return this;
+    }
+
     /**
      * Set the executors which will be used for the embedded Netty boss and workers.
      * Optional.
-     * If not provided, uses a simple cached threadpool. If either argument is null,
-     * then such a thread pool will be used in place of that argument.
+     * If not provided, the workers use their own daemon threads. Netty doesn't use boss
+     * threads for clients anymore, so {@code bossExecutor} is ignored.
      * Note: executor's max thread number must be greater or equal to corresponding
      * worker count, or netty cannot start enough threads, and client will get stuck.
      * If not sure, please just use CachedThreadPool.
@@ -1404,8 +1495,10 @@ public class YBClient implements AutoCloseable {
     /**
      * Set the maximum number of boss threads.
      * Optional.
-     * If not provided, 1 is used.
+     * Ignored, Netty doesn't use boss threads for clients anymore.
+     * @deprecated there are no boss threads anymore
      */
+    @Deprecated
     public YBClientBuilder bossCount(int bossCount) {
       clientBuilder.bossCount(bossCount);
       return this;
@@ -1421,6 +1514,28 @@ public class YBClient implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Set whether to use the native epoll transport instead of NIO.
+     * Optional.
+     * If not provided, epoll is used when it's available, which is only on Linux.
+     */
+    public YBClientBuilder nativeTransport(boolean enabled) {
+      clientBuilder.nativeTransport(enabled);
+      return this;
+    }
+
+    /**
+     * Sets the threads the client runs on, to share them with other clients.
+     * Optional.
+     * See {@link AsyncYBClient.AsyncYBClientBuilder#clientResources(ClientResources)}.
+     * @param resources the resources, which must not have been released already
+     * @return this builder
+     */
+    public YBClientBuilder clientResources(ClientResources resources) {
+      clientBuilder.clientResources(resources);
+      return this;
+    }
+
     /**
      * Creates a new client that connects to the masters.
      * Doesn't block and won't throw an exception if the masters don't exist.
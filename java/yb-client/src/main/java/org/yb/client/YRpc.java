@@ -40,15 +40,16 @@
 //
 package org.yb.client;
 
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.stumbleupon.async.Deferred;
 import org.yb.annotations.InterfaceAudience;
 import org.yb.util.Pair;
-import org.yb.util.Slice;
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
 
 import java.io.IOException;
 
@@ -115,11 +116,22 @@ public abstract class YRpc<R> {
   // Maximum number of attempts to try the RPC. Default 100 times.
   byte maxAttempts = 100;
 
+  // When this RPC was last sent, only set when the client has a metrics sink.
+  long sendNanos;
+
+  // How long we waited before the last retry, 0 if we didn't retry yet. The next wait is derived
+  // from it, see AsyncYBClient.getSleepTimeForRpc().
+  long lastBackoffMs;
+
   // Whether or not retries for this RPC should always go to the same server. This is required in
   // some cases where we do not want the RPC retries to hit a different server serving the same
   // tablet.
   private volatile boolean retrySameServer;
 
+  // Whether or not this RPC can be served by any replica of its tablet. When set, the client's
+  // ReplicaSelectionPolicy decides where it goes, otherwise it always goes to the leader.
+  private boolean followerReadsAllowed;
+
   YRpc(YBTable table) {
     this.table = table;
     this.deadlineTracker = new DeadlineTracker();
@@ -131,8 +143,9 @@ public abstract class YRpc<R> {
    *
    * Notice that this method is package-private, so only classes within this
    * package can use this as a base class.
+   * @return a buffer the caller owns, that it must either write out or release
    */
-  abstract ChannelBuffer serialize(Message header);
+  abstract ByteBuf serialize(Message header);
 
   /**
    * Package private way of getting the name of the RPC service.
@@ -176,6 +189,7 @@ public abstract class YRpc<R> {
     }
     deferred = null;
     attempt = 0;
+    lastBackoffMs = 0;
     deadlineTracker.reset();
     d.callback(result);
   }
@@ -228,6 +242,20 @@ public abstract class YRpc<R> {
     this.retrySameServer = retrySameServer;
   }
 
+  public boolean isFollowerReadsAllowed() {
+    return followerReadsAllowed;
+  }
+
+  /**
+   * Lets the client's {@link ReplicaSelectionPolicy} send this RPC to any replica of its tablet,
+   * instead of the leader. Only set it on read-only RPCs that can live with a follower's possibly
+   * stale answer. RPCs to the master always go to the leader.
+   * @param followerReadsAllowed whether a follower may serve the RPC
+   */
+  public void setFollowerReadsAllowed(boolean followerReadsAllowed) {
+    this.followerReadsAllowed = followerReadsAllowed;
+  }
+
   void setTimeoutMillis(long timeout) {
     deadlineTracker.setDeadline(timeout);
   }
@@ -253,31 +281,59 @@ public abstract class YRpc<R> {
     return buf.toString();
   }
 
-  static void readProtobuf(final Slice slice,
+  /**
+   * Parses a protobuf straight out of a buffer, without copying it first.
+   * @param buf the serialized message, from its reader index to its writer index, which is
+   *            left untouched
+   * @param builder the builder to merge the message into
+   */
+  static void readProtobuf(final ByteBuf buf,
                            final Message.Builder builder) {
-    final int length = slice.length();
-    final byte[] payload = slice.getRawArray();
-    final int offset = slice.getRawOffset();
+    final int length = buf.readableBytes();
     try {
-      builder.mergeFrom(payload, offset, length);
+      final CodedInputStream in;
+      if (buf.hasArray()) {
+        in = CodedInputStream.newInstance(buf.array(), buf.arrayOffset() + buf.readerIndex(),
+                                          length);
+      } else {
+        // Direct buffers, or a frame that spans several reads from the socket. Stream it instead
+        // of flattening it into an array. Protobuf could read a direct nioBuffer() in place, but
+        // only with Unsafe accesses that crash JVMs newer than Java 8, and it's no faster, see
+        // CallResponseBenchmark.
+        in = CodedInputStream.newInstance(new ByteBufInputStream(buf.duplicate()));
+        in.setSizeLimit(Integer.MAX_VALUE);
+      }
+      builder.mergeFrom(in);
+      in.checkLastTagWas(0);
       if (!builder.isInitialized()) {
         throw new RuntimeException("Could not deserialize the response," +
                 " incompatible RPC? Error is: " + builder.getInitializationErrorString());
       }
     } catch (InvalidProtocolBufferException e) {
       final String msg = "Invalid RPC response: length=" + length
-              + ", payload=" + Bytes.pretty(payload);
+              + ", payload=" + Bytes.pretty(buf);
       throw new InvalidResponseException(msg, e);
+    } catch (IOException e) {
+      // Can't happen, ByteBufInputStream only throws when reading past the buffer, which
+      // is reported as an InvalidProtocolBufferException.
+      throw new InvalidResponseException("Could not read RPC response: length=" + length, e);
     }
   }
 
-  static ChannelBuffer toChannelBuffer(Message header, Message pb) {
+  /**
+   * Serializes a request into a pooled buffer, prefixed with its length.
+   * <p>
+   * The buffer is on the heap because the protobuf version we use can only encode into direct
+   * memory through {@code Unsafe}, which crashes on Java 9 and later unless java.nio is opened
+   * to it. The transport copies it to direct memory when writing it out, and releases it.
+   * @return a buffer the caller owns, that it must either write out or release
+   */
+  static ByteBuf toByteBuf(Message header, Message pb) {
     int totalSize = IPCUtil.getTotalSizeWhenWrittenDelimited(header, pb);
-    byte[] buf = new byte[totalSize+4];
-    ChannelBuffer chanBuf = ChannelBuffers.wrappedBuffer(buf);
-    chanBuf.clear();
-    chanBuf.writeInt(totalSize);
-    final CodedOutputStream out = CodedOutputStream.newInstance(buf, 4, totalSize);
+    ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(totalSize + 4);
+    buf.writeInt(totalSize);
+    final CodedOutputStream out =
+        CodedOutputStream.newInstance(buf.array(), buf.arrayOffset() + 4, totalSize);
     try {
       out.writeRawVarint32(header.getSerializedSize());
       header.writeTo(out);
@@ -286,10 +342,11 @@ public abstract class YRpc<R> {
       pb.writeTo(out);
       out.checkNoSpaceLeft();
     } catch (IOException e) {
+      buf.release();
       throw new NonRecoverableException("Cannot serialize the following message " + pb, e);
     }
-    chanBuf.writerIndex(buf.length);
-    return chanBuf;
+    buf.writerIndex(totalSize + 4);
+    return buf;
   }
 
   /**
@@ -311,7 +368,7 @@ public abstract class YRpc<R> {
    * @throws IllegalArgumentException if the length is negative or
    * suspiciously large.
    */
-  static void checkArrayLength(final ChannelBuffer buf, final long length) {
+  static void checkArrayLength(final ByteBuf buf, final long length) {
     // 2 checks in 1.  If any of the high bits are set, we know the value is
     // either too large, or is negative (if the most-significant bit is set).
     if ((length & MAX_BYTE_ARRAY_MASK) != 0) {
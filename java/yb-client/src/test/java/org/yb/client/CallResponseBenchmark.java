@@ -0,0 +1,153 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.CodedInputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.yb.master.Master;
+import org.yb.rpc.RpcHeader;
+
+/**
+ * Measures what decoding a GetTableLocations response costs, comparing how {@link CallResponse}
+ * parses frames in place with how responses used to be copied out of the replaying decoder's
+ * buffer into arrays before being parsed. Frames are either on the heap or in direct memory, like
+ * the ones the native transports read from sockets, where parsing the message through a
+ * {@link java.nio.ByteBuffer} view is measured as well. Protobuf 3.5.1 reads direct buffers in
+ * place with {@code sun.misc.Unsafe}, which crashes JVMs newer than Java 8, so on those {@link
+ * #main} only runs that benchmark with heap frames.
+ * <p>
+ * This isn't a unit test, run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.yb.client.CallResponseBenchmark
+ * </pre>
+ * The bytes allocated per response are reported as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallResponseBenchmark {
+
+  /** Number of tablets in the response, 1000 is the most the master returns at once. */
+  @Param({"10", "1000"})
+  int numTablets;
+
+  /** Number of reads the response arrived in. */
+  @Param({"1", "8"})
+  int numReads;
+
+  /** Whether the frame is on the heap or in direct memory. */
+  @Param({"heap", "direct"})
+  String memory;
+
+  private ByteBuf frame;
+  private boolean nioUnsafe;
+
+  @Setup
+  public void setUp() {
+    ByteBuf whole = TestCallResponse.newResponseFrame(1, numTablets);
+    if (memory.equals("direct")) {
+      ByteBuf direct = Unpooled.directBuffer(whole.readableBytes());
+      direct.writeBytes(whole);
+      whole.release();
+      whole = direct;
+    }
+    frame = numReads == 1 ? whole : TestCallResponse.split(whole, numReads);
+    nioUnsafe = memory.equals("direct") && !isJava8();
+  }
+
+  private static boolean isJava8() {
+    return System.getProperty("java.specification.version").equals("1.8");
+  }
+
+  @Benchmark
+  public Master.GetTableLocationsResponsePB decodeInPlace() {
+    CallResponse response = new CallResponse(frame.duplicate());
+    Master.GetTableLocationsResponsePB.Builder pb = Master.GetTableLocationsResponsePB.newBuilder();
+    YRpc.readProtobuf(response.getPBMessage(), pb);
+    return pb.build();
+  }
+
+  /**
+   * Parses the message through the NIO view of the frame, which protobuf reads in place when it's
+   * direct. Frames that arrived in several reads are flattened into one buffer by
+   * {@link ByteBuf#nioBuffer()}.
+   */
+  @Benchmark
+  public Master.GetTableLocationsResponsePB decodeNioBuffer() throws Exception {
+    if (nioUnsafe) {
+      throw new UnsupportedOperationException("Protobuf can only read direct buffers on Java 8");
+    }
+    CallResponse response = new CallResponse(frame.duplicate());
+    ByteBuf message = response.getPBMessage();
+    Master.GetTableLocationsResponsePB.Builder pb = Master.GetTableLocationsResponsePB.newBuilder();
+    CodedInputStream in = CodedInputStream.newInstance(message.nioBuffer());
+    in.setSizeLimit(Integer.MAX_VALUE);
+    pb.mergeFrom(in);
+    return pb.build();
+  }
+
+  /**
+   * What responses used to go through: the replaying decoder's buffer is never backed by an
+   * array, so both the header and the message were copied before being parsed.
+   */
+  @Benchmark
+  public Master.GetTableLocationsResponsePB decodeWithCopies() throws Exception {
+    ByteBuf buf = frame.duplicate();
+    buf.readInt();
+    byte[] header = new byte[Bytes.readVarInt32(buf)];
+    buf.readBytes(header);
+    RpcHeader.ResponseHeader.newBuilder().mergeFrom(header).build();
+    byte[] message = new byte[Bytes.readVarInt32(buf)];
+    buf.readBytes(message);
+    return Master.GetTableLocationsResponsePB.newBuilder().mergeFrom(message).build();
+  }
+
+  public static void main(String[] args) throws Exception {
+    String name = CallResponseBenchmark.class.getSimpleName();
+    OptionsBuilder options = new OptionsBuilder();
+    options.include(name).addProfiler(GCProfiler.class);
+    if (!isJava8()) {
+      options.exclude(name + ".decodeNioBuffer");
+      Options heapOnly = new OptionsBuilder()
+          .include(name + ".decodeNioBuffer")
+          .param("memory", "heap")
+          .addProfiler(GCProfiler.class)
+          .build();
+      new Runner(heapOnly).run();
+    }
+    new Runner(options.build()).run();
+  }
+}
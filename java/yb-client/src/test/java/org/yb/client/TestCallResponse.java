@@ -0,0 +1,105 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.Common.HostPortPB;
+import org.yb.YBTestRunner;
+import org.yb.consensus.Metadata.RaftPeerPB;
+import org.yb.master.Master;
+import org.yb.rpc.RpcHeader;
+
+@RunWith(value=YBTestRunner.class)
+public class TestCallResponse {
+
+  /**
+   * Builds a GetTableLocations response with the given number of tablets, framed the way a
+   * server would send it.
+   */
+  static ByteBuf newResponseFrame(int callId, int numTablets) {
+    Master.GetTableLocationsResponsePB.Builder pb = Master.GetTableLocationsResponsePB.newBuilder();
+    for (int i = 0; i < numTablets; i++) {
+      Master.TabletLocationsPB.Builder tablet = pb.addTabletLocationsBuilder()
+          .setTabletId(ByteString.copyFromUtf8(String.format("%032x", i)))
+          .setStale(false);
+      for (int r = 0; r < 3; r++) {
+        tablet.addReplicasBuilder()
+            .setRole(r == 0 ? RaftPeerPB.Role.LEADER : RaftPeerPB.Role.FOLLOWER)
+            .getTsInfoBuilder()
+            .setPermanentUuid(ByteString.copyFromUtf8(String.format("ts-%030d", r)))
+            .addPrivateRpcAddresses(
+                HostPortPB.newBuilder().setHost("127.0.0." + (r + 1)).setPort(9100));
+      }
+    }
+    RpcHeader.ResponseHeader header = RpcHeader.ResponseHeader.newBuilder()
+        .setCallId(callId)
+        .build();
+    return YRpc.toByteBuf(header, pb.build());
+  }
+
+  /**
+   * Splits the buffer in several chunks, like a frame that took several reads to arrive.
+   */
+  static ByteBuf split(ByteBuf buf, int chunks) {
+    ByteBuf[] parts = new ByteBuf[chunks];
+    int chunkSize = buf.readableBytes() / chunks + 1;
+    for (int i = 0; i < chunks; i++) {
+      parts[i] = buf.readSlice(Math.min(chunkSize, buf.readableBytes()));
+    }
+    return Unpooled.wrappedBuffer(parts);
+  }
+
+  private static void checkResponse(ByteBuf frame, int callId, int numTablets) {
+    CallResponse response = new CallResponse(frame);
+    assertFalse(response.isEmpty());
+    assertEquals(callId, response.getHeader().getCallId());
+    Master.GetTableLocationsResponsePB.Builder pb = Master.GetTableLocationsResponsePB.newBuilder();
+    YRpc.readProtobuf(response.getPBMessage(), pb);
+    assertEquals(numTablets, pb.getTabletLocationsCount());
+    assertEquals(String.format("%032x", numTablets - 1),
+                 pb.getTabletLocations(numTablets - 1).getTabletId().toStringUtf8());
+    assertEquals(0, frame.readableBytes());
+  }
+
+  @Test
+  public void testHeapFrame() {
+    checkResponse(newResponseFrame(42, 100), 42, 100);
+  }
+
+  @Test
+  public void testDirectFrame() {
+    ByteBuf heap = newResponseFrame(43, 100);
+    ByteBuf direct = Unpooled.directBuffer(heap.readableBytes());
+    direct.writeBytes(heap);
+    checkResponse(direct, 43, 100);
+  }
+
+  @Test
+  public void testFrameSplitAcrossReads() {
+    checkResponse(split(newResponseFrame(44, 1000), 7), 44, 1000);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testTruncatedFrame() {
+    ByteBuf frame = newResponseFrame(45, 10);
+    new CallResponse(frame.slice(0, frame.readableBytes() - 1));
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestCircuitBreaker {
+
+  /** A clock the test moves by hand. */
+  private long nowNanos = 1000;
+  // The state changes the breakers reported.
+  private final List<CircuitBreaker.State> states = new ArrayList<>();
+
+  private CircuitBreaker newBreaker() {
+    // Opens when half of the last 10 RPCs failed, for 100ms.
+    return new CircuitBreaker(0.5, 10, 100, () -> nowNanos, states::add);
+  }
+
+  private void sleepMs(long ms) {
+    nowNanos += TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+
+  @Test
+  public void testStaysClosedUnderThreshold() {
+    CircuitBreaker breaker = newBreaker();
+    for (int i = 0; i < 100; i++) {
+      if (i % 5 == 0) {
+        breaker.recordBusy();
+      } else {
+        breaker.recordSuccess();
+      }
+      assertTrue(breaker.allowRequest());
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertEquals(0, breaker.getTripCount());
+    assertEquals(20, breaker.getBusyCount());
+    assertEquals(80, breaker.getSuccessCount());
+  }
+
+  @Test
+  public void testOpensAndRecovers() {
+    CircuitBreaker breaker = newBreaker();
+    for (int i = 0; i < 5; i++) {
+      breaker.recordSuccess();
+    }
+    for (int i = 0; i < 4; i++) {
+      breaker.recordBusy();
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    breaker.recordTimeout();
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertEquals(1, breaker.getTripCount());
+    assertFalse(breaker.allowRequest());
+    assertEquals(1, breaker.getRejectedCount());
+
+    sleepMs(100);
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    // Only one probe at a time.
+    assertTrue(breaker.allowRequest());
+    assertFalse(breaker.allowRequest());
+    breaker.recordSuccess();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest());
+    assertEquals(Arrays.asList(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN,
+                               CircuitBreaker.State.CLOSED), states);
+  }
+
+  @Test
+  public void testFailedProbeDoublesOpenTime() {
+    CircuitBreaker breaker = newBreaker();
+    for (int i = 0; i < 10; i++) {
+      breaker.recordBusy();
+    }
+    sleepMs(100);
+    assertTrue(breaker.allowRequest());
+    breaker.recordBusy();
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertEquals(2, breaker.getTripCount());
+
+    sleepMs(100);
+    assertFalse(breaker.allowRequest());
+    sleepMs(100);
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void testLostProbeIsReplaced() {
+    CircuitBreaker breaker = newBreaker();
+    for (int i = 0; i < 10; i++) {
+      breaker.recordTimeout();
+    }
+    sleepMs(100);
+    assertTrue(breaker.allowRequest());
+    // The probe never comes back.
+    sleepMs(50);
+    assertFalse(breaker.allowRequest());
+    sleepMs(50);
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void testBackoff() {
+    for (int i = 0; i < 1000; i++) {
+      long first = AsyncYBClient.nextBackoffMs(0, 100, 10000);
+      assertTrue(first >= 100 && first <= 300);
+      long next = AsyncYBClient.nextBackoffMs(first, 100, 10000);
+      assertTrue(next >= 100 && next <= first * 3);
+      assertEquals(10000, AsyncYBClient.nextBackoffMs(10000, 10000, 10000));
+      assertTrue(AsyncYBClient.nextBackoffMs(9000, 100, 10000) <= 10000);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertNotNull;
+import static org.yb.AssertionWrappers.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestClientResources {
+
+  private static final String MASTERS = "127.0.0.1:7100";
+
+  @Test
+  public void testSharedUntilLastRelease() throws Exception {
+    ClientResources resources = new ClientResources.ClientResourcesBuilder()
+        .workerCount(1)
+        .build();
+    AsyncYBClient first = new AsyncYBClient.AsyncYBClientBuilder(MASTERS)
+        .clientResources(resources)
+        .build();
+    AsyncYBClient second = new AsyncYBClient.AsyncYBClientBuilder(MASTERS)
+        .clientResources(resources)
+        .build();
+    YBClient third = new YBClient.YBClientBuilder(MASTERS)
+        .clientResources(resources)
+        .build();
+    assertEquals(4, resources.refCnt());
+
+    first.close();
+    third.close();
+    assertEquals(2, resources.refCnt());
+    assertFalse(resources.getEventLoopGroup().isShuttingDown());
+    // The other client can still schedule work on the shared timer.
+    final CountDownLatch fired = new CountDownLatch(1);
+    assertNotNull(second.newTimeout(timeout -> fired.countDown(), 1));
+    assertTrue(fired.await(10, TimeUnit.SECONDS));
+
+    resources.close();
+    assertEquals(1, resources.refCnt());
+    assertFalse(resources.getEventLoopGroup().isShuttingDown());
+
+    second.close();
+    assertEquals(0, resources.refCnt());
+    assertTrue(resources.getEventLoopGroup().isShuttingDown());
+  }
+
+  @Test
+  public void testOwnResources() throws Exception {
+    AsyncYBClient client = new AsyncYBClient.AsyncYBClientBuilder(MASTERS).build();
+    AsyncYBClient other = new AsyncYBClient.AsyncYBClientBuilder(MASTERS).build();
+    client.close();
+    // Closing a client doesn't stop the threads of another one.
+    final CountDownLatch fired = new CountDownLatch(1);
+    assertNotNull(other.newTimeout(timeout -> fired.countDown(), 1));
+    assertTrue(fired.await(10, TimeUnit.SECONDS));
+    other.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReleasedResources() throws Exception {
+    ClientResources resources = new ClientResources.ClientResourcesBuilder().build();
+    resources.close();
+    new AsyncYBClient.AsyncYBClientBuilder(MASTERS).clientResources(resources);
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertSame;
+import static org.yb.AssertionWrappers.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.stumbleupon.async.Deferred;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestCompletableYBClient {
+
+  private static AsyncYBClient asyncClient;
+  private static CompletableYBClient client;
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    // Never connects to anything, it's only needed for its timer.
+    asyncClient = new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1:7100").build();
+    client = new CompletableYBClient(asyncClient);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    asyncClient.close();
+  }
+
+  @Test
+  public void testToCompletableFuture() throws Exception {
+    Deferred<String> d = new Deferred<>();
+    CompletableFuture<String> future = CompletableYBClient.toCompletableFuture(d);
+    assertFalse(future.isDone());
+    d.callback("done");
+    assertEquals("done", future.get(10, TimeUnit.SECONDS));
+
+    Exception error = new IllegalStateException("failed");
+    future = CompletableYBClient.toCompletableFuture(Deferred.<String>fromError(error));
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      throw new AssertionError("Expected the future to fail");
+    } catch (ExecutionException e) {
+      assertSame(error, e.getCause());
+    }
+  }
+
+  @Test
+  public void testWaitForConditionMet() throws Exception {
+    final AtomicInteger checks = new AtomicInteger();
+    CompletableFuture<Boolean> result = client.waitForCondition(
+        () -> CompletableFuture.completedFuture(checks.incrementAndGet() == 3), 30000);
+    assertTrue(result.get(10, TimeUnit.SECONDS));
+    assertEquals(3, checks.get());
+  }
+
+  @Test
+  public void testWaitForConditionRetriesErrors() throws Exception {
+    final AtomicInteger checks = new AtomicInteger();
+    CompletableFuture<Boolean> result = client.waitForCondition(() -> {
+      if (checks.incrementAndGet() == 1) {
+        throw new IllegalStateException("not yet");
+      }
+      CompletableFuture<Boolean> failed = new CompletableFuture<>();
+      if (checks.get() == 2) {
+        failed.completeExceptionally(new IllegalStateException("still not"));
+        return failed;
+      }
+      return CompletableFuture.completedFuture(true);
+    }, 30000);
+    assertTrue(result.get(10, TimeUnit.SECONDS));
+    assertEquals(3, checks.get());
+  }
+
+  @Test
+  public void testWaitForConditionTimesOut() throws Exception {
+    final AtomicInteger checks = new AtomicInteger();
+    long start = System.nanoTime();
+    CompletableFuture<Boolean> result = client.waitForCondition(() -> {
+      checks.incrementAndGet();
+      return CompletableFuture.completedFuture(false);
+    }, 1200);
+    assertFalse(result.get(10, TimeUnit.SECONDS));
+    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Waited " + elapsedMs + " ms", elapsedMs >= 1000);
+    // Checked right away, then every 500 ms.
+    assertTrue("Checked " + checks.get() + " times", checks.get() >= 2 && checks.get() <= 4);
+  }
+
+  @Test
+  public void testWaitForConditionStuckCheck() throws Exception {
+    // The check never completes, the deadline still does.
+    CompletableFuture<Boolean> result =
+        client.waitForCondition(() -> new CompletableFuture<Boolean>(), 200);
+    assertFalse(result.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testManyWaitsAtOnce() throws Exception {
+    final AtomicInteger checks = new AtomicInteger();
+    List<CompletableFuture<Boolean>> results = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      final int needed = i % 3 + 1;
+      final AtomicInteger waitChecks = new AtomicInteger();
+      results.add(client.waitForCondition(() -> {
+        checks.incrementAndGet();
+        return CompletableFuture.completedFuture(waitChecks.incrementAndGet() == needed);
+      }, 30000));
+    }
+    CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    for (CompletableFuture<Boolean> result : results) {
+      assertTrue(result.join());
+    }
+    assertEquals(334 + 333 * 2 + 333 * 3, checks.get());
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertNotSame;
+import static org.yb.AssertionWrappers.assertSame;
+import static org.yb.AssertionWrappers.assertTrue;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestConnectionPool {
+
+  private static final String HOST = "127.0.0.1";
+
+  private AsyncYBClient client;
+  // Accepts connections into its backlog, which is all the pool needs to see them alive.
+  private ServerSocket server;
+
+  @Before
+  public void setUp() throws Exception {
+    client = new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1:7100")
+        .connectionsPerServer(3)
+        // The server never answers, don't let the connections time out.
+        .defaultSocketReadTimeoutMs(60000)
+        .build();
+    server = new ServerSocket(0, 50, InetAddress.getByName(HOST));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.close();
+  }
+
+  private static void waitUntilConnected(TabletClient connection) throws Exception {
+    for (int i = 0; i < 500 && !connection.isConnected(); i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(connection.isConnected());
+  }
+
+  private static void waitUntilDead(TabletClient connection) throws Exception {
+    for (int i = 0; i < 500 && connection.isAlive(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(connection.isAlive());
+  }
+
+  @Test
+  public void testSpreadsAndReconnects() throws Exception {
+    TabletClient primary = new TabletClient(client, "ts");
+    ConnectionPool pool = new ConnectionPool(client, HOST, server.getLocalPort(), 3);
+    pool.setPrimary(primary);
+
+    // Nothing is in flight, so ties are broken round-robin over all the connections.
+    Set<TabletClient> picked = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      picked.add(pool.select(primary));
+    }
+    assertEquals(3, picked.size());
+    assertTrue(picked.contains(primary));
+    for (TabletClient connection : picked) {
+      assertEquals("ts", connection.getUuid());
+      assertEquals(connection == primary, connection.isPrimary());
+    }
+    assertEquals(0, pool.getNumInflightRpcs());
+
+    // A dead connection is skipped, and reopened once the reconnect interval passed.
+    picked.remove(primary);
+    TabletClient dead = picked.iterator().next();
+    waitUntilConnected(dead);
+    dead.shutdown().join(5000);
+    waitUntilDead(dead);
+    for (int i = 0; i < 10; i++) {
+      assertNotSame(dead, pool.select(primary));
+    }
+    Thread.sleep(ConnectionPool.RECONNECT_INTERVAL_MS);
+    Set<TabletClient> repicked = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      repicked.add(pool.select(primary));
+    }
+    assertEquals(3, repicked.size());
+    assertFalse(repicked.contains(dead));
+
+    long reconnects = 0;
+    List<ConnectionStats> stats = pool.getStats();
+    assertEquals(3, stats.size());
+    for (ConnectionStats connection : stats) {
+      assertTrue(connection.isAlive());
+      reconnects += connection.getReconnects();
+    }
+    assertEquals(stats.toString(), 1, reconnects);
+
+    // Once they're all dead, the RPC stays with the connection it was handed to.
+    repicked.remove(primary);
+    for (TabletClient connection : repicked) {
+      waitUntilConnected(connection);
+    }
+    pool.shutdown();
+    primary.channelClosed(null);
+    for (TabletClient connection : repicked) {
+      waitUntilDead(connection);
+    }
+    assertSame(primary, pool.select(primary));
+  }
+
+  @Test
+  public void testConnectionStats() throws Exception {
+    TabletClient primary = client.newClient("ts", HOST, server.getLocalPort());
+    assertTrue(primary.isPrimary());
+    primary.sendRpc(new PingRequest());
+
+    Map<String, List<ConnectionStats>> stats = client.getConnectionStats();
+    List<ConnectionStats> connections = stats.get(HOST + ":" + server.getLocalPort());
+    assertEquals(3, connections.size());
+    for (int i = 0; i < connections.size(); i++) {
+      assertEquals(i, connections.get(i).getIndex());
+    }
+    // The same connections are handed out for the server until the primary dies.
+    assertSame(primary, client.newClient("ts", HOST, server.getLocalPort()));
+  }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.Common;
+import org.yb.Common.CloudInfoPB;
+import org.yb.YBTestRunner;
+import org.yb.consensus.Metadata;
+import org.yb.master.Master;
+
+@RunWith(value=YBTestRunner.class)
+public class TestReplicaSelectionPolicies {
+
+  private static AsyncYBClient client;
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    // Never connects to anything, it's only needed to create TabletClients.
+    client = new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1:7100").build();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    client.close();
+  }
+
+  private static List<TabletClient> replicas(String... zones) {
+    List<TabletClient> replicas = new ArrayList<>();
+    for (String zone : zones) {
+      TabletClient replica = new TabletClient(client, "ts-" + replicas.size());
+      String[] placement = zone.split("\\.");
+      replica.setCloudInfo(CloudInfoPB.newBuilder()
+          .setPlacementCloud(placement[0])
+          .setPlacementRegion(placement[1])
+          .setPlacementZone(placement[2])
+          .build());
+      replicas.add(replica);
+    }
+    return replicas;
+  }
+
+  @Test
+  public void testLeaderOnly() {
+    List<TabletClient> replicas = replicas("aws.us-west.a", "aws.us-west.b", "aws.us-east.a");
+    ReplicaSelectionPolicy policy = ReplicaSelectionPolicies.leaderOnly();
+    assertEquals(0, policy.selectReplica(replicas, 0));
+    assertEquals(2, policy.selectReplica(replicas, 2));
+  }
+
+  @Test
+  public void testClosestZone() {
+    List<TabletClient> replicas = replicas("aws.us-west.a", "aws.us-west.b", "aws.us-east.a");
+    assertEquals(1, ReplicaSelectionPolicies.closestZone("aws", "us-west", "b")
+        .selectReplica(replicas, 0));
+    assertEquals(2, ReplicaSelectionPolicies.closestZone("aws", "us-east", "c")
+        .selectReplica(replicas, 0));
+    // Nothing in the same region, all the replicas are equally far so the leader wins.
+    assertEquals(1, ReplicaSelectionPolicies.closestZone("gcp", "us-west1", "a")
+        .selectReplica(replicas, 1));
+  }
+
+  @Test
+  public void testLeastOutstandingRpcsPrefersLeaderOnTies() {
+    List<TabletClient> replicas = replicas("aws.us-west.a", "aws.us-west.b", "aws.us-east.a");
+    assertEquals(2, ReplicaSelectionPolicies.leastOutstandingRpcs().selectReplica(replicas, 2));
+  }
+
+  @Test
+  public void testRoundRobin() {
+    List<TabletClient> replicas = replicas("aws.us-west.a", "aws.us-west.b", "aws.us-east.a");
+    ReplicaSelectionPolicy policy = ReplicaSelectionPolicies.roundRobin();
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i % 3, policy.selectReplica(replicas, 0));
+    }
+  }
+
+  /**
+   * Sends an RPC through {@link AsyncYBClient#sendRpcToTablet} to a tablet of three replicas,
+   * which listen but never answer.
+   * @param tripLeaderBreaker whether to open the leader's circuit breaker before sending the RPC
+   * @return the number of the replica that got the RPC, the leader being 0
+   */
+  private static int route(AsyncYBClient.AsyncYBClientBuilder builder,
+                           boolean followerReadsAllowed, boolean tripLeaderBreaker)
+      throws Exception {
+    List<ServerSocket> servers = new ArrayList<>();
+    AsyncYBClient routingClient = builder.build();
+    try {
+      Master.TabletLocationsPB.Builder tabletPb = Master.TabletLocationsPB.newBuilder()
+          .setPartition(Common.PartitionPB.newBuilder()
+              .setPartitionKeyStart(ByteString.EMPTY)
+              .setPartitionKeyEnd(ByteString.EMPTY))
+          .setStale(false)
+          .setTabletId(ByteString.copyFromUtf8("tablet"));
+      for (int i = 0; i < 3; i++) {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        servers.add(server);
+        tabletPb.addReplicas(Master.TabletLocationsPB.ReplicaPB.newBuilder()
+            .setTsInfo(Master.TSInfoPB.newBuilder()
+                .setPermanentUuid(ByteString.copyFromUtf8("ts-" + i))
+                .addPrivateRpcAddresses(Common.HostPortPB.newBuilder()
+                    .setHost("127.0.0.1")
+                    .setPort(server.getLocalPort())))
+            .setRole(i == 0 ? Metadata.RaftPeerPB.Role.LEADER :
+                              Metadata.RaftPeerPB.Role.FOLLOWER));
+      }
+      YBTable table = new YBTable(routingClient, "table", "table-id", null, null);
+      routingClient.discoverTablets(table, Master.GetTableLocationsResponsePB.newBuilder()
+          .addTabletLocations(tabletPb)
+          .build());
+      if (tripLeaderBreaker) {
+        for (TabletClient replica : routingClient.getTableClients()) {
+          if (replica.getUuid().equals("ts-0")) {
+            CircuitBreaker breaker = replica.getCircuitBreaker();
+            while (breaker.getState() == CircuitBreaker.State.CLOSED) {
+              breaker.recordBusy();
+            }
+          }
+        }
+      }
+
+      GetLatestEntryOpIdRequest rpc = new GetLatestEntryOpIdRequest(table, "tablet");
+      rpc.setTimeoutMillis(60000);
+      rpc.setFollowerReadsAllowed(followerReadsAllowed);
+      routingClient.sendRpcToTablet(rpc);
+
+      long deadline = System.currentTimeMillis() + 10000;
+      while (System.currentTimeMillis() < deadline) {
+        for (TabletClient replica : routingClient.getTableClients()) {
+          if (replica.getNumInflightRpcs() > 0) {
+            return Integer.parseInt(replica.getUuid().substring("ts-".length()));
+          }
+        }
+        Thread.sleep(10);
+      }
+      return -1;
+    } finally {
+      routingClient.close();
+      for (ServerSocket server : servers) {
+        server.close();
+      }
+    }
+  }
+
+  @Test
+  public void testRoutesFollowerReadsThroughPolicy() throws Exception {
+    ReplicaSelectionPolicy lastReplica = new ReplicaSelectionPolicy() {
+      @Override
+      public int selectReplica(List<TabletClient> replicas, int leaderIndex) {
+        return replicas.size() - 1;
+      }
+    };
+    assertEquals(2, route(newBuilder().replicaSelectionPolicy(lastReplica), true, false));
+    // RPCs that didn't opt in stay on the leader.
+    assertEquals(0, route(newBuilder().replicaSelectionPolicy(lastReplica), false, false));
+    assertEquals(0, route(newBuilder(), true, false));
+  }
+
+  @Test
+  public void testSteersAroundOpenCircuitBreaker() throws Exception {
+    RpcMetrics metrics = new RpcMetrics();
+    // The leader is picked, but its breaker is open, so the next replica gets the RPC.
+    assertEquals(1, route(newBuilder()
+                              .circuitBreaker(0.5, 10, 60000)
+                              .metricsSink(metrics), true, true));
+    RpcMetrics.ServerCounters leader = metrics.getServerCounters().get("ts-0");
+    assertEquals(CircuitBreaker.State.OPEN, leader.getCircuitBreakerState());
+    assertEquals(1, leader.getCircuitBreakerTrips());
+    assertEquals(1, leader.getCircuitBreakerRejections());
+    assertEquals(1, leader.getSteeredAway());
+    assertEquals(1, metrics.getServerCounters().get("ts-1").getSent());
+  }
+
+  private static AsyncYBClient.AsyncYBClientBuilder newBuilder() {
+    return new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1:7100");
+  }
+}
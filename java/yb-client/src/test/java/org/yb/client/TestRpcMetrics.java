@@ -0,0 +1,146 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertFalse;
+import static org.yb.AssertionWrappers.assertNull;
+import static org.yb.AssertionWrappers.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestRpcMetrics {
+
+  private static final String SERVICE = "yb.tserver.TabletServerService";
+
+  @Test
+  public void testBuckets() {
+    long previousHighest = -1;
+    for (long value = 0; value < 1 << 20; value++) {
+      int bucket = LatencyHistogram.bucketFor(value);
+      long highest = LatencyHistogram.highestValueIn(bucket);
+      assertTrue(value <= highest);
+      // At most ~3% above the value.
+      assertTrue(highest - value <= Math.max(0, value / 32));
+      if (highest != previousHighest) {
+        // Buckets are contiguous.
+        assertEquals(previousHighest + 1, value);
+        previousHighest = highest;
+      }
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(99));
+    for (long micros = 1; micros <= 10000; micros++) {
+      histogram.recordNanos(micros * 1000);
+    }
+    assertEquals(10000, histogram.getCount());
+    assertEquals(10000, histogram.getMax());
+    assertEquals(5000.5, histogram.getMean(), 0.001);
+    assertWithin(5000, histogram.getValueAtPercentile(50));
+    assertWithin(9900, histogram.getValueAtPercentile(99));
+    assertWithin(9990, histogram.getValueAtPercentile(99.9));
+    assertEquals(10000, histogram.getValueAtPercentile(100));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("Expected about " + expected + ", got " + actual,
+               actual >= expected && actual <= expected + expected / 32);
+  }
+
+  @Test
+  public void testCounters() {
+    RpcMetrics metrics = new RpcMetrics();
+    metrics.rpcSent(SERVICE, "Write", "ts-1");
+    metrics.rpcSent(SERVICE, "Write", "ts-1");
+    metrics.rpcSent(SERVICE, "Read", "ts-2");
+    metrics.rpcCompleted(SERVICE, "Write", "ts-1", 2000000);
+    metrics.serverTooBusy("ts-1");
+    metrics.rpcRetried(SERVICE, "Write", "ts-1");
+    metrics.rpcAborted(SERVICE, "Write", "ts-1");
+    metrics.rpcTimedOut("ts-2");
+    metrics.rpcRetried(SERVICE, "Read", null);
+    metrics.masterLookup("table", false);
+    metrics.masterLookup("table", true);
+    metrics.masterLookup("table", true);
+    metrics.circuitBreakerStateChanged("ts-2", CircuitBreaker.State.OPEN);
+    metrics.circuitBreakerRejected(SERVICE, "Read", "ts-2", true);
+    metrics.circuitBreakerRejected(SERVICE, "Read", "ts-2", false);
+    metrics.circuitBreakerStateChanged("ts-2", CircuitBreaker.State.HALF_OPEN);
+
+    RpcMetrics.ServerCounters ts1 = metrics.getServerCounters().get("ts-1");
+    assertEquals(0, ts1.getInflight());
+    assertEquals(2, ts1.getSent());
+    assertEquals(1, ts1.getAborted());
+    assertEquals(1, ts1.getRetries());
+    assertEquals(1, ts1.getTooBusy());
+    RpcMetrics.ServerCounters ts2 = metrics.getServerCounters().get("ts-2");
+    assertEquals(1, ts2.getInflight());
+    assertEquals(1, ts2.getTimeouts());
+    assertEquals(CircuitBreaker.State.HALF_OPEN, ts2.getCircuitBreakerState());
+    assertEquals(1, ts2.getCircuitBreakerTrips());
+    assertEquals(2, ts2.getCircuitBreakerRejections());
+    assertEquals(1, ts2.getSteeredAway());
+    assertEquals(CircuitBreaker.State.CLOSED, ts1.getCircuitBreakerState());
+    assertEquals(1, metrics.getServerCounters().get(RpcMetrics.NO_SERVER).getRetries());
+
+    assertEquals(2000, metrics.getLatencyHistogram(SERVICE, "Write").getMax());
+    assertNull(metrics.getLatencyHistogram(SERVICE, "Read"));
+    assertEquals(1, metrics.getMasterLookupCount());
+    assertEquals(2, metrics.getCoalescedMasterLookupCount());
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName client = new ObjectName("org.yb.client:type=Client,name=\"test\"");
+    ObjectName write = new ObjectName("org.yb.client:type=RpcLatency,name=\"test\"," +
+                                      "service=\"" + SERVICE + "\",method=\"Write\"");
+    ObjectName ts = new ObjectName("org.yb.client:type=Server,name=\"test\",uuid=\"ts-1\"");
+
+    JmxRpcMetrics metrics = new JmxRpcMetrics("test");
+    try {
+      metrics.masterLookup("table", false);
+      metrics.rpcSent(SERVICE, "Write", "ts-1");
+      metrics.rpcCompleted(SERVICE, "Write", "ts-1", 3000000);
+      metrics.circuitBreakerStateChanged("ts-1", CircuitBreaker.State.OPEN);
+      metrics.circuitBreakerRejected(SERVICE, "Write", "ts-1", false);
+      assertEquals(1L, server.getAttribute(client, "MasterLookupCount"));
+      assertEquals(1L, server.getAttribute(write, "Count"));
+      assertEquals(3000L, server.getAttribute(write, "P99"));
+      assertEquals(1L, server.getAttribute(ts, "Sent"));
+      assertEquals(0L, server.getAttribute(ts, "Inflight"));
+      assertEquals("OPEN", server.getAttribute(ts, "CircuitBreakerState"));
+      assertEquals(1L, server.getAttribute(ts, "CircuitBreakerTrips"));
+      assertEquals(1L, server.getAttribute(ts, "CircuitBreakerRejections"));
+      assertEquals(0L, server.getAttribute(ts, "SteeredAway"));
+    } finally {
+      metrics.close();
+    }
+    assertFalse(server.isRegistered(client));
+    assertFalse(server.isRegistered(write));
+    assertFalse(server.isRegistered(ts));
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertNull;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+
+@RunWith(value=YBTestRunner.class)
+public class TestRpcWriteBatcher {
+
+  private static AsyncYBClient client;
+
+  private EventLoopGroup group;
+  private Channel server;
+  private Channel chan;
+  private final BlockingQueue<ByteBuf> received = new LinkedBlockingQueue<>();
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    // Never connects to anything, it's only needed for its timer.
+    client = new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1:7100").build();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    client.close();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    // An in-process connection, the other end collects what we write.
+    group = new DefaultEventLoopGroup(1);
+    LocalAddress address = new LocalAddress("TestRpcWriteBatcher");
+    server = new ServerBootstrap()
+        .group(group)
+        .channel(LocalServerChannel.class)
+        .childHandler(new ChannelInboundHandlerAdapter() {
+          @Override
+          public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            received.add((ByteBuf) msg);
+          }
+        })
+        .bind(address).sync().channel();
+    chan = new Bootstrap()
+        .group(group)
+        .channel(LocalChannel.class)
+        .handler(new ChannelInboundHandlerAdapter())
+        .connect(address).sync().channel();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    chan.close().sync();
+    server.close().sync();
+    group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    for (ByteBuf buf : received) {
+      buf.release();
+    }
+  }
+
+  private static ByteBuf rpc(int size, int fill) {
+    byte[] bytes = new byte[size];
+    Arrays.fill(bytes, (byte) fill);
+    return Unpooled.wrappedBuffer(bytes);
+  }
+
+  /** Waits for the given number of bytes to arrive, and returns the first byte of each RPC. */
+  private String receive(int bytes) throws InterruptedException {
+    StringBuilder firstBytes = new StringBuilder();
+    int total = 0;
+    while (total < bytes) {
+      ByteBuf buf = received.poll(10, TimeUnit.SECONDS);
+      total += buf.readableBytes();
+      firstBytes.append(buf.getByte(0));
+      buf.release();
+    }
+    return firstBytes.toString();
+  }
+
+  @Test
+  public void testFlushOnSize() throws Exception {
+    RpcWriteBatcher batcher = new RpcWriteBatcher(client, 100, 60000);
+
+    batcher.write(chan, rpc(40, 1));
+    batcher.write(chan, rpc(40, 2));
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+    batcher.write(chan, rpc(40, 3));
+
+    assertEquals("123", receive(120));
+    assertEquals(1, batcher.getFlushCount());
+    assertEquals(3, batcher.getBatchedRpcCount());
+    assertEquals(3, batcher.getMaxBatchRpcCount());
+    assertEquals(120, batcher.getBatchedBytes());
+  }
+
+  @Test
+  public void testFlushOnDelay() throws Exception {
+    RpcWriteBatcher batcher = new RpcWriteBatcher(client, 1 << 20, 50);
+
+    batcher.write(chan, rpc(10, 1));
+    batcher.write(chan, rpc(10, 2));
+    assertEquals("12", receive(20));
+    assertEquals(1, batcher.getFlushCount());
+    assertEquals(2.0, batcher.getAverageBatchRpcCount(), 0.0);
+  }
+
+  @Test
+  public void testStaleTimeoutLeavesNextBatch() throws Exception {
+    RpcWriteBatcher batcher = new RpcWriteBatcher(client, 100, 500);
+
+    // Flushed because it's full, its timeout stays armed.
+    long start = System.nanoTime();
+    batcher.write(chan, rpc(60, 1));
+    batcher.write(chan, rpc(60, 2));
+    assertEquals("12", receive(120));
+
+    // The next batch starts while the first one's timeout is pending.
+    Thread.sleep(Math.max(0, 300 - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    batcher.write(chan, rpc(10, 3));
+    long queuedNanos = System.nanoTime();
+    assertNull(received.poll(
+        400 - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedNanos),
+        TimeUnit.MILLISECONDS));
+    assertEquals("3", receive(10));
+    assertEquals(2, batcher.getFlushCount());
+  }
+
+  @Test
+  public void testExplicitFlush() throws Exception {
+    RpcWriteBatcher batcher = new RpcWriteBatcher(client, 1 << 20, 60000);
+
+    batcher.flush();
+    assertEquals(0, batcher.getFlushCount());
+    batcher.write(chan, rpc(10, 1));
+    batcher.flush();
+    assertEquals("1", receive(10));
+    assertEquals(1, batcher.getFlushCount());
+  }
+}
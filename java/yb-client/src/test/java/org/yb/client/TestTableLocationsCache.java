@@ -0,0 +1,126 @@
+// Copyright (c) YugaByte, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+// in compliance with the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed under the License
+// is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+// or implied.  See the License for the specific language governing permissions and limitations
+// under the License.
+//
+
+package org.yb.client;
+
+import static org.yb.AssertionWrappers.assertEquals;
+import static org.yb.AssertionWrappers.assertNull;
+import static org.yb.AssertionWrappers.assertSame;
+import static org.yb.AssertionWrappers.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.yb.YBTestRunner;
+import org.yb.util.Slice;
+
+@RunWith(value=YBTestRunner.class)
+public class TestTableLocationsCache {
+
+  private static AsyncYBClient client;
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    // Never connects to anything, it's only needed to create RemoteTablets.
+    client = new AsyncYBClient.AsyncYBClientBuilder("127.0.0.1:7100").build();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    client.close();
+  }
+
+  private static AsyncYBClient.RemoteTablet tablet(byte[] start, byte[] end) {
+    return client.new RemoteTablet("table", new Slice(start),
+        new Partition(start, end, Collections.<Integer>emptyList()));
+  }
+
+  private static byte[] key(int... bytes) {
+    byte[] key = new byte[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      key[i] = (byte) bytes[i];
+    }
+    return key;
+  }
+
+  @Test
+  public void testFloor() {
+    TableLocationsCache cache = new TableLocationsCache();
+    assertNull(cache.floor(key(0x10)));
+
+    AsyncYBClient.RemoteTablet first = tablet(key(), key(0x40, 0x00));
+    AsyncYBClient.RemoteTablet second = tablet(key(0x40, 0x00), key(0xc0, 0x00));
+    AsyncYBClient.RemoteTablet third = tablet(key(0xc0, 0x00), key());
+    // Out of order on purpose.
+    cache.putAll(Arrays.asList(third, first));
+    cache.putAll(Collections.singletonList(second));
+
+    assertEquals(3, cache.size());
+    assertSame(first, cache.first());
+    assertSame(first, cache.floor(null));
+    assertSame(first, cache.floor(key(0x3f, 0xff)));
+    assertSame(second, cache.floor(key(0x40, 0x00)));
+    assertSame(second, cache.floor(key(0x40, 0x00, 0x01)));
+    assertSame(third, cache.floor(key(0xff, 0xff)));
+  }
+
+  @Test
+  public void testPutReplacesSameStartKey() {
+    TableLocationsCache cache = new TableLocationsCache();
+    cache.putAll(Collections.singletonList(tablet(key(0x01), key(0x02))));
+    AsyncYBClient.RemoteTablet replacement = tablet(key(0x01), key(0x03));
+    cache.putAll(Collections.singletonList(replacement));
+    assertEquals(1, cache.size());
+    assertSame(replacement, cache.floor(key(0x02)));
+  }
+
+  @Test
+  public void testLongKeysTieOnPrefix() {
+    // All these keys share the same 8 byte prefix, so only the full comparison can order them.
+    TableLocationsCache cache = new TableLocationsCache();
+    List<AsyncYBClient.RemoteTablet> tablets = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      tablets.add(tablet(key(1, 2, 3, 4, 5, 6, 7, 8, i * 10), key()));
+    }
+    List<AsyncYBClient.RemoteTablet> shuffled = new ArrayList<>(tablets);
+    Collections.shuffle(shuffled, new Random(42));
+    cache.putAll(shuffled);
+    for (int i = 0; i < 20; i++) {
+      assertSame(tablets.get(i), cache.floor(key(1, 2, 3, 4, 5, 6, 7, 8, i * 10 + 5)));
+    }
+    assertNull(cache.floor(key(1, 2, 3, 4, 5, 6, 7, 7)));
+  }
+
+  @Test
+  public void testPrefixOrderMatchesMemcmp() {
+    Random random = new Random(7);
+    for (int i = 0; i < 1000; i++) {
+      byte[] a = new byte[random.nextInt(10)];
+      byte[] b = new byte[random.nextInt(10)];
+      random.nextBytes(a);
+      random.nextBytes(b);
+      long cmp = Long.compareUnsigned(TableLocationsCache.prefixOf(a),
+                                      TableLocationsCache.prefixOf(b));
+      if (cmp != 0) {
+        assertTrue(Long.signum(cmp) == Integer.signum(Bytes.memcmp(a, b)));
+      }
+    }
+  }
+}
@@ -4,6 +4,7 @@ package com.yugabyte.yw.common;
 
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
@@ -15,6 +16,7 @@ import play.libs.ws.WSRequest;
 import play.libs.ws.WSResponse;
 import play.mvc.Http;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
@@ -110,6 +112,36 @@ public class ApiHelper {
     return handleJSONPromise(jsonPromise);
   }
 
+  /**
+   * Reads the body of a JSON response as it's parsed, rather than parsing it into a JsonNode.
+   */
+  public interface JsonResponseReader<T> {
+    T read(JsonParser parser) throws IOException;
+  }
+
+  /**
+   * Sends a GET request, and hands the response to the reader token by token.
+   *
+   * @return what the reader read, or what it read from an error response if the request failed
+   */
+  public <T> T getRequest(String url, Map<String, String> headers, Map<String, String> params,
+                          JsonResponseReader<T> reader) throws IOException {
+    WSRequest request = requestWithHeaders(url, headers);
+    for (Map.Entry<String, String> entry : params.entrySet()) {
+      request.setQueryParameter(entry.getKey(), entry.getValue());
+    }
+    ByteString body;
+    try {
+      body = request.get().toCompletableFuture().get().getBodyAsBytes();
+    } catch (InterruptedException | ExecutionException e) {
+      return reader.read(ApiResponse.errorJSON(e.getMessage()).traverse(Json.mapper()));
+    }
+    try (JsonParser parser = Json.mapper().getFactory().createParser(
+           body.iterator().asInputStream())) {
+      return reader.read(parser);
+    }
+  }
+
   private JsonNode handleJSONPromise(CompletionStage<JsonNode> jsonPromise) {
     try {
       return jsonPromise.toCompletableFuture().get();
@@ -0,0 +1,244 @@
+// Copyright (c) YugaByte, Inc.
+
+package com.yugabyte.yw.common;
+
+import akka.Done;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Summary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import play.Configuration;
+import play.inject.ApplicationLifecycle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The thread pool the query helpers fan their requests to the nodes out on, instead of each
+ * creating its own for every request.
+ *
+ * <p>The pool has yb.query_executor.threads threads and queues up to yb.query_executor.queue_size
+ * tasks, beyond which tasks are rejected rather than queued without bound. {@link #fanOut} waits
+ * for the tasks up to a deadline, and returns what completed by then along with the tasks that
+ * timed out or failed, so that a slow node doesn't hold up the whole response. A task that timed
+ * out keeps its thread until it's done, the pool bounds how many of them there can be.
+ *
+ * <p>The pool's queue, active threads and tasks are exported as Prometheus metrics.
+ */
+@Singleton
+public class FanOutExecutor {
+  public static final Logger LOG = LoggerFactory.getLogger(FanOutExecutor.class);
+
+  private static final String QUEUED_TASKS_METRIC_NAME = "yb_query_executor_queued_tasks";
+  private static final String ACTIVE_THREADS_METRIC_NAME = "yb_query_executor_active_threads";
+  private static final String TASKS_METRIC_NAME = "yb_query_executor_tasks";
+  private static final String TASK_LATENCY_METRIC_NAME = "yb_query_executor_task_latency_ms";
+  private static final String RESULT_LABEL = "result";
+
+  private final ThreadPoolExecutor executor;
+  private Counter taskCount = null;
+  private Summary taskLatency = null;
+
+  /**
+   * What {@link #fanOut} got from its tasks, by their keys.
+   */
+  public static class Result<K, T> {
+    private final Map<K, T> results = new LinkedHashMap<>();
+    private final List<K> timedOut = new ArrayList<>();
+    private final Map<K, Throwable> failed = new LinkedHashMap<>();
+
+    /**
+     * @return the results of the tasks that completed before the deadline
+     */
+    public Map<K, T> getResults() {
+      return results;
+    }
+
+    /**
+     * @return the tasks that didn't complete before the deadline
+     */
+    public List<K> getTimedOut() {
+      return timedOut;
+    }
+
+    /**
+     * @return the tasks that threw, or were rejected because the pool was full
+     */
+    public Map<K, Throwable> getFailed() {
+      return failed;
+    }
+  }
+
+  @Inject
+  public FanOutExecutor(Configuration appConfig, ApplicationLifecycle lifecycle) {
+    this(appConfig.getInt("yb.query_executor.threads", 16),
+         appConfig.getInt("yb.query_executor.queue_size", 1000),
+         CollectorRegistry.defaultRegistry);
+    if (lifecycle != null) {
+      lifecycle.addStopHook(() -> {
+        LOG.info("Shutting down the query executor pool");
+        executor.shutdownNow();
+        return CompletableFuture.completedFuture(Done.done());
+      });
+    }
+  }
+
+  @VisibleForTesting
+  public FanOutExecutor(int threads, int queueSize, CollectorRegistry promRegistry) {
+    ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
+      .setNameFormat("Query-Executor-Pool-%d")
+      .setDaemon(true)
+      .build();
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                      new ArrayBlockingQueue<>(queueSize), namedThreadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    registerMetrics(promRegistry);
+  }
+
+  private void registerMetrics(CollectorRegistry promRegistry) {
+    try {
+      Gauge queued = Gauge.build(QUEUED_TASKS_METRIC_NAME,
+                                 "Number of tasks waiting for a thread of the query executor")
+        .register(promRegistry);
+      queued.setChild(new Gauge.Child() {
+        @Override
+        public double get() {
+          return executor.getQueue().size();
+        }
+      });
+      Gauge active = Gauge.build(ACTIVE_THREADS_METRIC_NAME,
+                                 "Number of threads of the query executor running a task")
+        .register(promRegistry);
+      active.setChild(new Gauge.Child() {
+        @Override
+        public double get() {
+          return executor.getActiveCount();
+        }
+      });
+      taskCount = Counter.build(TASKS_METRIC_NAME,
+                            "Number of tasks of the query executor, by how they ended")
+        .labelNames(RESULT_LABEL)
+        .register(promRegistry);
+      taskLatency = Summary.build(TASK_LATENCY_METRIC_NAME,
+                                  "Time the tasks of the query executor took to run")
+        .register(promRegistry);
+    } catch (IllegalArgumentException e) {
+      // Already registered by another instance, which only happens in tests.
+      LOG.warn("Failed to build prometheus metrics for the query executor: " + e.getMessage());
+    }
+  }
+
+  private void countTask(String result) {
+    if (taskCount != null) {
+      taskCount.labels(result).inc();
+    }
+  }
+
+  /**
+   * Runs the task on the pool.
+   *
+   * @return the future of its result, failed with a RejectedExecutionException if the pool is full
+   */
+  public <T> CompletableFuture<T> submit(Callable<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        if (future.isDone()) {
+          // Cancelled while it was queued.
+          return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+          T value = task.call();
+          countTask("ok");
+          future.complete(value);
+        } catch (Throwable t) {
+          countTask("failed");
+          future.completeExceptionally(t);
+        } finally {
+          if (taskLatency != null) {
+            taskLatency.observe(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      countTask("rejected");
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Runs the tasks on the pool, and waits for them up to the timeout.
+   *
+   * @param tasks the tasks, by the key their result is returned with
+   * @param timeoutMs how long to wait for the tasks, from when they are submitted
+   * @return the results of the tasks that completed in time, and which ones didn't
+   */
+  public <K, T> Result<K, T> fanOut(Map<K, ? extends Callable<T>> tasks, long timeoutMs) {
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    return await(submitAll(tasks), deadlineNanos);
+  }
+
+  /**
+   * Runs the tasks on the pool.
+   *
+   * @return the futures of their results, by the tasks' keys
+   */
+  public <K, T> Map<K, CompletableFuture<T>> submitAll(Map<K, ? extends Callable<T>> tasks) {
+    Map<K, CompletableFuture<T>> futures = new LinkedHashMap<>();
+    for (Map.Entry<K, ? extends Callable<T>> task : tasks.entrySet()) {
+      futures.put(task.getKey(), submit(task.getValue()));
+    }
+    return futures;
+  }
+
+  /**
+   * Waits for the futures up to the deadline. The ones not done by then are cancelled.
+   *
+   * @param deadlineNanos the deadline, in {@link System#nanoTime()}
+   */
+  public <K, T> Result<K, T> await(Map<K, CompletableFuture<T>> futures, long deadlineNanos) {
+    Result<K, T> result = new Result<>();
+    boolean interrupted = false;
+    for (Map.Entry<K, CompletableFuture<T>> entry : futures.entrySet()) {
+      CompletableFuture<T> future = entry.getValue();
+      try {
+        long remainingNanos = interrupted ? 0 : Math.max(0, deadlineNanos - System.nanoTime());
+        result.results.put(entry.getKey(), future.get(remainingNanos, TimeUnit.NANOSECONDS));
+      } catch (TimeoutException e) {
+        future.cancel(false);
+        countTask("timed_out");
+        result.timedOut.add(entry.getKey());
+      } catch (ExecutionException e) {
+        result.failed.put(entry.getKey(), e.getCause());
+      } catch (InterruptedException e) {
+        // Collect what's already done, and give up on the rest.
+        interrupted = true;
+        future.cancel(false);
+        result.timedOut.add(entry.getKey());
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return result;
+  }
+}
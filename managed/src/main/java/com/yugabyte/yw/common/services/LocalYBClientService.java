@@ -2,17 +2,38 @@
 
 package com.yugabyte.yw.common.services;
 
+import java.util.concurrent.CompletableFuture;
+
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.yb.client.ClientResources;
 import org.yb.client.YBClient;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import play.inject.ApplicationLifecycle;
+
 @Singleton
 public class LocalYBClientService implements YBClientService {
   public static final Logger LOG = LoggerFactory.getLogger(LocalYBClientService.class);
 
+  // Event loops and timer shared by all the clients, instead of each client starting its own.
+  private final ClientResources clientResources =
+      new ClientResources.ClientResourcesBuilder().build();
+
+  @Inject
+  public LocalYBClientService(ApplicationLifecycle lifecycle) {
+    if (lifecycle != null) {
+      lifecycle.addStopHook(() -> {
+        // The threads stop once the clients still open are closed as well.
+        clientResources.close();
+        return CompletableFuture.completedFuture(null);
+      });
+    }
+  }
+
   @Override
   public synchronized YBClient getClient(String masterHostPorts) {
     return getClient(masterHostPorts, null);
@@ -52,6 +73,7 @@ public class LocalYBClientService implements YBClientService {
                        .defaultAdminOperationTimeoutMs(120000)
                        .sslCertFile(rootCertFile)
                        .sslClientCertFiles(rpcClientCertFiles[0], rpcClientCertFiles[1])
+                       .clientResources(clientResources)
                        .build();
   }
 }
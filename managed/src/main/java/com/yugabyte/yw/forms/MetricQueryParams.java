@@ -20,6 +20,10 @@ public class MetricQueryParams {
 
   private String nodeName;
 
+  // How many points to return at most for each series, all of them if not set.
+  @Constraints.Min(3)
+  private Integer maxPoints;
+
   public List<String> getMetrics() {
     return metrics;
   }
@@ -59,4 +63,12 @@ public class MetricQueryParams {
   public void setNodeName(String nodeName) {
     this.nodeName = nodeName;
   }
+
+  public Integer getMaxPoints() {
+    return maxPoints;
+  }
+
+  public void setMaxPoints(Integer maxPoints) {
+    this.maxPoints = maxPoints;
+  }
 }
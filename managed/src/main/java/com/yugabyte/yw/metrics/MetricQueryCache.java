@@ -0,0 +1,311 @@
+// Copyright (c) YugaByte, Inc.
+
+package com.yugabyte.yw.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.yugabyte.yw.common.ApiHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Caches the results of Prometheus range queries, so that dashboards refreshing the same graphs
+ * don't query Prometheus again for what didn't change.
+ *
+ * <p>Range queries are aligned to their step, so that the points are always evaluated at
+ * multiples of the step, and split into chunks of CHUNK_POINTS points. The chunks that are old
+ * enough for their points not to change anymore are cached by (query, step), and a query only
+ * fetches the chunks that aren't cached, which usually is the newest one.
+ *
+ * <p>Identical fetches running at the same time, for a chunk or for a query that isn't cached,
+ * share the response of the first one instead of each querying Prometheus.
+ *
+ * <p>Responses are decoded as they're read, and the chunks are kept as {@link MetricSeries}, so
+ * that neither fetching nor caching builds a JSON node for each point.
+ */
+@Singleton
+public class MetricQueryCache {
+  public static final Logger LOG = LoggerFactory.getLogger(MetricQueryCache.class);
+
+  public static final int CHUNK_POINTS = 100;
+
+  private final ApiHelper apiHelper;
+
+  // How long after its last point a chunk may still change, because of late scrapes.
+  private final long settleSecs;
+
+  // The cached chunks, each the series of a range query.
+  private final Cache<ChunkKey, List<MetricSeries>> chunks;
+
+  private final ConcurrentMap<Object, CompletableFuture<MetricQueryResponse>> inFlight =
+    new ConcurrentHashMap<>();
+
+  /**
+   * The chunk of a query: its points from index * CHUNK_POINTS * step, in seconds.
+   */
+  private static class ChunkKey {
+    final String url;
+    final String query;
+    final long step;
+    final long index;
+
+    ChunkKey(String url, String query, long step, long index) {
+      this.url = url;
+      this.query = query;
+      this.step = step;
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ChunkKey)) {
+        return false;
+      }
+      ChunkKey other = (ChunkKey) o;
+      return step == other.step && index == other.index && url.equals(other.url) &&
+        query.equals(other.query);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(url, query, step, index);
+    }
+  }
+
+  @Inject
+  public MetricQueryCache(play.Configuration appConfig, ApiHelper apiHelper) {
+    this.apiHelper = apiHelper;
+    this.settleSecs = appConfig.getInt("yb.metrics.cache.settle_secs", 60);
+    this.chunks = CacheBuilder.newBuilder()
+      .maximumWeight(appConfig.getInt("yb.metrics.cache.max_points", 2000000))
+      .weigher((ChunkKey key, List<MetricSeries> series) -> countPoints(series) + 1)
+      .expireAfterAccess(appConfig.getInt("yb.metrics.cache.expiry_mins", 60), TimeUnit.MINUTES)
+      .build();
+  }
+
+  private static int countPoints(List<MetricSeries> series) {
+    int points = 0;
+    for (MetricSeries entry : series) {
+      points += entry.size();
+    }
+    return points;
+  }
+
+  /**
+   * Queries Prometheus, or the cache.
+   *
+   * @param queryUrl the url of the query or query_range API
+   * @param queryParam the query params, with the query's start, end and step for a range query
+   * @return the response of Prometheus, or one with the same series if it was cached
+   * @throws IOException if Prometheus sent a response that isn't valid
+   */
+  public MetricQueryResponse query(String queryUrl, Map<String, String> queryParam)
+      throws IOException {
+    long start, end, step;
+    try {
+      start = Long.parseLong(queryParam.get("start"));
+      end = Long.parseLong(queryParam.get("end"));
+      step = Long.parseLong(queryParam.get("step"));
+    } catch (NumberFormatException e) {
+      // Not a range query, or not one we can align.
+      return fetchOnce(new TreeMap<>(queryParam).toString() + "@" + queryUrl, queryUrl,
+                       queryParam, null);
+    }
+    if (step <= 0 || end < start || queryParam.get("query") == null) {
+      return fetchOnce(new TreeMap<>(queryParam).toString() + "@" + queryUrl, queryUrl,
+                       queryParam, null);
+    }
+    return queryRange(queryUrl, queryParam, start, end, step, nowSecs());
+  }
+
+  @VisibleForTesting
+  long nowSecs() {
+    return System.currentTimeMillis() / 1000;
+  }
+
+  private MetricQueryResponse queryRange(String queryUrl, Map<String, String> queryParam,
+                                         long start, long end, long step, long now)
+      throws IOException {
+    String query = queryParam.get("query");
+    long alignedStart = start - Math.floorMod(start, step);
+    long alignedEnd = end - Math.floorMod(end, step);
+    long chunkSpan = CHUNK_POINTS * step;
+
+    // The series, by their labels, with their points in order.
+    Map<Map<String, String>, SeriesBuilder> series = new LinkedHashMap<>();
+    for (long index = Math.floorDiv(alignedStart, chunkSpan);
+         index <= Math.floorDiv(alignedEnd, chunkSpan); index++) {
+      long chunkStart = index * chunkSpan;
+      long chunkEnd = chunkStart + chunkSpan - step;
+      List<MetricSeries> result;
+      if (chunkEnd + settleSecs < now) {
+        ChunkKey key = new ChunkKey(queryUrl, query, step, index);
+        result = chunks.getIfPresent(key);
+        if (result == null) {
+          MetricQueryResponse response = fetchOnce(
+            key, queryUrl, chunkParams(queryParam, chunkStart, chunkEnd, step),
+            fetched -> {
+              List<MetricSeries> fetchedResult = getResult(fetched);
+              if (fetchedResult != null) {
+                chunks.put(key, fetchedResult);
+              }
+            });
+          result = getResult(response);
+          if (result == null) {
+            return response;
+          }
+        }
+      } else {
+        // The newest points may still change, so they're fetched every time.
+        Map<String, String> tailParams = chunkParams(queryParam,
+                                                     Math.max(chunkStart, alignedStart),
+                                                     Math.min(chunkEnd, alignedEnd), step);
+        MetricQueryResponse response = fetchOnce(
+          new TreeMap<>(tailParams).toString() + "@" + queryUrl, queryUrl, tailParams, null);
+        result = getResult(response);
+        if (result == null) {
+          return response;
+        }
+      }
+      addPoints(series, result, alignedStart, alignedEnd);
+    }
+
+    List<MetricSeries> result = new ArrayList<>(series.size());
+    for (SeriesBuilder builder : series.values()) {
+      result.add(builder.build());
+    }
+    return MetricQueryResponse.ofSeries("matrix", result);
+  }
+
+  private static Map<String, String> chunkParams(Map<String, String> queryParam,
+                                                 long start, long end, long step) {
+    Map<String, String> params = new HashMap<>(queryParam);
+    params.put("start", Long.toString(start));
+    params.put("end", Long.toString(end));
+    params.put("step", Long.toString(step));
+    return params;
+  }
+
+  /**
+   * @return the series of a successful range query, or null if it failed
+   */
+  private static List<MetricSeries> getResult(MetricQueryResponse response) {
+    if (response == null || response.error != null || !"success".equals(response.status)) {
+      return null;
+    }
+    return response.getSeries();
+  }
+
+  /**
+   * The points of a series gathered from the chunks, in growing arrays.
+   */
+  private static class SeriesBuilder {
+    final Map<String, String> labels;
+    long[] timestamps = new long[CHUNK_POINTS];
+    double[] values = new double[CHUNK_POINTS];
+    int size = 0;
+
+    SeriesBuilder(Map<String, String> labels) {
+      this.labels = labels;
+    }
+
+    void add(long timestamp, double value) {
+      if (size == timestamps.length) {
+        timestamps = Arrays.copyOf(timestamps, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      timestamps[size] = timestamp;
+      values[size++] = value;
+    }
+
+    MetricSeries build() {
+      return new MetricSeries(labels, Arrays.copyOf(timestamps, size),
+                              Arrays.copyOf(values, size));
+    }
+  }
+
+  private static void addPoints(Map<Map<String, String>, SeriesBuilder> series,
+                                List<MetricSeries> result, long start, long end) {
+    // The series' timestamps are in milliseconds.
+    long startMs = start * 1000;
+    long endMs = end * 1000;
+    for (MetricSeries entry : result) {
+      SeriesBuilder points = series.computeIfAbsent(entry.labels, SeriesBuilder::new);
+      for (int i = 0; i < entry.size(); i++) {
+        long timestamp = entry.timestamps[i];
+        if (timestamp >= startMs && timestamp <= endMs) {
+          points.add(timestamp, entry.values[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fetches from Prometheus, unless the same fetch is already running, in which case this waits
+   * for its response instead.
+   *
+   * @param onFetched what to do with the response before the fetches waiting get it, if not null
+   */
+  private MetricQueryResponse fetchOnce(Object key, String queryUrl,
+                                        Map<String, String> queryParam,
+                                        Consumer<MetricQueryResponse> onFetched)
+      throws IOException {
+    CompletableFuture<MetricQueryResponse> fetch = new CompletableFuture<>();
+    CompletableFuture<MetricQueryResponse> running = inFlight.putIfAbsent(key, fetch);
+    if (running != null) {
+      LOG.trace("Waiting for the running metric query {}: {}", queryUrl, queryParam);
+      try {
+        return running.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    try {
+      LOG.trace("Executing metric query {}: {}", queryUrl, queryParam);
+      MetricQueryResponse response = apiHelper.getRequest(queryUrl, new HashMap<>(), queryParam,
+                                                          MetricQueryResponse::parse);
+      if (onFetched != null) {
+        onFetched.accept(response);
+      }
+      fetch.complete(response);
+      return response;
+    } catch (IOException | RuntimeException e) {
+      fetch.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, fetch);
+    }
+  }
+
+  /**
+   * Drops the cached chunks.
+   */
+  public void invalidateAll() {
+    chunks.invalidateAll();
+  }
+}
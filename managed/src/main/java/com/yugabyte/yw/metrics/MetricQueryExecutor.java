@@ -11,6 +11,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import play.libs.Json;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,20 +24,47 @@ public class MetricQueryExecutor implements Callable<JsonNode> {
   private ApiHelper apiHelper;
   private play.Configuration appConfig;
   private YBMetricQueryComponent ybMetricQueryComponent;
+  private MetricQueryCache metricQueryCache;
 
   private Map<String, String> queryParam = new HashMap<>();
   private Map<String, String> additionalFilters = new HashMap<>();
   private String queryUrl;
   private int queryRangeSecs = 0;
+  private int maxPoints = 0;
 
   public MetricQueryExecutor(play.Configuration appConfig, ApiHelper apiHelper,
                              Map<String, String> queryParam, Map<String, String> additionalFilters,
                              YBMetricQueryComponent ybMetricQueryComponent) {
+    this(appConfig, apiHelper, queryParam, additionalFilters, ybMetricQueryComponent, null);
+  }
+
+  /**
+   * @param metricQueryCache where to look for the results of Prometheus queries before running
+   *                         them, or null to always run them
+   */
+  public MetricQueryExecutor(play.Configuration appConfig, ApiHelper apiHelper,
+                             Map<String, String> queryParam, Map<String, String> additionalFilters,
+                             YBMetricQueryComponent ybMetricQueryComponent,
+                             MetricQueryCache metricQueryCache) {
+    this(appConfig, apiHelper, queryParam, additionalFilters, ybMetricQueryComponent,
+         metricQueryCache, 0);
+  }
+
+  /**
+   * @param maxPoints how many points to return at most for each series, which are downsampled to
+   *                  it, or 0 to return all the points
+   */
+  public MetricQueryExecutor(play.Configuration appConfig, ApiHelper apiHelper,
+                             Map<String, String> queryParam, Map<String, String> additionalFilters,
+                             YBMetricQueryComponent ybMetricQueryComponent,
+                             MetricQueryCache metricQueryCache, int maxPoints) {
+    this.maxPoints = maxPoints;
     this.apiHelper = apiHelper;
     this.appConfig = appConfig;
     this.queryParam.putAll(queryParam);
     this.additionalFilters.putAll(additionalFilters);
     this.ybMetricQueryComponent = ybMetricQueryComponent;
+    this.metricQueryCache = metricQueryCache;
     int scrapeIntervalSecs = appConfig.getInt("yb.metrics.scrape_interval_secs", 10);
     if (queryParam.containsKey("step")) {
       // Rate queries like rate(rpc_latency_count[rate_interval]) are performed over multiple
@@ -72,20 +100,40 @@ public class MetricQueryExecutor implements Callable<JsonNode> {
     return metricsUrl;
   }
 
-  private JsonNode getMetrics() {
-    boolean useNativeMetrics = appConfig.getBoolean("yb.metrics.useNative", false);
-    if (useNativeMetrics) {
-      return ybMetricQueryComponent.query(queryParam);
-    } else {
-        if (queryParam.containsKey("end")) {
-        this.queryUrl = this.getMetricsUrl() + "/query_range";
-      } else {
-        this.queryUrl = this.getMetricsUrl() + "/query";
-      }
+  private String getQueryUrl() {
+    if (queryParam.containsKey("end")) {
+      return this.getMetricsUrl() + "/query_range";
+    }
+    return this.getMetricsUrl() + "/query";
+  }
+
+  /**
+   * Gets the metrics decoded into series. A Prometheus response is decoded as it's read when it
+   * goes through the cache, which keeps the series, or when yb.metrics.stream_responses is set.
+   *
+   * @return the metrics, or null if there are none
+   */
+  private MetricQueryResponse getMetricsResponse() throws IOException {
+    if (appConfig.getBoolean("yb.metrics.useNative", false)) {
+      return parse(ybMetricQueryComponent.query(queryParam));
+    }
+    this.queryUrl = getQueryUrl();
+    if (metricQueryCache != null) {
+      return metricQueryCache.query(queryUrl, queryParam);
+    }
+    LOG.trace("Executing metric query {}: {}", queryUrl, queryParam);
+    if (appConfig.getBoolean("yb.metrics.stream_responses", false)) {
+      return apiHelper.getRequest(queryUrl, new HashMap<>(), queryParam,
+                                  MetricQueryResponse::parse);
+    }
+    return parse(apiHelper.getRequest(queryUrl, new HashMap<>(), queryParam));
+  }
 
-      LOG.trace("Executing metric query {}: {}", queryUrl, queryParam);
-      return apiHelper.getRequest(queryUrl, new HashMap<>(), queryParam);
+  private static MetricQueryResponse parse(JsonNode queryResponseJson) throws IOException {
+    if (queryResponseJson == null) {
+      return null;
     }
+    return MetricQueryResponse.parse(queryResponseJson.traverse(Json.mapper()));
   }
 
   @Override
@@ -103,19 +151,24 @@ public class MetricQueryExecutor implements Callable<JsonNode> {
       for (Map.Entry<String, String> e : queries.entrySet()) {
         String metric = e.getKey();
         queryParam.put("query", e.getValue());
-        JsonNode queryResponseJson = getMetrics();
-        if (queryResponseJson == null) {
+        MetricQueryResponse queryResponse;
+        try {
+          queryResponse = getMetricsResponse();
+        } catch (IOException e) {
+          LOG.error("Invalid response to metric query {}: {}", queryUrl, queryParam, e);
+          responseJson.put("error", "Invalid metrics response: " + e.getMessage());
+          break;
+        }
+        if (queryResponse == null) {
           responseJson.set("data", Json.toJson(new ArrayList<>()));
 
           return responseJson;
         }
-        MetricQueryResponse queryResponse =
-          Json.fromJson(queryResponseJson, MetricQueryResponse.class);
         if (queryResponse.error != null) {
           responseJson.put("error", queryResponse.error);
           break;
         } else {
-          output.addAll(queryResponse.getGraphData(metric, config.getLayout()));
+          output.addAll(queryResponse.getGraphData(metric, config.getLayout(), maxPoints));
         }
       }
       responseJson.set("data", Json.toJson(output));
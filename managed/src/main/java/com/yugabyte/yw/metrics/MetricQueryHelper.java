@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.yugabyte.yw.common.ApiHelper;
+import com.yugabyte.yw.common.FanOutExecutor;
 import com.yugabyte.yw.common.YWServiceException;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -15,7 +16,6 @@ import play.libs.Json;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.*;
 
 import static play.mvc.Http.Status.BAD_REQUEST;
 
@@ -24,7 +24,8 @@ public class MetricQueryHelper {
 
   public static final Logger LOG = LoggerFactory.getLogger(MetricQueryHelper.class);
   public static final Integer STEP_SIZE = 100;
-  public static final Integer QUERY_EXECUTOR_THREAD_POOL = 5;
+  // Downsampling keeps the first and last points, and at least one in between.
+  public static final int MIN_MAX_POINTS = 3;
   @Inject
   play.Configuration appConfig;
 
@@ -34,6 +35,12 @@ public class MetricQueryHelper {
   @Inject
   YBMetricQueryComponent ybMetricQueryComponent;
 
+  @Inject
+  MetricQueryCache metricQueryCache;
+
+  @Inject
+  FanOutExecutor fanOutExecutor;
+
   /**
    * Query prometheus for a given metricType and query params
    *
@@ -50,7 +57,8 @@ public class MetricQueryHelper {
    * Query prometheus for a given metricType and query params
    *
    * @param params, Query params like start, end timestamps, even filters Ex: {"metricKey":
-   *                "cpu_usage_user", "start": <start timestamp>, "end": <end timestamp>}
+   *                "cpu_usage_user", "start": <start timestamp>, "end": <end timestamp>}, and
+   *                maxPoints, how many points to return at most for each series
    * @return MetricQueryResponse Object
    */
   public JsonNode query(
@@ -77,6 +85,21 @@ public class MetricQueryHelper {
       params.put("step", String.valueOf(resolution));
     }
 
+    // Not a Prometheus param, the points are downsampled once queried.
+    int maxPoints = 0;
+    String maxPointsParam = params.remove("maxPoints");
+    if (maxPointsParam != null) {
+      try {
+        maxPoints = Integer.parseInt(maxPointsParam);
+      } catch (NumberFormatException e) {
+        maxPoints = -1;
+      }
+      if (maxPoints < MIN_MAX_POINTS) {
+        throw new YWServiceException(
+          BAD_REQUEST, "Invalid maxPoints provided, it should be at least " + MIN_MAX_POINTS + ".");
+      }
+    }
+
     HashMap<String, String> additionalFilters = new HashMap<>();
     if (params.containsKey("filters")) {
       try {
@@ -94,8 +117,9 @@ public class MetricQueryHelper {
       return Json.newObject();
     }
 
-    ExecutorService threadPool = Executors.newFixedThreadPool(QUERY_EXECUTOR_THREAD_POOL);
-    Set<Future<JsonNode>> futures = new HashSet<Future<JsonNode>>();
+    MetricQueryCache cache =
+      appConfig.getBoolean("yb.metrics.cache.enabled", false) ? metricQueryCache : null;
+    Map<String, MetricQueryExecutor> tasks = new LinkedHashMap<>();
     for (String metricKey : metricKeys) {
       Map<String, String> queryParams = params;
       queryParams.put("queryKey", metricKey);
@@ -105,28 +129,38 @@ public class MetricQueryHelper {
         additionalFilters.putAll(specificFilters);
       }
 
-      Callable<JsonNode> callable =
-        new MetricQueryExecutor(
-          appConfig, apiHelper, queryParams, additionalFilters, ybMetricQueryComponent);
-      Future<JsonNode> future = threadPool.submit(callable);
-      futures.add(future);
+      tasks.put(metricKey, new MetricQueryExecutor(
+        appConfig, apiHelper, queryParams, additionalFilters, ybMetricQueryComponent, cache,
+        maxPoints));
     }
 
-    ObjectNode responseJson = Json.newObject();
-    for (Future<JsonNode> future : futures) {
-      JsonNode response = Json.newObject();
-      try {
-        response = future.get();
-      } catch (InterruptedException | ExecutionException e) {
-        LOG.error("Error fetching metrics data", e);
-      }
+    int timeoutMs = appConfig.getInt("yb.metrics.query_timeout_ms", 60000);
+    FanOutExecutor.Result<String, JsonNode> result = fanOutExecutor.fanOut(tasks, timeoutMs);
 
-      responseJson.set(response.get("queryKey").asText(), response);
+    // The metrics that didn't make it get an error, so that the others can still be graphed.
+    ObjectNode responseJson = Json.newObject();
+    for (Map.Entry<String, JsonNode> response : result.getResults().entrySet()) {
+      responseJson.set(response.getKey(), response.getValue());
+    }
+    for (String metricKey : result.getTimedOut()) {
+      LOG.warn("Timed out fetching metrics data for {} after {} ms", metricKey, timeoutMs);
+      responseJson.set(metricKey, errorJson(metricKey, "Timed out after " + timeoutMs + " ms"));
+    }
+    for (Map.Entry<String, Throwable> failure : result.getFailed().entrySet()) {
+      LOG.error("Error fetching metrics data", failure.getValue());
+      String error = String.valueOf(failure.getValue().getMessage());
+      responseJson.set(failure.getKey(), errorJson(failure.getKey(), error));
     }
-    threadPool.shutdown();
     return responseJson;
   }
 
+  private static ObjectNode errorJson(String metricKey, String error) {
+    ObjectNode errorJson = Json.newObject();
+    errorJson.put("queryKey", metricKey);
+    errorJson.put("error", error);
+    return errorJson;
+  }
+
   /**
    * Query Prometheus via HTTP for metric values
    *
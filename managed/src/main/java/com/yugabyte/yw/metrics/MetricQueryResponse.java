@@ -1,17 +1,22 @@
 // Copyright (c) YugaByte, Inc.
 package com.yugabyte.yw.metrics;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
@@ -53,6 +58,192 @@ public class MetricQueryResponse {
 
 
 
+  // The series of the result, decoded by parse() or from the result the first time they're needed.
+  @JsonIgnore
+  private List<MetricSeries> series;
+
+  /**
+   * @return a successful response whose result is the given series
+   */
+  static MetricQueryResponse ofSeries(String resultType, List<MetricSeries> series) {
+    MetricQueryResponse response = new MetricQueryResponse();
+    response.status = "success";
+    response.data = new MetricsData();
+    response.data.resultType = resultType;
+    response.series = series;
+    return response;
+  }
+
+  /**
+   * Decodes a Prometheus query response token by token, the series of its result straight into
+   * {@link MetricSeries}, without binding them to JSON nodes first.
+   *
+   * @param parser a parser positioned before the response object
+   * @return the response, whose data has the result type but not the result, which is in the
+   *         series instead
+   */
+  public static MetricQueryResponse parse(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new JsonParseException(parser, "Expected a metrics response object");
+    }
+    MetricQueryResponse response = new MetricQueryResponse();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      switch (field) {
+        case "status":
+          response.status = parser.getValueAsString();
+          break;
+        case "errorType":
+          response.errorType = parser.getValueAsString();
+          break;
+        case "error":
+          // Our own error responses may have an object as the error.
+          response.error = token.isScalarValue() ?
+            parser.getValueAsString() : parser.readValueAsTree().toString();
+          break;
+        case "data":
+          if (token == JsonToken.START_OBJECT) {
+            response.data = new MetricsData();
+            response.series = new ArrayList<>();
+            parseData(parser, response.data, response.series);
+          } else {
+            parser.skipChildren();
+          }
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return response;
+  }
+
+  private static void parseData(JsonParser parser, MetricsData data, List<MetricSeries> series)
+      throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (field.equals("resultType")) {
+        data.resultType = parser.getValueAsString();
+      } else if (field.equals("result") && token == JsonToken.START_ARRAY) {
+        parseResult(parser, series);
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  /**
+   * Decodes the series of a result, the parser being at its start.
+   */
+  private static void parseResult(JsonParser parser, List<MetricSeries> series)
+      throws IOException {
+    // Vectors and matrices are arrays of series, scalars and strings a single point, which isn't
+    // a series and is skipped.
+    JsonToken token;
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      if (token == JsonToken.START_OBJECT) {
+        series.add(parseSeries(parser));
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static MetricSeries parseSeries(JsonParser parser) throws IOException {
+    Map<String, String> labels = new LinkedHashMap<>();
+    long[] timestamps = new long[16];
+    double[] values = new double[16];
+    int size = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (field.equals("metric") && token == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String label = parser.getCurrentName();
+          parser.nextToken();
+          labels.put(label, parser.getValueAsString());
+          parser.skipChildren();
+        }
+      } else if (field.equals("values") && token == JsonToken.START_ARRAY) {
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+          if (token != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            continue;
+          }
+          if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+          }
+          parsePoint(parser, timestamps, values, size++);
+        }
+      } else if (field.equals("value") && token == JsonToken.START_ARRAY) {
+        size = 0;
+        parsePoint(parser, timestamps, values, size++);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (size != timestamps.length) {
+      timestamps = Arrays.copyOf(timestamps, size);
+      values = Arrays.copyOf(values, size);
+    }
+    return new MetricSeries(labels, timestamps, values);
+  }
+
+  /**
+   * Decodes a [timestamp in seconds, "value"] point, the parser being at its start.
+   */
+  private static void parsePoint(JsonParser parser, long[] timestamps, double[] values, int i)
+      throws IOException {
+    JsonToken token = parser.nextToken();
+    timestamps[i] = token.isNumeric() ? Math.round(parser.getDoubleValue() * 1000) :
+      Math.round(Double.parseDouble(parser.getText()) * 1000);
+    token = parser.nextToken();
+    if (token == JsonToken.END_ARRAY) {
+      values[i] = Double.NaN;
+      return;
+    }
+    values[i] = token.isNumeric() ? parser.getDoubleValue() : parseValue(parser.getText());
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      parser.skipChildren();
+    }
+  }
+
+  private static double parseValue(String value) {
+    switch (value) {
+      case "+Inf":
+        return Double.POSITIVE_INFINITY;
+      case "-Inf":
+        return Double.NEGATIVE_INFINITY;
+      default:
+        try {
+          return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+          return Double.NaN;
+        }
+    }
+  }
+
+  /**
+   * @return the series of the result, or null if there is no result
+   */
+  public List<MetricSeries> getSeries() {
+    if (series == null && data != null && data.result != null) {
+      // Bound from a JSON tree rather than parsed, the series are read from the tree.
+      List<MetricSeries> treeSeries = new ArrayList<>();
+      try {
+        JsonParser parser = data.result.traverse(Json.mapper());
+        parser.nextToken();
+        parseResult(parser, treeSeries);
+      } catch (IOException e) {
+        LOG.error("Invalid metrics result: {}", data.result, e);
+      }
+      series = treeSeries;
+    }
+    return series;
+  }
+
   /**
    * Format MetricQueryResponse object as a json for graph(plot.ly) consumption.
    * @param layout, MetricConfig.Layout object
@@ -61,20 +252,37 @@ public class MetricQueryResponse {
   public ArrayList<MetricGraphData> getGraphData(
       String metricName,
       MetricConfig.Layout layout) {
+    return getGraphData(metricName, layout, 0);
+  }
+
+  /**
+   * Format MetricQueryResponse object as a json for graph(plot.ly) consumption.
+   * @param layout, MetricConfig.Layout object
+   * @param maxPoints, how many points to graph at most for each series, which are downsampled to
+   *                   it, or 0 to graph all the points
+   * @return JsonNode, Json data that plot.ly can understand
+   */
+  public ArrayList<MetricGraphData> getGraphData(
+      String metricName,
+      MetricConfig.Layout layout,
+      int maxPoints) {
     ArrayList<MetricGraphData> metricGraphDataList = new ArrayList<>();
-    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    List<MetricSeries> resultSeries = getSeries();
+    if (resultSeries == null) {
+      return metricGraphDataList;
+    }
 
-    for (final JsonNode objNode : data.result) {
+    for (final MetricSeries resultEntry : resultSeries) {
       MetricGraphData metricGraphData = new MetricGraphData();
-      JsonNode metricInfo = objNode.get("metric");
+      MetricSeries entrySeries = maxPoints > 0 ? resultEntry.downsample(maxPoints) : resultEntry;
+      Map<String, String> metricInfo = entrySeries.labels;
 
-      if (metricInfo.has("node_prefix")) {
-        metricGraphData.name = metricInfo.get("node_prefix").asText();
+      if (metricInfo.containsKey("node_prefix")) {
+        metricGraphData.name = metricInfo.get("node_prefix");
       } else if (metricInfo.size() == 1) {
         // If we have a group_by clause, the group by name would be the only
         // key in the metrics data, fetch that and use that as the name
-        String key = metricInfo.fieldNames().next();
-        metricGraphData.name = metricInfo.get(key).asText();
+        metricGraphData.name = metricInfo.values().iterator().next();
       } else if (metricInfo.size() == 0) {
         // TODO: This is 0 for the special metrics where we would like to grou by __name__ but
         // PromQL seems to not allow for that. As such, we default the metric name to the one
@@ -95,21 +303,20 @@ public class MetricQueryResponse {
             boolean validLabels = false;
             for (String key : entry.getKey().split(",")) {
               validLabels = false;
-              // Java conversion from Iterator to Iterable...
-              for (JsonNode metricEntry : (Iterable<JsonNode>)() -> metricInfo.elements()) {
+              for (String metricEntry : metricInfo.values()) {
                 // In case we want to graph per server, we want to display the node name.
                 if (layout.yaxis.alias.containsKey("useInstanceName")) {
-                  metricGraphData.name = metricInfo.get("exported_instance").asText();
+                  metricGraphData.name = metricInfo.get("exported_instance");
                   // If the alias contains more entries, we want to highlight it via the
                   // saved name of the metric.
                   if (layout.yaxis.alias.entrySet().size() > 1) {
                     metricGraphData.name = metricGraphData.name + "-" +
-                                           metricInfo.get("saved_name").asText();
+                                           metricInfo.get("saved_name");
                   }
                   validLabels = false;
                   break;
                 }
-                if (metricEntry.asText().equals(key)) {
+                if (metricEntry.equals(key)) {
                   validLabels = true;
                   break;
                 }
@@ -123,28 +330,19 @@ public class MetricQueryResponse {
             }
           }
         } else {
-          metricGraphData.labels = new HashMap<String, String>();
-          metricInfo.fields().forEachRemaining(handler -> {
-            metricGraphData.labels.put(handler.getKey(), handler.getValue().asText());
-          });
+          metricGraphData.labels = new HashMap<String, String>(metricInfo);
         }
       }
 
-      if (objNode.has("values")) {
-        for (final JsonNode valueNode: objNode.get("values")) {
-          metricGraphData.x.add(valueNode.get(0).asLong() * 1000);
-          JsonNode val = valueNode.get(1);
-          if (val.asText().equals("NaN")) {
-            metricGraphData.y.add(0);
-          } else {
-            metricGraphData.y.add(val);
-          }
-        }
-      } else if (objNode.has("value")) {
-        metricGraphData.x.add(objNode.get("value").get(0).asLong() * 1000);
-        JsonNode val = objNode.get("value").get(1);
-        if (val.asText().equals("NaN")) {
+      // The points are added as numbers, rather than as the strings Prometheus sends.
+      for (int i = 0; i < entrySeries.size(); i++) {
+        metricGraphData.x.add(entrySeries.timestamps[i]);
+        double val = entrySeries.values[i];
+        if (Double.isNaN(val)) {
           metricGraphData.y.add(0);
+        } else if (Double.isInfinite(val)) {
+          // Not a JSON number.
+          metricGraphData.y.add(val > 0 ? "+Inf" : "-Inf");
         } else {
           metricGraphData.y.add(val);
         }
@@ -160,46 +358,28 @@ public class MetricQueryResponse {
    * the MetricQueryResponse.Entry format.
    */
   public ArrayList<MetricQueryResponse.Entry> getValues() {
-    if (this.data == null || this.data.result == null) {
+    List<MetricSeries> resultSeries = getSeries();
+    if (resultSeries == null) {
       return null;
     }
     ArrayList<MetricQueryResponse.Entry> result = new ArrayList<>();
-    ObjectMapper objMapper = new ObjectMapper();
-    for (final JsonNode entryNode : this.data.result) {
-      try {
-        final JsonNode metricNode = entryNode.get("metric");
-        final JsonNode valueNode = entryNode.get("value");
-        final JsonNode valuesNode = entryNode.get("values");
-        if (metricNode == null || (valueNode == null && valuesNode == null)) {
-          LOG.trace("Skipping json node while parsing prom response: {}", entryNode);
-          continue;
-        }
-        MetricQueryResponse.Entry entry = new MetricQueryResponse.Entry();
-        entry.labels = objMapper.convertValue(metricNode, HashMap.class);
-        entry.values = new ArrayList<>();
-        if (valueNode != null) {
-          entry.values.add(new ImmutablePair<>(
-            new Double(valueNode.get(0).asText()), // timestamp
-            new Double(valueNode.get(1).asText()) // value
-          ));
-        } else if (valuesNode != null) {
-          entry.values = new ArrayList<>();
-          Iterator<JsonNode> elements = valuesNode.elements();
-          while (elements.hasNext()) {
-            final JsonNode eachValueNode = elements.next();
-            entry.values.add(new ImmutablePair<>(
-              new Double(eachValueNode.get(0).asText()), // timestamp
-              new Double(eachValueNode.get(1).asText()) // value
-            ));
-          }
-        }
-        result.add(entry);
-      } catch (Exception e) {
-        LOG.debug("Skipping json node while parsing prometheus response: {}", entryNode, e);
+    for (final MetricSeries entrySeries : resultSeries) {
+      if (entrySeries.size() == 0) {
+        LOG.trace("Skipping series without values while parsing prom response: {}",
+                  entrySeries.labels);
+        continue;
+      }
+      MetricQueryResponse.Entry entry = new MetricQueryResponse.Entry();
+      entry.labels = new HashMap<>(entrySeries.labels);
+      entry.values = new ArrayList<>(entrySeries.size());
+      for (int i = 0; i < entrySeries.size(); i++) {
+        entry.values.add(new ImmutablePair<>(
+          entrySeries.timestamps[i] / 1000.0, // timestamp
+          entrySeries.values[i] // value
+        ));
       }
+      result.add(entry);
     }
     return result;
   }
-
-
 }
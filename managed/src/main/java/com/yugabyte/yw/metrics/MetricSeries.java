@@ -0,0 +1,91 @@
+// Copyright (c) YugaByte, Inc.
+
+package com.yugabyte.yw.metrics;
+
+import java.util.Map;
+
+/**
+ * A series of a Prometheus query result: its labels, and its points in primitive arrays rather
+ * than as a JSON node each, as a long range over many nodes has millions of them.
+ */
+public class MetricSeries {
+  public final Map<String, String> labels;
+  // The timestamps of the points, in milliseconds.
+  public final long[] timestamps;
+  public final double[] values;
+
+  public MetricSeries(Map<String, String> labels, long[] timestamps, double[] values) {
+    this.labels = labels;
+    this.timestamps = timestamps;
+    this.values = values;
+  }
+
+  public int size() {
+    return timestamps.length;
+  }
+
+  /**
+   * Downsamples the series to at most maxPoints points with Largest-Triangle-Three-Buckets, which
+   * keeps the first and last points and, from each bucket of the points in between, the one
+   * making the largest triangle with the point kept before it and the average of the next
+   * bucket. Unlike averaging, this keeps the spikes and dips the graph is looked at for.
+   *
+   * @param maxPoints how many points to keep at most, at least 3
+   * @return the downsampled series, or this one if it's small enough
+   */
+  public MetricSeries downsample(int maxPoints) {
+    int size = size();
+    if (maxPoints < 3 || size <= maxPoints) {
+      return this;
+    }
+    long[] sampledTimestamps = new long[maxPoints];
+    double[] sampledValues = new double[maxPoints];
+    sampledTimestamps[0] = timestamps[0];
+    sampledValues[0] = values[0];
+
+    // The points between the first and the last are split into maxPoints - 2 buckets.
+    double bucketSize = (double) (size - 2) / (maxPoints - 2);
+    int kept = 0;
+    for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+      // The average of the next bucket, which is the last point for the last bucket.
+      int nextStart = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+      int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, size);
+      double nextX = 0;
+      double nextY = 0;
+      for (int i = nextStart; i < nextEnd; i++) {
+        nextX += timestamps[i] - timestamps[0];
+        nextY += graphValue(values[i]);
+      }
+      nextX /= nextEnd - nextStart;
+      nextY /= nextEnd - nextStart;
+
+      int start = (int) Math.floor(bucket * bucketSize) + 1;
+      int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+      double keptX = timestamps[kept] - timestamps[0];
+      double keptY = graphValue(values[kept]);
+      double maxArea = -1;
+      int next = start;
+      for (int i = start; i < end; i++) {
+        // Twice the area, which is all the comparison needs.
+        double area = Math.abs((keptX - nextX) * (graphValue(values[i]) - keptY) -
+                               (keptX - (timestamps[i] - timestamps[0])) * (nextY - keptY));
+        if (area > maxArea) {
+          maxArea = area;
+          next = i;
+        }
+      }
+      sampledTimestamps[bucket + 1] = timestamps[next];
+      sampledValues[bucket + 1] = values[next];
+      kept = next;
+    }
+
+    sampledTimestamps[maxPoints - 1] = timestamps[size - 1];
+    sampledValues[maxPoints - 1] = values[size - 1];
+    return new MetricSeries(labels, sampledTimestamps, sampledValues);
+  }
+
+  // Missing values are graphed as 0.
+  private static double graphValue(double value) {
+    return Double.isNaN(value) ? 0 : value;
+  }
+}
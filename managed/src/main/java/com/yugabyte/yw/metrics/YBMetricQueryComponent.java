@@ -1,11 +1,21 @@
 // Copyright (c) YugaByte, Inc.
 package com.yugabyte.yw.metrics;
 
+import akka.Done;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.yugabyte.yw.common.SslHelper;
@@ -18,10 +28,17 @@ import org.slf4j.LoggerFactory;
 import org.yb.client.ListTabletServersResponse;
 import org.yb.client.YBClient;
 import org.yb.util.ServerInfo;
+import play.inject.ApplicationLifecycle;
 
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 @Singleton
 public class YBMetricQueryComponent {
@@ -66,8 +83,8 @@ public class YBMetricQueryComponent {
                                                 "\"result\":%s}}";
 
   private static final String METRICS_TABLE = "system.metrics";
-  private static final String QUERY_FORMAT = "select * from %s where metric = '%s' " +
-                                             "and node = '%s' and ts >= %d and ts < %d";
+  private static final String QUERY_FORMAT = "select * from %s where metric = ? " +
+                                             "and node = ? and ts >= ? and ts < ?";
 
   // Array of metrics whose values should be retrieved from details column instead of value column.
   private static final List<String> METRICS_WITH_DETAILS_VALUE = Arrays.asList(
@@ -90,18 +107,47 @@ public class YBMetricQueryComponent {
   @Inject
   YBClientService ybService;
 
+  @Inject
+  play.Configuration appConfig;
+
+  @Inject
+  ApplicationLifecycle lifecycle;
+
+  // The connections to the universes, closed once unused for yb.metrics.native_session_idle_mins.
+  private Cache<UUID, CassandraConnection> connections = null;
+
+  // Closes the idle connections, which the cache only does when it's used.
+  private ScheduledExecutorService cleaner = null;
+
+  // How many queries may run on the session of a universe at the same time.
+  private int maxQueriesInFlight;
+
   public enum Function {
     Sum,
     Average
   }
 
-  private static class CassandraConnection {
+  static class CassandraConnection {
     Cluster cluster = null;
     Session session = null;
+    PreparedStatement selectQuery = null;
+    // A permit for each query running on the session, so that a request for many tservers
+    // doesn't send them all at once.
+    final Semaphore queriesInFlight;
+
+    CassandraConnection(int maxQueriesInFlight) {
+      queriesInFlight = new Semaphore(maxQueriesInFlight);
+    }
+
+    void close() {
+      if (session != null) session.close();
+      if (cluster != null) cluster.close();
+    }
   }
 
-  private CassandraConnection createCassandraConnection(UUID universeUUID) {
-    CassandraConnection cc = new CassandraConnection();
+  @VisibleForTesting
+  CassandraConnection createCassandraConnection(UUID universeUUID) {
+    CassandraConnection cc = new CassandraConnection(maxQueriesInFlight);
     List<InetSocketAddress> addresses = Util.getNodesAsInet(universeUUID);
     if (addresses.isEmpty()) {
       return cc;
@@ -114,7 +160,77 @@ public class YBMetricQueryComponent {
     }
     cc.cluster = builder.build();
 
-    cc.session = cc.cluster.connect();
+    try {
+      cc.session = cc.cluster.connect();
+      cc.selectQuery = cc.session.prepare(String.format(QUERY_FORMAT, METRICS_TABLE));
+    } catch (RuntimeException e) {
+      cc.close();
+      throw e;
+    }
+    return cc;
+  }
+
+  private synchronized Cache<UUID, CassandraConnection> getConnections() {
+    if (connections == null) {
+      int idleMins = appConfig.getInt("yb.metrics.native_session_idle_mins", 10);
+      maxQueriesInFlight = appConfig.getInt("yb.metrics.native_max_queries_in_flight", 64);
+      connections = CacheBuilder.newBuilder()
+        .expireAfterAccess(idleMins, TimeUnit.MINUTES)
+        .removalListener((RemovalNotification<UUID, CassandraConnection> notification) -> {
+          LOG.info("Closing the metrics session of universe {}", notification.getKey());
+          notification.getValue().close();
+        })
+        .build();
+      // The cache only evicts when it's used, so the idle sessions are closed from here.
+      cleaner = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+          .setNameFormat("Native-Metrics-Session-Cleaner")
+          .setDaemon(true)
+          .build());
+      cleaner.scheduleWithFixedDelay(connections::cleanUp, 1, 1, TimeUnit.MINUTES);
+      if (lifecycle != null) {
+        lifecycle.addStopHook(() -> {
+          close();
+          return CompletableFuture.completedFuture(Done.done());
+        });
+      }
+    }
+    return connections;
+  }
+
+  /**
+   * Closes the sessions of the universes and stops the cleaner. A later query opens them again.
+   */
+  @VisibleForTesting
+  synchronized void close() {
+    if (connections == null) {
+      return;
+    }
+    LOG.info("Closing the native metrics sessions");
+    cleaner.shutdownNow();
+    connections.invalidateAll();
+    cleaner = null;
+    connections = null;
+  }
+
+  /**
+   * @return the connection to the universe, opened if there isn't one yet, or null if the
+   *         universe can't be connected to
+   */
+  @VisibleForTesting
+  CassandraConnection getCassandraConnection(UUID universeUUID) {
+    CassandraConnection cc;
+    try {
+      cc = getConnections().get(universeUUID, () -> createCassandraConnection(universeUUID));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      LOG.error("Failed to connect to universe " + universeUUID, e.getCause());
+      return null;
+    }
+    if (cc.session == null) {
+      // The universe has no nodes yet, try again next time.
+      getConnections().invalidate(universeUUID);
+      return null;
+    }
     return cc;
   }
 
@@ -126,6 +242,43 @@ public class YBMetricQueryComponent {
     }
   }
 
+  /**
+   * The points of a metric for a tserver, in primitive arrays in the order they were read, which
+   * is newest first.
+   */
+  static class NodeRows {
+    final String node;
+    long[] timestampsSec = new long[64];
+    double[] values = new double[64];
+    int size = 0;
+
+    NodeRows(String node) {
+      this.node = node;
+    }
+
+    void add(long timestampSec, double value) {
+      if (size == timestampsSec.length) {
+        timestampsSec = Arrays.copyOf(timestampsSec, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      timestampsSec[size] = timestampSec;
+      values[size] = value;
+      size++;
+    }
+
+    static NodeRows read(String node, String metric, ResultSet rs) {
+      NodeRows rows = new NodeRows(node);
+      boolean detailsValue = METRICS_WITH_DETAILS_VALUE.contains(metric);
+      for (Row row : rs) {
+        double value = detailsValue ?
+          Util.convertStringToJson(row.getString("details")).get("value").asDouble() :
+          (double) row.getLong("value");
+        rows.add(row.getTimestamp("ts").getTime() / 1000, value);
+      }
+      return rows;
+    }
+  }
+
   static class TServerMappings {
     public Map<String, String> nameToUUID;
     public Map<String, String> uuidToIP;
@@ -169,12 +322,25 @@ public class YBMetricQueryComponent {
     return new TServerMappings(nameToUUID, uuidToIP);
   }
 
-  private ResultSet cassandraTserverSelectQuery(String metric, String tserverUUID,
-                                                Session session,
-                                                long startMs, long endMs) {
-    String queryString = String.format(QUERY_FORMAT, METRICS_TABLE, metric, tserverUUID,
-      (startMs * 1000), (endMs * 1000));
-    return session.execute(queryString);
+  /**
+   * Starts the query of a metric for a tserver, once fewer than
+   * yb.metrics.native_max_queries_in_flight queries are running on the session.
+   */
+  @VisibleForTesting
+  ResultSetFuture cassandraTserverSelectQuery(String metric, String tserverUUID,
+                                              CassandraConnection cc,
+                                              long startSecs, long endSecs) {
+    cc.queriesInFlight.acquireUninterruptibly();
+    ResultSetFuture future;
+    try {
+      future = cc.session.executeAsync(cc.selectQuery.bind(
+        metric, tserverUUID, new Date(startSecs * 1000), new Date(endSecs * 1000)));
+    } catch (RuntimeException e) {
+      cc.queriesInFlight.release();
+      throw e;
+    }
+    future.addListener(cc.queriesInFlight::release, MoreExecutors.directExecutor());
+    return future;
   }
 
   // Convert the map to the required output format.
@@ -199,8 +365,10 @@ public class YBMetricQueryComponent {
 
   public NavigableMap<Long, Double> calculateRate(List<ResultSet> results, Function function,
                                               int numTservers) {
-    NavigableMap<Long, Double> timeRangeMap = new TreeMap<>();
+    List<NodeRows> rates = new ArrayList<>();
     for (ResultSet rs : results) {
+      NodeRows nodeRates = new NodeRows(null);
+      rates.add(nodeRates);
       long currTimestampSec;
       long prevTimestampSec = 0;
       double currRate;
@@ -214,7 +382,7 @@ public class YBMetricQueryComponent {
         currVal = getValue(row);
         if (start) {
           if (!rowIter.hasNext()) {
-            return timeRangeMap;
+            return bucket(rates, function, numTservers);
           }
           row = rowIter.next();
           prevVal = currVal;
@@ -229,20 +397,78 @@ public class YBMetricQueryComponent {
           currRate = (prevVal - currVal) /
                      (prevTimestampSec - currTimestampSec);
         }
-        Entry<Long, Double> entry = timeRangeMap.floorEntry(currTimestampSec);
-        // In case there is no entry lower than that, or the entry lower than the key
-        // is older than the range for the same timestamped metric.
-        if (entry == null || currTimestampSec - entry.getKey() > TIMESTAMP_RANGE_SECS) {
-          double calcVal = compute(function, 0.0, currRate, numTservers);
-          timeRangeMap.put(currTimestampSec, calcVal);
-        } else {
-          double calcVal = compute(function, entry.getValue(), currRate, numTservers);
-          timeRangeMap.put(entry.getKey(), calcVal);
-        }
+        nodeRates.add(currTimestampSec, currRate);
         prevVal = currVal;
         prevTimestampSec = currTimestampSec;
       }
     }
+    return bucket(rates, function, numTservers);
+  }
+
+  /**
+   * Same as calculateRate, on the rows already read.
+   */
+  private NavigableMap<Long, Double> calculateRowsRate(List<NodeRows> results, Function function,
+                                                       int numTservers) {
+    List<NodeRows> rates = new ArrayList<>();
+    for (NodeRows rows : results) {
+      NodeRows nodeRates = new NodeRows(rows.node);
+      for (int i = 1; i < rows.size; i++) {
+        long prevTimestampSec = rows.timestampsSec[i - 1];
+        long currTimestampSec = rows.timestampsSec[i];
+        if (prevTimestampSec != currTimestampSec) {
+          nodeRates.add(currTimestampSec, (rows.values[i - 1] - rows.values[i]) /
+                                          (prevTimestampSec - currTimestampSec));
+        }
+      }
+      rates.add(nodeRates);
+    }
+    return bucket(rates, function, numTservers);
+  }
+
+  /**
+   * Groups the points of all the tservers by TIMESTAMP_RANGE_SECS, and computes the function over
+   * each group. The points are sorted newest first, and a group holds the points less than
+   * TIMESTAMP_RANGE_SECS older than its newest one, whose timestamp it gets.
+   */
+  private NavigableMap<Long, Double> bucket(List<NodeRows> results, Function function,
+                                            int numTservers) {
+    int total = 0;
+    for (NodeRows rows : results) {
+      total += rows.size;
+    }
+    // Each point is sorted by its timestamp in the high bits, and its position in the low bits,
+    // reversed so that the points with the same timestamp are taken in the order they were read.
+    long[] keys = new long[total];
+    double[] values = new double[total];
+    int i = 0;
+    for (NodeRows rows : results) {
+      for (int j = 0; j < rows.size; j++, i++) {
+        keys[i] = (rows.timestampsSec[j] << 32) | (0xFFFFFFFFL - i);
+        values[i] = rows.values[j];
+      }
+    }
+    Arrays.sort(keys);
+
+    NavigableMap<Long, Double> timeRangeMap = new TreeMap<>();
+    long bucketTimestampSec = 0;
+    double bucketVal = 0;
+    for (i = total - 1; i >= 0; i--) {
+      long timestampSec = keys[i] >> 32;
+      double val = values[(int) (0xFFFFFFFFL - (keys[i] & 0xFFFFFFFFL))];
+      if (i == total - 1 || bucketTimestampSec - timestampSec >= TIMESTAMP_RANGE_SECS) {
+        if (i != total - 1) {
+          timeRangeMap.put(bucketTimestampSec, bucketVal);
+        }
+        bucketTimestampSec = timestampSec;
+        bucketVal = compute(function, 0.0, val, numTservers);
+      } else {
+        bucketVal = compute(function, bucketVal, val, numTservers);
+      }
+    }
+    if (total > 0) {
+      timeRangeMap.put(bucketTimestampSec, bucketVal);
+    }
     return timeRangeMap;
   }
 
@@ -270,46 +496,66 @@ public class YBMetricQueryComponent {
     return timeToVal;
   }
 
-  private NavigableMap<Long, Double> convertToGb(List<ResultSet> results) {
+  private NavigableMap<Long, Double> convertToGb(List<NodeRows> results) {
     return divideByConstant(results, BYTES_IN_GB);
   }
 
-  private NavigableMap<Long, Double> divideByConstant(List<ResultSet> results, double denom) {
+  private NavigableMap<Long, Double> divideByConstant(List<NodeRows> results, double denom) {
     NavigableMap<Long, Double> timeRangeMap = new TreeMap<>();
-    for (ResultSet rs : results) {
-      for (Row row : rs) {
-        long timestampSec = row.getTimestamp("ts").getTime() / 1000;
-        double val = getValue(row) / denom;
-        timeRangeMap.put(timestampSec, val);
+    for (NodeRows rows : results) {
+      for (int i = 0; i < rows.size; i++) {
+        timeRangeMap.put(rows.timestampsSec[i], rows.values[i] / denom);
       }
     }
     return timeRangeMap;
   }
 
-  private List<ResultSet> queryRunner(String metricName, Session session,
-                                      Map<String, String> tserverMap,
-                                      JsonNode params,
-                                      long start, long end) {
-    List<ResultSet> results = new ArrayList<>();
+  /**
+   * A metric being queried for the tservers, one query for each running at the same time.
+   */
+  private static class PendingQuery {
+    final String metricName;
+    final Map<String, ResultSetFuture> futures = new LinkedHashMap<>();
+
+    PendingQuery(String metricName) {
+      this.metricName = metricName;
+    }
+  }
+
+  private PendingQuery queryRunner(String metricName, CassandraConnection cc,
+                                   Map<String, String> tserverMap,
+                                   JsonNode params,
+                                   long start, long end) {
+    PendingQuery query = new PendingQuery(metricName);
+    Collection<String> tserverUUIDs;
     // Check if metric needs to be reported for only a single tserver.
     if (params.has("exported_instance")) {
       String tserverName = params.path("exported_instance").asText();
-      ResultSet rs = cassandraTserverSelectQuery(metricName,
-                                                 tserverMap.get(tserverName),
-                                                 session,
-        start, end);
-      if (rs != null && rs.iterator().hasNext()) {
-        results.add(rs);
-      }
+      String tserverUUID = tserverMap.get(tserverName);
+      tserverUUIDs = tserverUUID == null ?
+        Collections.emptyList() : Collections.singletonList(tserverUUID);
     } else {
-      // TODO: Maybe query for all tservers and split here rather than make more
-      // database calls.
-      for (Entry<String, String> entry : tserverMap.entrySet()) {
-        ResultSet rs = cassandraTserverSelectQuery(metricName, entry.getValue(),
-                                                   session, start, end);
-        if (rs != null && rs.iterator().hasNext()) {
-          results.add(rs);
-        }
+      tserverUUIDs = tserverMap.values();
+    }
+    for (String tserverUUID : tserverUUIDs) {
+      query.futures.put(tserverUUID,
+                        cassandraTserverSelectQuery(metricName, tserverUUID, cc, start, end));
+    }
+    return query;
+  }
+
+  /**
+   * Waits for the queries of the tservers.
+   *
+   * @return the rows of the tservers that have some
+   */
+  private List<NodeRows> getRows(PendingQuery query) {
+    List<NodeRows> results = new ArrayList<>();
+    for (Entry<String, ResultSetFuture> future : query.futures.entrySet()) {
+      NodeRows rows = NodeRows.read(future.getKey(), query.metricName,
+                                    future.getValue().getUninterruptibly());
+      if (rows.size > 0) {
+        results.add(rows);
       }
     }
     return results;
@@ -365,135 +611,147 @@ public class YBMetricQueryComponent {
       CassandraConnection cc = null;
 
       switch (queryKey) {
-        case "total_rpcs_per_sec":
-          cc = createCassandraConnection(universe.universeUUID);
-          if (cc.session == null) {
+        case "total_rpcs_per_sec": {
+          cc = getCassandraConnection(universe.universeUUID);
+          if (cc == null) {
             return null;
           }
+          // The queries of all the methods and tservers run at once.
+          Map<String, PendingQuery> countQueries = new LinkedHashMap<>();
           for (String method : serviceMethods) {
-            String metricName = String.format(COUNT_METRIC_STRING, method);
-            List<ResultSet> results = queryRunner(
-              metricName,
-              cc.session,
+            countQueries.put(method, queryRunner(
+              String.format(COUNT_METRIC_STRING, method),
+              cc,
               tserverMaps.nameToUUID,
               params,
               startTime,
               endTime
-            );
-            NavigableMap<Long, Double> metricsVals = calculateRate(results, Function.Sum,
-                                                                   results.size());
-            insertMetrics(metricResults, metricsVals, method);
+            ));
+          }
+          for (Entry<String, PendingQuery> countQuery : countQueries.entrySet()) {
+            List<NodeRows> results = getRows(countQuery.getValue());
+            NavigableMap<Long, Double> metricsVals = calculateRowsRate(results, Function.Sum,
+                                                                       results.size());
+            insertMetrics(metricResults, metricsVals, countQuery.getKey());
           }
           break;
-        case "tserver_ops_latency":
-          cc = createCassandraConnection(universe.universeUUID);
-          if (cc.session == null) {
+        }
+        case "tserver_ops_latency": {
+          cc = getCassandraConnection(universe.universeUUID);
+          if (cc == null) {
             return null;
           }
+          Map<String, PendingQuery> countQueries = new LinkedHashMap<>();
+          Map<String, PendingQuery> sumQueries = new LinkedHashMap<>();
           for (String method : serviceMethods) {
-            String metricCount = String.format(COUNT_METRIC_STRING, method);
-            String metricSum = String.format(SUM_METRIC_STRING, method);
-            List<ResultSet> resultCount = queryRunner(
-              metricCount,
-              cc.session,
+            countQueries.put(method, queryRunner(
+              String.format(COUNT_METRIC_STRING, method),
+              cc,
               tserverMaps.nameToUUID,
               params,
               startTime,
               endTime
-            );
-            List<ResultSet> resultSum = queryRunner(
-              metricSum,
-              cc.session,
+            ));
+            sumQueries.put(method, queryRunner(
+              String.format(SUM_METRIC_STRING, method),
+              cc,
               tserverMaps.nameToUUID,
               params,
               startTime,
               endTime
-            );
-            NavigableMap<Long, Double> metricsCount = calculateRate(resultCount, Function.Average,
-                                                                    resultCount.size());
-            NavigableMap<Long, Double> metricsSum = calculateRate(resultSum, Function.Average,
-                                                                  resultSum.size());
+            ));
+          }
+          for (String method : serviceMethods) {
+            List<NodeRows> resultCount = getRows(countQueries.get(method));
+            List<NodeRows> resultSum = getRows(sumQueries.get(method));
+            NavigableMap<Long, Double> metricsCount = calculateRowsRate(
+              resultCount, Function.Average, resultCount.size());
+            NavigableMap<Long, Double> metricsSum = calculateRowsRate(
+              resultSum, Function.Average, resultSum.size());
             TreeMap<Long, Double> metricsVals = metricDivide(metricsSum, metricsCount);
             insertMetrics(metricResults, metricsVals, method);
           }
           break;
-        case "disk_usage":
-          cc = createCassandraConnection(universe.universeUUID);
-          if (cc.session == null) {
+        }
+        case "disk_usage": {
+          cc = getCassandraConnection(universe.universeUUID);
+          if (cc == null) {
             return null;
           }
-          List<ResultSet> totalDiskRaw = queryRunner(
+          PendingQuery totalDiskQuery = queryRunner(
             TOTAL_DISK_STRING,
-            cc.session,
+            cc,
             tserverMaps.nameToUUID,
             params,
             startTime,
             endTime
           );
-          List<ResultSet> freeDiskRaw = queryRunner(
+          PendingQuery freeDiskQuery = queryRunner(
             FREE_DISK_STRING,
-            cc.session,
+            cc,
             tserverMaps.nameToUUID,
             params,
             startTime,
             endTime
           );
-          NavigableMap<Long, Double> totalDiskMetrics = convertToGb(totalDiskRaw);
-          NavigableMap<Long, Double> freeDiskMetrics = convertToGb(freeDiskRaw);
+          NavigableMap<Long, Double> totalDiskMetrics = convertToGb(getRows(totalDiskQuery));
+          NavigableMap<Long, Double> freeDiskMetrics = convertToGb(getRows(freeDiskQuery));
           insertMetrics(metricResults, totalDiskMetrics, "size");
           insertMetrics(metricResults, freeDiskMetrics, "free");
           break;
-        case "cpu_usage":
-          cc = createCassandraConnection(universe.universeUUID);
-          if (cc.session == null) {
+        }
+        case "cpu_usage": {
+          cc = getCassandraConnection(universe.universeUUID);
+          if (cc == null) {
             return null;
           }
-          List<ResultSet> userCpuRaw = queryRunner(
+          PendingQuery userCpuQuery = queryRunner(
             CPU_USAGE_USER_STRING,
-            cc.session,
+            cc,
             tserverMaps.nameToUUID,
             params,
             startTime,
             endTime
           );
-          List<ResultSet> systemCpuRaw = queryRunner(
+          PendingQuery systemCpuQuery = queryRunner(
             CPU_USAGE_SYSTEM_STRING,
-            cc.session,
+            cc,
             tserverMaps.nameToUUID,
             params,
             startTime,
             endTime
           );
-          NavigableMap<Long, Double> userCpuMetrics = divideByConstant(userCpuRaw, 0.01);
-          NavigableMap<Long, Double> systemCpuMetrics = divideByConstant(systemCpuRaw, 0.01);
+          NavigableMap<Long, Double> userCpuMetrics =
+            divideByConstant(getRows(userCpuQuery), 0.01);
+          NavigableMap<Long, Double> systemCpuMetrics =
+            divideByConstant(getRows(systemCpuQuery), 0.01);
           insertMetrics(metricResults, userCpuMetrics, "user");
           insertMetrics(metricResults, systemCpuMetrics, "system");
           break;
-        case "node_up":
-          cc = createCassandraConnection(universe.universeUUID);
-          if (cc.session == null) {
+        }
+        case "node_up": {
+          cc = getCassandraConnection(universe.universeUUID);
+          if (cc == null) {
             return null;
           }
-          List<ResultSet> results = queryRunner(
+          List<NodeRows> results = getRows(queryRunner(
             "node_up",
-            cc.session,
+            cc,
             tserverMaps.nameToUUID,
             params,
             startTime,
             endTime
-          );
+          ));
           Map<String, List<String>> nodeUpMetrics = new HashMap<>();
-          for (ResultSet rs : results) {
-            for (Row row : rs) {
-              String nodeIP = tserverMaps.uuidToIP.get(row.getString("node"));
-
-              if (null != nodeIP) {
-                long timestampSec = row.getTimestamp("ts").getTime() / 1000;
-                double val = getValue(row);
-                String valStr = String.format(DATA_ENTRY_FORMAT, timestampSec, val);
-
-                nodeUpMetrics.putIfAbsent(nodeIP, new ArrayList<>());
-                nodeUpMetrics.get(nodeIP).add(valStr);
+          for (NodeRows rows : results) {
+            String nodeIP = tserverMaps.uuidToIP.get(rows.node);
+
+            if (null != nodeIP) {
+              List<String> nodeUpVals = nodeUpMetrics.computeIfAbsent(nodeIP,
+                                                                      k -> new ArrayList<>());
+              for (int i = 0; i < rows.size; i++) {
+                nodeUpVals.add(String.format(DATA_ENTRY_FORMAT, rows.timestampsSec[i],
+                                             rows.values[i]));
               }
             }
           }
@@ -515,13 +773,10 @@ public class YBMetricQueryComponent {
             // it to be serialized as [ s1, s2 ], which also matches the json array format
           }
           break;
+        }
         default:
           LOG.warn("Query: " + queryKey + " not supported.");
       }
-      if (cc != null) {
-        if (cc.session != null) cc.session.close();
-        if (cc.cluster != null) cc.cluster.close();
-      }
       if (!metricResults.isEmpty()) {
         String returnJson = String.format(RESPONSE_FORMAT, metricResults);
         return Util.convertStringToJson(returnJson);
@@ -0,0 +1,101 @@
+// Copyright (c) YugaByte, Inc.
+
+package com.yugabyte.yw.common;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FanOutExecutorTest {
+  private CollectorRegistry promRegistry;
+  private FanOutExecutor executor;
+
+  @Before
+  public void setUp() {
+    promRegistry = new CollectorRegistry();
+    executor = new FanOutExecutor(2, 1, promRegistry);
+  }
+
+  private double getTaskCount(String result) {
+    Double count = promRegistry.getSampleValue("yb_query_executor_tasks",
+                                               new String[] {"result"}, new String[] {result});
+    return count == null ? 0 : count;
+  }
+
+  @Test
+  public void testFanOutKeepsOrder() {
+    Map<String, Callable<Integer>> tasks = new LinkedHashMap<>();
+    tasks.put("c", () -> 3);
+    tasks.put("a", () -> 1);
+    tasks.put("b", () -> 2);
+
+    FanOutExecutor.Result<String, Integer> result = executor.fanOut(tasks, 10000);
+    assertEquals(Arrays.asList("c", "a", "b"),
+                 Arrays.asList(result.getResults().keySet().toArray()));
+    assertEquals(Arrays.asList(3, 1, 2), Arrays.asList(result.getResults().values().toArray()));
+    assertTrue(result.getTimedOut().isEmpty());
+    assertTrue(result.getFailed().isEmpty());
+    assertEquals(3, getTaskCount("ok"), 0);
+  }
+
+  @Test
+  public void testFanOutReturnsPartialResults() {
+    CountDownLatch release = new CountDownLatch(1);
+    Map<String, Callable<String>> tasks = new LinkedHashMap<>();
+    tasks.put("slow", () -> {
+      release.await();
+      return "slow";
+    });
+    tasks.put("fast", () -> "fast");
+    tasks.put("broken", () -> {
+      throw new IllegalStateException("broken");
+    });
+
+    try {
+      FanOutExecutor.Result<String, String> result = executor.fanOut(tasks, 200);
+      assertEquals(Collections.singletonMap("fast", "fast"), result.getResults());
+      assertEquals(Collections.singletonList("slow"), result.getTimedOut());
+      assertEquals(1, result.getFailed().size());
+      assertEquals("broken", result.getFailed().get("broken").getMessage());
+      assertEquals(1, getTaskCount("timed_out"), 0);
+      assertEquals(1, getTaskCount("failed"), 0);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testSubmitIsRejectedWhenFull() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Callable<Boolean> blocked = () -> release.await(10, TimeUnit.SECONDS);
+    try {
+      // Two tasks take the threads and one the queue, so the fourth has no room.
+      executor.submit(blocked);
+      executor.submit(blocked);
+      executor.submit(blocked);
+      CompletableFuture<Boolean> rejected = executor.submit(blocked);
+      assertTrue(rejected.isCompletedExceptionally());
+      try {
+        rejected.join();
+      } catch (Exception e) {
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+      assertEquals(1, getTaskCount("rejected"), 0);
+    } finally {
+      release.countDown();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+// Copyright (c) YugaByte, Inc.
+
+package com.yugabyte.yw.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.yugabyte.yw.common.ApiHelper;
+import com.yugabyte.yw.common.ApiResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import play.libs.Json;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetricQueryCacheTest {
+  private static final String QUERY_RANGE_URL = "foo://bar/query_range";
+  private static final long NOW = 100000;
+
+  @Mock
+  play.Configuration mockAppConfig;
+
+  @Mock
+  ApiHelper mockApiHelper;
+
+  private MetricQueryCache cache;
+
+  // Hands the response to the reader, as ApiHelper does with the body it read.
+  private void answerWith(String url, Answer<JsonNode> answer) throws Exception {
+    when(mockApiHelper.getRequest(eq(url), anyMap(), anyMap(), any()))
+      .thenAnswer(invocation -> {
+        ApiHelper.JsonResponseReader<?> reader = invocation.getArgument(3);
+        return reader.read(answer.answer(invocation).traverse(Json.mapper()));
+      });
+  }
+
+  private void verifyFetches(String url, int times) throws Exception {
+    verify(mockApiHelper, times(times)).getRequest(eq(url), anyMap(), anyMap(), any());
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    when(mockAppConfig.getInt(anyString(), anyInt()))
+      .thenAnswer(invocation -> invocation.getArgument(1));
+    cache = new MetricQueryCache(mockAppConfig, mockApiHelper) {
+      @Override
+      long nowSecs() {
+        return NOW;
+      }
+    };
+    // Answers with one series, whose value at each point is its timestamp.
+    answerWith(QUERY_RANGE_URL, invocation -> {
+      Map<String, String> params = invocation.getArgument(2);
+      long start = Long.parseLong(params.get("start"));
+      long end = Long.parseLong(params.get("end"));
+      long step = Long.parseLong(params.get("step"));
+      ArrayNode values = Json.newArray();
+      for (long t = start; t <= end; t += step) {
+        values.add(Json.newArray().add(t).add(Long.toString(t)));
+      }
+      ObjectNode series = Json.newObject();
+      series.set("metric", Json.newObject().put("node_prefix", "yb-test"));
+      series.set("values", values);
+      ObjectNode data = Json.newObject();
+      data.put("resultType", "matrix");
+      data.set("result", Json.newArray().add(series));
+      ObjectNode response = Json.newObject();
+      response.put("status", "success");
+      response.set("data", data);
+      return response;
+    });
+  }
+
+  private static Map<String, String> rangeParams(long start, long end, long step) {
+    Map<String, String> params = new HashMap<>();
+    params.put("query", "sum(my_valid_metric)");
+    params.put("start", Long.toString(start));
+    params.put("end", Long.toString(end));
+    params.put("step", Long.toString(step));
+    return params;
+  }
+
+  private static void assertPoints(MetricQueryResponse response, long start, long end,
+                                   long step) {
+    assertEquals("success", response.status);
+    List<MetricSeries> series = response.getSeries();
+    assertEquals(1, series.size());
+    assertEquals("yb-test", series.get(0).labels.get("node_prefix"));
+    assertEquals((end - start) / step + 1, series.get(0).size());
+    long t = start;
+    for (int i = 0; i < series.get(0).size(); i++) {
+      assertEquals(t * 1000, series.get(0).timestamps[i]);
+      assertEquals(t, series.get(0).values[i], 0);
+      t += step;
+    }
+  }
+
+  @Test
+  public void testOnlyFetchesNewestChunkAgain() throws Exception {
+    // Chunks of 100 points of 10s: [95000, 99990] spans 5 of them, the last one still settling.
+    MetricQueryResponse response = cache.query(QUERY_RANGE_URL, rangeParams(95005, 99995, 10));
+    assertPoints(response, 95000, 99990, 10);
+    verifyFetches(QUERY_RANGE_URL, 5);
+
+    response = cache.query(QUERY_RANGE_URL, rangeParams(95005, 99995, 10));
+    assertPoints(response, 95000, 99990, 10);
+    ArgumentCaptor<Map> queryParam = ArgumentCaptor.forClass(Map.class);
+    verify(mockApiHelper, times(6)).getRequest(
+      eq(QUERY_RANGE_URL), anyMap(), (Map<String, String>) queryParam.capture(), any());
+    List<Map> fetched = queryParam.getAllValues();
+    Map<String, String> tail = fetched.get(fetched.size() - 1);
+    assertEquals("99000", tail.get("start"));
+    assertEquals("99990", tail.get("end"));
+  }
+
+  @Test
+  public void testOverlappingRangeReusesChunks() throws Exception {
+    cache.query(QUERY_RANGE_URL, rangeParams(95000, 98999, 10));
+    verifyFetches(QUERY_RANGE_URL, 4);
+
+    MetricQueryResponse response = cache.query(QUERY_RANGE_URL, rangeParams(96500, 97500, 10));
+    assertPoints(response, 96500, 97500, 10);
+    verifyFetches(QUERY_RANGE_URL, 4);
+  }
+
+  @Test
+  public void testStepIsPartOfKey() throws Exception {
+    cache.query(QUERY_RANGE_URL, rangeParams(90000, 90990, 10));
+    MetricQueryResponse response = cache.query(QUERY_RANGE_URL, rangeParams(90000, 90990, 30));
+    assertPoints(response, 90000, 90990, 30);
+    verifyFetches(QUERY_RANGE_URL, 2);
+  }
+
+  @Test
+  public void testErrorIsNotCached() throws Exception {
+    answerWith(QUERY_RANGE_URL, invocation -> ApiResponse.errorJSON("Prometheus is down"));
+    assertEquals("Prometheus is down",
+                 cache.query(QUERY_RANGE_URL, rangeParams(90000, 90990, 10)).error);
+    assertEquals("Prometheus is down",
+                 cache.query(QUERY_RANGE_URL, rangeParams(90000, 90990, 10)).error);
+    verifyFetches(QUERY_RANGE_URL, 2);
+  }
+
+  @Test
+  public void testInstantQueryIsPassedThrough() throws Exception {
+    Map<String, String> params = new HashMap<>();
+    params.put("query", "sum(my_valid_metric)");
+    params.put("time", "1479281737");
+    answerWith("foo://bar/query", invocation -> Json.parse(
+      "{\"status\":\"success\",\"data\":{\"resultType\":\"vector\",\"result\":[{\"metric\":\n"
+        + " {\"cpu\":\"system\"},\"value\":[1479278137,\"0.027751899056199826\"]}]}}"));
+
+    MetricQueryResponse response = cache.query("foo://bar/query", params);
+    assertEquals("vector", response.data.resultType);
+    MetricSeries series = response.getSeries().get(0);
+    assertEquals("system", series.labels.get("cpu"));
+    assertEquals(1479278137000L, series.timestamps[0]);
+    assertEquals(0.027751899056199826, series.values[0], 0);
+    verify(mockApiHelper).getRequest(eq("foo://bar/query"), anyMap(), eq(params), any());
+  }
+}
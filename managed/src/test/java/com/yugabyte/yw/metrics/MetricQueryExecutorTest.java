@@ -21,6 +21,7 @@ import java.util.Map;
 import org.hamcrest.core.*;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -28,6 +29,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -289,4 +291,35 @@ public class MetricQueryExecutorTest extends FakeDBApplication {
       AllOf.allOf(IsNull.notNullValue(), IsEqual.equalTo("date"))
     );
   }
+
+  @Test
+  public void testStreamsThroughCache() throws Exception {
+    when(mockAppConfig.getInt(anyString(), anyInt()))
+      .thenAnswer(invocation -> invocation.getArgument(1));
+    MetricQueryCache cache = new MetricQueryCache(mockAppConfig, mockApiHelper);
+    HashMap<String, String> params = new HashMap<>();
+    params.put("start", "1479281700");
+    params.put("end", "1479281710");
+    params.put("step", "10");
+    params.put("queryKey", "valid_metric");
+    MetricQueryExecutor qe = new MetricQueryExecutor(mockAppConfig, mockApiHelper, params,
+                                                     new HashMap<>(), mockYBMetricQueryComponent,
+                                                     cache);
+
+    JsonNode responseJson = Json.parse("{\"status\":\"success\",\"data\":{\"resultType\":\"matrix\",\"result\":[{\"metric\":\n" +
+                                         " {\"cpu\":\"system\"},\"values\":[[1479281700,\"1\"],[1479281710,\"2\"]]}]}}");
+    when(mockApiHelper.getRequest(anyString(), anyMap(), anyMap(), any()))
+      .thenAnswer(invocation -> {
+        ApiHelper.JsonResponseReader<?> reader = invocation.getArgument(3);
+        return reader.read(responseJson.traverse(Json.mapper()));
+      });
+
+    JsonNode result = qe.call();
+    verify(mockApiHelper, never()).getRequest(anyString(), anyMap(), anyMap());
+    JsonNode data = result.get("data");
+    assertEquals(1, data.size());
+    assertEquals("system", data.get(0).get("name").asText());
+    assertEquals(Json.parse("[1479281700000,1479281710000]"), data.get(0).get("x"));
+    assertEquals(Json.parse("[1.0,2.0]"), data.get(0).get("y"));
+  }
 }
@@ -5,8 +5,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
 import com.yugabyte.yw.common.ApiResponse;
 import com.yugabyte.yw.common.FakeDBApplication;
+import com.yugabyte.yw.common.FanOutExecutor;
 import com.yugabyte.yw.common.YWServiceException;
 import com.yugabyte.yw.models.MetricConfig;
+import io.prometheus.client.CollectorRegistry;
 import org.hamcrest.core.IsInstanceOf;
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -15,6 +17,7 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import play.libs.Json;
 
@@ -42,6 +45,9 @@ public class MetricQueryHelperTest extends FakeDBApplication {
   @Mock
   play.Configuration mockAppConfig;
 
+  @Spy
+  FanOutExecutor fanOutExecutor = new FanOutExecutor(2, 10, new CollectorRegistry());
+
   MetricConfig validMetric;
 
   @Before
@@ -50,6 +56,7 @@ public class MetricQueryHelperTest extends FakeDBApplication {
     validMetric = MetricConfig.create("valid_metric", configJson);
     validMetric.save();
     when(mockAppConfig.getString("yb.metrics.url")).thenReturn("foo://bar");
+    when(mockAppConfig.getInt(eq("yb.metrics.query_timeout_ms"), anyInt())).thenReturn(60000);
   }
 
   @Test
@@ -239,4 +246,51 @@ public class MetricQueryHelperTest extends FakeDBApplication {
         allOf(notNullValue(), equalTo(1481147648)));
     }
   }
+
+  @Test
+  public void testQueryWithMaxPoints() {
+    HashMap<String, String> params = new HashMap<>();
+    params.put("start", "1481147000");
+    params.put("end", "1481147990");
+    params.put("step", "10");
+    params.put("maxPoints", "10");
+
+    StringBuilder values = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      values.append(i == 0 ? "" : ",").append("[").append(1481147000 + i * 10).append(",\"")
+        .append(i % 3).append("\"]");
+    }
+    JsonNode responseJson = Json.parse(
+      "{\"status\":\"success\",\"data\":{\"resultType\":\"matrix\",\"result\":[{\"metric\":" +
+        "{\"node_prefix\":\"yb-test\"},\"values\":[" + values + "]}]}}");
+    ArgumentCaptor<Map> queryParam = ArgumentCaptor.forClass(Map.class);
+
+    when(mockApiHelper.getRequest(anyString(), anyMap(), anyMap())).thenReturn(responseJson);
+    JsonNode result = metricQueryHelper.query(ImmutableList.of("valid_metric"), params);
+    verify(mockApiHelper)
+      .getRequest(anyString(), anyMap(), (Map<String, String>) queryParam.capture());
+
+    assertTrue(!queryParam.getValue().containsKey("maxPoints"));
+    JsonNode data = result.get("valid_metric").get("data");
+    assertEquals(1, data.size());
+    assertEquals(10, data.get(0).get("x").size());
+    assertEquals(10, data.get(0).get("y").size());
+  }
+
+  @Test
+  public void testQueryWithInvalidMaxPoints() {
+    HashMap<String, String> params = new HashMap<>();
+    params.put("start", "1481147000");
+    params.put("end", "1481147990");
+    params.put("maxPoints", "2");
+
+    try {
+      metricQueryHelper.query(ImmutableList.of("valid_metric"), params);
+    } catch (YWServiceException re) {
+      assertEquals(BAD_REQUEST, re.getResult().status());
+      assertEquals(
+        ApiResponse.errorJSON("Invalid maxPoints provided, it should be at least 3."),
+        Json.parse(contentAsString(re.getResult())));
+    }
+  }
 }
@@ -4,6 +4,7 @@ package com.yugabyte.yw.metrics;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableMap;
 import com.yugabyte.yw.models.MetricConfig;
 import org.junit.Test;
@@ -13,11 +14,15 @@ import org.mockito.runners.MockitoJUnitRunner;
 import play.libs.Json;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.core.AllOf.allOf;
 import static org.junit.Assert.assertThat;
@@ -130,4 +135,132 @@ public class MetricQueryResponseTest {
       assertTrue(layout.yaxis.alias.values().contains(data.get(i).name));
     }
   }
+
+  @Test
+  public void testParseMatrix() throws Exception {
+    String response = "{\"status\":\"success\",\"data\":{\"resultType\":\"matrix\",\"result\":[" +
+      "{\"metric\":{\"memory\":\"cached\",\"node_prefix\":\"1-host\"},\"values\":[" +
+      "[1479281730,\"2902821546.6666665\"],[1479281732.5,\"NaN\"],[1479281734,\"+Inf\"]]}," +
+      "{\"metric\":{},\"values\":[]}]}}";
+
+    MetricQueryResponse queryResponse =
+      MetricQueryResponse.parse(Json.mapper().getFactory().createParser(response));
+    assertEquals("success", queryResponse.status);
+    assertEquals("matrix", queryResponse.data.resultType);
+    List<MetricSeries> series = queryResponse.getSeries();
+    assertEquals(2, series.size());
+    assertEquals(ImmutableMap.of("memory", "cached", "node_prefix", "1-host"),
+                 series.get(0).labels);
+    assertArrayEquals(new long[] {1479281730000L, 1479281732500L, 1479281734000L},
+                      series.get(0).timestamps);
+    assertArrayEquals(
+      new double[] {2902821546.6666665, Double.NaN, Double.POSITIVE_INFINITY},
+      series.get(0).values, 0);
+    assertEquals(0, series.get(1).size());
+
+    ArrayList<MetricGraphData> data =
+      queryResponse.getGraphData("metric", new MetricConfig.Layout());
+    assertEquals(2, data.size());
+    assertEquals("1-host", data.get(0).name);
+    assertEquals(Json.parse("[1479281730000,1479281732500,1479281734000]"), data.get(0).x);
+    assertEquals(Json.parse("[2902821546.6666665,0,\"+Inf\"]"), data.get(0).y);
+    assertEquals("metric", data.get(1).name);
+    assertEquals(0, data.get(1).x.size());
+  }
+
+  @Test
+  public void testParseMatchesBoundResponse() throws Exception {
+    JsonNode responseJson = Json.parse("{\"status\":\"success\",\"data\":{\"resultType\":\"vector\",\"result\":[{\"metric\":\n" +
+                                         " {\"cpu\":\"system\"},\"value\":[1479278137,\"0.027751899056199826\"]},{\"metric\":\n" +
+                                         " {\"cpu\":\"user\"}, \"value\":[1479278137,\"0.04329469299783263\"]}]}}");
+
+    MetricQueryResponse parsed = MetricQueryResponse.parse(responseJson.traverse(Json.mapper()));
+    MetricQueryResponse bound = Json.fromJson(responseJson, MetricQueryResponse.class);
+    assertEquals(Json.toJson(bound.getGraphData("metric", new MetricConfig.Layout())),
+                 Json.toJson(parsed.getGraphData("metric", new MetricConfig.Layout())));
+    assertEquals(bound.getValues().toString(), parsed.getValues().toString());
+    assertEquals(2, parsed.getValues().size());
+    assertEquals(0.04329469299783263, parsed.getValues().get(1).values.get(0).getRight(), 0);
+  }
+
+  @Test
+  public void testParseError() throws Exception {
+    String response = "{\"status\":\"error\",\"errorType\":\"bad_data\"," +
+      "\"error\":\"invalid parameter 'query'\"}";
+
+    MetricQueryResponse queryResponse =
+      MetricQueryResponse.parse(Json.mapper().getFactory().createParser(response));
+    assertEquals("error", queryResponse.status);
+    assertEquals("bad_data", queryResponse.errorType);
+    assertEquals("invalid parameter 'query'", queryResponse.error);
+    assertNull(queryResponse.data);
+    assertNull(queryResponse.getSeries());
+  }
+
+  private static MetricSeries series(double... values) {
+    long[] timestamps = new long[values.length];
+    for (int i = 0; i < values.length; i++) {
+      timestamps[i] = 1479281730000L + i * 10000L;
+    }
+    return new MetricSeries(Collections.singletonMap("node_prefix", "1-host"), timestamps, values);
+  }
+
+  @Test
+  public void testDownsampleKeepsSpikes() {
+    double[] values = new double[1000];
+    values[317] = 100;
+    values[641] = -50;
+    MetricSeries series = series(values);
+
+    MetricSeries sampled = series.downsample(50);
+    assertEquals(50, sampled.size());
+    assertEquals(series.timestamps[0], sampled.timestamps[0]);
+    assertEquals(series.timestamps[999], sampled.timestamps[49]);
+    boolean hasSpike = false;
+    boolean hasDip = false;
+    for (int i = 0; i < sampled.size(); i++) {
+      if (i > 0) {
+        assertTrue(sampled.timestamps[i] > sampled.timestamps[i - 1]);
+      }
+      hasSpike = hasSpike || (sampled.values[i] == 100 && sampled.timestamps[i] ==
+        series.timestamps[317]);
+      hasDip = hasDip || (sampled.values[i] == -50 && sampled.timestamps[i] ==
+        series.timestamps[641]);
+    }
+    assertTrue(hasSpike);
+    assertTrue(hasDip);
+  }
+
+  @Test
+  public void testDownsampleSmallSeries() {
+    MetricSeries series = series(1, 2, 3);
+    assertSame(series, series.downsample(3));
+    assertSame(series, series.downsample(10));
+  }
+
+  @Test
+  public void testGraphDataWithMaxPoints() {
+    MetricQueryResponse queryResponse = new MetricQueryResponse();
+    queryResponse.data = new MetricQueryResponse.MetricsData();
+    ArrayNode result = Json.newArray();
+    ArrayNode values = Json.newArray();
+    for (int i = 0; i < 500; i++) {
+      values.add(Json.newArray().add(1479281730 + i * 10).add(Integer.toString(i % 7)));
+    }
+    ObjectNode seriesNode = Json.newObject();
+    seriesNode.set("metric", Json.newObject().put("node_prefix", "1-host"));
+    seriesNode.set("values", values);
+    result.add(seriesNode);
+    queryResponse.data.result = result;
+
+    assertEquals(500, queryResponse.getGraphData("metric", new MetricConfig.Layout()).get(0).x
+      .size());
+    ArrayList<MetricGraphData> data =
+      queryResponse.getGraphData("metric", new MetricConfig.Layout(), 100);
+    assertEquals(1, data.size());
+    assertEquals(100, data.get(0).x.size());
+    assertEquals(100, data.get(0).y.size());
+    assertEquals(1479281730000L, data.get(0).x.get(0).asLong());
+    assertEquals(1479286720000L, data.get(0).x.get(99).asLong());
+  }
 }
@@ -2,8 +2,13 @@
 
 package com.yugabyte.yw.metrics;
 
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -20,6 +25,7 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.InjectMocks;
 import org.mockito.stubbing.OngoingStubbing;
+import play.inject.ApplicationLifecycle;
 import play.libs.Json;
 
 import java.util.HashMap;
@@ -29,13 +35,33 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -49,6 +75,12 @@ import static com.yugabyte.yw.metrics.YBMetricQueryComponent.Function.Average;
 @RunWith(MockitoJUnitRunner.class)
 public class YBMetricQueryComponentTest extends FakeDBApplication {
 
+  @Mock
+  play.Configuration mockAppConfig;
+
+  @Mock
+  ApplicationLifecycle mockLifecycle;
+
   @InjectMocks
   YBMetricQueryComponent ybMetricQueryComponent;
 
@@ -209,4 +241,135 @@ public class YBMetricQueryComponentTest extends FakeDBApplication {
                                                        2323253L, (400.0 / 3) * 3);
     assertEquals(expectedValues, ybMetricQueryComponent.calculateRate(allRS, Sum, 3));
   }
+
+  @Test
+  public void testRateCalculateSumOffsetTimestamps() {
+    Long timeVal = 2323283232L;
+    Long interval = 30000L;
+    // The third tserver reports its metrics 2 seconds after the others.
+    Long offset = 2000L;
+    MockResultSet mockResultSet = new MockResultSet();
+    MockResultSet mockResultSetOffset = new MockResultSet();
+    mockResultSet.times = Arrays.asList(new Date(timeVal),
+                                        new Date(timeVal - interval),
+                                        new Date(timeVal - interval * 2),
+                                        new Date(timeVal - interval * 3),
+                                        new Date(timeVal - interval * 4));
+    mockResultSetOffset.times = Arrays.asList(new Date(timeVal - offset),
+                                              new Date(timeVal - offset - interval),
+                                              new Date(timeVal - offset - interval * 2),
+                                              new Date(timeVal - offset - interval * 3),
+                                              new Date(timeVal - offset - interval * 4));
+    mockResultSet.values = Arrays.asList(16000L, 12000L, 10000L, 7000L, 5000L);
+    mockResultSetOffset.values = mockResultSet.values;
+    mockResultSet.hasNexts = Arrays.asList(true, true, true, true, true,
+                                          true, true, true, true, false);
+    mockResultSetOffset.hasNexts = mockResultSet.hasNexts;
+
+    List<ResultSet> allRS = setupCalculate(Arrays.asList(mockResultSet, mockResultSet,
+                                                         mockResultSetOffset));
+
+    // The points of the third tserver go with the points of the others just after them.
+    Map<Long, Double> expectedValues = ImmutableMap.of(2323163L, (200.0 / 3) * 3,
+                                                       2323193L, (300.0 / 3) * 3,
+                                                       2323223L, (200.0 / 3) * 3,
+                                                       2323253L, (400.0 / 3) * 3);
+    assertEquals(expectedValues, ybMetricQueryComponent.calculateRate(allRS, Sum, 3));
+  }
+
+  // A component whose connections are to mocked sessions, and those sessions.
+  private YBMetricQueryComponent componentWithSessions(List<Session> sessions) {
+    when(mockAppConfig.getInt(anyString(), anyInt()))
+      .thenAnswer(invocation -> invocation.getArgument(1));
+    YBMetricQueryComponent component = spy(ybMetricQueryComponent);
+    doAnswer(invocation -> {
+      YBMetricQueryComponent.CassandraConnection cc =
+        new YBMetricQueryComponent.CassandraConnection(
+          mockAppConfig.getInt("yb.metrics.native_max_queries_in_flight", 64));
+      cc.cluster = Mockito.mock(Cluster.class);
+      cc.session = Mockito.mock(Session.class);
+      cc.selectQuery = Mockito.mock(PreparedStatement.class);
+      when(cc.selectQuery.bind(Mockito.<Object>anyVararg()))
+        .thenReturn(Mockito.mock(BoundStatement.class));
+      sessions.add(cc.session);
+      return cc;
+    }).when(component).createCassandraConnection(any());
+    return component;
+  }
+
+  @Test
+  public void testStopHookClosesSessions() throws Exception {
+    List<Session> sessions = new ArrayList<>();
+    YBMetricQueryComponent component = componentWithSessions(sessions);
+    Set<Thread> threads = Thread.getAllStackTraces().keySet();
+    UUID universeUUID = UUID.randomUUID();
+    YBMetricQueryComponent.CassandraConnection cc =
+      component.getCassandraConnection(universeUUID);
+    assertSame(cc, component.getCassandraConnection(universeUUID));
+
+    ArgumentCaptor<Callable> stopHook = ArgumentCaptor.forClass(Callable.class);
+    verify(mockLifecycle).addStopHook(stopHook.capture());
+    ((CompletionStage<?>) stopHook.getValue().call()).toCompletableFuture().get();
+    verify(cc.session).close();
+    verify(cc.cluster).close();
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (!threads.contains(thread) && thread.getName().equals("Native-Metrics-Session-Cleaner")) {
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+      }
+    }
+
+    // A query after the stop opens a new session.
+    assertNotSame(cc, component.getCassandraConnection(universeUUID));
+    assertEquals(2, sessions.size());
+  }
+
+  @Test
+  public void testCapsQueriesInFlight() throws Exception {
+    List<Session> sessions = new ArrayList<>();
+    YBMetricQueryComponent component = componentWithSessions(sessions);
+    when(mockAppConfig.getInt(eq("yb.metrics.native_max_queries_in_flight"), anyInt()))
+      .thenReturn(2);
+    YBMetricQueryComponent.CassandraConnection cc =
+      component.getCassandraConnection(UUID.randomUUID());
+    // Each query completes when its listener is run.
+    List<Runnable> listeners = new ArrayList<>();
+    when(cc.session.executeAsync(any(BoundStatement.class))).thenAnswer(invocation -> {
+      ResultSetFuture future = Mockito.mock(ResultSetFuture.class);
+      doAnswer(listener -> {
+        synchronized (listeners) {
+          listeners.add(listener.getArgument(0));
+        }
+        return null;
+      }).when(future).addListener(any(Runnable.class), any(Executor.class));
+      return future;
+    });
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch started = new CountDownLatch(1);
+      Future<?> queries = executor.submit(() -> {
+        for (int i = 0; i < 3; i++) {
+          if (i == 2) {
+            started.countDown();
+          }
+          component.cassandraTserverSelectQuery("node_up", "tserver-" + i, cc, 0, 1);
+        }
+      });
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      // The third query waits for one of the first two to complete.
+      Thread.sleep(200);
+      assertFalse(queries.isDone());
+      verify(cc.session, times(2)).executeAsync(any(BoundStatement.class));
+
+      synchronized (listeners) {
+        listeners.get(0).run();
+      }
+      queries.get(10, TimeUnit.SECONDS);
+      verify(cc.session, times(3)).executeAsync(any(BoundStatement.class));
+    } finally {
+      executor.shutdownNow();
+      component.close();
+    }
+  }
 }